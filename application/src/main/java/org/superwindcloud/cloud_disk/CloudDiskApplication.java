@@ -2,8 +2,10 @@ package org.superwindcloud.cloud_disk;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class CloudDiskApplication {
 
   public static void main(String[] args) {
@@ -30,6 +30,8 @@ public class SecurityConfig {
                           "/index",
                           "/s/**",
                           "/api/files/browse",
+                          "/actuator/health",
+                          "/actuator/prometheus",
                           "/error")
                       .permitAll()
                       .anyRequest()
@@ -0,0 +1,64 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Diagnostics for the virtual-thread mode ({@code spring.threads.virtual.enabled=true}). A virtual
+ * thread that blocks inside {@code synchronized} or a native frame stays pinned to its carrier, and
+ * enough of them at once stall every other request, so pins longer than {@code
+ * diagnostics.pinned-threads.threshold} are logged with the frames that caused them.
+ */
+@Configuration
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadConfig {
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfig.class);
+  private static final int LOGGED_FRAMES = 8;
+
+  @Bean
+  @ConditionalOnProperty(
+      name = "diagnostics.pinned-threads.enabled",
+      havingValue = "true",
+      matchIfMissing = true)
+  RecordingStream pinnedThreadRecording(
+      @Value("${diagnostics.pinned-threads.threshold:20ms}") Duration threshold) {
+    RecordingStream stream = new RecordingStream();
+    stream.enable("jdk.VirtualThreadPinned").withThreshold(threshold).withStackTrace();
+    stream.onEvent(
+        "jdk.VirtualThreadPinned",
+        event -> {
+          String frames =
+              event.getStackTrace() == null
+                  ? "no stack trace"
+                  : event.getStackTrace().getFrames().stream()
+                      .limit(LOGGED_FRAMES)
+                      .map(VirtualThreadConfig::describe)
+                      .collect(Collectors.joining("\n\tat ", "\n\tat ", ""));
+          log.warn(
+              "Virtual thread {} pinned for {}{}",
+              event.getThread() == null ? "?" : event.getThread().getJavaName(),
+              event.getDuration(),
+              frames);
+        });
+    stream.startAsync();
+    return stream;
+  }
+
+  private static String describe(RecordedFrame frame) {
+    return frame.getMethod().getType().getName()
+        + "."
+        + frame.getMethod().getName()
+        + ":"
+        + frame.getLineNumber();
+  }
+}
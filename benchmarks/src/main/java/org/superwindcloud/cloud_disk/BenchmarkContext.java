@@ -0,0 +1,87 @@
+package org.superwindcloud.cloud_disk;
+
+import java.nio.file.Path;
+import java.util.UUID;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.superwindcloud.cloud_disk.service.DirectoryIndex;
+import org.superwindcloud.cloud_disk.service.DirectoryService;
+import org.superwindcloud.cloud_disk.service.FileUsageListener;
+import org.superwindcloud.cloud_disk.service.SearchIndex;
+import org.superwindcloud.cloud_disk.service.StorageUsageService;
+import org.superwindcloud.cloud_disk.storage.BlobRegistry;
+import org.superwindcloud.cloud_disk.storage.LocalStorageService;
+
+/**
+ * The slice of the application the database benchmarks run against: entities, repositories, local
+ * storage and the directory, search and usage services, on an in-memory H2 database in PostgreSQL
+ * mode. There is no web server, security or scheduling, and nothing needs to be running.
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@Import({
+  BlobRegistry.class,
+  LocalStorageService.class,
+  DirectoryIndex.class,
+  DirectoryService.class,
+  SearchIndex.class,
+  StorageUsageService.class,
+  FileUsageListener.class
+})
+public class BenchmarkContext {
+
+  /** Starts a context on a database of its own, created empty from the entities. */
+  public static ConfigurableApplicationContext start() {
+    return start(new String[0]);
+  }
+
+  /** Like {@link #start()}, with {@code properties} overriding the defaults. */
+  public static ConfigurableApplicationContext start(String... properties) {
+    return new SpringApplicationBuilder(BenchmarkContext.class)
+        .web(WebApplicationType.NONE)
+        .bannerMode(Banner.Mode.OFF)
+        .logStartupInfo(false)
+        .properties(
+            "spring.datasource.url=jdbc:h2:mem:benchmark-"
+                + UUID.randomUUID()
+                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+            "spring.datasource.username=sa",
+            "spring.datasource.password=",
+            "spring.jpa.hibernate.ddl-auto=create",
+            "spring.jpa.open-in-view=false",
+            "logging.level.root=WARN",
+            // Boot's embedded database shutdown hook finds the pool already closed on every stop.
+            "logging.level.org.springframework.beans.factory.support.DisposableBeanAdapter=ERROR")
+        .properties(properties)
+        .run();
+  }
+
+  /** Saves a local storage source rooted at {@code root}. */
+  public static StorageSource localSource(ApplicationContext context, Path root) {
+    StorageSource source = new StorageSource();
+    source.setName("benchmark-" + UUID.randomUUID());
+    source.setType(StorageType.LOCAL);
+    source.setConfig(root.toAbsolutePath().toString());
+    return context.getBean(StorageSourceRepository.class).save(source);
+  }
+
+  /** A path of {@code depth} segments, each {@code length} characters long. */
+  public static String path(int depth, int length, String prefix) {
+    StringBuilder path = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      if (i > 0) {
+        path.append('/');
+      }
+      String segment = prefix + "dir" + i + "-";
+      path.append(segment);
+      path.append("x".repeat(Math.max(0, length - segment.length())));
+    }
+    return path.toString();
+  }
+}
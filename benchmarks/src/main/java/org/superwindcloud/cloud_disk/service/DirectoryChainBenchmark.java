@@ -0,0 +1,69 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.superwindcloud.cloud_disk.BenchmarkContext;
+import org.superwindcloud.cloud_disk.StorageSource;
+
+/**
+ * {@link DirectoryService#ensureDirectoryChain} against the embedded database. With {@code chain =
+ * existing} every directory is already recorded and known to the index; with {@code new} each call
+ * creates a whole chain of new directories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectoryChainBenchmark {
+  @Param({"1", "4", "16"})
+  public int depth;
+
+  @Param({"existing", "new"})
+  public String chain;
+
+  private ConfigurableApplicationContext context;
+  private DirectoryService directoryService;
+  private StorageSource source;
+  private String existingPath;
+  private long created;
+
+  @Setup
+  public void setUp() throws Exception {
+    context = BenchmarkContext.start();
+    directoryService = context.getBean(DirectoryService.class);
+    source =
+        BenchmarkContext.localSource(context, Files.createTempDirectory("benchmark-directories"));
+    existingPath = BenchmarkContext.path(depth, 16, "");
+    directoryService.ensureDirectoryChain(source, existingPath);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    context.close();
+    Files.deleteIfExists(Path.of(source.getConfig()));
+  }
+
+  @Benchmark
+  public String ensureDirectoryChain() {
+    String path =
+        chain.equals("new") ? BenchmarkContext.path(depth, 16, created++ + "-") : existingPath;
+    directoryService.ensureDirectoryChain(source, path);
+    return path;
+  }
+}
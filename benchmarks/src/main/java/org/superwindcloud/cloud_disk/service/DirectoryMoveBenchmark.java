@@ -0,0 +1,110 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.superwindcloud.cloud_disk.BenchmarkContext;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+
+/**
+ * {@link DirectoryService#relocate} of a folder holding {@code rows} files, spread over subfolders
+ * of {@code FILES_PER_FOLDER}, against the embedded database. Each operation moves the folder
+ * between the root and another folder, rewriting the path of every row below it. The rows are
+ * inserted directly, with no stored objects behind them.
+ *
+ * <p>The database lives in a temporary file rather than in memory: H2 keeps a transaction's undo
+ * log in memory, which a million-row in-memory update does not fit next to the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryMoveBenchmark {
+  private static final int FILES_PER_FOLDER = 1000;
+  private static final int INSERT_BATCH = 10_000;
+
+  private static final String INSERT_FILE =
+      "insert into file_items (storage_source_id, filename, storage_path, size, content_type, "
+          + "directory_path, is_directory, created_at, updated_at) "
+          + "values (?, ?, ?, 0, 'application/octet-stream', ?, false, ?, ?)";
+
+  @Param({"10000", "100000", "1000000"})
+  public int rows;
+
+  private ConfigurableApplicationContext context;
+  private DirectoryService directoryService;
+  private Path databaseDirectory;
+  private StorageSource source;
+  private FileItem folder;
+
+  @Setup
+  public void setUp() throws Exception {
+    databaseDirectory = Files.createTempDirectory("benchmark-move-db");
+    context =
+        BenchmarkContext.start(
+            "spring.datasource.url=jdbc:h2:file:"
+                + databaseDirectory.resolve("db")
+                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE");
+    directoryService = context.getBean(DirectoryService.class);
+    JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+    source = BenchmarkContext.localSource(context, Files.createTempDirectory("benchmark-move"));
+    directoryService.ensureDirectoryChain(source, "target");
+    folder = directoryService.createDirectory(source, "moved");
+
+    OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+    List<Object[]> batch = new ArrayList<>(INSERT_BATCH);
+    for (int i = 0; i < rows; i++) {
+      String directory = "moved/d" + i / FILES_PER_FOLDER;
+      if (i % FILES_PER_FOLDER == 0) {
+        directoryService.ensureDirectoryChain(source, directory);
+      }
+      String filename = "f" + i + ".bin";
+      batch.add(new Object[] {source.getId(), filename, "objects/" + i, directory, now, now});
+      if (batch.size() == INSERT_BATCH || i == rows - 1) {
+        jdbcTemplate.batchUpdate(INSERT_FILE, batch);
+        batch.clear();
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    context.close();
+    Files.deleteIfExists(Path.of(source.getConfig()));
+    try (Stream<Path> files = Files.walk(databaseDirectory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  @Benchmark
+  public FileItem relocate() {
+    String parent = folder.getDirectoryPath().isEmpty() ? "target" : "";
+    folder = directoryService.relocate(folder, parent, folder.getFilename());
+    return folder;
+  }
+}
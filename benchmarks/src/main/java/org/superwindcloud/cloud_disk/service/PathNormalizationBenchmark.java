@@ -0,0 +1,57 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.superwindcloud.cloud_disk.BenchmarkContext;
+
+/**
+ * {@link DirectoryService#normalizeDirectory} and {@link DirectoryService#normalizeFilename}, which
+ * every upload, listing and move runs on its client-supplied path. The raw path carries the
+ * backslashes, doubled and surrounding slashes the normalization exists to clean up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathNormalizationBenchmark {
+  @Param({"1", "4", "16"})
+  public int depth;
+
+  @Param({"8", "32"})
+  public int segmentLength;
+
+  private DirectoryService directoryService;
+  private String rawPath;
+  private String filename;
+
+  @Setup
+  public void setUp() {
+    // Normalization touches neither the repository nor the index.
+    directoryService = new DirectoryService(null, null, null, null, null, null);
+    String path = BenchmarkContext.path(depth, segmentLength, "");
+    rawPath = "/" + path.replace("/", depth % 2 == 0 ? "//" : "\\") + "/";
+    filename = "x".repeat(segmentLength) + ".txt";
+  }
+
+  @Benchmark
+  public String normalizeDirectory() {
+    return directoryService.normalizeDirectory(rawPath);
+  }
+
+  @Benchmark
+  public String normalizeFilename() {
+    return directoryService.normalizeFilename(filename);
+  }
+}
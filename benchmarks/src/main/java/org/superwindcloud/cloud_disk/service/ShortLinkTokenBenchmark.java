@@ -0,0 +1,34 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Short link token generation, alone and with threads competing for the secure random source behind
+ * {@link java.util.UUID#randomUUID}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShortLinkTokenBenchmark {
+
+  @Benchmark
+  public String newToken() {
+    return ShortLinkService.newToken();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public String newTokenContended() {
+    return ShortLinkService.newToken();
+  }
+}
@@ -0,0 +1,148 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.unit.DataSize;
+import org.superwindcloud.cloud_disk.BenchmarkContext;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+
+/**
+ * {@link LocalStorageService#store} and {@link LocalStorageService#load} on a temporary directory,
+ * with rows written to the embedded database. One operation moves one file of {@code size} bytes,
+ * so throughput in bytes is the size divided by the reported time.
+ *
+ * <p>A {@code unique} store hashes and keeps new content, whose object is removed again after each
+ * call; a {@code duplicate} store finds the content already held and drops the copy it wrote.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalStorageBenchmark {
+  private static final int READ_BUFFER = 64 * 1024;
+
+  @State(Scope.Benchmark)
+  public static class Storage {
+    @Param({"4KB", "1MB", "16MB"})
+    public String size;
+
+    ConfigurableApplicationContext context;
+    LocalStorageService storageService;
+    StorageSource source;
+    Path root;
+    byte[] content;
+
+    @Setup
+    public void setUp() throws IOException {
+      context = BenchmarkContext.start();
+      storageService = context.getBean(LocalStorageService.class);
+      root = Files.createTempDirectory("benchmark-storage");
+      source = BenchmarkContext.localSource(context, root);
+      content = new byte[Math.toIntExact(DataSize.parse(size).toBytes())];
+      new Random(42).nextBytes(content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      context.close();
+      try (Stream<Path> paths = Files.walk(root)) {
+        for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+          Files.deleteIfExists(path);
+        }
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Store {
+    @Param({"unique", "duplicate"})
+    public String content;
+
+    private long stored;
+    private FileItem item;
+
+    /** Gives unique stores content no earlier call had, by stamping a counter into it. */
+    @Setup(Level.Invocation)
+    public void prepare(Storage storage) {
+      if (content.equals("unique")) {
+        ByteBuffer.wrap(storage.content).putLong(0, ++stored);
+      }
+    }
+
+    @TearDown(Level.Invocation)
+    public void release(Storage storage) {
+      if (item != null && content.equals("unique")) {
+        storage.storageService.delete(storage.source, item);
+      }
+      item = null;
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Load {
+    FileItem item;
+
+    @Setup
+    public void setUp(Storage storage) {
+      item =
+          storage.storageService.store(
+              storage.source,
+              "",
+              "load.bin",
+              "application/octet-stream",
+              storage.content.length,
+              new ByteArrayInputStream(storage.content));
+    }
+  }
+
+  @Benchmark
+  public FileItem store(Storage storage, Store store) {
+    store.item =
+        storage.storageService.store(
+            storage.source,
+            "benchmark",
+            "file.bin",
+            "application/octet-stream",
+            storage.content.length,
+            new ByteArrayInputStream(storage.content));
+    return store.item;
+  }
+
+  @Benchmark
+  public long load(Storage storage, Load load, Blackhole blackhole) throws IOException {
+    byte[] buffer = new byte[READ_BUFFER];
+    long total = 0;
+    try (InputStream in = storage.storageService.load(storage.source, load.item)) {
+      for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+        blackhole.consume(buffer);
+        total += read;
+      }
+    }
+    return total;
+  }
+}
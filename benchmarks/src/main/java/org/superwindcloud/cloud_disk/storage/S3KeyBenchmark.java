@@ -0,0 +1,53 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.superwindcloud.cloud_disk.BenchmarkContext;
+
+/**
+ * Object key construction in {@link S3StorageService}, which normalizes the base path, the
+ * directory and their joins again on every store, copy and chunked upload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S3KeyBenchmark {
+  @Param({"1", "4", "16"})
+  public int depth;
+
+  @Param({"", "tenants/acme/files"})
+  public String basePath;
+
+  private String directory;
+  private String rawDirectory;
+
+  @Setup
+  public void setUp() {
+    directory = BenchmarkContext.path(depth, 16, "");
+    rawDirectory = "/" + directory.replace("/", "//") + "/";
+  }
+
+  @Benchmark
+  public String normalizePath() {
+    return S3StorageService.normalizePath(rawDirectory);
+  }
+
+  @Benchmark
+  public String objectKey() {
+    return S3StorageService.objectKey(
+        basePath, directory, "3f1c9a52-7d0e-4b8e-9a61-0c2f5d7e8b94-report.pdf");
+  }
+}
@@ -0,0 +1,57 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+/**
+ * A folder move whose subtree is still being rewritten. The folder's own row moves at once and this
+ * row is written in the same transaction; descendants then follow in batches of ids, each committed
+ * together with {@code afterId}, so a move that stops part way resumes where it stopped. The row is
+ * deleted with the last batch.
+ */
+@Entity
+@Table(
+    name = "directory_moves",
+    indexes = {
+      @Index(name = "idx_directory_move_source", columnList = "storage_source_id"),
+      @Index(name = "idx_directory_move_updated_at", columnList = "updated_at")
+    })
+@Data
+public class DirectoryMove {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @ManyToOne
+  @JoinColumn(name = "storage_source_id", nullable = false)
+  private StorageSource storageSource;
+
+  /** Full path of the folder before the move. */
+  @Column(name = "old_path", nullable = false)
+  private String oldPath;
+
+  @Column(name = "new_path", nullable = false)
+  private String newPath;
+
+  /** Highest descendant id rewritten so far; descendants are taken in id order. */
+  @Column(name = "after_id", nullable = false)
+  private Long afterId = 0L;
+
+  /** When the move last advanced; a move idle for long enough is taken over by another run. */
+  @Column(name = "updated_at", nullable = false)
+  private Instant updatedAt;
+
+  @CreationTimestamp
+  @Column(name = "created_at", nullable = false, updatable = false)
+  private Instant createdAt;
+}
@@ -9,17 +9,35 @@ import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
 import java.time.Instant;
 import lombok.Data;
 import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.SQLRestriction;
+import org.hibernate.annotations.UpdateTimestamp;
 
 @Entity
 @Table(
     name = "file_items",
     indexes = {
       @Index(name = "idx_file_storage_path", columnList = "storage_source_id,storage_path"),
-      @Index(name = "idx_file_created_at", columnList = "created_at")
-    })
+      @Index(name = "idx_file_created_at", columnList = "created_at"),
+      @Index(name = "idx_file_source_id", columnList = "storage_source_id,id"),
+      @Index(
+          name = "idx_file_directory_name",
+          columnList = "storage_source_id,directory_path,filename"),
+      @Index(
+          name = "idx_file_browse",
+          columnList = "storage_source_id,directory_path,is_directory,created_at,id"),
+      @Index(name = "idx_file_content_hash", columnList = "storage_source_id,content_hash"),
+      @Index(name = "idx_file_deleted_at", columnList = "deleted_at"),
+      @Index(name = "idx_file_updated_at", columnList = "storage_source_id,updated_at,id")
+    },
+    uniqueConstraints =
+        @UniqueConstraint(
+            name = "uk_file_dir_key",
+            columnNames = {"storage_source_id", "dir_key"}))
+@SQLRestriction("deleted_at is null")
 @Data
 public class FileItem {
   @Id
@@ -42,13 +60,67 @@ public class FileItem {
   @Column(name = "content_type")
   private String contentType;
 
+  /** Hex SHA-256 of the content; null for directories and for files stored before hashing. */
+  @Column(name = "content_hash", length = 64)
+  private String contentHash;
+
   @Column(name = "directory_path", nullable = false)
   private String directoryPath = "";
 
   @Column(name = "is_directory", nullable = false, columnDefinition = "boolean default false")
   private boolean directory = false;
 
+  /**
+   * For a directory, the total size of the live files beneath it at any depth; 0 for files. Kept up
+   * to date by relative updates alongside every change, never written through the entity.
+   */
+  @Column(
+      name = "total_size",
+      nullable = false,
+      insertable = false,
+      updatable = false,
+      columnDefinition = "bigint default 0")
+  private Long totalSize;
+
+  /** For a directory, the number of live files beneath it at any depth; 0 for files. */
+  @Column(
+      name = "file_count",
+      nullable = false,
+      insertable = false,
+      updatable = false,
+      columnDefinition = "bigint default 0")
+  private Long fileCount;
+
+  /**
+   * Full path of a live directory, unique per source, so concurrent creations of one directory
+   * collapse into a single row. Null for files and deleted directories.
+   */
+  @Column(name = "dir_key")
+  private String dirKey;
+
   @CreationTimestamp
   @Column(name = "created_at", nullable = false, updatable = false)
   private Instant createdAt;
+
+  /**
+   * Last time the row was written, including renames, moves and deletion; null for rows older than
+   * the column. Bulk updates and JDBC inserts set it explicitly.
+   */
+  @UpdateTimestamp
+  @Column(name = "updated_at")
+  private Instant updatedAt;
+
+  /**
+   * Start of the last storage scan that found the file's object. Written by the scan alone, so
+   * saving an entity read before the scan cannot reset it.
+   */
+  @Column(name = "verified_at", insertable = false, updatable = false)
+  private Instant verifiedAt;
+
+  /**
+   * Set when the item is deleted. Tombstoned rows are invisible to queries and are purged by the
+   * background collector.
+   */
+  @Column(name = "deleted_at")
+  private Instant deletedAt;
 }
@@ -0,0 +1,53 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+/**
+ * A stored object that no file references any more, queued for removal from its backend. Rows are
+ * written in the transaction that drops the last reference and deleted once the backend confirms
+ * the removal, so a crash in between only means the removal is retried. Each attempt pushes {@code
+ * nextAttemptAt} further out; a row that used up its attempts stays in the table, parked, for an
+ * operator to look at.
+ */
+@Entity
+@Table(
+    name = "pending_deletions",
+    indexes = {
+      @Index(name = "idx_pending_deletion_attempts", columnList = "attempts,next_attempt_at,id"),
+      @Index(name = "idx_pending_deletion_path", columnList = "storage_source_id,storage_path")
+    })
+@Data
+public class PendingDeletion {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @ManyToOne
+  @JoinColumn(name = "storage_source_id", nullable = false)
+  private StorageSource storageSource;
+
+  @Column(name = "storage_path", nullable = false)
+  private String storagePath;
+
+  @Column(nullable = false)
+  private Integer attempts = 0;
+
+  /** When the removal may be tried again; {@code null} until the first attempt. */
+  @Column(name = "next_attempt_at")
+  private Instant nextAttemptAt;
+
+  @CreationTimestamp
+  @Column(name = "created_at", nullable = false, updatable = false)
+  private Instant createdAt;
+}
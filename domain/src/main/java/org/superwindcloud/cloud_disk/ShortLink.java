@@ -5,6 +5,7 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
@@ -13,7 +14,9 @@ import lombok.Data;
 import org.hibernate.annotations.CreationTimestamp;
 
 @Entity
-@Table(name = "short_links")
+@Table(
+    name = "short_links",
+    indexes = {@Index(name = "idx_short_link_expires_at", columnList = "expires_at")})
 @Data
 public class ShortLink {
   @Id
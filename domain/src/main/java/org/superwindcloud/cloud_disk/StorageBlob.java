@@ -0,0 +1,52 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import java.time.Instant;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+/**
+ * One physical object shared by every {@link FileItem} in a source with the same content hash. The
+ * object is removed from storage when the last referencing file is deleted.
+ */
+@Entity
+@Table(
+    name = "storage_blobs",
+    uniqueConstraints =
+        @UniqueConstraint(
+            name = "uk_storage_blob_hash",
+            columnNames = {"storage_source_id", "content_hash"}))
+@Data
+public class StorageBlob {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @ManyToOne
+  @JoinColumn(name = "storage_source_id", nullable = false)
+  private StorageSource storageSource;
+
+  @Column(name = "content_hash", nullable = false, length = 64)
+  private String contentHash;
+
+  @Column(nullable = false)
+  private Long size;
+
+  @Column(name = "storage_path", nullable = false)
+  private String storagePath;
+
+  @Column(name = "ref_count", nullable = false)
+  private Long refCount;
+
+  @CreationTimestamp
+  @Column(name = "created_at", nullable = false, updatable = false)
+  private Instant createdAt;
+}
@@ -0,0 +1,105 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+/**
+ * A reconciliation of a storage source's objects with its files. The scan first lists every object
+ * in storage path order, matching each against the files; then it reads the files that no object
+ * matched. Each step records its position with the page it processed, so a scan interrupted by a
+ * crash or a cancel resumes where it left off. A node holds a scan only while its lease lasts.
+ */
+@Entity
+@Table(
+    name = "storage_scans",
+    indexes = {
+      @Index(name = "idx_storage_scan_status", columnList = "status,lease_expires_at"),
+      @Index(name = "idx_storage_scan_source", columnList = "storage_source_id,status")
+    })
+@Data
+public class StorageScan {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @ManyToOne
+  @JoinColumn(name = "storage_source_id", nullable = false)
+  private StorageSource storageSource;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, length = 16)
+  private StorageScanMode mode;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, length = 16)
+  private StorageScanStatus status = StorageScanStatus.PENDING;
+
+  /**
+   * When the scan first ran. Files created later are not expected to have been listed, and files
+   * the scan matched are stamped with this instant.
+   */
+  @Column(name = "started_at")
+  private Instant startedAt;
+
+  /** Storage path of the last object listed; null until the first page is done. */
+  @Column(name = "object_cursor", length = 1024)
+  private String objectCursor;
+
+  /** Set once every object has been listed, when the scan moves on to the files. */
+  @Column(name = "objects_listed_at")
+  private Instant objectsListedAt;
+
+  /** Id of the last file checked for a missing object. */
+  @Column(name = "file_cursor", nullable = false)
+  private Long fileCursor = 0L;
+
+  @Column(name = "objects_scanned", nullable = false)
+  private Long objectsScanned = 0L;
+
+  @Column(name = "bytes_scanned", nullable = false)
+  private Long bytesScanned = 0L;
+
+  @Column(name = "files_imported", nullable = false)
+  private Long filesImported = 0L;
+
+  @Column(name = "files_updated", nullable = false)
+  private Long filesUpdated = 0L;
+
+  @Column(name = "untracked_objects", nullable = false)
+  private Long untrackedObjects = 0L;
+
+  @Column(name = "missing_objects", nullable = false)
+  private Long missingObjects = 0L;
+
+  @Column(name = "size_mismatches", nullable = false)
+  private Long sizeMismatches = 0L;
+
+  @Column(length = 2000)
+  private String error;
+
+  /** Random token of the claim currently running the scan. */
+  @Column(name = "lease_owner", length = 36)
+  private String leaseOwner;
+
+  @Column(name = "lease_expires_at")
+  private Instant leaseExpiresAt;
+
+  @CreationTimestamp
+  @Column(name = "created_at", nullable = false, updatable = false)
+  private Instant createdAt;
+
+  @Column(name = "finished_at")
+  private Instant finishedAt;
+}
@@ -0,0 +1,53 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Data;
+
+/**
+ * One disagreement between a storage source and its files found by a {@link StorageScan}. Findings
+ * are written in batches by JDBC and only kept for the latest completed scan of a source.
+ */
+@Entity
+@Table(
+    name = "storage_scan_findings",
+    indexes = @Index(name = "idx_scan_finding_kind", columnList = "scan_id,kind,id"))
+@Data
+public class StorageScanFinding {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Column(name = "scan_id", nullable = false)
+  private Long scanId;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, length = 24)
+  private StorageScanFindingKind kind;
+
+  @Column(name = "storage_path", nullable = false, length = 1024)
+  private String storagePath;
+
+  /** The file involved; null for untracked objects. */
+  @Column(name = "file_id")
+  private Long fileId;
+
+  /** Size of the object, or of the file when the object is missing. */
+  @Column(nullable = false)
+  private Long size;
+
+  /** Why an untracked object was not imported, or the file's size on a mismatch. */
+  @Column(length = 500)
+  private String detail;
+
+  @Column(name = "detected_at", nullable = false)
+  private Instant detectedAt;
+}
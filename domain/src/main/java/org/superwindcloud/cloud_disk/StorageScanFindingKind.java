@@ -0,0 +1,11 @@
+package org.superwindcloud.cloud_disk;
+
+/** Ways a storage source and its files can disagree, as recorded by a {@link StorageScan}. */
+public enum StorageScanFindingKind {
+  /** An object no file points at, which the scan did not or could not import. */
+  UNTRACKED_OBJECT,
+  /** A live file whose object the listing did not return. */
+  MISSING_OBJECT,
+  /** A file whose size differs from that of its object. */
+  SIZE_MISMATCH
+}
@@ -0,0 +1,11 @@
+package org.superwindcloud.cloud_disk;
+
+/**
+ * What a {@link StorageScan} does about objects without files: {@link #REPORT} only records them,
+ * {@link #IMPORT} adds a file for each one and brings the size of unhashed files in line with their
+ * objects.
+ */
+public enum StorageScanMode {
+  REPORT,
+  IMPORT
+}
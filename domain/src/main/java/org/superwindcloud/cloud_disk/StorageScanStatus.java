@@ -0,0 +1,10 @@
+package org.superwindcloud.cloud_disk;
+
+/** Lifecycle of a {@link StorageScan}. */
+public enum StorageScanStatus {
+  PENDING,
+  RUNNING,
+  COMPLETED,
+  FAILED,
+  CANCELLED
+}
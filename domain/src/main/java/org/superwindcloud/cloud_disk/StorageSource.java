@@ -2,15 +2,18 @@ package org.superwindcloud.cloud_disk;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import java.time.Instant;
 import lombok.Data;
 
 @Entity
+@EntityListeners(StorageSourceListener.class)
 @Table(name = "storage_sources")
 @Data
 public class StorageSource {
@@ -31,4 +34,44 @@ public class StorageSource {
    */
   @Column(nullable = false, length = 2000)
   private String config;
+
+  /** Most bytes the source's files may add up to; null for no limit. */
+  @Column(name = "quota_bytes")
+  private Long quotaBytes;
+
+  /**
+   * Total size of the source's live files. Like {@link #fileCount} it is kept up to date by
+   * relative updates as files come and go, never written through the entity.
+   */
+  @Column(
+      name = "used_bytes",
+      nullable = false,
+      insertable = false,
+      updatable = false,
+      columnDefinition = "bigint default 0")
+  private Long usedBytes;
+
+  @Column(
+      name = "file_count",
+      nullable = false,
+      insertable = false,
+      updatable = false,
+      columnDefinition = "bigint default 0")
+  private Long fileCount;
+
+  /** Last time the usage counters were recomputed from the files; null if they never were. */
+  @Column(name = "usage_repaired_at", insertable = false, updatable = false)
+  private Instant usageRepairedAt;
+
+  /**
+   * Bumped after a write committed too late for search indexes to have caught it by following
+   * {@code updated_at}; each node rebuilds its index of the source when it sees a new value.
+   */
+  @Column(
+      name = "search_epoch",
+      nullable = false,
+      insertable = false,
+      updatable = false,
+      columnDefinition = "bigint default 0")
+  private Long searchEpoch;
 }
@@ -0,0 +1,4 @@
+package org.superwindcloud.cloud_disk;
+
+/** Published when a storage source is updated or removed. */
+public record StorageSourceChangedEvent(Long sourceId) {}
@@ -0,0 +1,20 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.context.ApplicationEventPublisher;
+
+/** Turns persisted changes to a {@link StorageSource} into {@link StorageSourceChangedEvent}s. */
+public class StorageSourceListener {
+  private final ApplicationEventPublisher eventPublisher;
+
+  public StorageSourceListener(ApplicationEventPublisher eventPublisher) {
+    this.eventPublisher = eventPublisher;
+  }
+
+  @PostUpdate
+  @PostRemove
+  void changed(StorageSource source) {
+    eventPublisher.publishEvent(new StorageSourceChangedEvent(source.getId()));
+  }
+}
@@ -0,0 +1,62 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import java.time.Instant;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+/**
+ * A downscaled rendering of an image, stored as a sidecar object on the same source as the image.
+ * Thumbnails belong to content rather than to a file: {@code contentKey} is the image's content
+ * hash, or {@code path:<storage path>} for files stored before hashing, so copies of one image
+ * share their thumbnails. The sidecar object holds its own blob reference under {@code
+ * thumbnailHash}.
+ */
+@Entity
+@Table(
+    name = "thumbnails",
+    uniqueConstraints =
+        @UniqueConstraint(
+            name = "uk_thumbnail_content",
+            columnNames = {"storage_source_id", "content_key", "dimension"}))
+@Data
+public class Thumbnail {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @ManyToOne
+  @JoinColumn(name = "storage_source_id", nullable = false)
+  private StorageSource storageSource;
+
+  @Column(name = "content_key", nullable = false, length = 300)
+  private String contentKey;
+
+  /** Length of the longer edge in pixels. */
+  @Column(nullable = false)
+  private Integer dimension;
+
+  @Column(name = "storage_path", nullable = false)
+  private String storagePath;
+
+  @Column(name = "thumbnail_hash", nullable = false, length = 64)
+  private String thumbnailHash;
+
+  @Column(nullable = false)
+  private Long size;
+
+  @Column(name = "content_type", nullable = false)
+  private String contentType;
+
+  @CreationTimestamp
+  @Column(name = "created_at", nullable = false, updatable = false)
+  private Instant createdAt;
+}
@@ -0,0 +1,71 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Data;
+
+/**
+ * One file or folder of a {@link TransferJob} and where it goes. The source item is referenced by
+ * id only, since a move tombstones it while the job still runs. A run works on an item only while
+ * it holds the item's claim, so two runs of one job never transfer the same item.
+ */
+@Entity
+@Table(
+    name = "transfer_items",
+    indexes =
+        @Index(
+            name = "idx_transfer_item_job",
+            columnList = "transfer_job_id,status,is_directory,id"))
+@Data
+public class TransferItem {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @ManyToOne
+  @JoinColumn(name = "transfer_job_id", nullable = false)
+  private TransferJob job;
+
+  @Column(name = "file_id", nullable = false)
+  private Long fileId;
+
+  @Column(name = "is_directory", nullable = false)
+  private boolean directory;
+
+  /** Directory of the target source the item is placed in. */
+  @Column(name = "directory_path", nullable = false)
+  private String directoryPath = "";
+
+  @Column(nullable = false)
+  private String filename;
+
+  @Column(nullable = false)
+  private Long size;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, length = 16)
+  private TransferStatus status = TransferStatus.PENDING;
+
+  /** Random token of the run that claimed the item, see {@link TransferJob#getLeaseOwner}. */
+  @Column(name = "claim_owner", length = 36)
+  private String claimOwner;
+
+  @Column(name = "claim_expires_at")
+  private Instant claimExpiresAt;
+
+  @Column(name = "target_file_id")
+  private Long targetFileId;
+
+  @Column(length = 1000)
+  private String error;
+}
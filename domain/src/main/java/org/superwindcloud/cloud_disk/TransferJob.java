@@ -0,0 +1,70 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+/**
+ * A background copy or move of files and folders into a directory of a storage source, possibly
+ * another one. The work is planned up front as one {@link TransferItem} per file and folder, so a
+ * job interrupted by a crash or a cancel resumes with the items still pending. A node holds a job
+ * only while its lease lasts.
+ */
+@Entity
+@Table(
+    name = "transfer_jobs",
+    indexes = @Index(name = "idx_transfer_job_status", columnList = "status,lease_expires_at"))
+@Data
+public class TransferJob {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, length = 16)
+  private TransferMode mode;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, length = 16)
+  private TransferStatus status = TransferStatus.PENDING;
+
+  @ManyToOne
+  @JoinColumn(name = "source_id", nullable = false)
+  private StorageSource source;
+
+  @ManyToOne
+  @JoinColumn(name = "target_id", nullable = false)
+  private StorageSource target;
+
+  /** Directory of the target source that receives the transferred items. */
+  @Column(name = "target_path", nullable = false)
+  private String targetPath = "";
+
+  @Column(length = 2000)
+  private String error;
+
+  /** Random token of the claim currently running the job. */
+  @Column(name = "lease_owner", length = 36)
+  private String leaseOwner;
+
+  @Column(name = "lease_expires_at")
+  private Instant leaseExpiresAt;
+
+  @CreationTimestamp
+  @Column(name = "created_at", nullable = false, updatable = false)
+  private Instant createdAt;
+
+  @Column(name = "finished_at")
+  private Instant finishedAt;
+}
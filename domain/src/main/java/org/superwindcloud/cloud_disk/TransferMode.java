@@ -0,0 +1,7 @@
+package org.superwindcloud.cloud_disk;
+
+/** Whether a transfer keeps the originals ({@link #COPY}) or removes them once copied. */
+public enum TransferMode {
+  COPY,
+  MOVE
+}
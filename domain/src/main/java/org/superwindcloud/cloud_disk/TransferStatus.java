@@ -0,0 +1,13 @@
+package org.superwindcloud.cloud_disk;
+
+/**
+ * Lifecycle of a {@link TransferJob} and of each of its {@link TransferItem}s. Items are never
+ * {@link #CANCELLED}; a {@link #RUNNING} item is in flight in the run that claimed it.
+ */
+public enum TransferStatus {
+  PENDING,
+  RUNNING,
+  COMPLETED,
+  FAILED,
+  CANCELLED
+}
@@ -0,0 +1,46 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import java.time.Instant;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+@Entity
+@Table(
+    name = "upload_chunks",
+    uniqueConstraints =
+        @UniqueConstraint(
+            name = "uk_upload_chunk_index",
+            columnNames = {"upload_session_id", "chunk_index"}))
+@Data
+public class UploadChunk {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @ManyToOne
+  @JoinColumn(name = "upload_session_id", nullable = false)
+  private UploadSession session;
+
+  @Column(name = "chunk_index", nullable = false)
+  private Integer chunkIndex;
+
+  @Column(nullable = false)
+  private Long size;
+
+  /** Backend tag for the stored chunk, such as the ETag of an S3 part. */
+  @Column(length = 128)
+  private String etag;
+
+  @CreationTimestamp
+  @Column(name = "created_at", nullable = false, updatable = false)
+  private Instant createdAt;
+}
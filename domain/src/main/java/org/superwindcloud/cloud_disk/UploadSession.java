@@ -0,0 +1,89 @@
+package org.superwindcloud.cloud_disk;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import java.time.Instant;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+/** A resumable upload whose content arrives as independently uploaded, fixed-size chunks. */
+@Entity
+@Table(
+    name = "upload_sessions",
+    indexes = {@Index(name = "idx_upload_session_expires_at", columnList = "expires_at")})
+@Data
+public class UploadSession {
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Column(nullable = false, unique = true, length = 64)
+  private String token;
+
+  @ManyToOne
+  @JoinColumn(name = "storage_source_id", nullable = false)
+  private StorageSource storageSource;
+
+  @Column(nullable = false)
+  private String filename;
+
+  @Column(name = "directory_path", nullable = false)
+  private String directoryPath = "";
+
+  @Column(name = "content_type")
+  private String contentType;
+
+  @Column(name = "total_size", nullable = false)
+  private Long totalSize;
+
+  @Column(name = "chunk_size", nullable = false)
+  private Long chunkSize;
+
+  @Column(name = "chunk_count", nullable = false)
+  private Integer chunkCount;
+
+  /** Where the backend assembles the content: an object key or a staging file path. */
+  @Column(name = "storage_path", nullable = false)
+  private String storagePath;
+
+  /** Backend handle for the in-progress upload, such as an S3 multipart upload id. */
+  @Column(name = "backend_upload_id")
+  private String backendUploadId;
+
+  @Column(name = "expires_at", nullable = false)
+  private Instant expiresAt;
+
+  /**
+   * Set while one request assembles the chunks, so a concurrent completion is turned away. No chunk
+   * write starts while it is set.
+   */
+  @Column(name = "completing_at")
+  private Instant completingAt;
+
+  /**
+   * Chunk writes in progress. Completion only starts when there are none, so no chunk bytes land
+   * after the content was assembled. Maintained by relative updates, never through the entity.
+   */
+  @Column(
+      name = "active_writes",
+      nullable = false,
+      insertable = false,
+      updatable = false,
+      columnDefinition = "integer default 0")
+  private Integer activeWrites;
+
+  /** When the most recent chunk write started; lets completion outlive writers that died. */
+  @Column(name = "write_started_at", insertable = false, updatable = false)
+  private Instant writeStartedAt;
+
+  @CreationTimestamp
+  @Column(name = "created_at", nullable = false, updatable = false)
+  private Instant createdAt;
+}
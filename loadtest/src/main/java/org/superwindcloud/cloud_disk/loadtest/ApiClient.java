@@ -0,0 +1,133 @@
+package org.superwindcloud.cloud_disk.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * The application's HTTP API as the load test calls it. Every call checks the status it expects and
+ * fails with the status and the start of the body otherwise.
+ */
+class ApiClient {
+  private static final Duration TIMEOUT = Duration.ofMinutes(5);
+  private static final int ERROR_BODY_CHARS = 200;
+  private static final int READ_CHUNK = 64 * 1024;
+
+  private final HttpClient client;
+  private final String baseUrl;
+  private final ObjectMapper objectMapper;
+
+  ApiClient(int port, ObjectMapper objectMapper) {
+    this.client =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    this.baseUrl = "http://127.0.0.1:" + port;
+    this.objectMapper = objectMapper;
+  }
+
+  /** Sends a request and parses the JSON it answers with. */
+  JsonNode json(String method, String path, BodyPublisher body, String contentType)
+      throws IOException, InterruptedException {
+    return objectMapper.readTree(text(method, path, body, contentType, 200));
+  }
+
+  JsonNode postJson(String path, Map<String, ?> body) throws IOException, InterruptedException {
+    return json(
+        "POST",
+        path,
+        BodyPublishers.ofString(objectMapper.writeValueAsString(body)),
+        "application/json");
+  }
+
+  /**
+   * Sends a request and returns the body as text, failing unless the status is {@code expected}.
+   */
+  String text(String method, String path, BodyPublisher body, String contentType, int expected)
+      throws IOException, InterruptedException {
+    HttpResponse<String> response =
+        client.send(request(method, path, body, contentType), BodyHandlers.ofString());
+    check(response.statusCode(), expected, response.body());
+    return response.body();
+  }
+
+  /** GETs {@code path} and discards the body, returning how many bytes it had. */
+  long drain(String path, int expected) throws IOException, InterruptedException {
+    return drain(path, expected, 0);
+  }
+
+  /**
+   * Like {@link #drain(String, int)}, but reads no faster than {@code bytesPerSecond}, as a slow
+   * client would, so the server's writes block on a full socket; 0 reads as fast as it can.
+   */
+  long drain(String path, int expected, long bytesPerSecond)
+      throws IOException, InterruptedException {
+    HttpResponse<InputStream> response =
+        client.send(request("GET", path, null, null), BodyHandlers.ofInputStream());
+    try (InputStream body = response.body()) {
+      if (response.statusCode() != expected) {
+        check(
+            response.statusCode(),
+            expected,
+            new String(body.readNBytes(ERROR_BODY_CHARS), StandardCharsets.UTF_8));
+      }
+      if (bytesPerSecond <= 0) {
+        return body.transferTo(OutputStream.nullOutputStream());
+      }
+      byte[] buffer = new byte[READ_CHUNK];
+      long received = 0;
+      long started = System.nanoTime();
+      for (int read; (read = body.read(buffer)) >= 0; ) {
+        received += read;
+        long ahead = started + received * 1_000_000_000L / bytesPerSecond - System.nanoTime();
+        if (ahead > 0) {
+          Thread.sleep(Duration.ofNanos(ahead));
+        }
+      }
+      return received;
+    }
+  }
+
+  ObjectMapper objectMapper() {
+    return objectMapper;
+  }
+
+  static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private HttpRequest request(String method, String path, BodyPublisher body, String contentType) {
+    HttpRequest.Builder request =
+        HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(TIMEOUT);
+    if (contentType != null) {
+      request.header("Content-Type", contentType);
+    }
+    return request.method(method, body == null ? BodyPublishers.noBody() : body).build();
+  }
+
+  private static void check(int status, int expected, String body) {
+    if (status != expected) {
+      String excerpt =
+          body.length() > ERROR_BODY_CHARS ? body.substring(0, ERROR_BODY_CHARS) : body;
+      throw new IllegalStateException(
+          "HTTP " + status + " instead of " + expected + ": " + excerpt);
+    }
+  }
+}
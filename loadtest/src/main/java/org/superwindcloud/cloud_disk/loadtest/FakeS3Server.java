@@ -0,0 +1,458 @@
+package org.superwindcloud.cloud_disk.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.util.HtmlUtils;
+
+/**
+ * The part of the S3 API the S3 backend uses, served from memory on loopback: path-style object
+ * puts, ranged gets, heads, copies and deletes, multi-object deletes, ListObjectsV2 and multipart
+ * uploads. Buckets exist as soon as they are named. Signatures are not checked, so any credentials
+ * work.
+ */
+public class FakeS3Server implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(FakeS3Server.class);
+  private static final String NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+  private static final DateTimeFormatter XML_DATE =
+      DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+  private static final DateTimeFormatter HEADER_DATE =
+      DateTimeFormatter.ofPattern("EEE, dd MMM uuuu HH:mm:ss 'GMT'", Locale.US)
+          .withZone(ZoneOffset.UTC);
+  private static final Pattern KEY = Pattern.compile("<Key>(.*?)</Key>", Pattern.DOTALL);
+  private static final Pattern PART_NUMBER = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+  private final Map<String, NavigableMap<String, S3Object>> buckets = new ConcurrentHashMap<>();
+  private final Map<String, NavigableMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+
+  /**
+   * Platform threads on purpose: the JDK server writes responses while holding a monitor, which
+   * pins a virtual thread to its carrier, and a few writers blocked on slow readers would starve
+   * the application's own virtual threads, which are those readers.
+   */
+  private final ExecutorService executor =
+      Executors.newCachedThreadPool(Thread.ofPlatform().name("fake-s3-", 0).daemon().factory());
+
+  private final HttpServer server;
+
+  public FakeS3Server() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+  }
+
+  /** Starts serving and returns the endpoint to configure sources with. */
+  public String start() {
+    server.start();
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      String path = exchange.getRequestURI().getPath().substring(1);
+      int slash = path.indexOf('/');
+      String bucket = slash < 0 ? path : path.substring(0, slash);
+      String key = slash < 0 ? "" : path.substring(slash + 1);
+      Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+      NavigableMap<String, S3Object> objects =
+          buckets.computeIfAbsent(bucket, b -> new ConcurrentSkipListMap<>());
+      if (key.isEmpty()) {
+        handleBucket(exchange, bucket, objects, query);
+      } else {
+        handleObject(exchange, bucket, key, objects, query);
+      }
+    } catch (RuntimeException e) {
+      log.warn(
+          "Fake S3 request {} {} failed", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+      error(exchange, 500, "InternalError", e.getMessage());
+    }
+  }
+
+  private void handleBucket(
+      HttpExchange exchange,
+      String bucket,
+      NavigableMap<String, S3Object> objects,
+      Map<String, String> query)
+      throws IOException {
+    switch (exchange.getRequestMethod()) {
+      case "HEAD", "PUT" -> empty(exchange, 200);
+      case "GET" -> {
+        if (query.containsKey("location")) {
+          xml(
+              exchange,
+              200,
+              "<LocationConstraint xmlns=\"" + NAMESPACE + "\"></LocationConstraint>");
+        } else {
+          list(exchange, bucket, objects, query);
+        }
+      }
+      case "POST" -> {
+        if (!query.containsKey("delete")) {
+          error(exchange, 400, "InvalidRequest", "Unsupported bucket operation");
+          return;
+        }
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        Matcher keys = KEY.matcher(body);
+        while (keys.find()) {
+          objects.remove(HtmlUtils.htmlUnescape(keys.group(1)));
+        }
+        xml(exchange, 200, "<DeleteResult xmlns=\"" + NAMESPACE + "\"></DeleteResult>");
+      }
+      default -> error(exchange, 405, "MethodNotAllowed", exchange.getRequestMethod());
+    }
+  }
+
+  private void handleObject(
+      HttpExchange exchange,
+      String bucket,
+      String key,
+      NavigableMap<String, S3Object> objects,
+      Map<String, String> query)
+      throws IOException {
+    String uploadId = query.get("uploadId");
+    switch (exchange.getRequestMethod()) {
+      case "PUT" -> {
+        if (uploadId != null) {
+          byte[] part = exchange.getRequestBody().readAllBytes();
+          NavigableMap<Integer, byte[]> parts = uploads.get(uploadId);
+          if (parts == null) {
+            error(exchange, 404, "NoSuchUpload", uploadId);
+            return;
+          }
+          parts.put(Integer.parseInt(query.get("partNumber")), part);
+          exchange.getResponseHeaders().set("ETag", etag(part));
+          empty(exchange, 200);
+          return;
+        }
+        String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+        if (copySource != null) {
+          copy(exchange, key, objects, copySource);
+          return;
+        }
+        byte[] content = exchange.getRequestBody().readAllBytes();
+        S3Object object =
+            new S3Object(
+                content,
+                etag(content),
+                exchange.getRequestHeaders().getFirst("Content-Type"),
+                Instant.now());
+        objects.put(key, object);
+        exchange.getResponseHeaders().set("ETag", object.etag());
+        empty(exchange, 200);
+      }
+      case "POST" -> {
+        if (query.containsKey("uploads")) {
+          String id = UUID.randomUUID().toString();
+          uploads.put(id, new ConcurrentSkipListMap<>());
+          xml(
+              exchange,
+              200,
+              "<InitiateMultipartUploadResult xmlns=\""
+                  + NAMESPACE
+                  + "\"><Bucket>"
+                  + escape(bucket)
+                  + "</Bucket><Key>"
+                  + escape(key)
+                  + "</Key><UploadId>"
+                  + id
+                  + "</UploadId></InitiateMultipartUploadResult>");
+        } else if (uploadId != null) {
+          complete(exchange, bucket, key, objects, uploadId);
+        } else {
+          error(exchange, 400, "InvalidRequest", "Unsupported object operation");
+        }
+      }
+      case "DELETE" -> {
+        if (uploadId != null) {
+          uploads.remove(uploadId);
+        } else {
+          objects.remove(key);
+        }
+        empty(exchange, 204);
+      }
+      case "HEAD", "GET" -> {
+        S3Object object = objects.get(key);
+        if (object == null) {
+          error(exchange, 404, "NoSuchKey", key);
+          return;
+        }
+        get(exchange, object);
+      }
+      default -> error(exchange, 405, "MethodNotAllowed", exchange.getRequestMethod());
+    }
+  }
+
+  private void get(HttpExchange exchange, S3Object object) throws IOException {
+    byte[] content = object.content();
+    int from = 0;
+    int to = content.length;
+    int status = 200;
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    if (range != null) {
+      Matcher matcher = RANGE.matcher(range);
+      if (!matcher.matches() || Long.parseLong(matcher.group(1)) >= content.length) {
+        error(exchange, 416, "InvalidRange", range);
+        return;
+      }
+      from = Integer.parseInt(matcher.group(1));
+      if (!matcher.group(2).isEmpty()) {
+        to = (int) Math.min(content.length, Long.parseLong(matcher.group(2)) + 1);
+      }
+      status = 206;
+      exchange
+          .getResponseHeaders()
+          .set("Content-Range", "bytes " + from + "-" + (to - 1) + "/" + content.length);
+    }
+    exchange.getResponseHeaders().set("ETag", object.etag());
+    exchange.getResponseHeaders().set("Last-Modified", HEADER_DATE.format(object.lastModified()));
+    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+    if (object.contentType() != null) {
+      exchange.getResponseHeaders().set("Content-Type", object.contentType());
+    }
+    if (exchange.getRequestMethod().equals("HEAD")) {
+      exchange.getResponseHeaders().set("Content-Length", String.valueOf(to - from));
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(status, to - from == 0 ? -1 : to - from);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(content, from, to - from);
+    }
+  }
+
+  private void copy(
+      HttpExchange exchange, String key, NavigableMap<String, S3Object> objects, String copySource)
+      throws IOException {
+    String source = decode(copySource.startsWith("/") ? copySource.substring(1) : copySource);
+    int slash = source.indexOf('/');
+    NavigableMap<String, S3Object> from =
+        slash < 0 ? null : buckets.get(source.substring(0, slash));
+    S3Object object = from == null ? null : from.get(source.substring(slash + 1));
+    if (object == null) {
+      error(exchange, 404, "NoSuchKey", source);
+      return;
+    }
+    S3Object copy =
+        new S3Object(object.content(), object.etag(), object.contentType(), Instant.now());
+    objects.put(key, copy);
+    xml(
+        exchange,
+        200,
+        "<CopyObjectResult xmlns=\""
+            + NAMESPACE
+            + "\"><ETag>"
+            + escape(copy.etag())
+            + "</ETag><LastModified>"
+            + XML_DATE.format(copy.lastModified())
+            + "</LastModified></CopyObjectResult>");
+  }
+
+  private void complete(
+      HttpExchange exchange,
+      String bucket,
+      String key,
+      NavigableMap<String, S3Object> objects,
+      String uploadId)
+      throws IOException {
+    String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    NavigableMap<Integer, byte[]> parts = uploads.remove(uploadId);
+    if (parts == null) {
+      error(exchange, 404, "NoSuchUpload", uploadId);
+      return;
+    }
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    Matcher numbers = PART_NUMBER.matcher(body);
+    int count = 0;
+    while (numbers.find()) {
+      byte[] part = parts.get(Integer.parseInt(numbers.group(1)));
+      if (part == null) {
+        error(exchange, 400, "InvalidPart", numbers.group(1));
+        return;
+      }
+      content.write(part);
+      count++;
+    }
+    byte[] assembled = content.toByteArray();
+    String etag = etag(assembled).replace("\"", "");
+    S3Object object =
+        new S3Object(assembled, "\"" + etag + "-" + count + "\"", null, Instant.now());
+    objects.put(key, object);
+    xml(
+        exchange,
+        200,
+        "<CompleteMultipartUploadResult xmlns=\""
+            + NAMESPACE
+            + "\"><Location>/"
+            + escape(bucket + "/" + key)
+            + "</Location><Bucket>"
+            + escape(bucket)
+            + "</Bucket><Key>"
+            + escape(key)
+            + "</Key><ETag>"
+            + escape(object.etag())
+            + "</ETag></CompleteMultipartUploadResult>");
+  }
+
+  /** ListObjectsV2; the continuation token is simply the last key of the previous page. */
+  private void list(
+      HttpExchange exchange,
+      String bucket,
+      NavigableMap<String, S3Object> objects,
+      Map<String, String> query)
+      throws IOException {
+    String prefix = query.getOrDefault("prefix", "");
+    int maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+    String after = query.getOrDefault("continuation-token", query.get("start-after"));
+    NavigableMap<String, S3Object> tail =
+        after == null || after.isEmpty() ? objects : objects.tailMap(after, false);
+    StringBuilder contents = new StringBuilder();
+    int count = 0;
+    String last = null;
+    boolean truncated = false;
+    for (Map.Entry<String, S3Object> entry : tail.entrySet()) {
+      if (!entry.getKey().startsWith(prefix)) {
+        if (entry.getKey().compareTo(prefix) > 0) {
+          break;
+        }
+        continue;
+      }
+      if (count == maxKeys) {
+        truncated = true;
+        break;
+      }
+      S3Object object = entry.getValue();
+      contents
+          .append("<Contents><Key>")
+          .append(escape(entry.getKey()))
+          .append("</Key><LastModified>")
+          .append(XML_DATE.format(object.lastModified()))
+          .append("</LastModified><ETag>")
+          .append(escape(object.etag()))
+          .append("</ETag><Size>")
+          .append(object.content().length)
+          .append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+      last = entry.getKey();
+      count++;
+    }
+    StringBuilder result =
+        new StringBuilder("<ListBucketResult xmlns=\"")
+            .append(NAMESPACE)
+            .append("\"><Name>")
+            .append(escape(bucket))
+            .append("</Name><Prefix>")
+            .append(escape(prefix))
+            .append("</Prefix><KeyCount>")
+            .append(count)
+            .append("</KeyCount><MaxKeys>")
+            .append(maxKeys)
+            .append("</MaxKeys><IsTruncated>")
+            .append(truncated)
+            .append("</IsTruncated>");
+    if (truncated) {
+      result
+          .append("<NextContinuationToken>")
+          .append(escape(last))
+          .append("</NextContinuationToken>");
+    }
+    xml(exchange, 200, result.append(contents).append("</ListBucketResult>").toString());
+  }
+
+  private static void xml(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes =
+        ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + body).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static void empty(HttpExchange exchange, int status) throws IOException {
+    exchange.sendResponseHeaders(status, -1);
+  }
+
+  private static void error(HttpExchange exchange, int status, String code, String message)
+      throws IOException {
+    if (exchange.getRequestMethod().equals("HEAD")) {
+      empty(exchange, status);
+      return;
+    }
+    xml(
+        exchange,
+        status,
+        "<Error><Code>"
+            + code
+            + "</Code><Message>"
+            + escape(String.valueOf(message))
+            + "</Message><RequestId>fake</RequestId></Error>");
+  }
+
+  private static Map<String, String> query(String rawQuery) {
+    Map<String, String> query = new HashMap<>();
+    if (rawQuery == null || rawQuery.isEmpty()) {
+      return query;
+    }
+    for (String pair : rawQuery.split("&")) {
+      int equals = pair.indexOf('=');
+      if (equals < 0) {
+        query.put(decode(pair), "");
+      } else {
+        query.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+      }
+    }
+    return query;
+  }
+
+  /** S3 clients escape spaces as {@code %20}, so a literal {@code +} is part of the value. */
+  private static String decode(String value) {
+    return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+  }
+
+  private static String escape(String value) {
+    return HtmlUtils.htmlEscape(value, StandardCharsets.UTF_8.name());
+  }
+
+  private static String etag(byte[] content) {
+    try {
+      return "\""
+          + HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content))
+          + "\"";
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private record S3Object(byte[] content, String etag, String contentType, Instant lastModified) {}
+}
@@ -0,0 +1,263 @@
+package org.superwindcloud.cloud_disk.loadtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.StorageBlob;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.StorageType;
+import org.superwindcloud.cloud_disk.UploadChunk;
+import org.superwindcloud.cloud_disk.UploadSession;
+import org.superwindcloud.cloud_disk.storage.BlobRegistry;
+import org.superwindcloud.cloud_disk.storage.ChunkedUploadStorageService;
+import org.superwindcloud.cloud_disk.storage.StoredObject;
+
+/**
+ * Keeps the objects of local sources whose config starts with {@value #CONFIG_PREFIX} in memory, so
+ * a load test measures the application rather than the disk. Objects are keyed and deduplicated
+ * through the {@link BlobRegistry} exactly as on disk; it is ordered first so it takes those
+ * sources over from the regular local backend. Objects are limited to 2 GB each.
+ */
+@Service
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class InMemoryStorageService implements ChunkedUploadStorageService {
+  public static final String CONFIG_PREFIX = "memory:";
+  private static final String STAGING_DIR = ".staging";
+
+  private final FileItemRepository fileItemRepository;
+  private final BlobRegistry blobRegistry;
+  private final Map<Long, NavigableMap<String, MemoryObject>> sources = new ConcurrentHashMap<>();
+
+  public InMemoryStorageService(FileItemRepository fileItemRepository, BlobRegistry blobRegistry) {
+    this.fileItemRepository = fileItemRepository;
+    this.blobRegistry = blobRegistry;
+  }
+
+  @Override
+  public boolean supports(StorageSource source) {
+    return source.getType() == StorageType.LOCAL
+        && source.getConfig() != null
+        && source.getConfig().startsWith(CONFIG_PREFIX);
+  }
+
+  /** Objects are keyed by their full path, so there are no directories to create. */
+  @Override
+  public void ensureDirectory(StorageSource source, String directoryPath) {}
+
+  @Override
+  public FileItem store(
+      StorageSource source,
+      String directoryPath,
+      String filename,
+      String contentType,
+      long size,
+      InputStream data) {
+    return save(source, write(source, directoryPath, filename, contentType, size, data));
+  }
+
+  @Override
+  public FileItem write(
+      StorageSource source,
+      String directoryPath,
+      String filename,
+      String contentType,
+      long size,
+      InputStream data) {
+    MessageDigest digest = BlobRegistry.newDigest();
+    byte[] content;
+    try (InputStream in = new DigestInputStream(data, digest)) {
+      content = in.readAllBytes();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to store file", e);
+    }
+    String directory = directoryPath == null ? "" : directoryPath;
+    String key = key(directory, UUID.randomUUID() + "-" + filename);
+    objects(source).put(key, new MemoryObject(content, Instant.now()));
+
+    FileItem item = new FileItem();
+    item.setFilename(filename);
+    item.setStorageSource(source);
+    item.setDirectoryPath(directory);
+    item.setSize((long) content.length);
+    item.setContentType(contentType);
+    return share(source, key, BlobRegistry.hex(digest), item);
+  }
+
+  /** Copies between memory sources by reference; stored content is never modified. */
+  @Override
+  public Optional<FileItem> copyWithin(
+      StorageSource source,
+      FileItem file,
+      StorageSource target,
+      String directoryPath,
+      String filename) {
+    if (!supports(source) || !supports(target)) {
+      return Optional.empty();
+    }
+    String key = key(directoryPath, UUID.randomUUID() + "-" + filename);
+    objects(target).put(key, object(source, file.getStoragePath()));
+
+    FileItem item = new FileItem();
+    item.setFilename(filename);
+    item.setStorageSource(target);
+    item.setDirectoryPath(directoryPath);
+    item.setSize(file.getSize());
+    item.setContentType(file.getContentType());
+    if (file.getContentHash() == null) {
+      item.setStoragePath(key);
+      return Optional.of(item);
+    }
+    return Optional.of(share(target, key, file.getContentHash(), item));
+  }
+
+  @Override
+  public InputStream load(StorageSource source, FileItem file) {
+    return new ByteArrayInputStream(object(source, file.getStoragePath()).content());
+  }
+
+  @Override
+  public InputStream load(StorageSource source, FileItem file, long offset, long length) {
+    byte[] content = object(source, file.getStoragePath()).content();
+    int from = (int) Math.min(offset, content.length);
+    return new ByteArrayInputStream(content, from, (int) Math.min(length, content.length - from));
+  }
+
+  @Override
+  public void delete(StorageSource source, FileItem file) {
+    if (blobRegistry.release(source, file)) {
+      objects(source).remove(file.getStoragePath());
+    }
+  }
+
+  @Override
+  public List<String> deleteObjects(StorageSource source, List<String> storagePaths) {
+    storagePaths.forEach(objects(source)::remove);
+    return List.of();
+  }
+
+  @Override
+  public Stream<StoredObject> list(StorageSource source, String afterPath) {
+    NavigableMap<String, MemoryObject> objects = objects(source);
+    return (afterPath == null ? objects : objects.tailMap(afterPath, false))
+        .entrySet().stream()
+            .filter(entry -> !entry.getKey().startsWith(STAGING_DIR + "/"))
+            .map(
+                entry ->
+                    new StoredObject(
+                        entry.getKey(),
+                        entry.getKey(),
+                        entry.getValue().content().length,
+                        entry.getValue().createdAt()));
+  }
+
+  /** Allocates the whole object up front so chunks can be copied in at their offsets. */
+  @Override
+  public void beginChunkedUpload(StorageSource source, UploadSession session) {
+    String key = key(STAGING_DIR, session.getToken());
+    byte[] content = new byte[Math.toIntExact(session.getTotalSize())];
+    objects(source).put(key, new MemoryObject(content, Instant.now()));
+    session.setStoragePath(key);
+  }
+
+  @Override
+  public String writeChunk(
+      StorageSource source, UploadSession session, int index, long length, InputStream data) {
+    byte[] content = object(source, session.getStoragePath()).content();
+    int offset = Math.toIntExact(index * session.getChunkSize());
+    try {
+      int read = data.readNBytes(content, offset, Math.toIntExact(length));
+      if (read < length) {
+        throw new IllegalArgumentException("Chunk " + index + " is shorter than expected");
+      }
+      if (data.read() >= 0) {
+        throw new IllegalArgumentException("Chunk " + index + " is longer than expected");
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to write chunk", e);
+    }
+    return null;
+  }
+
+  @Override
+  public FileItem completeChunkedUpload(
+      StorageSource source, UploadSession session, List<UploadChunk> chunks) {
+    MemoryObject staged = objects(source).remove(session.getStoragePath());
+    if (staged == null) {
+      throw new IllegalArgumentException("Upload was not started");
+    }
+    String key = key(session.getDirectoryPath(), UUID.randomUUID() + "-" + session.getFilename());
+    objects(source).put(key, new MemoryObject(staged.content(), Instant.now()));
+    MessageDigest digest = BlobRegistry.newDigest();
+    digest.update(staged.content());
+
+    FileItem item = new FileItem();
+    item.setFilename(session.getFilename());
+    item.setStorageSource(source);
+    item.setDirectoryPath(session.getDirectoryPath());
+    item.setSize(session.getTotalSize());
+    item.setContentType(session.getContentType());
+    return save(source, share(source, key, BlobRegistry.hex(digest), item));
+  }
+
+  @Override
+  public void abortChunkedUpload(StorageSource source, UploadSession session) {
+    if (session.getStoragePath() != null) {
+      objects(source).remove(session.getStoragePath());
+    }
+  }
+
+  private FileItem share(StorageSource source, String key, String hash, FileItem item) {
+    StorageBlob blob = blobRegistry.acquire(source, hash, item.getSize(), key);
+    if (!blob.getStoragePath().equals(key)) {
+      objects(source).remove(key);
+    }
+    item.setStoragePath(blob.getStoragePath());
+    item.setContentHash(hash);
+    return item;
+  }
+
+  private FileItem save(StorageSource source, FileItem item) {
+    try {
+      return fileItemRepository.save(item);
+    } catch (RuntimeException e) {
+      if (blobRegistry.release(source, item)) {
+        objects(source).remove(item.getStoragePath());
+      }
+      throw e;
+    }
+  }
+
+  private NavigableMap<String, MemoryObject> objects(StorageSource source) {
+    return sources.computeIfAbsent(source.getId(), id -> new ConcurrentSkipListMap<>());
+  }
+
+  private MemoryObject object(StorageSource source, String key) {
+    MemoryObject object = objects(source).get(key);
+    if (object == null) {
+      throw new RuntimeException("Failed to read file", new IOException("No such object: " + key));
+    }
+    return object;
+  }
+
+  private static String key(String directoryPath, String name) {
+    return directoryPath == null || directoryPath.isBlank() ? name : directoryPath + "/" + name;
+  }
+
+  private record MemoryObject(byte[] content, Instant createdAt) {}
+}
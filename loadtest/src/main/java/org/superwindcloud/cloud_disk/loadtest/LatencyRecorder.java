@@ -0,0 +1,59 @@
+package org.superwindcloud.cloud_disk.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of one client, kept exactly: the array only grows, so recording costs no more than a
+ * store. Recorders of all clients of a workload are merged once the run is over.
+ */
+class LatencyRecorder {
+  private long[] nanos = new long[1024];
+  private int count;
+  private long bytes;
+  private long errors;
+
+  void record(long elapsedNanos, long transferred) {
+    if (count == nanos.length) {
+      nanos = Arrays.copyOf(nanos, count * 2);
+    }
+    nanos[count++] = elapsedNanos;
+    bytes += transferred;
+  }
+
+  void error() {
+    errors++;
+  }
+
+  /** The sorted latencies, bytes and errors of every recorder. */
+  static Merged merge(Iterable<LatencyRecorder> recorders) {
+    int total = 0;
+    for (LatencyRecorder recorder : recorders) {
+      total += recorder.count;
+    }
+    long[] all = new long[total];
+    long bytes = 0;
+    long errors = 0;
+    int at = 0;
+    for (LatencyRecorder recorder : recorders) {
+      System.arraycopy(recorder.nanos, 0, all, at, recorder.count);
+      at += recorder.count;
+      bytes += recorder.bytes;
+      errors += recorder.errors;
+    }
+    Arrays.sort(all);
+    return new Merged(all, bytes, errors);
+  }
+
+  record Merged(long[] sortedNanos, long bytes, long errors) {
+    /**
+     * The latency below which a fraction {@code p} of the operations completed, in milliseconds.
+     */
+    double percentileMillis(double p) {
+      if (sortedNanos.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(p * sortedNanos.length) - 1;
+      return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))] / 1_000_000d;
+    }
+  }
+}
@@ -0,0 +1,362 @@
+package org.superwindcloud.cloud_disk.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.util.StringUtils;
+import org.superwindcloud.cloud_disk.CloudDiskApplication;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.StorageSourceRepository;
+import org.superwindcloud.cloud_disk.StorageType;
+
+/**
+ * Boots the whole application in this process on an in-memory database, an in-memory backend and a
+ * fake S3 endpoint, drives its HTTP API with the configured workloads and reports latency
+ * percentiles and throughput per workload and backend. Needs nothing but a JVM: no database, no
+ * object store and no network beyond loopback. Any {@code loadtest.*} setting can be overridden
+ * with a {@code --loadtest.<setting>=} argument.
+ *
+ * <p>{@code --loadtest.threads=platform,virtual} runs everything once per thread model, each time
+ * in a fresh application with {@code spring.threads.virtual.enabled} set accordingly, and reports
+ * both side by side. Without it the application's own setting applies.
+ */
+public class LoadTest {
+  private static final Logger log = LoggerFactory.getLogger(LoadTest.class);
+  private static final int LOGGED_ERRORS = 3;
+
+  private final Environment env;
+  private final StorageSourceRepository storageSourceRepository;
+  private final ApiClient api;
+  private final ObjectMapper objectMapper;
+  private final Path workDir;
+  private final String threads;
+
+  private LoadTest(ConfigurableApplicationContext context, Path workDir) {
+    this.env = context.getEnvironment();
+    this.threads =
+        env.getProperty("spring.threads.virtual.enabled", Boolean.class, false)
+            ? "virtual"
+            : "platform";
+    this.storageSourceRepository = context.getBean(StorageSourceRepository.class);
+    this.objectMapper = context.getBean(ObjectMapper.class);
+    this.api =
+        new ApiClient(env.getRequiredProperty("local.server.port", Integer.class), objectMapper);
+    this.workDir = workDir;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Instant startedAt = Instant.now();
+    Path workDir = Files.createTempDirectory("cloud-disk-loadtest");
+    String threads = new SimpleCommandLinePropertySource(args).getProperty("loadtest.threads");
+    List<String> models =
+        threads == null
+            ? List.of("")
+            : List.of(StringUtils.commaDelimitedListToStringArray(threads));
+    boolean failed = false;
+    try (FakeS3Server s3 = new FakeS3Server()) {
+      String endpoint = s3.start();
+      List<Result> results = new ArrayList<>();
+      for (int i = 0; i < models.size(); i++) {
+        Path runDir = Files.createDirectories(workDir.resolve("run" + i));
+        try (ConfigurableApplicationContext context =
+            new SpringApplicationBuilder(LoadTestConfig.class, CloudDiskApplication.class)
+                .profiles("loadtest")
+                .properties("loadtest.work-dir=" + runDir, "loadtest.s3.endpoint=" + endpoint)
+                .run(withThreads(args, models.get(i).trim()))) {
+          LoadTest test = new LoadTest(context, runDir);
+          results.addAll(test.run());
+          if (i == models.size() - 1) {
+            failed = test.report(startedAt, results);
+          }
+        }
+      }
+    } finally {
+      deleteRecursively(workDir);
+    }
+    System.exit(failed ? 1 : 0);
+  }
+
+  /** {@code args} with virtual threads switched on or off for {@code model}, if one is named. */
+  private static String[] withThreads(String[] args, String model) {
+    if (model.isEmpty()) {
+      return args;
+    }
+    if (!model.equals("virtual") && !model.equals("platform")) {
+      throw new IllegalArgumentException("Unknown thread model: " + model);
+    }
+    String[] withThreads = Arrays.copyOf(args, args.length + 1);
+    withThreads[args.length] = "--spring.threads.virtual.enabled=" + model.equals("virtual");
+    return withThreads;
+  }
+
+  /** Runs every task and returns how they did. */
+  private List<Result> run() throws Exception {
+    Duration warmup = warmup();
+    Duration duration = duration();
+    boolean mixed = mixed();
+
+    List<Task> tasks = new ArrayList<>();
+    for (String backend : list("loadtest.backends")) {
+      long sourceId = source(backend).getId();
+      for (String workload : list("loadtest.workloads")) {
+        Task task =
+            new Task(
+                workload,
+                backend,
+                Workload.create(workload, api, sourceId, env),
+                env.getProperty(
+                    "loadtest." + workload + ".concurrency",
+                    Integer.class,
+                    env.getProperty("loadtest.concurrency", Integer.class, 16)));
+        log.info("Preparing {} on {}", workload, backend);
+        task.workload().prepare();
+        tasks.add(task);
+      }
+    }
+
+    List<Result> results = new ArrayList<>();
+    if (mixed) {
+      log.info(
+          "Running {} tasks at once on {} threads for {} after {} of warmup",
+          tasks.size(),
+          threads,
+          duration,
+          warmup);
+      results.addAll(measure(tasks, warmup, duration));
+    } else {
+      for (Task task : tasks) {
+        log.info(
+            "Running {} on {} with {} threads for {} after {} of warmup",
+            task.name(),
+            task.backend(),
+            threads,
+            duration,
+            warmup);
+        results.addAll(measure(List.of(task), warmup, duration));
+      }
+    }
+    return results;
+  }
+
+  /** Prints {@code results} and writes the report; true if any operation failed. */
+  private boolean report(Instant startedAt, List<Result> results) throws IOException {
+    print(results);
+    Path report = Path.of(env.getProperty("loadtest.report", "loadtest-report.json"));
+    objectMapper
+        .writerWithDefaultPrettyPrinter()
+        .writeValue(
+            report.toFile(),
+            new Report(
+                startedAt.toString(),
+                mixed() ? "mixed" : "sequential",
+                warmup().toMillis() / 1000d,
+                duration().toMillis() / 1000d,
+                results));
+    log.info("Wrote {}", report.toAbsolutePath());
+    return results.stream().anyMatch(result -> result.errors() > 0);
+  }
+
+  private Duration warmup() {
+    return env.getProperty("loadtest.warmup", Duration.class, Duration.ofSeconds(5));
+  }
+
+  private Duration duration() {
+    return env.getProperty("loadtest.duration", Duration.class, Duration.ofSeconds(20));
+  }
+
+  private boolean mixed() {
+    return "mixed".equalsIgnoreCase(env.getProperty("loadtest.mode", "sequential"));
+  }
+
+  /**
+   * Runs the clients of all {@code tasks} together on virtual threads. Operations started during
+   * the warmup are not recorded; those still running when the duration is over are.
+   */
+  private List<Result> measure(List<Task> tasks, Duration warmup, Duration duration) {
+    long measureFrom = System.nanoTime() + warmup.toNanos();
+    long end = measureFrom + duration.toNanos();
+    List<List<LatencyRecorder>> recorders = new ArrayList<>();
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Task task : tasks) {
+        List<LatencyRecorder> taskRecorders = new ArrayList<>();
+        AtomicInteger logged = new AtomicInteger();
+        for (int client = 0; client < task.concurrency(); client++) {
+          LatencyRecorder recorder = new LatencyRecorder();
+          taskRecorders.add(recorder);
+          int id = client;
+          clients.submit(() -> drive(task, id, recorder, logged, measureFrom, end));
+        }
+        recorders.add(taskRecorders);
+      }
+    }
+    double seconds = (System.nanoTime() - measureFrom) / 1e9;
+
+    List<Result> results = new ArrayList<>();
+    for (int i = 0; i < tasks.size(); i++) {
+      Task task = tasks.get(i);
+      LatencyRecorder.Merged merged = LatencyRecorder.merge(recorders.get(i));
+      results.add(
+          new Result(
+              task.name(),
+              task.backend(),
+              threads,
+              task.concurrency(),
+              merged.sortedNanos().length,
+              merged.errors(),
+              merged.sortedNanos().length / seconds,
+              merged.bytes() / seconds / (1024 * 1024),
+              merged.percentileMillis(0.5),
+              merged.percentileMillis(0.9),
+              merged.percentileMillis(0.99),
+              merged.percentileMillis(1)));
+    }
+    return results;
+  }
+
+  private static void drive(
+      Task task,
+      int client,
+      LatencyRecorder recorder,
+      AtomicInteger logged,
+      long measureFrom,
+      long end) {
+    for (long iteration = 0; ; iteration++) {
+      long started = System.nanoTime();
+      if (started >= end) {
+        return;
+      }
+      try {
+        long bytes = task.workload().execute(client, iteration);
+        if (started >= measureFrom) {
+          recorder.record(System.nanoTime() - started, bytes);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        if (started >= measureFrom) {
+          recorder.error();
+        }
+        if (logged.incrementAndGet() <= LOGGED_ERRORS) {
+          log.warn("{} on {} failed: {}", task.name(), task.backend(), e.toString());
+        }
+      }
+    }
+  }
+
+  /** The source a backend name stands for; the S3 one is created by the bootstrap runner. */
+  private StorageSource source(String backend) throws IOException {
+    return switch (backend) {
+      case "memory" ->
+          createSource("loadtest-memory", InMemoryStorageService.CONFIG_PREFIX + "loadtest");
+      case "local" ->
+          createSource(
+              "loadtest-local", Files.createDirectories(workDir.resolve("local")).toString());
+      case "s3" ->
+          storageSourceRepository
+              .findByName(env.getProperty("storage.s3.bootstrap.name"))
+              .orElseThrow(() -> new IllegalStateException("The S3 source was not bootstrapped"));
+      default -> throw new IllegalArgumentException("Unknown backend: " + backend);
+    };
+  }
+
+  private StorageSource createSource(String name, String config) {
+    StorageSource source = new StorageSource();
+    source.setName(name);
+    source.setType(StorageType.LOCAL);
+    source.setConfig(config);
+    return storageSourceRepository.save(source);
+  }
+
+  private List<String> list(String property) {
+    return Arrays.stream(StringUtils.commaDelimitedListToStringArray(env.getProperty(property, "")))
+        .map(String::trim)
+        .filter(value -> !value.isEmpty())
+        .toList();
+  }
+
+  private static void print(List<Result> results) {
+    StringBuilder table = new StringBuilder();
+    table.append(
+        String.format(
+            "%n%-12s %-8s %-8s %6s %10s %8s %10s %10s %10s %10s %10s %10s%n",
+            "workload",
+            "backend",
+            "threads",
+            "conc",
+            "ops",
+            "errors",
+            "ops/s",
+            "MB/s",
+            "p50 ms",
+            "p90 ms",
+            "p99 ms",
+            "max ms"));
+    for (Result r : results) {
+      table.append(
+          String.format(
+              "%-12s %-8s %-8s %6d %10d %8d %10.1f %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+              r.workload(),
+              r.backend(),
+              r.threads(),
+              r.concurrency(),
+              r.operations(),
+              r.errors(),
+              r.operationsPerSecond(),
+              r.megabytesPerSecond(),
+              r.p50Millis(),
+              r.p90Millis(),
+              r.p99Millis(),
+              r.maxMillis()));
+    }
+    System.out.print(table);
+  }
+
+  private static void deleteRecursively(Path root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(path);
+      }
+    }
+  }
+
+  private record Task(String name, String backend, Workload workload, int concurrency) {}
+
+  record Result(
+      String workload,
+      String backend,
+      String threads,
+      int concurrency,
+      long operations,
+      long errors,
+      double operationsPerSecond,
+      double megabytesPerSecond,
+      double p50Millis,
+      double p90Millis,
+      double p99Millis,
+      double maxMillis) {}
+
+  record Report(
+      String startedAt,
+      String mode,
+      double warmupSeconds,
+      double durationSeconds,
+      List<Result> results) {}
+}
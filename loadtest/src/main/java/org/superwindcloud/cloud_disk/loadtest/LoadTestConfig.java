@@ -0,0 +1,19 @@
+package org.superwindcloud.cloud_disk.loadtest;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+
+/**
+ * Replaces the OAuth client registrations, which cannot be built without Google credentials. The
+ * load test calls the API anonymously, so no registration is ever looked up. {@link LoadTest}
+ * passes this class first, so it is registered before OAuthClientConfig checks for one.
+ */
+@Configuration
+public class LoadTestConfig {
+
+  @Bean
+  ClientRegistrationRepository loadTestClientRegistrationRepository() {
+    return registrationId -> null;
+  }
+}
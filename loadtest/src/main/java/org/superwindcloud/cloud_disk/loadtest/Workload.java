@@ -0,0 +1,309 @@
+package org.superwindcloud.cloud_disk.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.core.env.Environment;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * One kind of traffic against one storage source. {@link #prepare} creates whatever the operations
+ * need and is not measured; {@link #execute} is one measured operation of one client and returns
+ * the bytes it moved. Settings are read from {@code loadtest.<name>.*}.
+ */
+abstract class Workload {
+  protected final ApiClient api;
+  protected final long sourceId;
+  protected final String directory;
+
+  private Workload(ApiClient api, long sourceId, String name) {
+    this.api = api;
+    this.sourceId = sourceId;
+    this.directory = "loadtest/" + name;
+  }
+
+  static Workload create(String name, ApiClient api, long sourceId, Environment env) {
+    return switch (name) {
+      case "upload" ->
+          new Upload(
+              api,
+              sourceId,
+              size(env, "loadtest.upload.size", "1MB"),
+              env.getProperty("loadtest.upload.unique", Boolean.class, false));
+      case "download" ->
+          new Download(
+              api,
+              sourceId,
+              size(env, "loadtest.download.size", "64MB"),
+              size(env, "loadtest.download.rate", "0B"));
+      case "browse" ->
+          new Browse(
+              api,
+              sourceId,
+              env.getProperty("loadtest.browse.files", Integer.class, 20000),
+              env.getProperty("loadtest.browse.page-size", Integer.class, 100),
+              env.getProperty("storage.upload.batch.max-files", Integer.class, 10000));
+      case "short-link" ->
+          new ShortLinks(
+              api,
+              sourceId,
+              env.getProperty("loadtest.short-link.links", Integer.class, 1000),
+              env.getProperty("loadtest.short-link.miss-ratio", Double.class, 0.1));
+      case "mkdir" ->
+          new DeepDirectories(
+              api, sourceId, env.getProperty("loadtest.mkdir.depth", Integer.class, 16));
+      default -> throw new IllegalArgumentException("Unknown workload: " + name);
+    };
+  }
+
+  void prepare() throws Exception {}
+
+  abstract long execute(int client, long iteration) throws Exception;
+
+  /** Streams a new file of random content into {@code directory} and returns its id. */
+  protected long upload(String filename, int size) throws Exception {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return api.json(
+            "PUT",
+            "/api/files/stream?sourceId="
+                + sourceId
+                + "&path="
+                + ApiClient.encode(directory)
+                + "&filename="
+                + ApiClient.encode(filename),
+            BodyPublishers.ofByteArray(content),
+            "application/octet-stream")
+        .path("item")
+        .path("id")
+        .asLong();
+  }
+
+  private static int size(Environment env, String property, String defaultSize) {
+    return Math.toIntExact(
+        env.getProperty(property, DataSize.class, DataSize.parse(defaultSize)).toBytes());
+  }
+
+  /**
+   * Raw-body uploads of {@code size} bytes. Unless {@code unique}, every upload carries the same
+   * content, which the backend keeps once; the request still streams, hashes and stores it all.
+   */
+  private static final class Upload extends Workload {
+    private static final int STAMP = Long.BYTES;
+
+    private final int size;
+    private final boolean unique;
+    private final AtomicLong uploads = new AtomicLong();
+    private byte[] payload;
+
+    Upload(ApiClient api, long sourceId, int size, boolean unique) {
+      super(api, sourceId, "upload");
+      this.size = size;
+      this.unique = unique;
+    }
+
+    @Override
+    void prepare() {
+      payload = new byte[Math.max(0, size - STAMP)];
+      new Random(size).nextBytes(payload);
+    }
+
+    @Override
+    long execute(int client, long iteration) throws Exception {
+      byte[] stamp =
+          ByteBuffer.allocate(STAMP).putLong(unique ? uploads.incrementAndGet() : 0).array();
+      byte[] head = size < STAMP ? new byte[size] : stamp;
+      api.json(
+          "PUT",
+          "/api/files/stream?sourceId="
+              + sourceId
+              + "&path="
+              + ApiClient.encode(directory + "/c" + client)
+              + "&filename=f"
+              + iteration
+              + ".bin",
+          BodyPublishers.concat(
+              BodyPublishers.ofByteArray(head), BodyPublishers.ofByteArray(payload)),
+          "application/octet-stream");
+      return size;
+    }
+  }
+
+  /**
+   * Full downloads of one file of {@code size} bytes, each client reading at up to {@code rate}
+   * bytes per second, or as fast as it can if that is 0.
+   */
+  private static final class Download extends Workload {
+    private final int size;
+    private final int rate;
+    private long fileId;
+
+    Download(ApiClient api, long sourceId, int size, int rate) {
+      super(api, sourceId, "download");
+      this.size = size;
+      this.rate = rate;
+    }
+
+    @Override
+    void prepare() throws Exception {
+      fileId = upload("large.bin", size);
+    }
+
+    @Override
+    long execute(int client, long iteration) throws Exception {
+      long received = api.drain("/api/files/" + fileId + "/download", 200, rate);
+      if (received != size) {
+        throw new IllegalStateException("Received " + received + " of " + size + " bytes");
+      }
+      return received;
+    }
+  }
+
+  /**
+   * Pages through one directory of {@code files} small files, each client walking it from the first
+   * page to the last and starting over. The files are created with batch uploads.
+   */
+  private static final class Browse extends Workload {
+    private final int files;
+    private final int pageSize;
+    private final int batchSize;
+    private final Map<Integer, String> cursors = new ConcurrentHashMap<>();
+
+    Browse(ApiClient api, long sourceId, int files, int pageSize, int batchSize) {
+      super(api, sourceId, "browse");
+      this.files = files;
+      this.pageSize = pageSize;
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    void prepare() throws Exception {
+      String boundary = "loadtest-" + Long.toHexString(System.nanoTime());
+      for (int from = 0; from < files; from += batchSize) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = from; i < Math.min(files, from + batchSize); i++) {
+          String name = "f" + i + ".txt";
+          body.writeBytes(
+              ("--"
+                      + boundary
+                      + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\""
+                      + name
+                      + "\"\r\nContent-Type: text/plain\r\n\r\n"
+                      + name
+                      + "\r\n")
+                  .getBytes(StandardCharsets.UTF_8));
+        }
+        body.writeBytes(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        JsonNode result =
+            api.json(
+                "POST",
+                "/api/files/batch?sourceId=" + sourceId + "&path=" + ApiClient.encode(directory),
+                BodyPublishers.ofByteArray(body.toByteArray()),
+                "multipart/form-data; boundary=" + boundary);
+        if (result.path("failed").asInt() > 0) {
+          throw new IllegalStateException(
+              result.path("failed").asInt() + " files of a browse batch failed");
+        }
+      }
+    }
+
+    @Override
+    long execute(int client, long iteration) throws Exception {
+      String cursor = cursors.get(client);
+      String page =
+          api.text(
+              "GET",
+              "/api/files/browse?sourceId="
+                  + sourceId
+                  + "&path="
+                  + ApiClient.encode(directory)
+                  + "&limit="
+                  + pageSize
+                  + (cursor == null ? "" : "&cursor=" + ApiClient.encode(cursor)),
+              null,
+              null,
+              200);
+      JsonNode next = api.objectMapper().readTree(page).path("nextCursor");
+      if (next.isTextual()) {
+        cursors.put(client, next.asText());
+      } else {
+        cursors.remove(client);
+      }
+      return page.length();
+    }
+  }
+
+  /**
+   * Resolves {@code links} short links of one small file in random order; a {@code missRatio} share
+   * of the requests asks for tokens that do not exist.
+   */
+  private static final class ShortLinks extends Workload {
+    private static final int FILE_SIZE = 4096;
+
+    private final int links;
+    private final double missRatio;
+    private List<String> tokens;
+
+    ShortLinks(ApiClient api, long sourceId, int links, double missRatio) {
+      super(api, sourceId, "short-link");
+      this.links = links;
+      this.missRatio = missRatio;
+    }
+
+    @Override
+    void prepare() throws Exception {
+      long fileId = upload("linked.bin", FILE_SIZE);
+      String[] created = new String[links];
+      for (int i = 0; i < links; i++) {
+        created[i] =
+            api.postJson("/api/files/" + fileId + "/short-link", Map.of()).path("token").asText();
+      }
+      tokens = List.of(created);
+    }
+
+    @Override
+    long execute(int client, long iteration) throws Exception {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      if (random.nextDouble() < missRatio) {
+        return api.drain("/s/missing" + Long.toHexString(random.nextLong()), 401);
+      }
+      return api.drain("/s/" + tokens.get(random.nextInt(tokens.size())), 200);
+    }
+  }
+
+  /** Creates chains of {@code depth} directories, none of which exist beforehand. */
+  private static final class DeepDirectories extends Workload {
+    private final int depth;
+
+    DeepDirectories(ApiClient api, long sourceId, int depth) {
+      super(api, sourceId, "mkdir");
+      this.depth = depth;
+    }
+
+    @Override
+    long execute(int client, long iteration) throws Exception {
+      StringBuilder path =
+          new StringBuilder(directory).append("/c").append(client).append('-').append(iteration);
+      for (int level = 1; level < depth; level++) {
+        path.append("/d").append(level);
+      }
+      api.json(
+          "POST",
+          "/api/files/directories?sourceId="
+              + sourceId
+              + "&path="
+              + ApiClient.encode(path.toString()),
+          null,
+          null);
+      return 0;
+    }
+  }
+}
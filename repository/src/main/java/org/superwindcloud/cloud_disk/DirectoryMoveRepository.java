@@ -0,0 +1,37 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Instant;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface DirectoryMoveRepository extends JpaRepository<DirectoryMove, Long> {
+  List<DirectoryMove> findByStorageSourceId(Long storageSourceId);
+
+  List<DirectoryMove> findByUpdatedAtBefore(Instant before);
+
+  /**
+   * Records that descendants up to {@code lastId} are moved, provided nobody advanced the move past
+   * {@code afterId} meanwhile. The row stays locked until the batch commits.
+   */
+  @Modifying
+  @Query(
+      "update DirectoryMove m set m.afterId = :lastId, m.updatedAt = :now "
+          + "where m.id = :id and m.afterId = :afterId")
+  int advance(
+      @Param("id") Long id,
+      @Param("afterId") Long afterId,
+      @Param("lastId") Long lastId,
+      @Param("now") Instant now);
+
+  /** Takes over a move that has not advanced since {@code before}; 0 if another run has it. */
+  @Modifying
+  @Query("update DirectoryMove m set m.updatedAt = :now where m.id = :id and m.updatedAt < :before")
+  int claim(@Param("id") Long id, @Param("before") Instant before, @Param("now") Instant now);
+
+  @Modifying
+  @Query("delete from DirectoryMove m where m.id = :id and m.afterId = :afterId")
+  int finish(@Param("id") Long id, @Param("afterId") Long afterId);
+}
@@ -1,29 +1,205 @@
 package org.superwindcloud.cloud_disk;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface FileItemRepository extends JpaRepository<FileItem, Long> {
-  List<FileItem> findByStorageSourceIdOrderByCreatedAtDesc(Long storageSourceId);
+  String VIEW =
+      "select new org.superwindcloud.cloud_disk.FileItemView(f.id, f.storageSource.id, "
+          + "f.filename, f.directoryPath, f.directory, "
+          + "case when f.directory = true then f.totalSize else f.size end, f.contentType, "
+          + "f.contentHash, f.createdAt, f.fileCount) from FileItem f ";
 
-  List<FileItem> findByStorageSourceIdAndDirectoryPathOrderByDirectoryDescCreatedAtDesc(
-      Long storageSourceId, String directoryPath);
+  /** Newest first, keyed on id: returns items with an id below {@code beforeId}. */
+  @Query(VIEW + "where f.id < :beforeId order by f.id desc")
+  List<FileItemView> listViews(@Param("beforeId") long beforeId, Limit limit);
 
-  Optional<FileItem> findFirstByStorageSourceIdAndDirectoryPathAndDirectoryTrue(
-      Long storageSourceId, String directoryPath);
+  @Query(VIEW + "where f.storageSource.id = :sourceId and f.id < :beforeId order by f.id desc")
+  List<FileItemView> listViews(
+      @Param("sourceId") Long storageSourceId, @Param("beforeId") long beforeId, Limit limit);
 
-  Optional<FileItem> findFirstByStorageSourceIdAndDirectoryPathAndFilenameAndDirectoryTrue(
-      Long storageSourceId, String directoryPath, String filename);
+  @Query(VIEW + "where f.id in :ids")
+  List<FileItemView> findViewsByIds(@Param("ids") Collection<Long> ids);
+
+  /**
+   * One page of a directory: folders first, then newest first. The page starts after the item
+   * described by the three keys, which for the first page sort before every row.
+   */
+  @Query(
+      VIEW
+          + "where f.storageSource.id = :sourceId and f.directoryPath = :path and "
+          + "((f.directory = :directory and (f.createdAt < :createdAt "
+          + "or (f.createdAt = :createdAt and f.id < :id))) "
+          + "or (:directory = true and f.directory = false)) "
+          + "order by f.directory desc, f.createdAt desc, f.id desc")
+  List<FileItemView> browseViews(
+      @Param("sourceId") Long storageSourceId,
+      @Param("path") String directoryPath,
+      @Param("directory") boolean directory,
+      @Param("createdAt") Instant createdAt,
+      @Param("id") long id,
+      Limit limit);
+
+  @Query(VIEW + "where f.id = :id")
+  Optional<FileItemView> findViewById(@Param("id") Long id);
+
+  /** The item named {@code filename} in a directory; a folder wins over a file of that name. */
+  @Query(
+      VIEW
+          + "where f.storageSource.id = :sourceId and f.directoryPath = :path "
+          + "and f.filename = :filename order by f.directory desc, f.id")
+  List<FileItemView> findViews(
+      @Param("sourceId") Long storageSourceId,
+      @Param("path") String directoryPath,
+      @Param("filename") String filename,
+      Limit limit);
+
+  @Query("select f.id from FileItem f where f.storageSource.id = :sourceId and f.dirKey = :path")
+  Optional<Long> findDirectoryId(
+      @Param("sourceId") Long storageSourceId, @Param("path") String path);
+
+  /** Path and id of every live directory in the source. */
+  @Query(
+      "select f.dirKey, f.id from FileItem f "
+          + "where f.storageSource.id = :sourceId and f.dirKey is not null")
+  List<Object[]> findDirectoryKeys(@Param("sourceId") Long storageSourceId);
+
+  /**
+   * Gives directories created before {@code dirKey} existed their key. Where legacy duplicates
+   * share a path, only the oldest row is keyed.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update FileItem f set f.dirKey = "
+          + "case when f.directoryPath = '' then f.filename "
+          + "else concat(f.directoryPath, '/', f.filename) end "
+          + "where f.directory = true and f.dirKey is null and f.deletedAt is null "
+          + "and f.id = (select min(g.id) from FileItem g "
+          + "where g.storageSource = f.storageSource and g.directory = true "
+          + "and g.directoryPath = f.directoryPath and g.filename = f.filename) "
+          + "and not exists (select h.id from FileItem h "
+          + "where h.storageSource = f.storageSource and h.dirKey = "
+          + "case when f.directoryPath = '' then f.filename "
+          + "else concat(f.directoryPath, '/', f.filename) end)")
+  int backfillDirectoryKeys();
 
   boolean existsByStorageSourceIdAndDirectoryPathAndFilename(
       Long storageSourceId, String directoryPath, String filename);
 
+  default List<FileItem> findDescendants(Long storageSourceId, String directoryPath) {
+    return findDescendants(storageSourceId, directoryPath, descendantPattern(directoryPath));
+  }
+
   @Query(
       "select f from FileItem f where f.storageSource.id = :sourceId and "
-          + "(f.directoryPath = :path or f.directoryPath like concat(:path, '/%'))")
+          + "(f.directoryPath = :path or f.directoryPath like :pattern escape '\\')")
   List<FileItem> findDescendants(
-      @Param("sourceId") Long storageSourceId, @Param("path") String directoryPath);
+      @Param("sourceId") Long storageSourceId,
+      @Param("path") String directoryPath,
+      @Param("pattern") String pattern);
+
+  /**
+   * Ids of up to {@code limit} rows under directory {@code path} above {@code afterId}, in order.
+   */
+  default List<Long> findSubtreeIds(Long storageSourceId, String path, long afterId, int limit) {
+    return findSubtreeIds(storageSourceId, path, descendantPattern(path), afterId, Limit.of(limit));
+  }
+
+  @Query(
+      "select f.id from FileItem f where f.storageSource.id = :sourceId and "
+          + "(f.directoryPath = :path or f.directoryPath like :pattern escape '\\') and "
+          + "f.id > :afterId order by f.id")
+  List<Long> findSubtreeIds(
+      @Param("sourceId") Long storageSourceId,
+      @Param("path") String path,
+      @Param("pattern") String pattern,
+      @Param("afterId") long afterId,
+      Limit limit);
+
+  /**
+   * Moves the rows under directory {@code oldPath} with ids in {@code (afterId, lastId]} to {@code
+   * newPath} with one prefix-rewriting update. Directory rows carry their full path in {@code
+   * storagePath} and {@code dirKey}, so those are rebuilt for them too. Returns the number of rows
+   * touched.
+   */
+  default int moveSubtree(
+      Long storageSourceId,
+      String oldPath,
+      String newPath,
+      long afterId,
+      long lastId,
+      Instant updatedAt) {
+    return moveSubtree(
+        storageSourceId, oldPath, descendantPattern(oldPath), newPath, afterId, lastId, updatedAt);
+  }
+
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query(
+      "update FileItem f set "
+          + "f.directoryPath = concat(:newPath, substring(f.directoryPath, length(:oldPath) + 1)), "
+          + "f.storagePath = case when f.directory = true "
+          + "then concat(:newPath, substring(f.directoryPath, length(:oldPath) + 1), "
+          + "'/', f.filename, '/') "
+          + "else f.storagePath end, "
+          + "f.dirKey = case when f.dirKey is not null "
+          + "then concat(:newPath, substring(f.directoryPath, length(:oldPath) + 1), "
+          + "'/', f.filename) "
+          + "else null end, "
+          + "f.updatedAt = :updatedAt "
+          + "where f.storageSource.id = :sourceId and f.id > :afterId and f.id <= :lastId and "
+          + "(f.directoryPath = :oldPath or f.directoryPath like :pattern escape '\\')")
+  int moveSubtree(
+      @Param("sourceId") Long storageSourceId,
+      @Param("oldPath") String oldPath,
+      @Param("pattern") String pattern,
+      @Param("newPath") String newPath,
+      @Param("afterId") long afterId,
+      @Param("lastId") long lastId,
+      @Param("updatedAt") Instant updatedAt);
+
+  /** Tombstones directory {@code path}, whose row is {@code id}, and everything under it. */
+  default int tombstoneSubtree(Long storageSourceId, Long id, String path, Instant deletedAt) {
+    return tombstoneSubtree(storageSourceId, id, path, descendantPattern(path), deletedAt);
+  }
+
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query(
+      "update FileItem f set f.deletedAt = :deletedAt, f.updatedAt = :deletedAt, f.dirKey = null "
+          + "where f.storageSource.id = :sourceId and "
+          + "(f.id = :id or f.directoryPath = :path or f.directoryPath like :pattern escape '\\')")
+  int tombstoneSubtree(
+      @Param("sourceId") Long storageSourceId,
+      @Param("id") Long id,
+      @Param("path") String path,
+      @Param("pattern") String pattern,
+      @Param("deletedAt") Instant deletedAt);
+
+  /** Claims up to {@code limit} tombstoned rows, skipping rows other nodes hold. */
+  @Query(
+      value =
+          "select * from file_items where deleted_at is not null order by id limit :limit "
+              + "for update skip locked",
+      nativeQuery = true)
+  List<FileItem> lockTombstones(@Param("limit") int limit);
+
+  @Query(value = "select count(*) from file_items where deleted_at is not null", nativeQuery = true)
+  long countTombstones();
+
+  @Modifying
+  @Query(value = "delete from file_items where id in (:ids)", nativeQuery = true)
+  int purge(@Param("ids") Collection<Long> ids);
+
+  /** LIKE pattern matching paths strictly below {@code directoryPath}, wildcards escaped. */
+  static String descendantPattern(String directoryPath) {
+    return directoryPath.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "/%";
+  }
 }
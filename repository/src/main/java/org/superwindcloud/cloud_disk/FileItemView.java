@@ -0,0 +1,21 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Instant;
+
+/**
+ * Listing projection of a {@link FileItem}, without its source or storage location.
+ *
+ * @param size for a directory, the total size of the files beneath it
+ * @param fileCount for a directory, the number of files beneath it; 0 for files
+ */
+public record FileItemView(
+    Long id,
+    Long sourceId,
+    String filename,
+    String directoryPath,
+    boolean directory,
+    Long size,
+    String contentType,
+    String contentHash,
+    Instant createdAt,
+    Long fileCount) {}
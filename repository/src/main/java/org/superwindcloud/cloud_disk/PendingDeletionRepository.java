@@ -0,0 +1,33 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface PendingDeletionRepository extends JpaRepository<PendingDeletion, Long> {
+  /**
+   * Locks up to {@code limit} removals that are due and have attempts left, least-retried first,
+   * skipping rows other nodes hold.
+   */
+  @Query(
+      value =
+          "select * from pending_deletions where attempts < :maxAttempts "
+              + "and (next_attempt_at is null or next_attempt_at <= :now) "
+              + "order by attempts, id limit :limit for update skip locked",
+      nativeQuery = true)
+  List<PendingDeletion> lockBatch(
+      @Param("now") Instant now, @Param("maxAttempts") int maxAttempts, @Param("limit") int limit);
+
+  /** Counts an attempt and defers the next one to {@code retryAt}. */
+  @Modifying
+  @Query(
+      "update PendingDeletion p set p.attempts = p.attempts + 1, p.nextAttemptAt = :retryAt "
+          + "where p.id in :ids")
+  int recordAttempt(@Param("ids") Collection<Long> ids, @Param("retryAt") Instant retryAt);
+
+  long countByAttemptsGreaterThanEqual(int attempts);
+}
@@ -1,7 +1,10 @@
 package org.superwindcloud.cloud_disk;
 
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -11,10 +14,64 @@ import org.springframework.transaction.annotation.Transactional;
 public interface ShortLinkRepository extends JpaRepository<ShortLink, Long> {
   Optional<ShortLink> findByToken(String token);
 
+  /** Newest first, keyed on id: returns links with an id below {@code beforeId}. */
+  @Query(
+      "select new org.superwindcloud.cloud_disk.ShortLinkView(s.id, s.token, s.accessCode, "
+          + "f.id, f.filename, s.expiresAt, s.createdAt) from ShortLink s join s.fileItem f "
+          + "where s.id < :beforeId order by s.id desc")
+  List<ShortLinkView> listViews(@Param("beforeId") long beforeId, Limit limit);
+
   void deleteByFileItemId(Long fileItemId);
 
+  @Modifying
+  @Query("delete from ShortLink s where s.fileItem.id in :ids")
+  int deleteByFileItemIds(@Param("ids") Collection<Long> fileItemIds);
+
+  /** Ids of the linked files among directory {@code path}, row {@code id}, and its subtree. */
+  default List<Long> findLinkedFileIdsInSubtree(Long storageSourceId, Long id, String path) {
+    return findLinkedFileIdsInSubtree(
+        storageSourceId, id, path, FileItemRepository.descendantPattern(path));
+  }
+
+  @Query(
+      "select distinct s.fileItem.id from ShortLink s where s.fileItem.id in (select f.id "
+          + "from FileItem f where f.storageSource.id = :sourceId and (f.id = :id "
+          + "or f.directoryPath = :path or f.directoryPath like :pattern escape '\\'))")
+  List<Long> findLinkedFileIdsInSubtree(
+      @Param("sourceId") Long storageSourceId,
+      @Param("id") Long id,
+      @Param("path") String path,
+      @Param("pattern") String pattern);
+
+  /** Deletes the links of directory {@code path}, whose row is {@code id}, and of its subtree. */
+  default int deleteInSubtree(Long storageSourceId, Long id, String path) {
+    return deleteInSubtree(storageSourceId, id, path, FileItemRepository.descendantPattern(path));
+  }
+
+  @Modifying
+  @Query(
+      "delete from ShortLink s where s.fileItem.id in (select f.id from FileItem f "
+          + "where f.storageSource.id = :sourceId and (f.id = :id or f.directoryPath = :path "
+          + "or f.directoryPath like :pattern escape '\\'))")
+  int deleteInSubtree(
+      @Param("sourceId") Long storageSourceId,
+      @Param("id") Long id,
+      @Param("path") String path,
+      @Param("pattern") String pattern);
+
+  @Query("select min(s.expiresAt) from ShortLink s where s.expiresAt < :now")
+  Optional<Instant> findOldestExpiry(@Param("now") Instant now);
+
+  /**
+   * Deletes up to {@code limit} expired links, oldest first. Rows locked by a purge running on
+   * another node are skipped rather than waited for, so concurrent purgers split the work.
+   */
   @Transactional
   @Modifying
-  @Query("delete from ShortLink s where s.expiresAt is not null and s.expiresAt < :now")
-  void deleteExpired(@Param("now") Instant now);
+  @Query(
+      value =
+          "delete from short_links where id in (select id from short_links "
+              + "where expires_at < :now order by expires_at limit :limit for update skip locked)",
+      nativeQuery = true)
+  int deleteExpiredBatch(@Param("now") Instant now, @Param("limit") int limit);
 }
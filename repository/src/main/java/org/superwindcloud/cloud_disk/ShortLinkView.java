@@ -0,0 +1,13 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Instant;
+
+/** Listing projection of a {@link ShortLink} and the name of the file it points at. */
+public record ShortLinkView(
+    Long id,
+    String token,
+    String accessCode,
+    Long fileItemId,
+    String filename,
+    Instant expiresAt,
+    Instant createdAt) {}
@@ -0,0 +1,35 @@
+package org.superwindcloud.cloud_disk;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface StorageBlobRepository extends JpaRepository<StorageBlob, Long> {
+  Optional<StorageBlob> findByStorageSourceIdAndContentHash(
+      Long storageSourceId, String contentHash);
+
+  List<StorageBlob> findByStorageSourceIdAndContentHashIn(
+      Long storageSourceId, Collection<String> contentHashes);
+
+  @Transactional
+  @Modifying
+  @Query(
+      "update StorageBlob b set b.refCount = b.refCount + 1 "
+          + "where b.storageSource.id = :sourceId and b.contentHash = :hash")
+  int incrementReferences(@Param("sourceId") Long storageSourceId, @Param("hash") String hash);
+
+  @Transactional
+  @Modifying
+  @Query("update StorageBlob b set b.refCount = b.refCount - :count where b.id = :id")
+  int decrementReferences(@Param("id") Long id, @Param("count") long count);
+
+  @Transactional
+  @Modifying
+  @Query("delete from StorageBlob b where b.id = :id and b.refCount <= 0")
+  int deleteIfUnreferenced(@Param("id") Long id);
+}
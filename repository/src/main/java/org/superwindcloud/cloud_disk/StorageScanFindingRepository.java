@@ -0,0 +1,33 @@
+package org.superwindcloud.cloud_disk;
+
+import java.util.List;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface StorageScanFindingRepository extends JpaRepository<StorageScanFinding, Long> {
+  @Query(
+      "select f from StorageScanFinding f where f.scanId = :scanId and f.id > :afterId "
+          + "order by f.id")
+  List<StorageScanFinding> findPage(
+      @Param("scanId") Long scanId, @Param("afterId") long afterId, Limit limit);
+
+  @Query(
+      "select f from StorageScanFinding f where f.scanId = :scanId and f.kind = :kind "
+          + "and f.id > :afterId order by f.id")
+  List<StorageScanFinding> findPage(
+      @Param("scanId") Long scanId,
+      @Param("kind") StorageScanFindingKind kind,
+      @Param("afterId") long afterId,
+      Limit limit);
+
+  /** Drops the findings of the source's scans older than {@code scanId}. */
+  @Modifying
+  @Query(
+      "delete from StorageScanFinding f where f.scanId in "
+          + "(select s.id from StorageScan s where s.storageSource.id = :sourceId "
+          + "and s.id < :scanId)")
+  int deleteSuperseded(@Param("sourceId") Long storageSourceId, @Param("scanId") Long scanId);
+}
@@ -0,0 +1,27 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface StorageScanRepository extends JpaRepository<StorageScan, Long> {
+  /**
+   * Claims up to {@code limit} unfinished scans that no node holds a live lease on, skipping rows
+   * other nodes are claiming right now.
+   */
+  @Query(
+      value =
+          "select * from storage_scans where status in ('PENDING', 'RUNNING') "
+              + "and (lease_expires_at is null or lease_expires_at < :now) "
+              + "order by id limit :limit for update skip locked",
+      nativeQuery = true)
+  List<StorageScan> lockClaimable(@Param("now") Instant now, @Param("limit") int limit);
+
+  boolean existsByStorageSourceIdAndStatusIn(
+      Long storageSourceId, Collection<StorageScanStatus> statuses);
+
+  List<StorageScan> findTop20ByStorageSourceIdOrderByIdDesc(Long storageSourceId);
+}
@@ -2,7 +2,22 @@ package org.superwindcloud.cloud_disk;
 
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface StorageSourceRepository extends JpaRepository<StorageSource, Long> {
   Optional<StorageSource> findByName(String name);
+
+  /** Sets the quota alone; the source's backend config, and so its runtime, stay as they are. */
+  @Transactional
+  @Modifying
+  @Query("update StorageSource s set s.quotaBytes = :quota where s.id = :id")
+  int updateQuota(@Param("id") Long id, @Param("quota") Long quotaBytes);
+
+  @Transactional
+  @Modifying
+  @Query("update StorageSource s set s.searchEpoch = s.searchEpoch + 1 where s.id = :id")
+  int bumpSearchEpoch(@Param("id") Long id);
 }
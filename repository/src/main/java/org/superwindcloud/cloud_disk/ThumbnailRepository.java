@@ -0,0 +1,25 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Instant;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface ThumbnailRepository extends JpaRepository<Thumbnail, Long> {
+  List<Thumbnail> findByStorageSourceIdAndContentKey(Long storageSourceId, String contentKey);
+
+  /**
+   * Claims up to {@code limit} thumbnails older than {@code before} whose image no file of the
+   * source holds any more, tombstoned files included, skipping rows other nodes hold.
+   */
+  @Query(
+      value =
+          "select * from thumbnails t where t.created_at < :before and not exists ("
+              + "select 1 from file_items f where f.storage_source_id = t.storage_source_id "
+              + "and (f.content_hash = t.content_key or (t.content_key like 'path:%' "
+              + "and f.storage_path = substring(t.content_key, 6)))) "
+              + "order by t.id limit :limit for update skip locked",
+      nativeQuery = true)
+  List<Thumbnail> lockOrphans(@Param("before") Instant before, @Param("limit") int limit);
+}
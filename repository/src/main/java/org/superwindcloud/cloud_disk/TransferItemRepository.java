@@ -0,0 +1,103 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Instant;
+import java.util.List;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface TransferItemRepository extends JpaRepository<TransferItem, Long> {
+  /** Items of a job in a given state, in planning order, starting after item {@code afterId}. */
+  @Query(
+      "select i from TransferItem i where i.job.id = :jobId and i.status = :status "
+          + "and i.directory = :directory and i.id > :afterId order by i.id")
+  List<TransferItem> findPage(
+      @Param("jobId") Long jobId,
+      @Param("status") TransferStatus status,
+      @Param("directory") boolean directory,
+      @Param("afterId") long afterId,
+      Limit limit);
+
+  /**
+   * Items of a job a run may claim, in planning order, starting after item {@code afterId}: those
+   * pending and those whose claim ran out.
+   */
+  @Query(
+      "select i from TransferItem i where i.job.id = :jobId and i.directory = :directory "
+          + "and i.id > :afterId and (i.status = :pending "
+          + "or (i.status = :running and i.claimExpiresAt < :now)) order by i.id")
+  List<TransferItem> findClaimable(
+      @Param("jobId") Long jobId,
+      @Param("directory") boolean directory,
+      @Param("afterId") long afterId,
+      @Param("pending") TransferStatus pending,
+      @Param("running") TransferStatus running,
+      @Param("now") Instant now,
+      Limit limit);
+
+  long countByJobIdAndStatusAndDirectory(Long jobId, TransferStatus status, boolean directory);
+
+  /** Status, directory flag, item count and total size of a job's items, per status and kind. */
+  @Query(
+      "select i.status, i.directory, count(i), coalesce(sum(i.size), 0) from TransferItem i "
+          + "where i.job.id = :jobId group by i.status, i.directory")
+  List<Object[]> summarize(@Param("jobId") Long jobId);
+
+  List<TransferItem> findTop20ByJobIdAndStatusOrderByIdAsc(Long jobId, TransferStatus status);
+
+  /**
+   * Claims an item for run {@code owner} until {@code until}; returns 0 if it is not pending and
+   * its last claim has not run out.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update TransferItem i set i.status = :running, i.claimOwner = :owner, "
+          + "i.claimExpiresAt = :until where i.id = :id and (i.status = :pending "
+          + "or (i.status = :running and i.claimExpiresAt < :now))")
+  int claim(
+      @Param("id") Long id,
+      @Param("pending") TransferStatus pending,
+      @Param("running") TransferStatus running,
+      @Param("owner") String owner,
+      @Param("now") Instant now,
+      @Param("until") Instant until);
+
+  /** Extends the claims run {@code owner} holds on a job's items. */
+  @Transactional
+  @Modifying
+  @Query(
+      "update TransferItem i set i.claimExpiresAt = :until "
+          + "where i.job.id = :jobId and i.status = :running and i.claimOwner = :owner")
+  int renewClaims(
+      @Param("jobId") Long jobId,
+      @Param("running") TransferStatus running,
+      @Param("owner") String owner,
+      @Param("until") Instant until);
+
+  /** Records the outcome of an item; returns 0 if run {@code owner} no longer holds its claim. */
+  @Transactional
+  @Modifying
+  @Query(
+      "update TransferItem i set i.status = :status, i.targetFileId = :targetFileId, "
+          + "i.error = :error, i.claimExpiresAt = null where i.id = :id and i.claimOwner = :owner")
+  int finish(
+      @Param("id") Long id,
+      @Param("owner") String owner,
+      @Param("status") TransferStatus status,
+      @Param("targetFileId") Long targetFileId,
+      @Param("error") String error);
+
+  /** Puts a job's failed items back in line; returns how many there were. */
+  @Modifying
+  @Query(
+      "update TransferItem i set i.status = :pending, i.error = null "
+          + "where i.job.id = :jobId and i.status = :failed")
+  int retryFailed(
+      @Param("jobId") Long jobId,
+      @Param("pending") TransferStatus pending,
+      @Param("failed") TransferStatus failed);
+}
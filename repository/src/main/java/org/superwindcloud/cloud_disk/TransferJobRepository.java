@@ -0,0 +1,35 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Instant;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface TransferJobRepository extends JpaRepository<TransferJob, Long> {
+  /**
+   * Claims up to {@code limit} unfinished jobs that no node holds a live lease on, skipping rows
+   * other nodes are claiming right now.
+   */
+  @Query(
+      value =
+          "select * from transfer_jobs where status in ('PENDING', 'RUNNING') "
+              + "and (lease_expires_at is null or lease_expires_at < :now) "
+              + "order by id limit :limit for update skip locked",
+      nativeQuery = true)
+  List<TransferJob> lockClaimable(@Param("now") Instant now, @Param("limit") int limit);
+
+  /** Extends the lease of a running job; returns 0 once the job was cancelled or taken over. */
+  @Transactional
+  @Modifying
+  @Query(
+      "update TransferJob j set j.leaseExpiresAt = :until "
+          + "where j.id = :id and j.status = :running and j.leaseOwner = :owner")
+  int renewLease(
+      @Param("id") Long id,
+      @Param("running") TransferStatus running,
+      @Param("owner") String owner,
+      @Param("until") Instant until);
+}
@@ -0,0 +1,34 @@
+package org.superwindcloud.cloud_disk;
+
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface UploadChunkRepository extends JpaRepository<UploadChunk, Long> {
+  List<UploadChunk> findBySessionIdOrderByChunkIndexAsc(Long sessionId);
+
+  @Query(
+      "select c.chunkIndex from UploadChunk c where c.session.id = :sessionId "
+          + "order by c.chunkIndex")
+  List<Integer> findChunkIndexes(@Param("sessionId") Long sessionId);
+
+  /** Records a re-sent chunk over the earlier one; 0 if the chunk was not stored before. */
+  @Transactional
+  @Modifying
+  @Query(
+      "update UploadChunk c set c.size = :size, c.etag = :etag "
+          + "where c.session.id = :sessionId and c.chunkIndex = :chunkIndex")
+  int updateChunk(
+      @Param("sessionId") Long sessionId,
+      @Param("chunkIndex") Integer chunkIndex,
+      @Param("size") Long size,
+      @Param("etag") String etag);
+
+  @Transactional
+  @Modifying
+  @Query("delete from UploadChunk c where c.session.id = :sessionId")
+  void deleteBySessionId(@Param("sessionId") Long sessionId);
+}
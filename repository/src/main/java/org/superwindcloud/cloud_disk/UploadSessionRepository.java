@@ -0,0 +1,59 @@
+package org.superwindcloud.cloud_disk;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, Long> {
+  Optional<UploadSession> findByToken(String token);
+
+  List<UploadSession> findTop100ByExpiresAtBeforeOrderByExpiresAtAsc(Instant now);
+
+  @Transactional
+  @Modifying
+  @Query("update UploadSession s set s.expiresAt = :expiresAt where s.id = :id")
+  void extendExpiry(@Param("id") Long id, @Param("expiresAt") Instant expiresAt);
+
+  /** Registers a chunk write; 0 if the session is being completed, when no write may start. */
+  @Transactional
+  @Modifying
+  @Query(
+      "update UploadSession s set s.activeWrites = s.activeWrites + 1, s.writeStartedAt = :now "
+          + "where s.id = :id and s.completingAt is null")
+  int startWrite(@Param("id") Long id, @Param("now") Instant now);
+
+  @Transactional
+  @Modifying
+  @Query(
+      "update UploadSession s set s.activeWrites = s.activeWrites - 1 "
+          + "where s.id = :id and s.activeWrites > 0")
+  void endWrite(@Param("id") Long id);
+
+  /**
+   * Claims the session for completion; 0 if another request already has, or chunk writes are in
+   * progress. Writes are taken for dead once none started since {@code staleBefore}.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update UploadSession s set s.completingAt = :now where s.id = :id "
+          + "and s.completingAt is null "
+          + "and (s.activeWrites = 0 or s.writeStartedAt < :staleBefore)")
+  int markCompleting(
+      @Param("id") Long id, @Param("now") Instant now, @Param("staleBefore") Instant staleBefore);
+
+  @Transactional
+  @Modifying
+  @Query("update UploadSession s set s.completingAt = null where s.id = :id")
+  void clearCompleting(@Param("id") Long id);
+
+  @Transactional
+  @Modifying
+  @Query("delete from UploadSession s where s.id = :id")
+  void deleteSession(@Param("id") Long id);
+}
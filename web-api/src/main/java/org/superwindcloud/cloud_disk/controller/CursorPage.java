@@ -0,0 +1,51 @@
+package org.superwindcloud.cloud_disk.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a keyset-paginated listing. {@code nextCursor} is an opaque token holding the sort
+ * keys of the last item; it is {@code null} on the last page.
+ */
+public record CursorPage<T>(List<T> items, String nextCursor) {
+  private static final String SEPARATOR = "\n";
+
+  /** Builds a page from {@code limit + 1} fetched rows; the extra row only signals a next page. */
+  static <T> CursorPage<T> of(List<T> rows, int limit, Function<T, String> cursorOf) {
+    if (rows.size() <= limit) {
+      return new CursorPage<>(rows, null);
+    }
+    List<T> items = List.copyOf(rows.subList(0, limit));
+    return new CursorPage<>(items, cursorOf.apply(items.get(limit - 1)));
+  }
+
+  static String encode(Object... keys) {
+    StringBuilder joined = new StringBuilder();
+    for (Object key : keys) {
+      if (!joined.isEmpty()) {
+        joined.append(SEPARATOR);
+      }
+      joined.append(key);
+    }
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(joined.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  static String[] decode(String cursor, int keys) {
+    String[] parts;
+    try {
+      parts =
+          new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+              .split(SEPARATOR, -1);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid cursor", e);
+    }
+    if (parts.length != keys) {
+      throw new IllegalArgumentException("Invalid cursor");
+    }
+    return parts;
+  }
+}
@@ -1,121 +1,378 @@
 package org.superwindcloud.cloud_disk.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
-import org.springframework.core.io.InputStreamResource;
+import java.util.concurrent.RejectedExecutionException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpStatus;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.server.ResponseStatusException;
 import org.superwindcloud.cloud_disk.FileItem;
 import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.FileItemView;
 import org.superwindcloud.cloud_disk.ShortLink;
 import org.superwindcloud.cloud_disk.ShortLinkRepository;
+import org.superwindcloud.cloud_disk.ShortLinkView;
+import org.superwindcloud.cloud_disk.StorageBlob;
 import org.superwindcloud.cloud_disk.StorageSource;
-import org.superwindcloud.cloud_disk.StorageSourceRepository;
+import org.superwindcloud.cloud_disk.TransferMode;
+import org.superwindcloud.cloud_disk.service.ArchiveService;
+import org.superwindcloud.cloud_disk.service.BatchUploadService;
+import org.superwindcloud.cloud_disk.service.DirectoryService;
+import org.superwindcloud.cloud_disk.service.FileContentService;
+import org.superwindcloud.cloud_disk.service.FileDeletionService;
+import org.superwindcloud.cloud_disk.service.MultipartStreamReader;
+import org.superwindcloud.cloud_disk.service.SearchIndex;
 import org.superwindcloud.cloud_disk.service.ShortLinkService;
+import org.superwindcloud.cloud_disk.service.StorageUsageService;
+import org.superwindcloud.cloud_disk.service.ThumbnailService;
+import org.superwindcloud.cloud_disk.service.TransferService;
+import org.superwindcloud.cloud_disk.storage.BlobRegistry;
+import org.superwindcloud.cloud_disk.storage.CountingInputStream;
 import org.superwindcloud.cloud_disk.storage.LinkableStorageService;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
 import org.superwindcloud.cloud_disk.storage.StorageService;
 
 @RestController
 @RequestMapping("/api/files")
 public class FileController {
-  private final List<StorageService> storageServices;
-  private final StorageSourceRepository storageSourceRepository;
+  private static final int MAX_FIELD_BYTES = 4096;
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  private static final int MAX_PAGE_SIZE = 1000;
+  private static final int MAX_QUERY_LENGTH = 200;
+
+  /** Sorts after any real creation time while staying within every database's timestamp range. */
+  private static final Instant BROWSE_START = Instant.parse("9999-12-31T23:59:59Z");
+
+  private final StorageRuntimeRegistry storageRuntimeRegistry;
   private final FileItemRepository fileItemRepository;
   private final ShortLinkService shortLinkService;
   private final ShortLinkRepository shortLinkRepository;
+  private final FileContentService fileContentService;
+  private final DirectoryService directoryService;
+  private final BlobRegistry blobRegistry;
+  private final FileDeletionService fileDeletionService;
+  private final ArchiveService archiveService;
+  private final BatchUploadService batchUploadService;
+  private final TransferService transferService;
+  private final ThumbnailService thumbnailService;
+  private final SearchIndex searchIndex;
+  private final StorageUsageService storageUsageService;
+
+  @Value("${storage.upload.max-file-size:1GB}")
+  private DataSize maxUploadSize;
+
+  @Value("${storage.http.cache.download-max-age:0s}")
+  private Duration downloadMaxAge;
+
+  @Value("${storage.http.cache.preview-max-age:10m}")
+  private Duration previewMaxAge;
+
+  @Value("${storage.http.cache.thumbnail-max-age:7d}")
+  private Duration thumbnailMaxAge;
+
+  @Value("${storage.short-link.max-ttl:3650d}")
+  private Duration maxShortLinkTtl;
+
+  @Value("${storage.search.max-results:1000}")
+  private int maxSearchResults;
 
   public FileController(
-      List<StorageService> storageServices,
-      StorageSourceRepository storageSourceRepository,
+      StorageRuntimeRegistry storageRuntimeRegistry,
       FileItemRepository fileItemRepository,
       ShortLinkService shortLinkService,
-      ShortLinkRepository shortLinkRepository) {
-    this.storageServices = List.copyOf(storageServices);
-    this.storageSourceRepository = storageSourceRepository;
+      ShortLinkRepository shortLinkRepository,
+      FileContentService fileContentService,
+      DirectoryService directoryService,
+      BlobRegistry blobRegistry,
+      FileDeletionService fileDeletionService,
+      ArchiveService archiveService,
+      BatchUploadService batchUploadService,
+      TransferService transferService,
+      ThumbnailService thumbnailService,
+      SearchIndex searchIndex,
+      StorageUsageService storageUsageService) {
+    this.storageRuntimeRegistry = storageRuntimeRegistry;
     this.fileItemRepository = fileItemRepository;
     this.shortLinkService = shortLinkService;
     this.shortLinkRepository = shortLinkRepository;
+    this.fileContentService = fileContentService;
+    this.directoryService = directoryService;
+    this.blobRegistry = blobRegistry;
+    this.fileDeletionService = fileDeletionService;
+    this.archiveService = archiveService;
+    this.batchUploadService = batchUploadService;
+    this.transferService = transferService;
+    this.thumbnailService = thumbnailService;
+    this.searchIndex = searchIndex;
+    this.storageUsageService = storageUsageService;
   }
 
+  /**
+   * Multipart upload parsed in a single pass over the request body. {@code sourceId} and {@code
+   * path} may be sent as query parameters or as form fields placed before the file part.
+   */
   @PostMapping("/upload")
   public FileItem upload(
+      @RequestParam(required = false) Long sourceId,
+      @RequestParam(value = "path", required = false, defaultValue = "") String path,
+      HttpServletRequest request)
+      throws IOException {
+    MultipartStreamReader reader =
+        MultipartStreamReader.forContentType(request.getInputStream(), request.getContentType());
+    Long targetSourceId = sourceId;
+    String targetPath = path;
+    FileItem stored = null;
+    for (MultipartStreamReader.Part part = reader.next(); part != null; part = reader.next()) {
+      if (!part.isFile()) {
+        if ("sourceId".equals(part.name())) {
+          targetSourceId = Long.valueOf(part.readString(MAX_FIELD_BYTES).trim());
+        } else if ("path".equals(part.name())) {
+          targetPath = part.readString(MAX_FIELD_BYTES);
+        }
+        continue;
+      }
+      if (!"file".equals(part.name()) || stored != null) {
+        continue;
+      }
+      if (targetSourceId == null) {
+        throw new IllegalArgumentException("sourceId must be sent before the file part");
+      }
+      storageUsageService.checkQuota(targetSourceId, request.getContentLengthLong());
+      stored =
+          storeStream(
+                  targetSourceId, targetPath, part.filename(), part.contentType(), -1, part.body())
+              .item();
+    }
+    if (stored == null) {
+      throw new IllegalArgumentException("A file part is required");
+    }
+    return stored;
+  }
+
+  /**
+   * Stores every {@code file} part of one multipart request, for example a whole folder. Parts are
+   * placed by their relative paths under {@code path}; see {@link BatchUploadService#upload}. Files
+   * that fail are listed with their error while the others are still stored.
+   */
+  @PostMapping("/batch")
+  public BatchUploadService.Result uploadBatch(
+      @RequestParam(required = false) Long sourceId,
+      @RequestParam(value = "path", required = false, defaultValue = "") String path,
+      HttpServletRequest request)
+      throws IOException {
+    return batchUploadService.upload(
+        sourceId,
+        path,
+        request.getContentLengthLong(),
+        MultipartStreamReader.forContentType(request.getInputStream(), request.getContentType()));
+  }
+
+  /**
+   * Raw-body upload: the request bytes are piped straight into the storage backend. Requests
+   * without a {@code Content-Length} (chunked transfer encoding) are accepted as well.
+   */
+  @PutMapping("/stream")
+  public UploadResult uploadStream(
       @RequestParam Long sourceId,
       @RequestParam(value = "path", required = false, defaultValue = "") String path,
-      @RequestParam("file") MultipartFile multipartFile)
-      throws Exception {
-    String directoryPath = normalizeDirectory(path);
-    StorageSource source =
-        storageSourceRepository
-            .findById(sourceId)
-            .orElseThrow(() -> new IllegalArgumentException("Storage source not found"));
-    StorageService storageService = resolveStorage(source);
-    storageService.ensureDirectory(source, directoryPath);
-    ensureDirectoryChain(source, directoryPath);
-    FileItem item =
-        storageService.store(
-            source,
-            directoryPath,
-            multipartFile.getOriginalFilename(),
-            multipartFile.getContentType(),
-            multipartFile.getSize(),
-            multipartFile.getInputStream());
-    return item;
+      @RequestParam String filename,
+      HttpServletRequest request)
+      throws IOException {
+    return storeStream(
+        sourceId,
+        path,
+        filename,
+        request.getContentType(),
+        request.getContentLengthLong(),
+        request.getInputStream());
   }
 
-  @GetMapping
-  public List<FileItem> list(@RequestParam(required = false) Long sourceId) {
-    if (sourceId != null) {
-      return fileItemRepository.findByStorageSourceIdOrderByCreatedAtDesc(sourceId);
+  /**
+   * Instant upload: if the source already stores content with this SHA-256 and size, the file is
+   * created by reference without any bytes being sent. A miss answers 404 and the client falls back
+   * to a regular upload.
+   */
+  @PostMapping("/instant")
+  public FileItem instantUpload(
+      @RequestParam Long sourceId,
+      @RequestParam(value = "path", required = false, defaultValue = "") String path,
+      @RequestParam String filename,
+      @RequestParam String sha256,
+      @RequestParam long size,
+      @RequestParam(required = false) String contentType) {
+    String directoryPath = directoryService.normalizeDirectory(path);
+    String name = directoryService.normalizeFilename(filename);
+    String hash = sha256.trim().toLowerCase(Locale.ROOT);
+    if (!hash.matches("[0-9a-f]{64}")) {
+      throw new IllegalArgumentException("sha256 must be 64 hexadecimal characters");
+    }
+    if (size > maxUploadSize.toBytes()) {
+      throw new MaxUploadSizeExceededException(maxUploadSize.toBytes());
+    }
+    storageUsageService.checkQuota(sourceId, size);
+    StorageSource source = storageRuntimeRegistry.source(sourceId);
+    StorageService storageService = storageRuntimeRegistry.service(source);
+    StorageBlob blob =
+        blobRegistry
+            .acquireExisting(source, hash, size)
+            .orElseThrow(
+                () ->
+                    new ResponseStatusException(
+                        HttpStatus.NOT_FOUND, "No stored content matches this hash"));
+
+    FileItem item = new FileItem();
+    item.setFilename(name);
+    item.setStorageSource(source);
+    item.setStoragePath(blob.getStoragePath());
+    item.setDirectoryPath(directoryPath);
+    item.setSize(blob.getSize());
+    item.setContentType(contentType);
+    item.setContentHash(hash);
+    try {
+      storageService.ensureDirectory(source, directoryPath);
+      directoryService.ensureDirectoryChain(source, directoryPath);
+      return fileItemRepository.save(item);
+    } catch (RuntimeException e) {
+      storageService.delete(source, item);
+      throw e;
     }
-    return fileItemRepository.findAll();
   }
 
+  /** Every item of a source, or of all sources, newest first. */
+  @GetMapping
+  public CursorPage<FileItemView> list(
+      @RequestParam(required = false) Long sourceId,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+    int size = pageSize(limit);
+    long beforeId = cursor == null ? Long.MAX_VALUE : idCursor(cursor);
+    List<FileItemView> rows =
+        sourceId == null
+            ? fileItemRepository.listViews(beforeId, Limit.of(size + 1))
+            : fileItemRepository.listViews(sourceId, beforeId, Limit.of(size + 1));
+    return CursorPage.of(rows, size, item -> CursorPage.encode(item.id()));
+  }
+
+  /** The children of one directory: folders first, then newest first. */
   @GetMapping("/browse")
-  public List<FileItem> browse(
-      @RequestParam Long sourceId, @RequestParam(required = false, defaultValue = "") String path) {
-    String directoryPath = normalizeDirectory(path);
-    return fileItemRepository
-        .findByStorageSourceIdAndDirectoryPathOrderByDirectoryDescCreatedAtDesc(
-            sourceId, directoryPath);
+  public CursorPage<FileItemView> browse(
+      @RequestParam Long sourceId,
+      @RequestParam(required = false, defaultValue = "") String path,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+    String directoryPath = directoryService.normalizeDirectory(path);
+    int size = pageSize(limit);
+    boolean directory = true;
+    Instant createdAt = BROWSE_START;
+    long id = Long.MAX_VALUE;
+    if (cursor != null) {
+      String[] keys = CursorPage.decode(cursor, 3);
+      try {
+        directory = Boolean.parseBoolean(keys[0]);
+        createdAt = Instant.parse(keys[1]);
+        id = Long.parseLong(keys[2]);
+      } catch (DateTimeException | NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid cursor", e);
+      }
+    }
+    List<FileItemView> rows =
+        fileItemRepository.browseViews(
+            sourceId, directoryPath, directory, createdAt, id, Limit.of(size + 1));
+    return CursorPage.of(
+        rows, size, item -> CursorPage.encode(item.directory(), item.createdAt(), item.id()));
+  }
+
+  /**
+   * Items of a source whose name or folder path contains every word of {@code q}, best matches
+   * first, with matches on the name alone ahead of those that need the path; see {@link
+   * SearchIndex}. {@code path} limits the search to one folder and everything below it. Only the
+   * first {@code storage.search.max-results} matches can be paged through.
+   */
+  @GetMapping("/search")
+  public CursorPage<FileItemView> search(
+      @RequestParam Long sourceId,
+      @RequestParam String q,
+      @RequestParam(required = false, defaultValue = "") String path,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+    if (q.isBlank() || q.length() > MAX_QUERY_LENGTH) {
+      throw new IllegalArgumentException(
+          "q must be between 1 and " + MAX_QUERY_LENGTH + " characters");
+    }
+    int size = pageSize(limit);
+    long offset = cursor == null ? 0 : idCursor(cursor);
+    if (offset < 0 || offset >= maxSearchResults) {
+      throw new IllegalArgumentException(
+          "Only the first " + maxSearchResults + " matches can be listed");
+    }
+    storageRuntimeRegistry.source(sourceId);
+    SearchIndex.Matches matches =
+        searchIndex.search(
+            sourceId,
+            q,
+            directoryService.normalizeDirectory(path),
+            (int) offset,
+            (int) Math.min(size, maxSearchResults - offset));
+    boolean more = matches.next() >= 0 && matches.next() < maxSearchResults;
+    return new CursorPage<>(matches.items(), more ? CursorPage.encode(matches.next()) : null);
   }
 
   @PostMapping("/directories")
   public FileItem createDirectory(
       @RequestParam Long sourceId, @RequestParam(value = "path", required = true) String path) {
-    String normalized = normalizeDirectory(path);
+    String normalized = directoryService.normalizeDirectory(path);
     if (normalized.isBlank()) {
       throw new IllegalArgumentException("Directory path cannot be blank");
     }
-    StorageSource source =
-        storageSourceRepository
-            .findById(sourceId)
-            .orElseThrow(() -> new IllegalArgumentException("Storage source not found"));
-    StorageService storageService = resolveStorage(source);
+    StorageSource source = storageRuntimeRegistry.source(sourceId);
+    StorageService storageService = storageRuntimeRegistry.service(source);
     storageService.ensureDirectory(source, normalized);
 
-    return ensureDirectoryChain(source, normalized);
+    return directoryService.createDirectory(source, normalized);
+  }
+
+  /** The file or folder at {@code path}; a folder wins over a file of the same name. */
+  @GetMapping("/by-path")
+  public FileItemView findByPath(@RequestParam Long sourceId, @RequestParam String path) {
+    String normalized = directoryService.normalizeDirectory(path);
+    return directoryService
+        .findByPath(sourceId, normalized)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"));
   }
 
   @GetMapping("/{id}/download")
-  public ResponseEntity<InputStreamResource> download(@PathVariable Long id) {
+  public void download(
+      @PathVariable Long id, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     FileItem file =
         fileItemRepository
             .findById(id)
@@ -123,25 +380,54 @@ public class FileController {
     if (file.isDirectory()) {
       throw new IllegalArgumentException("Cannot download a directory");
     }
-    StorageSource source = file.getStorageSource();
-    StorageService storageService = resolveStorage(source);
-    InputStream stream = storageService.load(source, file);
-    String contentType =
-        StringUtils.hasText(file.getContentType())
-            ? file.getContentType()
-            : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    StorageService storageService = storageRuntimeRegistry.service(file.getStorageSource());
     ContentDisposition disposition =
         ContentDisposition.attachment()
             .filename(file.getFilename(), StandardCharsets.UTF_8)
             .build();
-    return ResponseEntity.ok()
-        .header(HttpHeaders.CONTENT_DISPOSITION, disposition.toString())
-        .contentType(MediaType.parseMediaType(contentType))
-        .body(new InputStreamResource(stream));
+    fileContentService.serve(
+        request, response, storageService, file, disposition, downloadCacheControl());
+  }
+
+  /** A folder with its whole subtree, or a single file, as one streamed ZIP or TAR archive. */
+  @GetMapping("/{id}/archive")
+  public void archive(
+      @PathVariable Long id,
+      @RequestParam(required = false) String format,
+      HttpServletResponse response)
+      throws IOException {
+    FileItem item =
+        fileItemRepository
+            .findById(id)
+            .orElseThrow(() -> new IllegalArgumentException("File not found"));
+    streamArchive(List.of(item), item.getFilename(), ArchiveService.Format.of(format), response);
+  }
+
+  /** Any selection of files and folders from one source as a single archive. */
+  @PostMapping("/archive")
+  public void archiveSelection(
+      @RequestBody(required = false) Map<String, Object> body, HttpServletResponse response)
+      throws IOException {
+    List<Long> ids = ids(body);
+    List<FileItem> items = fileItemRepository.findAllById(ids);
+    if (items.size() != ids.size()) {
+      throw new IllegalArgumentException("File not found");
+    }
+    if (items.stream().map(item -> item.getStorageSource().getId()).distinct().count() > 1) {
+      throw new IllegalArgumentException("Archived items must come from one storage source");
+    }
+    Object format = body.get("format");
+    streamArchive(
+        items,
+        items.size() == 1 ? items.get(0).getFilename() : "download",
+        ArchiveService.Format.of(format == null ? null : format.toString()),
+        response);
   }
 
   @GetMapping("/{id}/preview")
-  public ResponseEntity<InputStreamResource> preview(@PathVariable Long id) {
+  public void preview(
+      @PathVariable Long id, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
     FileItem file =
         fileItemRepository
             .findById(id)
@@ -149,19 +435,57 @@ public class FileController {
     if (file.isDirectory()) {
       throw new IllegalArgumentException("Cannot preview a directory");
     }
-    StorageSource source = file.getStorageSource();
-    StorageService storageService = resolveStorage(source);
-    InputStream stream = storageService.load(source, file);
-    String contentType =
-        StringUtils.hasText(file.getContentType())
-            ? file.getContentType()
-            : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    StorageService storageService = storageRuntimeRegistry.service(file.getStorageSource());
     ContentDisposition disposition =
         ContentDisposition.inline().filename(file.getFilename(), StandardCharsets.UTF_8).build();
-    return ResponseEntity.ok()
-        .header(HttpHeaders.CONTENT_DISPOSITION, disposition.toString())
-        .contentType(MediaType.parseMediaType(contentType))
-        .body(new InputStreamResource(stream));
+    fileContentService.serve(
+        request, response, storageService, file, disposition, previewCacheControl());
+  }
+
+  /**
+   * A downscaled JPEG or PNG of an image whose longer edge is {@code size} pixels, rendered on
+   * first request and stored alongside the image. Answers 415 for files that are not decodable
+   * images and 503 while the render queue is full.
+   */
+  @GetMapping("/{id}/thumbnail")
+  public void thumbnail(
+      @PathVariable Long id,
+      @RequestParam(defaultValue = "256") int size,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException {
+    FileItem file =
+        fileItemRepository
+            .findById(id)
+            .orElseThrow(() -> new IllegalArgumentException("File not found"));
+    FileItem thumbnail;
+    try {
+      thumbnail =
+          thumbnailService
+              .thumbnail(file, size)
+              .orElseThrow(
+                  () ->
+                      new ResponseStatusException(
+                          HttpStatus.UNSUPPORTED_MEDIA_TYPE, "No thumbnail for this file"));
+    } catch (RejectedExecutionException e) {
+      response.setHeader(HttpHeaders.RETRY_AFTER, "5");
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
+    }
+    ContentDisposition disposition =
+        ContentDisposition.inline()
+            .filename(thumbnail.getFilename(), StandardCharsets.UTF_8)
+            .build();
+    // Thumbnails are addressed by content, so a changed image gets a new tag rather than stale
+    // bytes.
+    fileContentService.serve(
+        request,
+        response,
+        storageRuntimeRegistry.service(file.getStorageSource()),
+        thumbnail,
+        disposition,
+        thumbnailMaxAge.isZero()
+            ? CacheControl.noCache().cachePrivate()
+            : CacheControl.maxAge(thumbnailMaxAge).cachePrivate());
   }
 
   @PostMapping("/{id}/short-link")
@@ -179,6 +503,10 @@ public class FileController {
     if (body != null && body.containsKey("ttlSeconds")) {
       Object ttlSeconds = body.get("ttlSeconds");
       if (ttlSeconds instanceof Number number && number.longValue() > 0) {
+        if (number.longValue() > maxShortLinkTtl.toSeconds()) {
+          throw new IllegalArgumentException(
+              "ttlSeconds cannot exceed " + maxShortLinkTtl.toSeconds());
+        }
         ttl = Duration.ofSeconds(number.longValue());
       }
     }
@@ -199,8 +527,13 @@ public class FileController {
   }
 
   @GetMapping("/short-links")
-  public List<ShortLink> shortLinks() {
-    return shortLinkRepository.findAll();
+  public CursorPage<ShortLinkView> shortLinks(
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+    int size = pageSize(limit);
+    long beforeId = cursor == null ? Long.MAX_VALUE : idCursor(cursor);
+    List<ShortLinkView> rows = shortLinkRepository.listViews(beforeId, Limit.of(size + 1));
+    return CursorPage.of(rows, size, link -> CursorPage.encode(link.id()));
   }
 
   @PostMapping("/{id}/direct-link")
@@ -218,11 +551,15 @@ public class FileController {
     if (body != null && body.containsKey("ttlSeconds")) {
       Object ttlSeconds = body.get("ttlSeconds");
       if (ttlSeconds instanceof Number number && number.longValue() > 0) {
+        if (number.longValue() > maxShortLinkTtl.toSeconds()) {
+          throw new IllegalArgumentException(
+              "ttlSeconds cannot exceed " + maxShortLinkTtl.toSeconds());
+        }
         ttl = Duration.ofSeconds(number.longValue());
       }
     }
     StorageSource source = file.getStorageSource();
-    StorageService storageService = resolveStorage(source);
+    StorageService storageService = storageRuntimeRegistry.service(source);
     if (storageService instanceof LinkableStorageService linkable) {
       Optional<String> url = linkable.generateDirectDownloadUrl(source, file, ttl);
       if (url.isPresent()) {
@@ -243,7 +580,7 @@ public class FileController {
     if (body == null || !body.containsKey("filename")) {
       throw new IllegalArgumentException("New filename is required");
     }
-    String newName = normalizeFilename(body.get("filename"));
+    String newName = directoryService.normalizeFilename(body.get("filename"));
     FileItem item =
         fileItemRepository
             .findById(id)
@@ -251,31 +588,33 @@ public class FileController {
     if (newName.equals(item.getFilename())) {
       return item;
     }
-    StorageSource source = item.getStorageSource();
-    if (fileItemRepository.existsByStorageSourceIdAndDirectoryPathAndFilename(
-        source.getId(), item.getDirectoryPath(), newName)) {
-      throw new IllegalArgumentException("A file or folder with this name already exists here");
-    }
-    if (item.isDirectory()) {
-      String oldFullPath = fullPath(item);
-      String newFullPath =
-          item.getDirectoryPath().isBlank() ? newName : item.getDirectoryPath() + "/" + newName;
-      List<FileItem> descendants = fileItemRepository.findDescendants(source.getId(), oldFullPath);
-      for (FileItem descendant : descendants) {
-        String path = descendant.getDirectoryPath();
-        String updatedPath =
-            path.equals(oldFullPath)
-                ? newFullPath
-                : newFullPath + path.substring(oldFullPath.length());
-        descendant.setDirectoryPath(updatedPath);
-      }
-      fileItemRepository.saveAll(descendants);
-      item.setStoragePath(newFullPath + "/");
+    FileItem saved = directoryService.relocate(item, item.getDirectoryPath(), newName);
+    shortLinkService.evictFile(saved.getId());
+    return saved;
+  }
+
+  /** Moves a file or folder, with everything under it, into another directory of its source. */
+  @PostMapping("/{id}/move")
+  @Transactional
+  public FileItem move(
+      @PathVariable Long id, @RequestBody(required = false) Map<String, String> body) {
+    if (body == null || !body.containsKey("path")) {
+      throw new IllegalArgumentException("Target path is required");
     }
-    item.setFilename(newName);
-    return fileItemRepository.save(item);
+    String targetPath = directoryService.normalizeDirectory(body.get("path"));
+    FileItem item =
+        fileItemRepository
+            .findById(id)
+            .orElseThrow(() -> new IllegalArgumentException("File not found"));
+    FileItem saved = directoryService.relocate(item, targetPath, item.getFilename());
+    shortLinkService.evictFile(saved.getId());
+    return saved;
   }
 
+  /**
+   * Tombstones the item, and a folder's whole subtree, and returns at once. Metadata and stored
+   * objects are removed in the background; see {@link FileDeletionService}.
+   */
   @DeleteMapping("/{id}")
   @Transactional
   public Map<String, String> delete(@PathVariable Long id) {
@@ -283,126 +622,148 @@ public class FileController {
         fileItemRepository
             .findById(id)
             .orElseThrow(() -> new IllegalArgumentException("File not found"));
-    StorageSource source = item.getStorageSource();
-    StorageService storageService = resolveStorage(source);
-    if (item.isDirectory()) {
-      String fullPath = fullPath(item);
-      List<FileItem> descendants = fileItemRepository.findDescendants(source.getId(), fullPath);
-      for (FileItem child : descendants) {
-        shortLinkRepository.deleteByFileItemId(child.getId());
-        if (!child.isDirectory()) {
-          storageService.delete(source, child);
-        }
-      }
-      fileItemRepository.deleteAll(descendants);
+    int items = fileDeletionService.delete(item);
+    return Map.of("status", "deleted", "items", String.valueOf(items));
+  }
+
+  /**
+   * Copies or moves files and folders, within a source or to another one, as a background job. The
+   * body holds {@code ids}, {@code targetSourceId}, {@code path} and {@code mode} ({@code copy} or
+   * {@code move}); the answer is the job's progress, which can be polled from then on.
+   */
+  @PostMapping("/transfers")
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  public TransferService.Progress transfer(
+      @RequestBody(required = false) Map<String, Object> body) {
+    List<Long> ids = ids(body);
+    if (!(body.get("targetSourceId") instanceof Number targetSourceId)) {
+      throw new IllegalArgumentException("targetSourceId is required");
     }
-    shortLinkRepository.deleteByFileItemId(item.getId());
-    if (!item.isDirectory()) {
-      storageService.delete(source, item);
+    Object path = body.get("path");
+    Object mode = body.get("mode");
+    TransferMode transferMode;
+    try {
+      transferMode =
+          mode == null
+              ? TransferMode.COPY
+              : TransferMode.valueOf(mode.toString().trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("mode must be copy or move", e);
     }
-    fileItemRepository.delete(item);
-    return Map.of("status", "deleted");
+    return transferService.create(
+        ids, targetSourceId.longValue(), path == null ? "" : path.toString(), transferMode);
   }
 
-  private StorageService resolveStorage(StorageSource source) {
-    return storageServices.stream()
-        .filter(s -> s.supports(source))
-        .findFirst()
-        .orElseThrow(() -> new IllegalStateException("No storage service found"));
+  @GetMapping("/transfers/{id}")
+  public TransferService.Progress transferProgress(@PathVariable Long id) {
+    return transferService.progress(id);
   }
 
-  private FileItem ensureDirectoryChain(StorageSource source, String normalizedPath) {
-    if (normalizedPath == null || normalizedPath.isBlank()) {
-      return null;
-    }
-    String parent = "";
-    FileItem last = null;
-    for (String part : normalizedPath.split("/")) {
-      if (part.isBlank()) {
-        continue;
-      }
-      String currentPath = parent.isBlank() ? part : parent + "/" + part;
-      String finalParent = parent;
-      last =
-          fileItemRepository
-              .findFirstByStorageSourceIdAndDirectoryPathAndFilenameAndDirectoryTrue(
-                  source.getId(), parent, part)
-              .orElseGet(
-                  () -> {
-                    FileItem dir = new FileItem();
-                    dir.setDirectory(true);
-                    dir.setDirectoryPath(finalParent);
-                    dir.setFilename(part);
-                    dir.setStorageSource(source);
-                    dir.setStoragePath(currentPath + "/");
-                    dir.setSize(0L);
-                    dir.setContentType("inode/directory");
-                    return fileItemRepository.save(dir);
-                  });
-      parent = currentPath;
-    }
-    return last;
-  }
-
-  private String normalizeDirectory(String raw) {
-    if (raw == null || raw.isBlank()) {
-      return "";
-    }
-    String normalized = raw.trim().replace("\\", "/").replaceAll("/+", "/");
-    if (normalized.startsWith("/")) {
-      normalized = normalized.substring(1);
-    }
-    if (normalized.endsWith("/")) {
-      normalized = normalized.substring(0, normalized.length() - 1);
-    }
-    if (normalized.equals("..") || normalized.contains("../")) {
-      throw new IllegalArgumentException("Invalid directory path");
-    }
-    String[] parts = normalized.split("/");
-    for (String part : parts) {
-      if (part.isEmpty()
-          || part.endsWith(" ")
-          || part.endsWith(".")
-          || part.matches(".*[<>:\"|?*].*")) {
-        throw new IllegalArgumentException("Invalid directory path");
-      }
-    }
-    return normalized;
+  @PostMapping("/transfers/{id}/cancel")
+  public TransferService.Progress cancelTransfer(@PathVariable Long id) {
+    return transferService.cancel(id);
   }
 
-  private String parentPath(String normalized) {
-    int idx = normalized.lastIndexOf('/');
-    return idx < 0 ? "" : normalized.substring(0, idx);
+  /** Requeues a failed or cancelled transfer; files that failed are tried again. */
+  @PostMapping("/transfers/{id}/resume")
+  public TransferService.Progress resumeTransfer(@PathVariable Long id) {
+    return transferService.resume(id);
   }
 
-  private String leaf(String normalized) {
-    int idx = normalized.lastIndexOf('/');
-    return idx < 0 ? normalized : normalized.substring(idx + 1);
+  /** Progress of background deletion. */
+  @GetMapping("/deletions")
+  public FileDeletionService.Status deletions() {
+    return fileDeletionService.status();
   }
 
-  private String fullPath(FileItem file) {
-    return file.getDirectoryPath().isBlank()
-        ? file.getFilename()
-        : file.getDirectoryPath() + "/" + file.getFilename();
+  private void streamArchive(
+      List<FileItem> roots,
+      String baseName,
+      ArchiveService.Format format,
+      HttpServletResponse response)
+      throws IOException {
+    List<ArchiveService.Entry> entries = archiveService.entries(roots);
+    response.setContentType(format.contentType());
+    response.setHeader(
+        HttpHeaders.CONTENT_DISPOSITION,
+        ContentDisposition.attachment()
+            .filename(baseName + "." + format.extension(), StandardCharsets.UTF_8)
+            .build()
+            .toString());
+    response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+    archiveService.write(entries, format, response.getOutputStream());
   }
 
-  private String normalizeFilename(String raw) {
-    if (!StringUtils.hasText(raw)) {
-      throw new IllegalArgumentException("Filename cannot be blank");
+  private UploadResult storeStream(
+      Long sourceId,
+      String path,
+      String rawFilename,
+      String contentType,
+      long size,
+      InputStream data) {
+    String directoryPath = directoryService.normalizeDirectory(path);
+    String filename = directoryService.normalizeFilename(rawFilename);
+    if (size > maxUploadSize.toBytes()) {
+      throw new MaxUploadSizeExceededException(maxUploadSize.toBytes());
     }
-    String cleaned = raw.trim();
-    if (cleaned.equals(".") || cleaned.equals("..")) {
-      throw new IllegalArgumentException("Invalid filename");
+    StorageSource source = storageRuntimeRegistry.source(sourceId);
+    storageUsageService.checkQuota(sourceId, size);
+    StorageService storageService = storageRuntimeRegistry.service(source);
+    storageService.ensureDirectory(source, directoryPath);
+    directoryService.ensureDirectoryChain(source, directoryPath);
+    long started = System.nanoTime();
+    CountingInputStream counted = new CountingInputStream(data, maxUploadSize.toBytes());
+    FileItem item =
+        storageService.store(source, directoryPath, filename, contentType, size, counted);
+    thumbnailService.prepare(item);
+    return UploadResult.of(item, counted.getCount(), System.nanoTime() - started);
+  }
+
+  /** The distinct item ids of a selection body, at most {@value #MAX_PAGE_SIZE} of them. */
+  private List<Long> ids(Map<String, Object> body) {
+    if (body == null || !(body.get("ids") instanceof List<?> rawIds) || rawIds.isEmpty()) {
+      throw new IllegalArgumentException("ids are required");
     }
-    if (cleaned.contains("/") || cleaned.contains("\\")) {
-      throw new IllegalArgumentException("Filename cannot contain path separators");
+    if (rawIds.size() > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("At most " + MAX_PAGE_SIZE + " items per request");
     }
-    if (cleaned.endsWith(" ") || cleaned.endsWith(".")) {
-      throw new IllegalArgumentException("Filename cannot end with space or dot");
+    return rawIds.stream()
+        .map(
+            raw -> {
+              if (raw instanceof Number number) {
+                return number.longValue();
+              }
+              throw new IllegalArgumentException("ids must be numbers");
+            })
+        .distinct()
+        .toList();
+  }
+
+  private int pageSize(int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
     }
-    if (cleaned.matches(".*[<>:\"|?*].*")) {
-      throw new IllegalArgumentException("Filename contains invalid characters");
+    return limit;
+  }
+
+  private long idCursor(String cursor) {
+    try {
+      return Long.parseLong(CursorPage.decode(cursor, 1)[0]);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid cursor", e);
     }
-    return cleaned;
+  }
+
+  private CacheControl downloadCacheControl() {
+    // Downloads are revalidated every time so a deleted file stops being served from caches.
+    return downloadMaxAge.isZero()
+        ? CacheControl.noCache().cachePrivate()
+        : CacheControl.maxAge(downloadMaxAge).cachePrivate();
+  }
+
+  private CacheControl previewCacheControl() {
+    return previewMaxAge.isZero()
+        ? CacheControl.noCache().cachePrivate()
+        : CacheControl.maxAge(previewMaxAge).cachePrivate();
   }
 }
@@ -1,11 +1,15 @@
 package org.superwindcloud.cloud_disk.controller;
 
-import java.io.InputStream;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.http.HttpHeaders;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -13,27 +17,38 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 import org.superwindcloud.cloud_disk.FileItem;
-import org.superwindcloud.cloud_disk.ShortLink;
-import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.service.FileContentService;
+import org.superwindcloud.cloud_disk.service.ResolvedShortLink;
 import org.superwindcloud.cloud_disk.service.ShortLinkService;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
 import org.superwindcloud.cloud_disk.storage.StorageService;
 
 @RestController
 public class ShortLinkRedirectController {
   private final ShortLinkService shortLinkService;
-  private final java.util.List<StorageService> storageServices;
+  private final StorageRuntimeRegistry storageRuntimeRegistry;
+  private final FileContentService fileContentService;
+
+  @Value("${storage.http.cache.short-link-max-age:1m}")
+  private Duration shortLinkMaxAge;
 
   public ShortLinkRedirectController(
-      ShortLinkService shortLinkService, java.util.List<StorageService> storageServices) {
+      ShortLinkService shortLinkService,
+      StorageRuntimeRegistry storageRuntimeRegistry,
+      FileContentService fileContentService) {
     this.shortLinkService = shortLinkService;
-    this.storageServices = java.util.List.copyOf(storageServices);
+    this.storageRuntimeRegistry = storageRuntimeRegistry;
+    this.fileContentService = fileContentService;
   }
 
   @GetMapping("/s/{token}")
-  public ResponseEntity<InputStreamResource> resolve(
+  public void resolve(
       @PathVariable String token,
-      @RequestParam(value = "code", required = false) String accessCode) {
-    ShortLink link =
+      @RequestParam(value = "code", required = false) String accessCode,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException {
+    ResolvedShortLink link =
         shortLinkService
             .resolve(token, accessCode)
             .orElseThrow(
@@ -41,24 +56,35 @@ public class ShortLinkRedirectController {
                     new ResponseStatusException(
                         accessCode == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN,
                         "Link not found, expired, or access code invalid"));
-    FileItem file = link.getFileItem();
+    FileItem file = link.file();
     if (file.isDirectory()) {
       throw new IllegalArgumentException("Cannot serve directories via short link");
     }
-    StorageSource source = file.getStorageSource();
-    StorageService storageService =
-        storageServices.stream()
-            .filter(s -> s.supports(source))
-            .findFirst()
-            .orElseThrow(() -> new IllegalStateException("No storage service found"));
-    InputStream stream = storageService.load(source, file);
-    String contentType =
-        StringUtils.hasText(file.getContentType())
-            ? file.getContentType()
-            : MediaType.APPLICATION_OCTET_STREAM_VALUE;
-    return ResponseEntity.ok()
-        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFilename() + "\"")
-        .contentType(MediaType.parseMediaType(contentType))
-        .body(new InputStreamResource(stream));
+    StorageService storageService = storageRuntimeRegistry.service(file.getStorageSource());
+    ContentDisposition disposition =
+        ContentDisposition.inline().filename(file.getFilename(), StandardCharsets.UTF_8).build();
+    fileContentService.serve(
+        request, response, storageService, file, disposition, cacheControl(link));
+  }
+
+  /**
+   * Short links may expire or be deleted, so shared caches never keep them longer than the link
+   * lives, and links behind an access code are only cached privately.
+   */
+  private CacheControl cacheControl(ResolvedShortLink link) {
+    Duration maxAge = shortLinkMaxAge;
+    if (link.expiresAt() != null) {
+      Duration remaining = Duration.between(Instant.now(), link.expiresAt());
+      if (remaining.compareTo(maxAge) < 0) {
+        maxAge = remaining.isNegative() ? Duration.ZERO : remaining;
+      }
+    }
+    if (maxAge.isZero()) {
+      return CacheControl.noCache();
+    }
+    CacheControl cacheControl = CacheControl.maxAge(maxAge);
+    return StringUtils.hasText(link.accessCode())
+        ? cacheControl.cachePrivate()
+        : cacheControl.cachePublic();
   }
 }
@@ -0,0 +1,29 @@
+package org.superwindcloud.cloud_disk.controller;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.superwindcloud.cloud_disk.service.SmallFileCache;
+import org.superwindcloud.cloud_disk.storage.DiskCache;
+
+@RestController
+@RequestMapping("/api/storage-cache")
+public class StorageCacheController {
+  private final DiskCache diskCache;
+  private final SmallFileCache smallFileCache;
+
+  public StorageCacheController(DiskCache diskCache, SmallFileCache smallFileCache) {
+    this.diskCache = diskCache;
+    this.smallFileCache = smallFileCache;
+  }
+
+  @GetMapping("/stats")
+  public DiskCache.Stats stats() {
+    return diskCache.stats();
+  }
+
+  @GetMapping("/memory/stats")
+  public SmallFileCache.Stats memoryStats() {
+    return smallFileCache.stats();
+  }
+}
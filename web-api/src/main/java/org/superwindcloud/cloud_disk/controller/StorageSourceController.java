@@ -1,23 +1,156 @@
 package org.superwindcloud.cloud_disk.controller;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.superwindcloud.cloud_disk.StorageScanFinding;
+import org.superwindcloud.cloud_disk.StorageScanFindingKind;
+import org.superwindcloud.cloud_disk.StorageScanMode;
 import org.superwindcloud.cloud_disk.StorageSource;
 import org.superwindcloud.cloud_disk.StorageSourceRepository;
+import org.superwindcloud.cloud_disk.service.StorageScanService;
+import org.superwindcloud.cloud_disk.service.StorageUsageService;
 
 @RestController
 @RequestMapping("/api/storage-sources")
 public class StorageSourceController {
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  private static final int MAX_PAGE_SIZE = 1000;
+
   private final StorageSourceRepository storageSourceRepository;
+  private final StorageScanService storageScanService;
+  private final StorageUsageService storageUsageService;
 
-  public StorageSourceController(StorageSourceRepository storageSourceRepository) {
+  public StorageSourceController(
+      StorageSourceRepository storageSourceRepository,
+      StorageScanService storageScanService,
+      StorageUsageService storageUsageService) {
     this.storageSourceRepository = storageSourceRepository;
+    this.storageScanService = storageScanService;
+    this.storageUsageService = storageUsageService;
   }
 
   @GetMapping
   public List<StorageSource> list() {
     return storageSourceRepository.findAll();
   }
+
+  /** Bytes and files the source holds, and its quota, read from its counters. */
+  @GetMapping("/{id}/usage")
+  public StorageUsageService.Usage usage(@PathVariable Long id) {
+    return storageUsageService.usage(id);
+  }
+
+  /**
+   * Sets the most bytes the source may hold from a {@code bytes} body field, or removes the limit
+   * when it is null. Files already stored stay even if they exceed a lowered quota.
+   */
+  @PutMapping("/{id}/quota")
+  public StorageUsageService.Usage setQuota(
+      @PathVariable Long id, @RequestBody Map<String, Object> body) {
+    Long bytes = null;
+    if (body != null && body.get("bytes") != null) {
+      if (!(body.get("bytes") instanceof Number number) || number.longValue() < 0) {
+        throw new IllegalArgumentException("bytes must be a non-negative number or null");
+      }
+      bytes = number.longValue();
+    }
+    if (storageSourceRepository.updateQuota(id, bytes) == 0) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Storage source not found");
+    }
+    return storageUsageService.usage(id);
+  }
+
+  /** Recomputes the source's usage and directory sizes from its files, reporting any drift. */
+  @PostMapping("/{id}/usage/repair")
+  public StorageUsageService.Repair repairUsage(@PathVariable Long id) {
+    return storageUsageService.repair(id);
+  }
+
+  /**
+   * Reconciles the source's objects with its files as a background job. With {@code mode=import}
+   * objects without a file are recorded as files; with {@code report}, the default, they are only
+   * reported. The answer is the scan's progress, which can be polled from then on.
+   */
+  @PostMapping("/{id}/scans")
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  public StorageScanService.Progress scan(
+      @PathVariable Long id, @RequestParam(defaultValue = "report") String mode) {
+    StorageScanMode scanMode;
+    try {
+      scanMode = StorageScanMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("mode must be report or import", e);
+    }
+    return storageScanService.create(id, scanMode);
+  }
+
+  /** The source's latest scans, newest first. */
+  @GetMapping("/{id}/scans")
+  public List<StorageScanService.Progress> scans(@PathVariable Long id) {
+    return storageScanService.recent(id);
+  }
+
+  @GetMapping("/scans/{scanId}")
+  public StorageScanService.Progress scanProgress(@PathVariable Long scanId) {
+    return storageScanService.progress(scanId);
+  }
+
+  @PostMapping("/scans/{scanId}/cancel")
+  public StorageScanService.Progress cancelScan(@PathVariable Long scanId) {
+    return storageScanService.cancel(scanId);
+  }
+
+  /** Requeues a failed or cancelled scan, which carries on from where it stopped. */
+  @PostMapping("/scans/{scanId}/resume")
+  public StorageScanService.Progress resumeScan(@PathVariable Long scanId) {
+    return storageScanService.resume(scanId);
+  }
+
+  /**
+   * What a scan found, optionally of one {@code kind}: {@code untracked_object}, {@code
+   * missing_object} or {@code size_mismatch}. Only the latest completed scan of a source keeps its
+   * findings.
+   */
+  @GetMapping("/scans/{scanId}/findings")
+  public CursorPage<StorageScanFinding> findings(
+      @PathVariable Long scanId,
+      @RequestParam(required = false) String kind,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+    }
+    StorageScanFindingKind findingKind = null;
+    if (kind != null && !kind.isBlank()) {
+      try {
+        findingKind = StorageScanFindingKind.valueOf(kind.trim().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            "kind must be untracked_object, missing_object or size_mismatch", e);
+      }
+    }
+    long afterId = 0;
+    if (cursor != null) {
+      try {
+        afterId = Long.parseLong(CursorPage.decode(cursor, 1)[0]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid cursor", e);
+      }
+    }
+    List<StorageScanFinding> rows =
+        storageScanService.findings(scanId, findingKind, afterId, limit + 1);
+    return CursorPage.of(rows, limit, finding -> CursorPage.encode(finding.getId()));
+  }
 }
@@ -0,0 +1,13 @@
+package org.superwindcloud.cloud_disk.controller;
+
+import org.superwindcloud.cloud_disk.FileItem;
+
+/** Outcome of a streamed upload, including how fast the bytes reached the storage backend. */
+public record UploadResult(
+    FileItem item, long bytesWritten, long elapsedMillis, double bytesPerSecond) {
+
+  static UploadResult of(FileItem item, long bytesWritten, long elapsedNanos) {
+    double seconds = Math.max(elapsedNanos, 1) / 1_000_000_000d;
+    return new UploadResult(item, bytesWritten, elapsedNanos / 1_000_000, bytesWritten / seconds);
+  }
+}
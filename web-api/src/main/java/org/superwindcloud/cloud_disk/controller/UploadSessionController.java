@@ -0,0 +1,71 @@
+package org.superwindcloud.cloud_disk.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.UploadSession;
+import org.superwindcloud.cloud_disk.service.UploadSessionService;
+
+/**
+ * Resumable uploads: create a session, PUT numbered chunks in any order (and in parallel), check
+ * which chunks have arrived, then complete. A dropped connection only costs the chunk in flight.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadSessionController {
+  private final UploadSessionService uploadSessionService;
+
+  public UploadSessionController(UploadSessionService uploadSessionService) {
+    this.uploadSessionService = uploadSessionService;
+  }
+
+  @PostMapping
+  public UploadSessionStatus create(
+      @RequestParam Long sourceId,
+      @RequestParam(value = "path", required = false, defaultValue = "") String path,
+      @RequestParam String filename,
+      @RequestParam long size,
+      @RequestParam(required = false) Long chunkSize,
+      @RequestParam(required = false) String contentType) {
+    UploadSession session =
+        uploadSessionService.create(sourceId, path, filename, contentType, size, chunkSize);
+    return UploadSessionStatus.of(session, List.of());
+  }
+
+  @GetMapping("/{uploadId}")
+  public UploadSessionStatus status(@PathVariable String uploadId) {
+    UploadSession session = uploadSessionService.find(uploadId);
+    return UploadSessionStatus.of(session, uploadSessionService.receivedChunks(session));
+  }
+
+  @PutMapping("/{uploadId}/chunks/{index}")
+  public UploadSessionStatus uploadChunk(
+      @PathVariable String uploadId, @PathVariable int index, HttpServletRequest request)
+      throws IOException {
+    UploadSession session =
+        uploadSessionService.writeChunk(
+            uploadId, index, request.getContentLengthLong(), request.getInputStream());
+    return UploadSessionStatus.of(session, uploadSessionService.receivedChunks(session));
+  }
+
+  @PostMapping("/{uploadId}/complete")
+  public FileItem complete(@PathVariable String uploadId) {
+    return uploadSessionService.complete(uploadId);
+  }
+
+  @DeleteMapping("/{uploadId}")
+  public Map<String, String> abort(@PathVariable String uploadId) {
+    uploadSessionService.abort(uploadId);
+    return Map.of("status", "aborted");
+  }
+}
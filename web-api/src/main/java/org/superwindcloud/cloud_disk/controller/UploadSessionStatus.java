@@ -0,0 +1,31 @@
+package org.superwindcloud.cloud_disk.controller;
+
+import java.time.Instant;
+import java.util.List;
+import org.superwindcloud.cloud_disk.UploadSession;
+
+/** Client view of a resumable upload, including which chunks the server already holds. */
+public record UploadSessionStatus(
+    String uploadId,
+    Long sourceId,
+    String directoryPath,
+    String filename,
+    long size,
+    long chunkSize,
+    int chunkCount,
+    List<Integer> receivedChunks,
+    Instant expiresAt) {
+
+  static UploadSessionStatus of(UploadSession session, List<Integer> receivedChunks) {
+    return new UploadSessionStatus(
+        session.getToken(),
+        session.getStorageSource().getId(),
+        session.getDirectoryPath(),
+        session.getFilename(),
+        session.getTotalSize(),
+        session.getChunkSize(),
+        session.getChunkCount(),
+        receivedChunks,
+        session.getExpiresAt());
+  }
+}
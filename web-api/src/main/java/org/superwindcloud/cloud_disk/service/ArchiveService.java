@@ -0,0 +1,327 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
+
+/**
+ * Streams files and folder subtrees as a single ZIP or TAR archive. Only metadata is held in
+ * memory: entry content is copied straight from storage to the output, while the next few entries
+ * are already being opened so backend latency overlaps with writing. Files up to {@code
+ * storage.archive.prefetch-buffer} are read ahead in full, which bounds memory at that size times
+ * {@code storage.archive.prefetch}.
+ */
+@Service
+public class ArchiveService {
+  /** Types that are already compressed; deflating them again only costs CPU. */
+  private static final Set<String> COMPRESSED_EXTENSIONS =
+      Set.of(
+          "7z", "aac", "avi", "br", "bz2", "docx", "epub", "flac", "gif", "gz", "heic", "jar",
+          "jpeg", "jpg", "m4a", "mkv", "mov", "mp3", "mp4", "ogg", "png", "pptx", "rar", "tgz",
+          "webm", "webp", "xlsx", "xz", "zip", "zst");
+
+  private final FileItemRepository fileItemRepository;
+  private final StorageRuntimeRegistry storageRuntimeRegistry;
+  private final DirectoryService directoryService;
+  private final ExecutorService prefetchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+  @Value("${storage.archive.prefetch:4}")
+  private int prefetch;
+
+  @Value("${storage.archive.prefetch-buffer:1MB}")
+  private DataSize prefetchBuffer;
+
+  public ArchiveService(
+      FileItemRepository fileItemRepository,
+      StorageRuntimeRegistry storageRuntimeRegistry,
+      DirectoryService directoryService) {
+    this.fileItemRepository = fileItemRepository;
+    this.storageRuntimeRegistry = storageRuntimeRegistry;
+    this.directoryService = directoryService;
+  }
+
+  /**
+   * Lists the archive entries for {@code roots}: each root under its own name, folders with their
+   * whole subtree. Roots that sit inside another root are skipped, and clashing root names get a
+   * numeric suffix.
+   */
+  public List<Entry> entries(List<FileItem> roots) {
+    List<FileItem> sorted =
+        roots.stream().sorted(Comparator.comparing(directoryService::fullPath)).toList();
+    List<Entry> entries = new ArrayList<>();
+    Set<String> rootNames = new HashSet<>();
+    List<String> included = new ArrayList<>();
+    for (FileItem root : sorted) {
+      String rootPath = directoryService.fullPath(root);
+      if (included.stream().anyMatch(path -> rootPath.startsWith(path + "/"))) {
+        continue;
+      }
+      String name = uniqueName(root.getFilename(), rootNames);
+      if (!root.isDirectory()) {
+        entries.add(new Entry(name, root));
+        continue;
+      }
+      included.add(rootPath);
+      entries.add(new Entry(name + "/", root));
+      List<FileItem> subtree =
+          new ArrayList<>(
+              fileItemRepository.findDescendants(root.getStorageSource().getId(), rootPath));
+      subtree.sort(Comparator.comparing(directoryService::fullPath));
+      for (FileItem item : subtree) {
+        String relative = directoryService.fullPath(item).substring(rootPath.length() + 1);
+        entries.add(new Entry(name + "/" + relative + (item.isDirectory() ? "/" : ""), item));
+      }
+    }
+    return entries;
+  }
+
+  public void write(List<Entry> entries, Format format, OutputStream out) throws IOException {
+    try (Prefetcher prefetcher = new Prefetcher(entries)) {
+      switch (format) {
+        case ZIP -> writeZip(entries, prefetcher, out);
+        case TAR -> writeTar(entries, prefetcher, out);
+      }
+    }
+  }
+
+  private void writeZip(List<Entry> entries, Prefetcher prefetcher, OutputStream out)
+      throws IOException {
+    ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out);
+    for (Entry entry : entries) {
+      ZipArchiveEntry zipEntry = new ZipArchiveEntry(entry.name());
+      zipEntry.setLastModifiedTime(FileTime.from(modified(entry.file())));
+      if (entry.file().isDirectory()) {
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(0);
+        zipEntry.setCrc(0);
+        zip.putArchiveEntry(zipEntry);
+        zip.closeArchiveEntry();
+        continue;
+      }
+      boolean compressed = isCompressed(entry.file());
+      try (Content content = prefetcher.next()) {
+        zipEntry.setSize(entry.file().getSize());
+        if (compressed && content.bytes() != null) {
+          // Buffered content has a known CRC, so it can be stored without a data descriptor.
+          CRC32 crc = new CRC32();
+          crc.update(content.bytes());
+          zipEntry.setMethod(ZipEntry.STORED);
+          zipEntry.setCrc(crc.getValue());
+        } else {
+          zipEntry.setMethod(ZipEntry.DEFLATED);
+          zip.setLevel(compressed ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+        }
+        zip.putArchiveEntry(zipEntry);
+        content.copyTo(zip);
+        zip.closeArchiveEntry();
+      }
+    }
+    zip.finish();
+  }
+
+  private void writeTar(List<Entry> entries, Prefetcher prefetcher, OutputStream out)
+      throws IOException {
+    TarArchiveOutputStream tar = new TarArchiveOutputStream(out);
+    tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+    tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    tar.setAddPaxHeadersForNonAsciiNames(true);
+    for (Entry entry : entries) {
+      TarArchiveEntry tarEntry = new TarArchiveEntry(entry.name());
+      tarEntry.setModTime(Date.from(modified(entry.file())));
+      if (entry.file().isDirectory()) {
+        tar.putArchiveEntry(tarEntry);
+        tar.closeArchiveEntry();
+        continue;
+      }
+      try (Content content = prefetcher.next()) {
+        tarEntry.setSize(entry.file().getSize());
+        tar.putArchiveEntry(tarEntry);
+        content.copyTo(tar);
+        tar.closeArchiveEntry();
+      }
+    }
+    tar.finish();
+  }
+
+  private Content fetch(FileItem file) throws IOException {
+    StorageSource source = file.getStorageSource();
+    InputStream stream = storageRuntimeRegistry.service(source).load(source, file);
+    if (file.getSize() > prefetchBuffer.toBytes()) {
+      return new Content(null, stream);
+    }
+    try (stream) {
+      byte[] bytes = stream.readNBytes(Math.toIntExact(file.getSize()));
+      if (bytes.length < file.getSize()) {
+        throw new EOFException("Storage returned fewer bytes than the file size");
+      }
+      return new Content(bytes, null);
+    }
+  }
+
+  private static boolean isCompressed(FileItem file) {
+    String name = file.getFilename();
+    int dot = name.lastIndexOf('.');
+    if (dot >= 0
+        && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+      return true;
+    }
+    String type = file.getContentType();
+    return type != null
+        && (type.startsWith("image/") || type.startsWith("video/") || type.startsWith("audio/"))
+        && !type.equals("image/svg+xml")
+        && !type.equals("image/bmp");
+  }
+
+  private static Instant modified(FileItem file) {
+    return file.getCreatedAt() != null ? file.getCreatedAt() : Instant.now();
+  }
+
+  private static String uniqueName(String name, Set<String> taken) {
+    String candidate = name;
+    int dot = name.lastIndexOf('.');
+    for (int i = 2; !taken.add(candidate); i++) {
+      candidate =
+          dot > 0
+              ? name.substring(0, dot) + " (" + i + ")" + name.substring(dot)
+              : name + " (" + i + ")";
+    }
+    return candidate;
+  }
+
+  public enum Format {
+    ZIP("zip", "application/zip"),
+    TAR("tar", "application/x-tar");
+
+    private final String extension;
+    private final String contentType;
+
+    Format(String extension, String contentType) {
+      this.extension = extension;
+      this.contentType = contentType;
+    }
+
+    public String extension() {
+      return extension;
+    }
+
+    public String contentType() {
+      return contentType;
+    }
+
+    public static Format of(String raw) {
+      if (raw == null || raw.isBlank()) {
+        return ZIP;
+      }
+      for (Format format : values()) {
+        if (format.extension.equalsIgnoreCase(raw.trim())) {
+          return format;
+        }
+      }
+      throw new IllegalArgumentException("Unsupported archive format: " + raw);
+    }
+  }
+
+  /** One archive member; folder names end with {@code /}. */
+  public record Entry(String name, FileItem file) {}
+
+  /** Either a fully read small file or an open stream over a larger one. */
+  private record Content(byte[] bytes, InputStream stream) implements Closeable {
+    void copyTo(OutputStream out) throws IOException {
+      if (bytes != null) {
+        out.write(bytes);
+      } else {
+        stream.transferTo(out);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (stream != null) {
+        stream.close();
+      }
+    }
+  }
+
+  /** Keeps up to {@code prefetch} file entries opening ahead of the one being written. */
+  private final class Prefetcher implements AutoCloseable {
+    private final Iterator<FileItem> files;
+    private final Deque<Future<Content>> window = new ArrayDeque<>();
+
+    Prefetcher(List<Entry> entries) {
+      this.files = entries.stream().map(Entry::file).filter(file -> !file.isDirectory()).iterator();
+      fill();
+    }
+
+    Content next() throws IOException {
+      Future<Content> next = window.poll();
+      if (next == null) {
+        throw new IllegalStateException("No more entries to fetch");
+      }
+      fill();
+      try {
+        return next.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading archive entry");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException io) {
+          throw io;
+        }
+        throw new RuntimeException("Failed to read archive entry", e.getCause());
+      }
+    }
+
+    private void fill() {
+      while (window.size() < Math.max(1, prefetch) && files.hasNext()) {
+        FileItem file = files.next();
+        window.add(prefetchExecutor.submit(() -> fetch(file)));
+      }
+    }
+
+    /** Waits for entries still in flight so that no opened stream is left behind. */
+    @Override
+    public void close() {
+      for (Future<Content> pending : window) {
+        try {
+          pending.get().close();
+        } catch (Exception e) {
+          // The archive is already failing or complete; nothing else to release.
+        }
+      }
+      window.clear();
+    }
+  }
+}
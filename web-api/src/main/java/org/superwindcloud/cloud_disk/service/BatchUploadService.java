@@ -0,0 +1,404 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.FileItemView;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.storage.BlobRegistry;
+import org.superwindcloud.cloud_disk.storage.CountingInputStream;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
+import org.superwindcloud.cloud_disk.storage.StorageService;
+
+/**
+ * Stores many files sent as one multipart request. Each directory is created once per batch, parts
+ * up to {@code storage.upload.batch.buffer} are read into memory and written to the backend on
+ * their own virtual thread while the next part is parsed, and the rows of every stored file are
+ * inserted in JDBC batches at the end. At most {@code storage.upload.batch.parallelism} parts are
+ * buffered or being written at once, which also bounds the memory a batch holds. A file that cannot
+ * be stored is reported in the result and the rest of the batch carries on.
+ */
+@Service
+public class BatchUploadService {
+  private static final Logger log = LoggerFactory.getLogger(BatchUploadService.class);
+  private static final int MAX_FIELD_BYTES = 4096;
+
+  private static final String INSERT_FILE =
+      "insert into file_items (storage_source_id, filename, storage_path, size, content_type, "
+          + "content_hash, directory_path, is_directory, created_at, updated_at) "
+          + "values (?, ?, ?, ?, ?, ?, ?, false, ?, ?)";
+
+  private final StorageRuntimeRegistry storageRuntimeRegistry;
+  private final DirectoryService directoryService;
+  private final BlobRegistry blobRegistry;
+  private final JdbcTemplate jdbcTemplate;
+  private final ThumbnailService thumbnailService;
+  private final StorageUsageService storageUsageService;
+  private final TransactionTemplate transactionTemplate;
+  private final ExecutorService writeExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+  @Value("${storage.upload.max-file-size:1GB}")
+  private DataSize maxUploadSize;
+
+  @Value("${storage.upload.batch.parallelism:8}")
+  private int parallelism;
+
+  @Value("${storage.upload.batch.buffer:4MB}")
+  private DataSize buffer;
+
+  @Value("${storage.upload.batch.max-files:10000}")
+  private int maxFiles;
+
+  @Value("${storage.upload.batch.insert-size:500}")
+  private int insertSize;
+
+  public BatchUploadService(
+      StorageRuntimeRegistry storageRuntimeRegistry,
+      DirectoryService directoryService,
+      BlobRegistry blobRegistry,
+      JdbcTemplate jdbcTemplate,
+      ThumbnailService thumbnailService,
+      StorageUsageService storageUsageService,
+      PlatformTransactionManager transactionManager) {
+    this.storageRuntimeRegistry = storageRuntimeRegistry;
+    this.directoryService = directoryService;
+    this.blobRegistry = blobRegistry;
+    this.jdbcTemplate = jdbcTemplate;
+    this.thumbnailService = thumbnailService;
+    this.storageUsageService = storageUsageService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Reads every {@code file} part of the request. A part is placed at its filename taken as a path
+   * relative to {@code path}, unless a {@code relativePath} field right before it names one. {@code
+   * sourceId} and {@code path} may also be sent as fields before the first file part. The request
+   * is refused up front if its {@code contentLength}, when known, exceeds the source's remaining
+   * quota.
+   */
+  public Result upload(Long sourceId, String path, long contentLength, MultipartStreamReader reader)
+      throws IOException {
+    Long targetSourceId = sourceId;
+    String basePath = path;
+    String relativePath = null;
+    Batch batch = null;
+    boolean completed = false;
+    try {
+      for (MultipartStreamReader.Part part = reader.next(); part != null; part = reader.next()) {
+        if (!part.isFile()) {
+          switch (part.name()) {
+            case "sourceId" ->
+                targetSourceId = Long.valueOf(part.readString(MAX_FIELD_BYTES).trim());
+            case "path" -> basePath = part.readString(MAX_FIELD_BYTES);
+            case "relativePath" -> relativePath = part.readString(MAX_FIELD_BYTES);
+            default -> {}
+          }
+          continue;
+        }
+        if (!"file".equals(part.name())) {
+          continue;
+        }
+        if (batch == null) {
+          if (targetSourceId == null) {
+            throw new IllegalArgumentException("sourceId must be sent before the file parts");
+          }
+          storageUsageService.checkQuota(targetSourceId, contentLength);
+          batch = new Batch(storageRuntimeRegistry.source(targetSourceId), basePath);
+        }
+        batch.add(relativePath != null ? relativePath : part.filename(), part);
+        relativePath = null;
+      }
+      if (batch == null) {
+        throw new IllegalArgumentException("At least one file part is required");
+      }
+      Result result = batch.finish();
+      completed = true;
+      return result;
+    } finally {
+      if (batch != null && !completed) {
+        batch.abandon();
+      }
+    }
+  }
+
+  /**
+   * Outcome of one file of a batch: the stored file, or why it was not stored.
+   *
+   * @param path the file's path relative to the batch's base directory, as sent
+   */
+  public record Entry(String path, FileItemView file, String error) {}
+
+  public record Result(List<Entry> files, int stored, int failed) {}
+
+  /** A file part accepted for storage, whose write may still be in flight. */
+  private record Pending(int index, Future<FileItem> write) {}
+
+  private final class Batch {
+    private final StorageSource source;
+    private final StorageService storageService;
+    private final String basePath;
+    private final Semaphore permits = new Semaphore(Math.max(1, parallelism));
+    private final Set<String> ensured = new HashSet<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<Pending> pending = new ArrayList<>();
+
+    Batch(StorageSource source, String basePath) {
+      this.source = source;
+      this.storageService = storageRuntimeRegistry.service(source);
+      this.basePath = directoryService.normalizeDirectory(basePath);
+    }
+
+    void add(String rawPath, MultipartStreamReader.Part part) throws IOException {
+      if (entries.size() >= maxFiles) {
+        throw new IllegalArgumentException("A batch may hold at most " + maxFiles + " files");
+      }
+      String path = rawPath == null ? "" : rawPath.replace("\\", "/");
+      int index = entries.size();
+      entries.add(new Entry(path, null, null));
+      String directoryPath;
+      String filename;
+      try {
+        int slash = path.lastIndexOf('/');
+        String relativeDirectory = slash < 0 ? "" : path.substring(0, slash);
+        directoryPath =
+            directoryService.normalizeDirectory(
+                basePath.isEmpty() ? relativeDirectory : basePath + "/" + relativeDirectory);
+        filename = directoryService.normalizeFilename(path.substring(slash + 1));
+        ensureDirectory(directoryPath);
+      } catch (RuntimeException e) {
+        fail(index, e);
+        return;
+      }
+
+      acquirePermit();
+      boolean handedOff = false;
+      try {
+        CountingInputStream counted = new CountingInputStream(part.body(), maxUploadSize.toBytes());
+        byte[] head = counted.readNBytes(Math.toIntExact(buffer.toBytes()) + 1);
+        if (head.length <= buffer.toBytes()) {
+          pending.add(
+              new Pending(
+                  index,
+                  writeExecutor.submit(
+                      () -> {
+                        try {
+                          return storageService.write(
+                              source,
+                              directoryPath,
+                              filename,
+                              part.contentType(),
+                              head.length,
+                              new ByteArrayInputStream(head));
+                        } finally {
+                          permits.release();
+                        }
+                      })));
+          handedOff = true;
+          return;
+        }
+        // Too large to hold in memory: stream it from the request while writes continue behind.
+        InputStream data = new SequenceInputStream(new ByteArrayInputStream(head), counted);
+        FileItem item =
+            storageService.write(source, directoryPath, filename, part.contentType(), -1, data);
+        pending.add(new Pending(index, CompletableFuture.completedFuture(item)));
+      } catch (RuntimeException e) {
+        fail(index, e);
+      } finally {
+        if (!handedOff) {
+          permits.release();
+        }
+      }
+    }
+
+    Result finish() throws IOException {
+      List<Pending> written = new ArrayList<>();
+      List<FileItem> items = new ArrayList<>();
+      for (Pending write : pending) {
+        try {
+          items.add(await(write.write()));
+          written.add(write);
+        } catch (ExecutionException e) {
+          fail(write.index(), e.getCause());
+        }
+      }
+      pending.clear();
+      for (int from = 0; from < items.size(); from += Math.max(1, insertSize)) {
+        int to = Math.min(items.size(), from + Math.max(1, insertSize));
+        List<FileItem> chunk = items.subList(from, to);
+        try {
+          transactionTemplate.executeWithoutResult(
+              status -> {
+                insert(chunk);
+                storageUsageService.addAll(
+                    source.getId(),
+                    chunk.stream()
+                        .map(
+                            item ->
+                                new StorageUsageService.Placement(
+                                    item.getDirectoryPath(), item.getSize(), 1))
+                        .toList());
+              });
+          chunk.forEach(thumbnailService::prepare);
+          for (int i = from; i < to; i++) {
+            FileItem item = items.get(i);
+            Entry entry = entries.get(written.get(i).index());
+            entries.set(written.get(i).index(), new Entry(entry.path(), view(item), null));
+          }
+        } catch (RuntimeException e) {
+          log.warn(
+              "Failed to record {} uploaded files in source {}", chunk.size(), source.getId(), e);
+          release(chunk);
+          for (int i = from; i < to; i++) {
+            fail(written.get(i).index(), new IllegalStateException("Failed to record file"));
+          }
+        }
+      }
+      int failed = (int) entries.stream().filter(entry -> entry.error() != null).count();
+      return new Result(List.copyOf(entries), entries.size() - failed, failed);
+    }
+
+    /**
+     * Gives back the blob references of files written before the request failed, since their rows
+     * will never be inserted.
+     */
+    void abandon() {
+      List<FileItem> written = new ArrayList<>();
+      for (Pending write : pending) {
+        try {
+          written.add(await(write.write()));
+        } catch (ExecutionException | IOException e) {
+          // Nothing was stored for this part.
+        }
+      }
+      pending.clear();
+      if (!written.isEmpty()) {
+        release(written);
+      }
+    }
+
+    private void ensureDirectory(String directoryPath) {
+      if (ensured.contains(directoryPath)) {
+        return;
+      }
+      storageService.ensureDirectory(source, directoryPath);
+      directoryService.ensureDirectoryChain(source, directoryPath);
+      ensured.add(directoryPath);
+    }
+
+    private void insert(List<FileItem> chunk) {
+      Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+      GeneratedKeyHolder keys = new GeneratedKeyHolder();
+      jdbcTemplate.batchUpdate(
+          connection -> connection.prepareStatement(INSERT_FILE, new String[] {"id"}),
+          new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+              FileItem item = chunk.get(i);
+              statement.setLong(1, source.getId());
+              statement.setString(2, item.getFilename());
+              statement.setString(3, item.getStoragePath());
+              statement.setLong(4, item.getSize());
+              statement.setString(5, item.getContentType());
+              statement.setString(6, item.getContentHash());
+              statement.setString(7, item.getDirectoryPath());
+              statement.setObject(8, OffsetDateTime.ofInstant(now, ZoneOffset.UTC));
+              statement.setObject(9, OffsetDateTime.ofInstant(now, ZoneOffset.UTC));
+            }
+
+            @Override
+            public int getBatchSize() {
+              return chunk.size();
+            }
+          },
+          keys);
+      List<Map<String, Object>> keyList = keys.getKeyList();
+      for (int i = 0; i < chunk.size(); i++) {
+        Object id = keyList.get(i).values().iterator().next();
+        chunk.get(i).setId(((Number) id).longValue());
+        chunk.get(i).setCreatedAt(now);
+      }
+    }
+
+    private void release(List<FileItem> items) {
+      try {
+        List<String> unused = blobRegistry.releaseAll(source, items);
+        if (!unused.isEmpty()) {
+          storageService.deleteObjects(source, unused);
+        }
+      } catch (RuntimeException e) {
+        log.warn(
+            "Failed to release {} unrecorded uploads in source {}",
+            items.size(),
+            source.getId(),
+            e);
+      }
+    }
+
+    private void acquirePermit() throws InterruptedIOException {
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to store a file");
+      }
+    }
+
+    private FileItem await(Future<FileItem> write) throws ExecutionException, IOException {
+      try {
+        return write.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while storing files");
+      }
+    }
+
+    private void fail(int index, Throwable error) {
+      String message = error.getMessage() != null ? error.getMessage() : "Failed to store file";
+      entries.set(index, new Entry(entries.get(index).path(), null, message));
+    }
+
+    private FileItemView view(FileItem item) {
+      return new FileItemView(
+          item.getId(),
+          source.getId(),
+          item.getFilename(),
+          item.getDirectoryPath(),
+          false,
+          item.getSize(),
+          item.getContentType(),
+          item.getContentHash(),
+          item.getCreatedAt(),
+          0L);
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package org.superwindcloud.cloud_disk.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.StorageSource;
+
+/**
+ * Per-source map from live directory paths to row ids, so resolving directories usually needs no
+ * database round-trip. A source's tree is loaded with one query on first use and reloaded after
+ * {@code storage.directory-index.ttl}, which bounds how long directories created by other nodes go
+ * unseen. Creating directories never trusts the index, since another node may have deleted one: it
+ * always sends one batched upsert for the whole chain. Entries are dropped whenever a directory is
+ * renamed, moved or deleted here, and replaced when the upsert finds a directory missing.
+ */
+@Component
+public class DirectoryIndex {
+  private static final Logger log = LoggerFactory.getLogger(DirectoryIndex.class);
+
+  /** Stands in for the id of a directory known to exist whose row has not been read. */
+  private static final long UNKNOWN_ID = 0L;
+
+  /** Relies on the unique (storage_source_id, dir_key) constraint to skip existing directories. */
+  private static final String UPSERT_DIRECTORY =
+      "insert into file_items (storage_source_id, filename, storage_path, size, content_type, "
+          + "directory_path, is_directory, dir_key, created_at, updated_at) "
+          + "values (?, ?, ?, 0, 'inode/directory', ?, true, ?, ?, ?) on conflict do nothing";
+
+  private final FileItemRepository fileItemRepository;
+  private final JdbcTemplate jdbcTemplate;
+  private final Cache<Long, ConcurrentNavigableMap<String, Long>> trees;
+
+  public DirectoryIndex(
+      FileItemRepository fileItemRepository,
+      JdbcTemplate jdbcTemplate,
+      @Value("${storage.directory-index.ttl:10m}") Duration ttl) {
+    this.fileItemRepository = fileItemRepository;
+    this.jdbcTemplate = jdbcTemplate;
+    this.trees = Caffeine.newBuilder().expireAfterWrite(ttl).build();
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void backfillKeys() {
+    int keyed = fileItemRepository.backfillDirectoryKeys();
+    if (keyed > 0) {
+      log.info("Assigned directory keys to {} existing directories", keyed);
+    }
+  }
+
+  /** Id of the directory at {@code path}, reading the row only if the index lacks its id. */
+  public Optional<Long> find(Long sourceId, String path) {
+    ConcurrentNavigableMap<String, Long> tree = tree(sourceId);
+    Long id = tree.get(path);
+    if (id != null && id != UNKNOWN_ID) {
+      return Optional.of(id);
+    }
+    Optional<Long> loaded = fileItemRepository.findDirectoryId(sourceId, path);
+    if (loaded.isPresent()) {
+      tree.put(path, loaded.get());
+    } else if (id != null) {
+      tree.remove(path, UNKNOWN_ID);
+    }
+    return loaded;
+  }
+
+  /** Id of the directory at {@code path} if the index already holds it; never reads a row. */
+  public Optional<Long> knownId(Long sourceId, String path) {
+    Long id = tree(sourceId).get(path);
+    return id == null || id == UNKNOWN_ID ? Optional.empty() : Optional.of(id);
+  }
+
+  public void record(Long sourceId, String path, Long id) {
+    tree(sourceId).put(path, id);
+  }
+
+  /**
+   * Creates whichever directories along {@code path} are missing with one batched upsert of the
+   * whole chain. Those it created replace any entry the index held for them, and are forgotten
+   * again if the surrounding transaction rolls back.
+   */
+  public void ensure(StorageSource source, String path) {
+    ConcurrentNavigableMap<String, Long> tree = tree(source.getId());
+    List<String> chain = new ArrayList<>();
+    for (String current = path; !current.isEmpty(); ) {
+      chain.add(current);
+      int slash = current.lastIndexOf('/');
+      current = slash < 0 ? "" : current.substring(0, slash);
+    }
+    if (chain.isEmpty()) {
+      return;
+    }
+    Collections.reverse(chain);
+    OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+    int[][] counts =
+        jdbcTemplate.batchUpdate(
+            UPSERT_DIRECTORY,
+            chain,
+            chain.size(),
+            (statement, directory) -> {
+              int slash = directory.lastIndexOf('/');
+              statement.setLong(1, source.getId());
+              statement.setString(2, directory.substring(slash + 1));
+              statement.setString(3, directory + "/");
+              statement.setString(4, slash < 0 ? "" : directory.substring(0, slash));
+              statement.setString(5, directory);
+              statement.setObject(6, now);
+              statement.setObject(7, now);
+            });
+    List<String> created = new ArrayList<>();
+    for (int i = 0; i < chain.size(); i++) {
+      // Drivers that cannot tell report SUCCESS_NO_INFO, which is treated as created.
+      if (counts[0][i] != 0) {
+        created.add(chain.get(i));
+      }
+    }
+    // An id the index holds for a directory that had to be created belongs to a deleted row.
+    created.forEach(directory -> tree.put(directory, UNKNOWN_ID));
+    chain.forEach(directory -> tree.putIfAbsent(directory, UNKNOWN_ID));
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+              if (status != STATUS_COMMITTED) {
+                created.forEach(directory -> tree.remove(directory, UNKNOWN_ID));
+              }
+            }
+          });
+    }
+  }
+
+  /**
+   * Forgets {@code path} and everything under it, now and again once the surrounding transaction
+   * ends, since a concurrent lookup may re-add the old paths before the change commits.
+   */
+  public void removeSubtree(Long sourceId, String path) {
+    Runnable remove =
+        () -> {
+          ConcurrentNavigableMap<String, Long> tree = trees.getIfPresent(sourceId);
+          if (tree != null) {
+            tree.remove(path);
+            // '0' is the character after '/', so this range is exactly the paths below.
+            tree.subMap(path + "/", path + "0").clear();
+          }
+        };
+    remove.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+              remove.run();
+            }
+          });
+    }
+  }
+
+  private ConcurrentNavigableMap<String, Long> tree(Long sourceId) {
+    return trees.get(
+        sourceId,
+        id -> {
+          ConcurrentNavigableMap<String, Long> tree = new ConcurrentSkipListMap<>();
+          for (Object[] row : fileItemRepository.findDirectoryKeys(id)) {
+            tree.put((String) row[0], (Long) row[1]);
+          }
+          return tree;
+        });
+  }
+}
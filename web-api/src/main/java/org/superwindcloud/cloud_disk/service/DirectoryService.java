@@ -0,0 +1,297 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import org.superwindcloud.cloud_disk.DirectoryMove;
+import org.superwindcloud.cloud_disk.DirectoryMoveRepository;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.FileItemView;
+import org.superwindcloud.cloud_disk.StorageSource;
+
+/**
+ * Path validation and directory records shared by the endpoints that place files.
+ *
+ * <p>A folder's descendants follow a move in batches of {@code storage.move.batch-size} ids, each
+ * in its own transaction, under a {@link DirectoryMove} that records how far the move got. A move
+ * that stops part way, because its node died or a batch failed, is resumed by whichever node finds
+ * it idle for {@code storage.move.resume-after}.
+ */
+@Service
+public class DirectoryService {
+  private static final Logger log = LoggerFactory.getLogger(DirectoryService.class);
+
+  private final FileItemRepository fileItemRepository;
+  private final DirectoryMoveRepository directoryMoveRepository;
+  private final DirectoryIndex directoryIndex;
+  private final SearchIndex searchIndex;
+  private final StorageUsageService storageUsageService;
+  private final TransactionTemplate batchTransaction;
+
+  @Value("${storage.move.batch-size:5000}")
+  private int moveBatchSize;
+
+  @Value("${storage.move.resume-after:2m}")
+  private Duration resumeAfter;
+
+  public DirectoryService(
+      FileItemRepository fileItemRepository,
+      DirectoryMoveRepository directoryMoveRepository,
+      DirectoryIndex directoryIndex,
+      SearchIndex searchIndex,
+      StorageUsageService storageUsageService,
+      PlatformTransactionManager transactionManager) {
+    this.fileItemRepository = fileItemRepository;
+    this.directoryMoveRepository = directoryMoveRepository;
+    this.directoryIndex = directoryIndex;
+    this.searchIndex = searchIndex;
+    this.storageUsageService = storageUsageService;
+    this.batchTransaction = new TransactionTemplate(transactionManager);
+    this.batchTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  /** Creates any missing directory records along {@code normalizedPath}. */
+  public void ensureDirectoryChain(StorageSource source, String normalizedPath) {
+    if (normalizedPath == null || normalizedPath.isBlank()) {
+      return;
+    }
+    directoryIndex.ensure(source, normalizedPath);
+  }
+
+  /** Returns the directory at {@code normalizedPath}, creating it and its parents if missing. */
+  @Transactional
+  public FileItem createDirectory(StorageSource source, String normalizedPath) {
+    ensureDirectoryChain(source, normalizedPath);
+    return directoryIndex
+        .find(source.getId(), normalizedPath)
+        .flatMap(fileItemRepository::findById)
+        .orElseThrow(() -> new IllegalStateException("Directory was not created"));
+  }
+
+  /**
+   * Looks up the item at {@code normalizedPath}. Directories the index already knows are read by
+   * id; anything else takes one query by parent and name.
+   */
+  public Optional<FileItemView> findByPath(Long sourceId, String normalizedPath) {
+    if (normalizedPath.isEmpty()) {
+      return Optional.empty();
+    }
+    Optional<Long> known = directoryIndex.knownId(sourceId, normalizedPath);
+    if (known.isPresent()) {
+      Optional<FileItemView> view = fileItemRepository.findViewById(known.get());
+      if (view.isPresent()) {
+        return view;
+      }
+    }
+    int slash = normalizedPath.lastIndexOf('/');
+    String parent = slash < 0 ? "" : normalizedPath.substring(0, slash);
+    String name = normalizedPath.substring(slash + 1);
+    Optional<FileItemView> view =
+        fileItemRepository.findViews(sourceId, parent, name, Limit.of(1)).stream().findFirst();
+    view.filter(FileItemView::directory)
+        .ifPresent(directory -> directoryIndex.record(sourceId, normalizedPath, directory.id()));
+    return view;
+  }
+
+  /**
+   * Gives {@code item} a new parent directory and name. A directory's own row moves in the calling
+   * transaction; once that commits, its subtree follows through set-based path rewrites of one id
+   * range at a time, so no descendant is loaded into memory and no transaction holds the whole
+   * subtree. Until the last batch commits, part of the subtree is still listed under the old path,
+   * and neither path can be moved or deleted.
+   */
+  @Transactional
+  public FileItem relocate(FileItem item, String directoryPath, String filename) {
+    StorageSource source = item.getStorageSource();
+    String oldFullPath = fullPath(item);
+    String newFullPath = directoryPath.isBlank() ? filename : directoryPath + "/" + filename;
+    if (newFullPath.equals(oldFullPath)) {
+      return item;
+    }
+    if (item.isDirectory() && newFullPath.startsWith(oldFullPath + "/")) {
+      throw new IllegalArgumentException("Cannot move a folder into itself");
+    }
+    if (fileItemRepository.existsByStorageSourceIdAndDirectoryPathAndFilename(
+        source.getId(), directoryPath, filename)) {
+      throw new IllegalArgumentException("A file or folder with this name already exists here");
+    }
+    if (item.isDirectory()) {
+      storageUsageService.lock(source.getId());
+      checkNotMoving(source.getId(), oldFullPath, newFullPath);
+    }
+    ensureDirectoryChain(source, directoryPath);
+    searchIndex.written(source.getId(), Instant.now());
+    item.setDirectoryPath(directoryPath);
+    item.setFilename(filename);
+    if (item.isDirectory()) {
+      item.setStoragePath(newFullPath + "/");
+      item.setDirKey(newFullPath);
+    }
+    FileItem saved = fileItemRepository.save(item);
+    if (saved.isDirectory()) {
+      DirectoryMove move = new DirectoryMove();
+      move.setStorageSource(source);
+      move.setOldPath(oldFullPath);
+      move.setNewPath(newFullPath);
+      move.setUpdatedAt(Instant.now());
+      Long moveId = directoryMoveRepository.save(move).getId();
+      directoryIndex.removeSubtree(source.getId(), oldFullPath);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              finishMove(moveId);
+            }
+          });
+    }
+    return saved;
+  }
+
+  /**
+   * Refuses to go ahead while a folder move that is not finished involves any of {@code paths}, at
+   * or below them or above them. Called with the source's usage locked, which every move and folder
+   * delete takes first, so no such move can start meanwhile.
+   */
+  public void checkNotMoving(Long sourceId, String... paths) {
+    for (DirectoryMove move : directoryMoveRepository.findByStorageSourceId(sourceId)) {
+      for (String path : paths) {
+        if (overlaps(path, move.getOldPath()) || overlaps(path, move.getNewPath())) {
+          throw new IllegalArgumentException("A folder here is still being moved; try again later");
+        }
+      }
+    }
+  }
+
+  /** Resumes folder moves that have not advanced for {@code storage.move.resume-after}. */
+  @Scheduled(
+      fixedDelayString = "${storage.move.resume-after:2m}",
+      initialDelayString = "${storage.move.resume-after:2m}")
+  public void resumeMoves() {
+    Instant idleSince = Instant.now().minus(resumeAfter);
+    for (DirectoryMove move : directoryMoveRepository.findByUpdatedAtBefore(idleSince)) {
+      Integer claimed =
+          batchTransaction.execute(
+              status -> directoryMoveRepository.claim(move.getId(), idleSince, Instant.now()));
+      if (claimed != null && claimed == 1) {
+        log.info(
+            "Resuming move of {} to {} in source {}",
+            move.getOldPath(),
+            move.getNewPath(),
+            move.getStorageSource().getId());
+        finishMove(move.getId());
+      }
+    }
+  }
+
+  private void finishMove(Long moveId) {
+    try {
+      boolean more;
+      do {
+        more = Boolean.TRUE.equals(batchTransaction.execute(status -> moveBatch(moveId)));
+      } while (more);
+    } catch (RuntimeException e) {
+      log.warn("Folder move {} stopped; it resumes after {}", moveId, resumeAfter, e);
+    }
+  }
+
+  /**
+   * Moves the next batch of the subtree and records it on the move. Returns false once the move is
+   * finished, or when another run advanced it meanwhile and this one should stop.
+   */
+  private boolean moveBatch(Long moveId) {
+    Optional<DirectoryMove> found = directoryMoveRepository.findById(moveId);
+    if (found.isEmpty()) {
+      return false;
+    }
+    DirectoryMove move = found.get();
+    Long sourceId = move.getStorageSource().getId();
+    List<Long> ids =
+        fileItemRepository.findSubtreeIds(
+            sourceId, move.getOldPath(), move.getAfterId(), moveBatchSize);
+    if (ids.isEmpty()) {
+      directoryMoveRepository.finish(moveId, move.getAfterId());
+      directoryIndex.removeSubtree(sourceId, move.getOldPath());
+      return false;
+    }
+    long lastId = ids.get(ids.size() - 1);
+    Instant now = Instant.now();
+    if (directoryMoveRepository.advance(moveId, move.getAfterId(), lastId, now) == 0) {
+      return false;
+    }
+    searchIndex.written(sourceId, now);
+    fileItemRepository.moveSubtree(
+        sourceId, move.getOldPath(), move.getNewPath(), move.getAfterId(), lastId, now);
+    return true;
+  }
+
+  private static boolean overlaps(String a, String b) {
+    return a.equals(b) || a.startsWith(b + "/") || b.startsWith(a + "/");
+  }
+
+  public String normalizeDirectory(String raw) {
+    if (raw == null || raw.isBlank()) {
+      return "";
+    }
+    String normalized = raw.trim().replace("\\", "/").replaceAll("/+", "/");
+    if (normalized.startsWith("/")) {
+      normalized = normalized.substring(1);
+    }
+    if (normalized.endsWith("/")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    if (normalized.equals("..") || normalized.contains("../")) {
+      throw new IllegalArgumentException("Invalid directory path");
+    }
+    String[] parts = normalized.split("/");
+    for (String part : parts) {
+      if (part.isEmpty()
+          || part.endsWith(" ")
+          || part.endsWith(".")
+          || part.matches(".*[<>:\"|?*].*")) {
+        throw new IllegalArgumentException("Invalid directory path");
+      }
+    }
+    return normalized;
+  }
+
+  public String normalizeFilename(String raw) {
+    if (!StringUtils.hasText(raw)) {
+      throw new IllegalArgumentException("Filename cannot be blank");
+    }
+    String cleaned = raw.trim();
+    if (cleaned.equals(".") || cleaned.equals("..")) {
+      throw new IllegalArgumentException("Invalid filename");
+    }
+    if (cleaned.contains("/") || cleaned.contains("\\")) {
+      throw new IllegalArgumentException("Filename cannot contain path separators");
+    }
+    if (cleaned.endsWith(" ") || cleaned.endsWith(".")) {
+      throw new IllegalArgumentException("Filename cannot end with space or dot");
+    }
+    if (cleaned.matches(".*[<>:\"|?*].*")) {
+      throw new IllegalArgumentException("Filename contains invalid characters");
+    }
+    return cleaned;
+  }
+
+  public String fullPath(FileItem file) {
+    return file.getDirectoryPath().isBlank()
+        ? file.getFilename()
+        : file.getDirectoryPath() + "/" + file.getFilename();
+  }
+}
@@ -0,0 +1,366 @@
+package org.superwindcloud.cloud_disk.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.storage.LocalFileStorageService;
+import org.superwindcloud.cloud_disk.storage.MeteredStorageService;
+import org.superwindcloud.cloud_disk.storage.StorageService;
+
+/**
+ * Writes file content to HTTP responses with conditional-request validators and single- and
+ * multi-range support. Local files are handed to the container's sendfile support when available
+ * and otherwise copied with {@link FileChannel#transferTo}, as are objects a backend keeps in a
+ * local cache; other backends receive the requested range so they can seek natively. Small files
+ * are answered from {@link SmallFileCache} without touching storage at all.
+ *
+ * <p>Validators are derived from {@link FileItem} metadata only, so a {@code 304 Not Modified} is
+ * answered without opening the backing object.
+ *
+ * <p>Downloads in progress are tracked by {@code file.downloads} and the body bytes sent, from
+ * whichever path served them, by {@code file.download.bytes}, both tagged with the file's source.
+ */
+@Service
+public class FileContentService {
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+  private static final String BYTES_UNIT = "bytes=";
+
+  private final SmallFileCache smallFileCache;
+  private final MeterRegistry meterRegistry;
+  private final Map<Long, DownloadMeters> meters = new ConcurrentHashMap<>();
+
+  public FileContentService(SmallFileCache smallFileCache, MeterRegistry meterRegistry) {
+    this.smallFileCache = smallFileCache;
+    this.meterRegistry = meterRegistry;
+  }
+
+  public void serve(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      StorageService storageService,
+      FileItem file,
+      ContentDisposition disposition,
+      CacheControl cacheControl)
+      throws IOException {
+    DownloadMeters sourceMeters = meters(file.getStorageSource());
+    LongTaskTimer.Sample download = sourceMeters.downloads().start();
+    try {
+      respond(
+          request, response, storageService, file, disposition, cacheControl, sourceMeters.bytes());
+    } finally {
+      download.stop();
+    }
+  }
+
+  /** Built once per source, so a download does not look its meters up in the registry. */
+  private DownloadMeters meters(StorageSource source) {
+    return meters.computeIfAbsent(
+        source.getId(),
+        id -> {
+          Tags tags = MeteredStorageService.tags(source);
+          return new DownloadMeters(
+              LongTaskTimer.builder("file.downloads")
+                  .description("Downloads being served")
+                  .tags(tags)
+                  .register(meterRegistry),
+              Counter.builder("file.download.bytes")
+                  .description("Body bytes of downloads sent")
+                  .baseUnit("bytes")
+                  .tags(tags)
+                  .register(meterRegistry));
+        });
+  }
+
+  private record DownloadMeters(LongTaskTimer downloads, Counter bytes) {}
+
+  private void respond(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      StorageService storageService,
+      FileItem file,
+      ContentDisposition disposition,
+      CacheControl cacheControl,
+      Counter sent)
+      throws IOException {
+    String etag = etag(file);
+    long lastModified = file.getCreatedAt() == null ? -1 : file.getCreatedAt().toEpochMilli();
+    response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+    if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+      return;
+    }
+
+    long length = file.getSize();
+    String contentType =
+        StringUtils.hasText(file.getContentType())
+            ? file.getContentType()
+            : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+    response.setHeader(HttpHeaders.CONTENT_DISPOSITION, disposition.toString());
+
+    List<Region> regions;
+    try {
+      regions =
+          rangeApplies(request, etag, lastModified)
+              ? requestedRegions(request.getHeader(HttpHeaders.RANGE), length)
+              : List.of();
+    } catch (IllegalArgumentException e) {
+      response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+    boolean head = HttpMethod.HEAD.matches(request.getMethod());
+    ByteBuffer cached =
+        head
+            ? null
+            : smallFileCache.get(file, () -> storageService.load(file.getStorageSource(), file));
+
+    if (regions.isEmpty()) {
+      response.setStatus(HttpServletResponse.SC_OK);
+      response.setContentType(contentType);
+      response.setContentLengthLong(length);
+      if (!head) {
+        writeRegion(
+            request, response, storageService, file, cached, new Region(0, length), true, sent);
+      }
+      return;
+    }
+
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    if (regions.size() == 1) {
+      Region region = regions.get(0);
+      response.setContentType(contentType);
+      response.setHeader(HttpHeaders.CONTENT_RANGE, region.contentRange(length));
+      response.setContentLengthLong(region.count());
+      if (!head) {
+        writeRegion(request, response, storageService, file, cached, region, true, sent);
+      }
+      return;
+    }
+
+    String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    List<byte[]> partHeaders = new ArrayList<>(regions.size());
+    long contentLength = 0;
+    for (Region region : regions) {
+      byte[] header =
+          ("\r\n--"
+                  + boundary
+                  + "\r\n"
+                  + HttpHeaders.CONTENT_TYPE
+                  + ": "
+                  + contentType
+                  + "\r\n"
+                  + HttpHeaders.CONTENT_RANGE
+                  + ": "
+                  + region.contentRange(length)
+                  + "\r\n\r\n")
+              .getBytes(StandardCharsets.US_ASCII);
+      partHeaders.add(header);
+      contentLength += header.length + region.count();
+    }
+    byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    contentLength += closing.length;
+
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    response.setContentLengthLong(contentLength);
+    if (head) {
+      return;
+    }
+    OutputStream out = response.getOutputStream();
+    for (int i = 0; i < regions.size(); i++) {
+      out.write(partHeaders.get(i));
+      writeRegion(request, response, storageService, file, cached, regions.get(i), false, sent);
+    }
+    out.write(closing);
+  }
+
+  /**
+   * Builds a strong entity tag from metadata that changes whenever the stored bytes do. Files with
+   * a content hash use it directly, so identical content shares a tag; renames keep the tag, since
+   * the content behind the id is unchanged.
+   */
+  public String etag(FileItem file) {
+    if (StringUtils.hasText(file.getContentHash())) {
+      return "\"" + file.getContentHash() + "\"";
+    }
+    String fingerprint =
+        file.getId()
+            + ":"
+            + file.getSize()
+            + ":"
+            + file.getStoragePath()
+            + ":"
+            + (file.getCreatedAt() == null ? "" : file.getCreatedAt().toEpochMilli());
+    return "\"" + DigestUtils.md5DigestAsHex(fingerprint.getBytes(StandardCharsets.UTF_8)) + "\"";
+  }
+
+  /** Honors {@code If-Range}: a stale validator means the client gets the full representation. */
+  private boolean rangeApplies(HttpServletRequest request, String etag, long lastModified) {
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    if (!StringUtils.hasText(ifRange)) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      return ifRange.equals(etag);
+    }
+    try {
+      long since = request.getDateHeader(HttpHeaders.IF_RANGE);
+      return lastModified >= 0 && lastModified / 1000 == since / 1000;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Parses a {@code Range} header into regions of a {@code length}-byte file. Headers in a unit
+   * other than bytes are ignored, as RFC 9110 requires; the unit is case-insensitive.
+   */
+  private List<Region> requestedRegions(String rangeHeader, long length) {
+    if (!StringUtils.hasText(rangeHeader)
+        || !rangeHeader.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+      return List.of();
+    }
+    List<HttpRange> ranges =
+        HttpRange.parseRanges(BYTES_UNIT + rangeHeader.substring(BYTES_UNIT.length()));
+    List<Region> regions = new ArrayList<>(ranges.size());
+    long total = 0;
+    for (HttpRange range : ranges) {
+      long start = range.getRangeStart(length);
+      long end = range.getRangeEnd(length);
+      if (start >= length || end < start) {
+        throw new IllegalArgumentException("Range not satisfiable");
+      }
+      Region region = new Region(start, end - start + 1);
+      total += region.count();
+      regions.add(region);
+    }
+    if (ranges.size() > 1 && total > length) {
+      // Overlapping ranges that add up to more than the file are a known amplification vector.
+      throw new IllegalArgumentException("Too many overlapping ranges");
+    }
+    return regions;
+  }
+
+  private void writeRegion(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      StorageService storageService,
+      FileItem file,
+      ByteBuffer cached,
+      Region region,
+      boolean sendfileAllowed,
+      Counter sent)
+      throws IOException {
+    if (region.count() == 0) {
+      return;
+    }
+    copyRegion(request, response, storageService, file, cached, region, sendfileAllowed);
+    sent.increment(region.count());
+  }
+
+  private void copyRegion(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      StorageService storageService,
+      FileItem file,
+      ByteBuffer cached,
+      Region region,
+      boolean sendfileAllowed)
+      throws IOException {
+    if (cached != null) {
+      ByteBuffer slice =
+          cached
+              .duplicate()
+              .position((int) region.start())
+              .limit((int) (region.start() + region.count()));
+      Channels.newChannel(response.getOutputStream()).write(slice);
+      return;
+    }
+    StorageSource source = file.getStorageSource();
+    if (storageService instanceof LocalFileStorageService local) {
+      Optional<Path> path = local.localPath(source, file);
+      if (path.isPresent()
+          && sendfileAllowed
+          && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+        request.setAttribute(SENDFILE_FILENAME, path.get().toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, region.start());
+        request.setAttribute(SENDFILE_END, region.start() + region.count());
+        return;
+      }
+      Optional<FileChannel> opened = local.openLocal(source, file);
+      if (opened.isPresent()) {
+        try (FileChannel channel = opened.get()) {
+          transfer(channel, region, response.getOutputStream());
+        }
+        return;
+      }
+    }
+    try (InputStream in = openRegion(storageService, source, file, region)) {
+      long copied = in.transferTo(response.getOutputStream());
+      if (copied < region.count()) {
+        throw new EOFException("Storage returned fewer bytes than the file size");
+      }
+    }
+  }
+
+  private InputStream openRegion(
+      StorageService storageService, StorageSource source, FileItem file, Region region) {
+    if (region.start() == 0 && region.count() == file.getSize()) {
+      return storageService.load(source, file);
+    }
+    return storageService.load(source, file, region.start(), region.count());
+  }
+
+  private void transfer(FileChannel channel, Region region, OutputStream out) throws IOException {
+    WritableByteChannel target = Channels.newChannel(out);
+    long position = region.start();
+    long remaining = region.count();
+    while (remaining > 0) {
+      long transferred = channel.transferTo(position, remaining, target);
+      if (transferred <= 0) {
+        throw new EOFException("File is shorter than its recorded size");
+      }
+      position += transferred;
+      remaining -= transferred;
+    }
+  }
+
+  private record Region(long start, long count) {
+    String contentRange(long length) {
+      return "bytes " + start + "-" + (start + count - 1) + "/" + length;
+    }
+  }
+}
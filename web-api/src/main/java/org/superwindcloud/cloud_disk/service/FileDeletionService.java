@@ -0,0 +1,272 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.PendingDeletion;
+import org.superwindcloud.cloud_disk.PendingDeletionRepository;
+import org.superwindcloud.cloud_disk.ShortLinkRepository;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.storage.BlobRegistry;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
+
+/**
+ * Deletes files in the background. A delete request only tombstones the item, or a folder's whole
+ * subtree, with one update. {@link #collect()} then purges tombstoned rows in batches, queueing
+ * each object that lost its last reference as a {@link PendingDeletion} in the same transaction,
+ * and removes queued objects from storage in bulk. Batches are claimed with {@code SKIP LOCKED} and
+ * every step is idempotent, so a crashed run or a second node simply picks up where it stopped.
+ *
+ * <p>A removal is claimed by counting the attempt and scheduling the next one, committed before the
+ * backend is called, so no transaction stays open across remote I/O and a claim whose node dies
+ * lapses on its own. Retries back off exponentially from {@code storage.gc.retry-backoff}; after
+ * {@code storage.gc.max-attempts} the removal is parked and logged.
+ */
+@Service
+public class FileDeletionService {
+  private static final Logger log = LoggerFactory.getLogger(FileDeletionService.class);
+
+  private final StorageRuntimeRegistry storageRuntimeRegistry;
+  private final FileItemRepository fileItemRepository;
+  private final PendingDeletionRepository pendingDeletionRepository;
+  private final ShortLinkRepository shortLinkRepository;
+  private final ShortLinkService shortLinkService;
+  private final DirectoryService directoryService;
+  private final DirectoryIndex directoryIndex;
+  private final BlobRegistry blobRegistry;
+  private final StorageUsageService storageUsageService;
+  private final SearchIndex searchIndex;
+  private final TransactionTemplate transactionTemplate;
+  private volatile CollectionReport lastRun;
+
+  @Value("${storage.gc.batch-size:1000}")
+  private int batchSize;
+
+  @Value("${storage.gc.max-attempts:10}")
+  private int maxAttempts;
+
+  @Value("${storage.gc.retry-backoff:1m}")
+  private Duration retryBackoff;
+
+  public FileDeletionService(
+      StorageRuntimeRegistry storageRuntimeRegistry,
+      FileItemRepository fileItemRepository,
+      PendingDeletionRepository pendingDeletionRepository,
+      ShortLinkRepository shortLinkRepository,
+      ShortLinkService shortLinkService,
+      DirectoryService directoryService,
+      DirectoryIndex directoryIndex,
+      BlobRegistry blobRegistry,
+      StorageUsageService storageUsageService,
+      SearchIndex searchIndex,
+      PlatformTransactionManager transactionManager) {
+    this.storageRuntimeRegistry = storageRuntimeRegistry;
+    this.fileItemRepository = fileItemRepository;
+    this.pendingDeletionRepository = pendingDeletionRepository;
+    this.shortLinkRepository = shortLinkRepository;
+    this.shortLinkService = shortLinkService;
+    this.directoryService = directoryService;
+    this.directoryIndex = directoryIndex;
+    this.blobRegistry = blobRegistry;
+    this.storageUsageService = storageUsageService;
+    this.searchIndex = searchIndex;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /** Tombstones the item and, for a directory, its subtree. Returns the number of items. */
+  @Transactional
+  public int delete(FileItem item) {
+    Instant now = Instant.now();
+    searchIndex.written(item.getStorageSource().getId(), now);
+    if (!item.isDirectory()) {
+      shortLinkService.deleteForFile(item.getId());
+      item.setDeletedAt(now);
+      fileItemRepository.save(item);
+      return 1;
+    }
+    String fullPath = directoryService.fullPath(item);
+    Long sourceId = item.getStorageSource().getId();
+    storageUsageService.lock(sourceId);
+    directoryService.checkNotMoving(sourceId, fullPath);
+    shortLinkService.deleteForSubtree(item, fullPath);
+    directoryIndex.removeSubtree(sourceId, fullPath);
+    StorageUsageService.Totals totals = storageUsageService.directoryTotals(sourceId, item.getId());
+    storageUsageService.add(sourceId, item.getDirectoryPath(), -totals.bytes(), -totals.files());
+    return fileItemRepository.tombstoneSubtree(sourceId, item.getId(), fullPath, now);
+  }
+
+  @Scheduled(
+      fixedDelayString = "${storage.gc.interval:30s}",
+      initialDelayString = "${storage.gc.interval:30s}")
+  public CollectionReport collect() {
+    Instant started = Instant.now();
+    long items = 0;
+    int purged;
+    do {
+      purged = transactionTemplate.execute(status -> purgeTombstones());
+      items += purged;
+    } while (purged == batchSize);
+
+    long removed = 0;
+    long failed = 0;
+    Removal removal;
+    do {
+      removal = removeObjects();
+      removed += removal.removed();
+      failed += removal.failed();
+    } while (removal.removed() + removal.failed() == batchSize);
+
+    CollectionReport report =
+        new CollectionReport(
+            started, items, removed, failed, Duration.between(started, Instant.now()));
+    lastRun = report;
+    if (items > 0 || removed > 0 || failed > 0) {
+      log.info(
+          "Collected {} deleted items and removed {} objects ({} failed) in {}",
+          items,
+          removed,
+          failed,
+          report.elapsed());
+    }
+    return report;
+  }
+
+  public Status status() {
+    return new Status(
+        fileItemRepository.countTombstones(),
+        pendingDeletionRepository.count(),
+        pendingDeletionRepository.countByAttemptsGreaterThanEqual(maxAttempts),
+        lastRun);
+  }
+
+  /** Drops one batch of tombstoned rows and queues the objects nothing references any more. */
+  private int purgeTombstones() {
+    List<FileItem> batch = fileItemRepository.lockTombstones(batchSize);
+    if (batch.isEmpty()) {
+      return 0;
+    }
+    List<Long> ids = batch.stream().map(FileItem::getId).toList();
+    Map<Long, List<FileItem>> filesBySource = new LinkedHashMap<>();
+    for (FileItem file : batch) {
+      if (!file.isDirectory()) {
+        filesBySource
+            .computeIfAbsent(file.getStorageSource().getId(), id -> new ArrayList<>())
+            .add(file);
+      }
+    }
+    List<PendingDeletion> pending = new ArrayList<>();
+    for (List<FileItem> files : filesBySource.values()) {
+      StorageSource source = files.get(0).getStorageSource();
+      for (String storagePath : blobRegistry.releaseAll(source, files)) {
+        PendingDeletion deletion = new PendingDeletion();
+        deletion.setStorageSource(source);
+        deletion.setStoragePath(storagePath);
+        pending.add(deletion);
+      }
+    }
+    pendingDeletionRepository.saveAll(pending);
+    // Links created while the item was being deleted would otherwise block the purge.
+    shortLinkRepository.deleteByFileItemIds(ids);
+    fileItemRepository.purge(ids);
+    return batch.size();
+  }
+
+  /** Removes one batch of queued objects; failures stay queued until their next attempt. */
+  private Removal removeObjects() {
+    List<PendingDeletion> batch = transactionTemplate.execute(status -> claimRemovals());
+    Map<Long, List<PendingDeletion>> bySource = new LinkedHashMap<>();
+    for (PendingDeletion deletion : batch) {
+      bySource
+          .computeIfAbsent(deletion.getStorageSource().getId(), id -> new ArrayList<>())
+          .add(deletion);
+    }
+    List<Long> done = new ArrayList<>();
+    List<Long> failed = new ArrayList<>();
+    for (List<PendingDeletion> deletions : bySource.values()) {
+      StorageSource source = deletions.get(0).getStorageSource();
+      Set<String> notRemoved;
+      try {
+        List<String> paths = deletions.stream().map(PendingDeletion::getStoragePath).toList();
+        notRemoved =
+            Set.copyOf(storageRuntimeRegistry.service(source).deleteObjects(source, paths));
+      } catch (RuntimeException e) {
+        log.warn("Failed to remove {} objects from source {}", deletions.size(), source.getId(), e);
+        deletions.forEach(deletion -> failed.add(deletion.getId()));
+        continue;
+      }
+      for (PendingDeletion deletion : deletions) {
+        (notRemoved.contains(deletion.getStoragePath()) ? failed : done).add(deletion.getId());
+      }
+    }
+    if (!done.isEmpty()) {
+      pendingDeletionRepository.deleteAllByIdInBatch(done);
+    }
+    Set<Long> failedIds = Set.copyOf(failed);
+    for (PendingDeletion deletion : batch) {
+      if (deletion.getAttempts() + 1 >= maxAttempts && failedIds.contains(deletion.getId())) {
+        log.error(
+            "Giving up on removing {} from source {} after {} attempts; it stays parked in"
+                + " pending_deletions",
+            deletion.getStoragePath(),
+            deletion.getStorageSource().getId(),
+            maxAttempts);
+      }
+    }
+    return new Removal(done.size(), failed.size());
+  }
+
+  /** Locks a batch of due removals and records this attempt, which commits the claim. */
+  private List<PendingDeletion> claimRemovals() {
+    Instant now = Instant.now();
+    List<PendingDeletion> batch = pendingDeletionRepository.lockBatch(now, maxAttempts, batchSize);
+    Map<Integer, List<Long>> byAttempts = new HashMap<>();
+    for (PendingDeletion deletion : batch) {
+      byAttempts
+          .computeIfAbsent(deletion.getAttempts(), attempts -> new ArrayList<>())
+          .add(deletion.getId());
+    }
+    byAttempts.forEach(
+        (attempts, ids) ->
+            pendingDeletionRepository.recordAttempt(ids, now.plus(backoff(attempts))));
+    return batch;
+  }
+
+  /** Delay before the attempt after {@code attempts} earlier ones, doubling each time. */
+  private Duration backoff(int attempts) {
+    return retryBackoff.multipliedBy(1L << Math.min(attempts, 20));
+  }
+
+  private record Removal(int removed, int failed) {}
+
+  /** Totals of one {@link #collect()} run. */
+  public record CollectionReport(
+      Instant startedAt,
+      long itemsPurged,
+      long objectsRemoved,
+      long objectsFailed,
+      Duration elapsed) {}
+
+  /**
+   * @param pendingItems deleted items whose rows have not been purged yet
+   * @param pendingObjects stored objects waiting to be removed from their backend
+   * @param parkedObjects pending objects that used up their attempts and are no longer retried
+   * @param lastRun the most recent collection, or {@code null} before the first one
+   */
+  public record Status(
+      long pendingItems, long pendingObjects, long parkedObjects, CollectionReport lastRun) {}
+}
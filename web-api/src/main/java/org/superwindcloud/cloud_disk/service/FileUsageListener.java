@@ -0,0 +1,116 @@
+package org.superwindcloud.cloud_disk.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import java.util.Objects;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PreInsertEvent;
+import org.hibernate.event.spi.PreInsertEventListener;
+import org.hibernate.event.spi.PreUpdateEvent;
+import org.hibernate.event.spi.PreUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+
+/**
+ * Applies the usage delta of every {@link FileItem} the entity manager inserts or updates,
+ * comparing the row's state before and after. It runs just before the row is written, so the source
+ * is locked before the row, the same order every other change takes. Bulk statements bypass it and
+ * call {@link StorageUsageService} themselves.
+ */
+@Component
+public class FileUsageListener implements PreInsertEventListener, PreUpdateEventListener {
+  private static final Logger log = LoggerFactory.getLogger(FileUsageListener.class);
+
+  private final EntityManagerFactory entityManagerFactory;
+  private final StorageUsageService storageUsageService;
+
+  public FileUsageListener(
+      EntityManagerFactory entityManagerFactory, StorageUsageService storageUsageService) {
+    this.entityManagerFactory = entityManagerFactory;
+    this.storageUsageService = storageUsageService;
+  }
+
+  @PostConstruct
+  void register() {
+    var registry =
+        entityManagerFactory.unwrap(SessionFactoryImplementor.class).getEventListenerRegistry();
+    registry.appendListeners(EventType.PRE_INSERT, this);
+    registry.appendListeners(EventType.PRE_UPDATE, this);
+  }
+
+  @Override
+  public boolean onPreInsert(PreInsertEvent event) {
+    if (event.getEntity() instanceof FileItem) {
+      State after = new State(event.getPersister(), event.getState());
+      if (after.live() && !after.directory()) {
+        storageUsageService.add(after.sourceId(), after.directoryPath(), after.size(), 1);
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean onPreUpdate(PreUpdateEvent event) {
+    if (!(event.getEntity() instanceof FileItem) || event.getOldState() == null) {
+      return false;
+    }
+    State before = new State(event.getPersister(), event.getOldState());
+    State after = new State(event.getPersister(), event.getState());
+    if (!before.live() && !after.live()) {
+      return false;
+    }
+    if (before.live() == after.live()
+        && Objects.equals(before.sourceId(), after.sourceId())
+        && before.directoryPath().equals(after.directoryPath())
+        && (before.directory() || before.size() == after.size())) {
+      return false;
+    }
+    Long id = (Long) event.getId();
+    StorageUsageService.Totals totals =
+        before.directory()
+            ? storageUsageService.directoryTotals(before.sourceId(), id)
+            : new StorageUsageService.Totals(0, 0);
+    StorageUsageService.Placement from = before.placement(totals);
+    StorageUsageService.Placement to = after.placement(totals);
+    if (Objects.equals(before.sourceId(), after.sourceId())) {
+      storageUsageService.change(after.sourceId(), from, to);
+    } else {
+      log.warn("File {} changed storage source; moving its usage along", id);
+      storageUsageService.change(before.sourceId(), from, null);
+      storageUsageService.change(after.sourceId(), null, to);
+    }
+    return false;
+  }
+
+  /** The properties of one {@link FileItem} state that usage depends on. */
+  private record State(
+      Long sourceId, String directoryPath, boolean directory, long size, boolean live) {
+    State(EntityPersister persister, Object[] state) {
+      this(
+          ((StorageSource) value(persister, state, "storageSource")).getId(),
+          Objects.requireNonNullElse((String) value(persister, state, "directoryPath"), ""),
+          Boolean.TRUE.equals(value(persister, state, "directory")),
+          Objects.requireNonNullElse((Long) value(persister, state, "size"), 0L),
+          value(persister, state, "deletedAt") == null);
+    }
+
+    /** Null unless the item counts; a directory counts what is beneath it. */
+    StorageUsageService.Placement placement(StorageUsageService.Totals totals) {
+      if (!live) {
+        return null;
+      }
+      return directory
+          ? new StorageUsageService.Placement(directoryPath, totals.bytes(), totals.files())
+          : new StorageUsageService.Placement(directoryPath, size, 1);
+    }
+
+    private static Object value(EntityPersister persister, Object[] state, String property) {
+      return state[persister.getPropertyIndex(property)];
+    }
+  }
+}
@@ -0,0 +1,563 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory name index over the items of one storage source. Every name is broken into trigrams,
+ * plus the one- and two-character prefixes of each word, and each key maps to a sorted posting list
+ * of entry ordinals. A query intersects the lists of its longest terms, then checks the few
+ * surviving candidates against the name itself.
+ *
+ * <p>A term may also match the item's directory path, so {@code 2024 invoice} finds {@code
+ * invoice.pdf} under {@code finance/2024}. Directories are few next to items, so their paths are
+ * scanned rather than indexed; each keeps a list of the entries directly inside it.
+ *
+ * <p>Ordinals are only ever appended, so posting lists stay sorted without insertion. A rename or
+ * delete retires the old ordinal, and the index is rebuilt once retired ordinals outnumber live
+ * ones. Names are kept lowercased only, since results are read back from the database.
+ *
+ * <p>Not thread-safe; {@link SearchIndex} serializes writers against readers.
+ */
+public final class FilenameIndex {
+  private static final int SNAPSHOT_MAGIC = 0x43445849;
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final long TRIGRAM = 1L << 48;
+  private static final long PREFIX = 2L << 48;
+  private static final long ID_MASK = (1L << 44) - 1;
+
+  private long[] ids = new long[1024];
+  private String[] names = new String[1024];
+  private int[] parents = new int[1024];
+  private final BitSet retired = new BitSet();
+  private int size;
+  private int live;
+  private final LongIntMap ordinals = new LongIntMap();
+  private final LongIntMap postingSlots = new LongIntMap();
+  private Postings[] postings = new Postings[1024];
+  private int postingCount;
+  private final Map<String, Integer> pathOrdinals = new HashMap<>();
+  private final List<String> paths = new ArrayList<>();
+  private final List<String> lowercasePaths = new ArrayList<>();
+  private final List<Postings> children = new ArrayList<>();
+
+  public int size() {
+    return live;
+  }
+
+  /** Indexes the item, replacing any earlier entry for it. Returns whether anything changed. */
+  public boolean put(long id, String filename, String directoryPath) {
+    String name = filename.toLowerCase(Locale.ROOT);
+    int existing = ordinals.get(id);
+    if (existing >= 0) {
+      if (names[existing].equals(name) && paths.get(parents[existing]).equals(directoryPath)) {
+        return false;
+      }
+      retire(existing);
+    }
+    int ordinal = size++;
+    if (ordinal == ids.length) {
+      int capacity = ids.length * 2;
+      ids = Arrays.copyOf(ids, capacity);
+      names = Arrays.copyOf(names, capacity);
+      parents = Arrays.copyOf(parents, capacity);
+    }
+    ids[ordinal] = id;
+    names[ordinal] = name;
+    parents[ordinal] = pathOrdinals.computeIfAbsent(directoryPath, this::addPath);
+    children.get(parents[ordinal]).add(ordinal);
+    ordinals.put(id, ordinal);
+    live++;
+    long[] keys = keys(name);
+    for (int i = 0; i < keys.length; i++) {
+      if (i == 0 || keys[i] != keys[i - 1]) {
+        postingsFor(keys[i]).add(ordinal);
+      }
+    }
+    return true;
+  }
+
+  public boolean remove(long id) {
+    int ordinal = ordinals.remove(id);
+    if (ordinal < 0) {
+      return false;
+    }
+    retire(ordinal);
+    return true;
+  }
+
+  /** Whether enough ordinals are retired that {@link #compact} is worth its cost. */
+  public boolean needsCompaction() {
+    return size - live > Math.max(4096, live);
+  }
+
+  /** A copy holding only live entries, with posting lists free of retired ordinals. */
+  public FilenameIndex compact() {
+    FilenameIndex compacted = new FilenameIndex();
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      if (!retired.get(ordinal)) {
+        compacted.put(ids[ordinal], names[ordinal], paths.get(parents[ordinal]));
+      }
+    }
+    return compacted;
+  }
+
+  /**
+   * Ranks the items whose name or directory path contains every term of {@code query}. Terms
+   * shorter than three characters must start a word, and a slash ends a word of a path. When {@code
+   * scope} is not blank only items inside that directory, at any depth, are considered. Returns the
+   * ids of matches {@code offset} to {@code offset + limit}, best first.
+   */
+  public List<Long> search(String query, String scope, int offset, int limit) {
+    List<String> terms =
+        Arrays.stream(query.toLowerCase(Locale.ROOT).trim().split("\\s+"))
+            .filter(term -> !term.isEmpty())
+            .distinct()
+            .toList();
+    if (terms.isEmpty()) {
+      return List.of();
+    }
+    String phrase = String.join(" ", terms);
+    BitSet inScope = scope(scope);
+    TopK best = new TopK(offset + limit);
+    List<BitSet> pathMatches = terms.stream().map(this::pathsMatching).toList();
+    boolean anyPath = pathMatches.stream().anyMatch(matches -> !matches.isEmpty());
+    for (int ordinal : anyPath ? candidates(terms, pathMatches) : candidates(terms)) {
+      if (retired.get(ordinal) || (inScope != null && !inScope.get(parents[ordinal]))) {
+        continue;
+      }
+      String name = names[ordinal];
+      int rank = rank(name, terms, phrase);
+      if (rank < 0 && anyPath) {
+        rank = rankWithPath(name, parents[ordinal], terms, pathMatches);
+      }
+      if (rank < 0) {
+        continue;
+      }
+      best.offer(
+          ((long) rank << 60)
+              | ((long) Math.min(name.length(), 0xFFFF) << 44)
+              | (ID_MASK - Math.min(ids[ordinal], ID_MASK)));
+    }
+    long[] ranked = best.sorted();
+    List<Long> page = new ArrayList<>();
+    for (int i = offset; i < ranked.length; i++) {
+      page.add(ID_MASK - (ranked[i] & ID_MASK));
+    }
+    return page;
+  }
+
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(SNAPSHOT_MAGIC);
+    out.writeInt(SNAPSHOT_VERSION);
+    out.writeInt(paths.size());
+    for (String path : paths) {
+      out.writeUTF(path);
+    }
+    out.writeInt(live);
+    for (int ordinal = 0; ordinal < size; ordinal++) {
+      if (!retired.get(ordinal)) {
+        out.writeLong(ids[ordinal]);
+        out.writeInt(parents[ordinal]);
+        out.writeUTF(names[ordinal]);
+      }
+    }
+  }
+
+  public static FilenameIndex read(DataInputStream in) throws IOException {
+    if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+      throw new IOException("Not a search index snapshot of this version");
+    }
+    String[] paths = new String[in.readInt()];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = in.readUTF();
+    }
+    FilenameIndex index = new FilenameIndex();
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      long id = in.readLong();
+      String path = paths[in.readInt()];
+      index.put(id, in.readUTF(), path);
+    }
+    return index;
+  }
+
+  private void retire(int ordinal) {
+    retired.set(ordinal);
+    live--;
+  }
+
+  private Postings postingsFor(long key) {
+    int slot = postingSlots.get(key);
+    if (slot < 0) {
+      slot = postingCount++;
+      if (slot == postings.length) {
+        postings = Arrays.copyOf(postings, slot * 2);
+      }
+      postings[slot] = new Postings();
+      postingSlots.put(key, slot);
+    }
+    return postings[slot];
+  }
+
+  private Postings postings(long key) {
+    int slot = postingSlots.get(key);
+    return slot < 0 ? null : postings[slot];
+  }
+
+  private int addPath(String path) {
+    paths.add(path);
+    lowercasePaths.add(path.toLowerCase(Locale.ROOT));
+    children.add(new Postings());
+    return paths.size() - 1;
+  }
+
+  /** Directory ordinals whose path contains {@code term} under the same rules as a name. */
+  private BitSet pathsMatching(String term) {
+    BitSet matching = new BitSet();
+    for (int i = 0; i < lowercasePaths.size(); i++) {
+      if (contains(lowercasePaths.get(i), term)) {
+        matching.set(i);
+      }
+    }
+    return matching;
+  }
+
+  /** Directory ordinals inside {@code scope}; null when the whole source is searched. */
+  private BitSet scope(String scope) {
+    if (scope == null || scope.isBlank()) {
+      return null;
+    }
+    BitSet matching = new BitSet(paths.size());
+    for (int i = 0; i < paths.size(); i++) {
+      String path = paths.get(i);
+      if (path.equals(scope) || path.startsWith(scope + "/")) {
+        matching.set(i);
+      }
+    }
+    return matching;
+  }
+
+  /**
+   * Intersects the posting lists of every trigram of the long terms, shortest list first. A query
+   * of short terms only falls back to the word-prefix list of its longest term.
+   */
+  private int[] candidates(List<String> terms) {
+    List<Postings> lists = new ArrayList<>();
+    for (String term : terms) {
+      if (term.length() < 3) {
+        continue;
+      }
+      for (int i = 0; i + 3 <= term.length(); i++) {
+        Postings list = postings(trigram(term, i));
+        if (list == null) {
+          return new int[0];
+        }
+        lists.add(list);
+      }
+    }
+    if (lists.isEmpty()) {
+      String longest = terms.stream().max(Comparator.comparingInt(String::length)).orElseThrow();
+      Postings list = postings(prefix(longest, 0, longest.length()));
+      return list == null ? new int[0] : Arrays.copyOf(list.ordinals, list.size);
+    }
+    lists.sort(Comparator.comparingInt(list -> list.size));
+    int[] result = Arrays.copyOf(lists.get(0).ordinals, lists.get(0).size);
+    int length = result.length;
+    for (int l = 1; l < lists.size() && length > 0; l++) {
+      length = intersect(result, length, lists.get(l));
+    }
+    return Arrays.copyOf(result, length);
+  }
+
+  /**
+   * Candidates when some term matches a directory path: for each term, the entries whose name may
+   * hold it or whose directory does, intersected across terms.
+   */
+  private int[] candidates(List<String> terms, List<BitSet> pathMatches) {
+    BitSet result = null;
+    for (int t = 0; t < terms.size() && (result == null || !result.isEmpty()); t++) {
+      BitSet matching = new BitSet(size);
+      for (int ordinal : candidates(List.of(terms.get(t)))) {
+        matching.set(ordinal);
+      }
+      BitSet directories = pathMatches.get(t);
+      for (int p = directories.nextSetBit(0); p >= 0; p = directories.nextSetBit(p + 1)) {
+        Postings inside = children.get(p);
+        for (int i = 0; i < inside.size; i++) {
+          matching.set(inside.ordinals[i]);
+        }
+      }
+      if (result == null) {
+        result = matching;
+      } else {
+        result.and(matching);
+      }
+    }
+    return result.stream().toArray();
+  }
+
+  /**
+   * Keeps the first {@code length} ordinals of {@code result} that {@code list} also holds. Each
+   * lookup gallops forward from the previous match, so lists of similar length cost a linear merge
+   * and a short list against a long one costs a logarithmic search per element.
+   */
+  private static int intersect(int[] result, int length, Postings list) {
+    int kept = 0;
+    int from = 0;
+    for (int i = 0; i < length && from < list.size; i++) {
+      int target = result[i];
+      int step = 1;
+      int to = from;
+      while (to < list.size && list.ordinals[to] < target) {
+        from = to + 1;
+        to += step;
+        step <<= 1;
+      }
+      int found = Arrays.binarySearch(list.ordinals, from, Math.min(to + 1, list.size), target);
+      if (found >= 0) {
+        result[kept++] = target;
+        from = found + 1;
+      } else {
+        from = -found - 1;
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * 0 for a name equal to the query, 1 when it starts with the first term, 2 when every term starts
+   * a word, 3 for any other match, and -1 when a term is missing from the name.
+   */
+  private static int rank(String name, List<String> terms, String phrase) {
+    boolean wordStarts = true;
+    for (String term : terms) {
+      int at = name.indexOf(term);
+      if (at < 0) {
+        return -1;
+      }
+      boolean wordStart = startsWord(name, term);
+      if (term.length() < 3 && !wordStart) {
+        return -1;
+      }
+      wordStarts &= wordStart;
+    }
+    if (name.equals(phrase)) {
+      return 0;
+    }
+    if (name.startsWith(terms.get(0))) {
+      return 1;
+    }
+    return wordStarts ? 2 : 3;
+  }
+
+  /** 4 when every term the name lacks is in directory {@code parent}'s path, -1 otherwise. */
+  private int rankWithPath(String name, int parent, List<String> terms, List<BitSet> pathMatches) {
+    for (int t = 0; t < terms.size(); t++) {
+      if (!pathMatches.get(t).get(parent) && !contains(name, terms.get(t))) {
+        return -1;
+      }
+    }
+    return 4;
+  }
+
+  private static boolean contains(String text, String term) {
+    return term.length() < 3 ? startsWord(text, term) : text.contains(term);
+  }
+
+  private static boolean startsWord(String name, String term) {
+    for (int at = name.indexOf(term); at >= 0; at = name.indexOf(term, at + 1)) {
+      if (at == 0 || !Character.isLetterOrDigit(name.charAt(at - 1))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Index keys of a lowercased name, sorted; repeated keys are adjacent. */
+  private static long[] keys(String name) {
+    long[] keys = new long[name.length() * 3];
+    int count = 0;
+    for (int i = 0; i + 3 <= name.length(); i++) {
+      keys[count++] = trigram(name, i);
+    }
+    for (int i = 0; i < name.length(); i++) {
+      if (i == 0 || !Character.isLetterOrDigit(name.charAt(i - 1))) {
+        keys[count++] = prefix(name, i, 1);
+        if (i + 2 <= name.length()) {
+          keys[count++] = prefix(name, i, 2);
+        }
+      }
+    }
+    Arrays.sort(keys, 0, count);
+    return count == keys.length ? keys : Arrays.copyOf(keys, count);
+  }
+
+  private static long trigram(String text, int at) {
+    return TRIGRAM
+        | ((long) text.charAt(at) << 32)
+        | ((long) text.charAt(at + 1) << 16)
+        | text.charAt(at + 2);
+  }
+
+  /** Key of the one- or two-character word prefix of {@code text} at {@code at}. */
+  private static long prefix(String text, int at, int length) {
+    long key = PREFIX | ((long) length << 32) | text.charAt(at);
+    return length == 2 ? key | ((long) text.charAt(at + 1) << 16) : key;
+  }
+
+  /** Open-addressing map from long keys to non-negative ints, without boxing either. */
+  private static final class LongIntMap {
+    private static final int FREE = -1;
+    private static final int REMOVED = -2;
+
+    private long[] keys = new long[1024];
+    private int[] values = filled(1024);
+    private int used;
+
+    /** The value for {@code key}, or a negative number when there is none. */
+    int get(long key) {
+      int mask = keys.length - 1;
+      for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+        if (values[i] == FREE || keys[i] == key) {
+          return values[i];
+        }
+      }
+    }
+
+    void put(long key, int value) {
+      int mask = keys.length - 1;
+      int i = mix(key) & mask;
+      while (values[i] != FREE && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      if (values[i] == FREE) {
+        keys[i] = key;
+        if (++used > keys.length * 3 / 4) {
+          values[i] = value;
+          rehash();
+          return;
+        }
+      }
+      values[i] = value;
+    }
+
+    /** Removes the key and returns its value, or a negative number when there was none. */
+    int remove(long key) {
+      int mask = keys.length - 1;
+      for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+        if (values[i] == FREE) {
+          return FREE;
+        }
+        if (keys[i] == key) {
+          int value = values[i];
+          values[i] = REMOVED;
+          return value;
+        }
+      }
+    }
+
+    /** Doubles the table when it is mostly live keys; either way drops removed slots. */
+    private void rehash() {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      int live = 0;
+      for (int value : oldValues) {
+        if (value >= 0) {
+          live++;
+        }
+      }
+      int capacity = live > oldKeys.length / 2 ? oldKeys.length * 2 : oldKeys.length;
+      keys = new long[capacity];
+      values = filled(capacity);
+      used = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldValues[i] >= 0) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    private static int[] filled(int capacity) {
+      int[] values = new int[capacity];
+      Arrays.fill(values, FREE);
+      return values;
+    }
+
+    private static int mix(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  /** Keeps the {@code capacity} smallest keys offered, in a binary max-heap. */
+  private static final class TopK {
+    private final long[] heap;
+    private int size;
+
+    TopK(int capacity) {
+      this.heap = new long[capacity];
+    }
+
+    void offer(long key) {
+      if (size < heap.length) {
+        heap[size] = key;
+        for (int i = size++; i > 0 && heap[(i - 1) / 2] < heap[i]; i = (i - 1) / 2) {
+          swap(i, (i - 1) / 2);
+        }
+      } else if (size > 0 && key < heap[0]) {
+        heap[0] = key;
+        for (int i = 0; ; ) {
+          int largest = i;
+          for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+            if (heap[child] > heap[largest]) {
+              largest = child;
+            }
+          }
+          if (largest == i) {
+            break;
+          }
+          swap(i, largest);
+          i = largest;
+        }
+      }
+    }
+
+    long[] sorted() {
+      long[] sorted = Arrays.copyOf(heap, size);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+
+    private void swap(int a, int b) {
+      long t = heap[a];
+      heap[a] = heap[b];
+      heap[b] = t;
+    }
+  }
+
+  /** A growable, ascending list of ordinals. */
+  private static final class Postings {
+    private int[] ordinals = new int[4];
+    private int size;
+
+    void add(int ordinal) {
+      if (size > 0 && ordinals[size - 1] == ordinal) {
+        return;
+      }
+      if (size == ordinals.length) {
+        ordinals = Arrays.copyOf(ordinals, size * 2);
+      }
+      ordinals[size++] = ordinal;
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
+
+/**
+ * Single-pass reader for {@code multipart/form-data} bodies. Each part's content is exposed as a
+ * stream over the request body itself, so uploads reach storage without being spooled to a
+ * temporary file first. Parts must be consumed in order; advancing to the next part discards
+ * whatever is left of the current one.
+ */
+public class MultipartStreamReader {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_HEADER_BYTES = 16 * 1024;
+
+  private final InputStream in;
+  private final byte[] delimiter;
+  private final byte[] buffer;
+  private int pos;
+  private int limit;
+  private boolean eof;
+  private boolean finished;
+  private PartInputStream current;
+
+  public MultipartStreamReader(InputStream in, String boundary) {
+    if (!StringUtils.hasText(boundary)) {
+      throw new IllegalArgumentException("Multipart boundary is missing");
+    }
+    this.in = in;
+    this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+    this.buffer = new byte[BUFFER_SIZE + delimiter.length];
+    // The first boundary is not preceded by CRLF; seeding one lets every delimiter match alike.
+    buffer[0] = '\r';
+    buffer[1] = '\n';
+    this.limit = 2;
+  }
+
+  /** Creates a reader for a request whose content type carries a multipart boundary. */
+  public static MultipartStreamReader forContentType(InputStream in, String contentType) {
+    if (!StringUtils.hasText(contentType)) {
+      throw new IllegalArgumentException("Expected a multipart/form-data request");
+    }
+    MediaType mediaType = MediaType.parseMediaType(contentType);
+    if (!MediaType.MULTIPART_FORM_DATA.includes(mediaType)) {
+      throw new IllegalArgumentException("Expected a multipart/form-data request");
+    }
+    String boundary = mediaType.getParameter("boundary");
+    // The parameter keeps its quotes, which RFC 2046 allows around any boundary.
+    if (boundary != null
+        && boundary.length() >= 2
+        && boundary.startsWith("\"")
+        && boundary.endsWith("\"")) {
+      boundary = boundary.substring(1, boundary.length() - 1);
+    }
+    return new MultipartStreamReader(in, boundary);
+  }
+
+  /** Returns the next part, or {@code null} once the closing boundary has been read. */
+  public Part next() throws IOException {
+    if (finished) {
+      return null;
+    }
+    if (current != null) {
+      current.drain();
+    } else {
+      // Skip the preamble up to and including the first delimiter.
+      new PartInputStream().drain();
+    }
+    int first = readByte();
+    if (first == '-' && readByte() == '-') {
+      finished = true;
+      current = null;
+      return null;
+    }
+    // Tolerate a bare LF after the delimiter as well as the CRLF the RFC asks for.
+    if (first != '\n') {
+      skipLine();
+    }
+    Map<String, String> headers = readHeaders();
+    current = new PartInputStream();
+    return new Part(headers, current);
+  }
+
+  private Map<String, String> readHeaders() throws IOException {
+    Map<String, String> headers = new LinkedHashMap<>();
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int total = 0;
+    while (true) {
+      int b = readByte();
+      if (++total > MAX_HEADER_BYTES) {
+        throw new IOException("Multipart part headers are too large");
+      }
+      if (b != '\n') {
+        if (b != '\r') {
+          line.write(b);
+        }
+        continue;
+      }
+      if (line.size() == 0) {
+        return headers;
+      }
+      String header = line.toString(StandardCharsets.UTF_8);
+      int colon = header.indexOf(':');
+      if (colon > 0) {
+        headers.put(
+            header.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+            header.substring(colon + 1).trim());
+      }
+      line.reset();
+    }
+  }
+
+  private void skipLine() throws IOException {
+    int b;
+    do {
+      b = readByte();
+    } while (b != '\n');
+  }
+
+  private int readByte() throws IOException {
+    if (pos == limit && fill(1) == 0) {
+      throw new EOFException("Unexpected end of multipart body");
+    }
+    return buffer[pos++] & 0xff;
+  }
+
+  /** Ensures at least {@code wanted} unread bytes are buffered unless the input ends first. */
+  private int fill(int wanted) throws IOException {
+    if (limit - pos >= wanted || eof) {
+      return limit - pos;
+    }
+    if (pos > 0) {
+      System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+      limit -= pos;
+      pos = 0;
+    }
+    while (limit < wanted && !eof) {
+      int n = in.read(buffer, limit, buffer.length - limit);
+      if (n < 0) {
+        eof = true;
+      } else {
+        limit += n;
+      }
+    }
+    return limit - pos;
+  }
+
+  /** Index of the first delimiter starting at or before {@code maxStart}, or -1 if none does. */
+  private int findDelimiter(int maxStart) {
+    int last = Math.min(limit - delimiter.length, maxStart);
+    outer:
+    for (int i = pos; i <= last; i++) {
+      for (int j = 0; j < delimiter.length; j++) {
+        if (buffer[i + j] != delimiter[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  /** One form-data part. The body stream ends at the part's closing boundary. */
+  public static final class Part {
+    private final Map<String, String> headers;
+    private final ContentDisposition disposition;
+    private final InputStream body;
+
+    private Part(Map<String, String> headers, InputStream body) {
+      this.headers = headers;
+      String raw = headers.get("content-disposition");
+      this.disposition =
+          raw == null ? ContentDisposition.empty() : ContentDisposition.parse(raw.trim());
+      this.body = body;
+    }
+
+    public String name() {
+      return disposition.getName();
+    }
+
+    public String filename() {
+      return disposition.getFilename();
+    }
+
+    public boolean isFile() {
+      return disposition.getFilename() != null;
+    }
+
+    public String contentType() {
+      return headers.get(HttpHeaders.CONTENT_TYPE.toLowerCase(Locale.ROOT));
+    }
+
+    public InputStream body() {
+      return body;
+    }
+
+    /** Reads a small form field value; rejects values larger than {@code maxBytes}. */
+    public String readString(int maxBytes) throws IOException {
+      byte[] bytes = body.readNBytes(maxBytes + 1);
+      if (bytes.length > maxBytes) {
+        throw new IllegalArgumentException("Form field '" + name() + "' is too large");
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  private final class PartInputStream extends InputStream {
+    private final byte[] single = new byte[1];
+    private boolean done;
+
+    @Override
+    public int read() throws IOException {
+      // A byte that cannot start a delimiter is content, and needs no search.
+      if (!done && fill(delimiter.length) >= delimiter.length && buffer[pos] != delimiter[0]) {
+        return buffer[pos++] & 0xff;
+      }
+      int n = read(single, 0, 1);
+      return n < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (done) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+      int available = fill(delimiter.length);
+      int window = Math.min(len, available);
+      int delimiterAt = findDelimiter(pos + window - 1);
+      int readable;
+      if (delimiterAt >= 0) {
+        readable = delimiterAt - pos;
+        if (readable == 0) {
+          pos += delimiter.length;
+          done = true;
+          return -1;
+        }
+      } else {
+        // Hold back a tail that could be the start of a delimiter split across reads.
+        readable = Math.min(window, available - delimiter.length + 1);
+        if (readable <= 0) {
+          throw new EOFException("Multipart body ended before the closing boundary");
+        }
+      }
+      int n = Math.min(len, readable);
+      System.arraycopy(buffer, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return done ? 0 : Math.max(0, limit - pos - delimiter.length);
+    }
+
+    void drain() throws IOException {
+      byte[] scratch = new byte[8192];
+      while (read(scratch, 0, scratch.length) >= 0) {
+        // discard
+      }
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package org.superwindcloud.cloud_disk.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/** Thrown when accepting an upload would take a storage source past its quota. */
+@ResponseStatus(HttpStatus.INSUFFICIENT_STORAGE)
+public class QuotaExceededException extends RuntimeException {
+  public QuotaExceededException(String message) {
+    super(message);
+  }
+}
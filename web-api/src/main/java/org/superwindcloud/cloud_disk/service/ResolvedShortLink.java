@@ -0,0 +1,41 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.time.Instant;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.ShortLink;
+import org.superwindcloud.cloud_disk.StorageSource;
+
+/**
+ * Detached snapshot of a short link and the file behind it, safe to share between requests. The
+ * file and its source are copies, so nothing here is attached to a persistence context.
+ */
+public record ResolvedShortLink(
+    String token, FileItem file, Long sourceId, Instant expiresAt, String accessCode) {
+
+  static ResolvedShortLink of(ShortLink link) {
+    FileItem original = link.getFileItem();
+    StorageSource source = new StorageSource();
+    source.setId(original.getStorageSource().getId());
+    source.setName(original.getStorageSource().getName());
+    source.setType(original.getStorageSource().getType());
+    source.setConfig(original.getStorageSource().getConfig());
+
+    FileItem file = new FileItem();
+    file.setId(original.getId());
+    file.setStorageSource(source);
+    file.setFilename(original.getFilename());
+    file.setStoragePath(original.getStoragePath());
+    file.setSize(original.getSize());
+    file.setContentType(original.getContentType());
+    file.setContentHash(original.getContentHash());
+    file.setDirectoryPath(original.getDirectoryPath());
+    file.setDirectory(original.isDirectory());
+    file.setCreatedAt(original.getCreatedAt());
+    return new ResolvedShortLink(
+        link.getToken(), file, source.getId(), link.getExpiresAt(), link.getAccessCode());
+  }
+
+  boolean isExpired(Instant now) {
+    return expiresAt != null && !expiresAt.isAfter(now);
+  }
+}
@@ -0,0 +1,425 @@
+package org.superwindcloud.cloud_disk.service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.FileItemView;
+import org.superwindcloud.cloud_disk.StorageSourceRepository;
+
+/**
+ * Filename search per storage source, answered from an in-memory {@link FilenameIndex}. A source's
+ * index is loaded from its snapshot under {@code storage.search.directory}, or built from {@code
+ * file_items} when there is none, the first time the source is searched.
+ *
+ * <p>The index follows the table through {@code updated_at}, which every write of a row sets: a
+ * search on an index last refreshed more than {@code storage.search.refresh-interval} ago first
+ * applies the rows changed since, tombstones included. Timestamps are taken before the writing
+ * transaction commits, so each refresh reads {@code storage.search.overlap} further back than the
+ * newest change it has seen; re-applying a row is a no-op. Rows purged before the index saw their
+ * tombstone are dropped when a search returns them.
+ *
+ * <p>A transaction that commits later than the overlap, such as a move or delete of a large folder,
+ * can hide its rows from a refresh that has already read past their timestamps. Writers report the
+ * time they stamped rows through {@link #written}; when the commit comes too late, the source's
+ * {@code search_epoch} is bumped, and every node rebuilds its index of the source on the next
+ * search that sees the new epoch.
+ */
+@Component
+public class SearchIndex {
+  private static final Logger log = LoggerFactory.getLogger(SearchIndex.class);
+
+  private static final String SCAN =
+      "select id, filename, directory_path from file_items "
+          + "where storage_source_id = ? and deleted_at is null and id > ? order by id limit ?";
+
+  private static final String EPOCH = "select search_epoch from storage_sources where id = ?";
+
+  private static final String CHANGES =
+      "select id, filename, directory_path, deleted_at, updated_at from file_items "
+          + "where storage_source_id = ? and (updated_at > ? or (updated_at = ? and id > ?)) "
+          + "order by updated_at, id limit ?";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final FileItemRepository fileItemRepository;
+  private final StorageSourceRepository storageSourceRepository;
+  private final TransactionTemplate newTransaction;
+  private final Map<Long, Source> sources = new ConcurrentHashMap<>();
+
+  @Value("${storage.search.directory:./data/search-index}")
+  private Path directory;
+
+  @Value("${storage.search.refresh-interval:1s}")
+  private Duration refreshInterval;
+
+  @Value("${storage.search.overlap:10s}")
+  private Duration overlap;
+
+  @Value("${storage.search.batch-size:5000}")
+  private int batchSize;
+
+  public SearchIndex(
+      JdbcTemplate jdbcTemplate,
+      FileItemRepository fileItemRepository,
+      StorageSourceRepository storageSourceRepository,
+      PlatformTransactionManager transactionManager) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.fileItemRepository = fileItemRepository;
+    this.storageSourceRepository = storageSourceRepository;
+    this.newTransaction = new TransactionTemplate(transactionManager);
+    this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  /**
+   * Notes that the current transaction stamped rows of source {@code sourceId} with {@code
+   * updated_at} values no earlier than {@code stampedAt}. Once it commits, if more than {@code
+   * storage.search.overlap} has passed since, the source's indexes are rebuilt.
+   */
+  public void written(Long sourceId, Instant stampedAt) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      committed(sourceId, stampedAt);
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            committed(sourceId, stampedAt);
+          }
+        });
+  }
+
+  private void committed(Long sourceId, Instant stampedAt) {
+    Duration took = Duration.between(stampedAt, Instant.now());
+    if (took.compareTo(overlap) < 0) {
+      return;
+    }
+    log.info(
+        "Rebuilding search indexes of source {}: a write took {} ms to commit",
+        sourceId,
+        took.toMillis());
+    newTransaction.executeWithoutResult(
+        status -> storageSourceRepository.bumpSearchEpoch(sourceId));
+  }
+
+  /**
+   * The matches {@code offset} to {@code offset + limit} in rank order; see {@link
+   * FilenameIndex#search}. Only the page itself is read from the database. Whether more matches
+   * follow is decided by the index, so a page shortened by dropped rows is not taken for the last.
+   */
+  public Matches search(Long sourceId, String query, String scope, int offset, int limit) {
+    Source source = sources.computeIfAbsent(sourceId, Source::new);
+    source.refresh();
+    List<Long> ids;
+    source.lock.readLock().lock();
+    try {
+      ids = source.index.search(query, scope, offset, limit + 1);
+    } finally {
+      source.lock.readLock().unlock();
+    }
+    boolean more = ids.size() > limit;
+    List<Long> page = more ? ids.subList(0, limit) : ids;
+    if (page.isEmpty()) {
+      return new Matches(List.of(), -1);
+    }
+    Map<Long, FileItemView> views =
+        fileItemRepository.findViewsByIds(page).stream()
+            .collect(Collectors.toMap(FileItemView::id, Function.identity()));
+    List<Long> gone = page.stream().filter(id -> !views.containsKey(id)).toList();
+    forget(source, gone);
+    return new Matches(
+        page.stream().map(views::get).filter(Objects::nonNull).toList(),
+        // Forgotten ids no longer take a position, so the next page starts that much earlier.
+        more ? offset + limit - gone.size() : -1);
+  }
+
+  /**
+   * @param next offset of the following page, or -1 on the last page
+   */
+  public record Matches(List<FileItemView> items, int next) {}
+
+  /** Removes items the index still lists although their rows are gone. */
+  private void forget(Source source, Collection<Long> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    source.lock.writeLock().lock();
+    try {
+      ids.forEach(source.index::remove);
+      source.dirty = true;
+    } finally {
+      source.lock.writeLock().unlock();
+    }
+  }
+
+  @Scheduled(
+      fixedDelayString = "${storage.search.snapshot-interval:5m}",
+      initialDelayString = "${storage.search.snapshot-interval:5m}")
+  public void snapshot() {
+    for (Source source : sources.values()) {
+      try {
+        source.snapshot();
+      } catch (IOException | RuntimeException e) {
+        log.warn("Failed to write search index snapshot of source {}", source.id, e);
+      }
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    snapshot();
+  }
+
+  private final class Source {
+    private final Long id;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Held while loading or refreshing, so only one thread reads changes at a time. */
+    private final ReentrantLock refreshing = new ReentrantLock();
+
+    private FilenameIndex index;
+    private Instant cursor;
+    private long epoch;
+    private volatile long refreshedAt;
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+
+    Source(Long id) {
+      this.id = id;
+    }
+
+    void refresh() {
+      if (loaded && System.nanoTime() - refreshedAt < refreshInterval.toNanos()) {
+        return;
+      }
+      refreshing.lock();
+      try {
+        long started = System.nanoTime();
+        if (loaded && started - refreshedAt < refreshInterval.toNanos()) {
+          return;
+        }
+        long current = currentEpoch();
+        if (!loaded) {
+          load(current);
+          loaded = true;
+        } else if (epoch != current) {
+          build(current);
+        }
+        applyChanges();
+        refreshedAt = started;
+      } finally {
+        refreshing.unlock();
+      }
+    }
+
+    private long currentEpoch() {
+      List<Long> epochs = jdbcTemplate.queryForList(EPOCH, Long.class, id);
+      return epochs.isEmpty() || epochs.get(0) == null ? 0 : epochs.get(0);
+    }
+
+    /** Reads the snapshot, unless it predates epoch {@code current}; builds the index otherwise. */
+    private void load(long current) {
+      Path file = file();
+      try (DataInputStream in =
+          new DataInputStream(
+              new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+        if (in.readLong() != id) {
+          throw new IOException("Snapshot belongs to another source");
+        }
+        Instant snapshotCursor = Instant.ofEpochSecond(in.readLong(), in.readInt());
+        long snapshotEpoch = in.readLong();
+        if (snapshotEpoch == current) {
+          index = FilenameIndex.read(in);
+          cursor = snapshotCursor;
+          epoch = snapshotEpoch;
+          log.info("Loaded search index of source {}: {} entries", id, index.size());
+          return;
+        }
+      } catch (NoSuchFileException e) {
+        // First search of this source on this node.
+      } catch (IOException | RuntimeException e) {
+        log.warn("Ignoring unreadable search index snapshot {}", file, e);
+      }
+      build(current);
+    }
+
+    /**
+     * Indexes every live row, keyed on id, then replays what changed while scanning. Searches keep
+     * using the previous index, if any, until the new one replaces it.
+     */
+    private void build(long current) {
+      long started = System.nanoTime();
+      Instant scanStarted = Instant.now();
+      FilenameIndex built = new FilenameIndex();
+      long afterId = 0;
+      int read;
+      do {
+        long[] last = {afterId};
+        read =
+            jdbcTemplate
+                .query(
+                    SCAN,
+                    (rs, row) -> {
+                      last[0] = rs.getLong(1);
+                      built.put(last[0], rs.getString(2), rs.getString(3));
+                      return null;
+                    },
+                    id,
+                    afterId,
+                    batchSize)
+                .size();
+        afterId = last[0];
+      } while (read == batchSize);
+      lock.writeLock().lock();
+      try {
+        index = built;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      cursor = scanStarted;
+      epoch = current;
+      dirty = true;
+      log.info(
+          "Built search index of source {}: {} entries in {} ms",
+          id,
+          built.size(),
+          Duration.ofNanos(System.nanoTime() - started).toMillis());
+    }
+
+    private void applyChanges() {
+      Instant since = cursor.minus(overlap);
+      long afterId = 0;
+      List<Change> changes;
+      do {
+        changes =
+            jdbcTemplate.query(
+                CHANGES,
+                (rs, row) ->
+                    new Change(
+                        rs.getLong(1),
+                        rs.getString(2),
+                        rs.getString(3),
+                        rs.getObject(4) != null,
+                        rs.getTimestamp(5).toInstant()),
+                id,
+                timestamp(since),
+                timestamp(since),
+                afterId,
+                batchSize);
+        if (changes.isEmpty()) {
+          break;
+        }
+        lock.writeLock().lock();
+        try {
+          for (Change change : changes) {
+            boolean changed =
+                change.deleted()
+                    ? index.remove(change.id())
+                    : index.put(change.id(), change.filename(), change.directoryPath());
+            dirty |= changed;
+          }
+          if (index.needsCompaction()) {
+            index = index.compact();
+          }
+        } finally {
+          lock.writeLock().unlock();
+        }
+        Change last = changes.get(changes.size() - 1);
+        since = last.updatedAt();
+        afterId = last.id();
+        if (last.updatedAt().isAfter(cursor)) {
+          cursor = last.updatedAt();
+        }
+      } while (changes.size() == batchSize);
+    }
+
+    /**
+     * Writes the index with the cursor and epoch it is current to. The index is serialized under
+     * the read lock, which is quick, and compressed to disk after releasing it.
+     */
+    void snapshot() throws IOException {
+      if (!dirty) {
+        return;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      refreshing.lock();
+      try {
+        if (!loaded) {
+          return;
+        }
+        lock.readLock().lock();
+        try {
+          DataOutputStream out = new DataOutputStream(bytes);
+          out.writeLong(id);
+          out.writeLong(cursor.getEpochSecond());
+          out.writeInt(cursor.getNano());
+          out.writeLong(epoch);
+          index.write(out);
+          out.flush();
+          dirty = false;
+        } finally {
+          lock.readLock().unlock();
+        }
+      } finally {
+        refreshing.unlock();
+      }
+      Files.createDirectories(directory);
+      Path file = file();
+      Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (OutputStream out =
+          new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp)))) {
+        bytes.writeTo(out);
+      } catch (IOException e) {
+        dirty = true;
+        throw e;
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path file() {
+      return directory.resolve("source-" + id + ".idx");
+    }
+  }
+
+  private static Object timestamp(Instant instant) {
+    return OffsetDateTime.ofInstant(instant, ZoneOffset.UTC);
+  }
+
+  private record Change(
+      long id, String filename, String directoryPath, boolean deleted, Instant updatedAt) {}
+}
@@ -1,47 +1,284 @@
 package org.superwindcloud.cloud_disk.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.superwindcloud.cloud_disk.FileItem;
 import org.superwindcloud.cloud_disk.ShortLink;
 import org.superwindcloud.cloud_disk.ShortLinkRepository;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.storage.MeteredStorageService;
 
+/**
+ * Creates and resolves short links. Resolutions are cached in-process: hits for no longer than the
+ * configured TTL or the link's own expiry, whichever is sooner, and unknown tokens for a short
+ * negative TTL so that scans of random tokens do not reach the database either. Cached hits are
+ * also indexed by file id, so dropping a file's resolutions touches only its own tokens.
+ *
+ * <p>Each resolution counts towards {@code short.link.resolutions} with a {@code result} of {@code
+ * hit}, {@code miss} for unknown and expired tokens, or {@code denied} for a wrong access code.
+ * Misses have no file to take a source from and are tagged {@code none}. The last purge of expired
+ * links is published as {@code short.link.purge.lag}, how long the oldest expired link had waited,
+ * and {@code short.link.purge.purged}, how many links it deleted.
+ */
 @Service
 public class ShortLinkService {
+  private static final Logger log = LoggerFactory.getLogger(ShortLinkService.class);
+
   private final ShortLinkRepository shortLinkRepository;
+  private final Cache<String, Optional<ResolvedShortLink>> resolutions;
+  private final Map<Long, Set<String>> tokensByFile = new ConcurrentHashMap<>();
+  private final MeterRegistry meterRegistry;
+  private final Counter misses;
+  private final Map<Long, Counter> hits = new ConcurrentHashMap<>();
+  private final Map<Long, Counter> denials = new ConcurrentHashMap<>();
+  private volatile long lastPurgeLagMillis;
+  private volatile long lastPurged;
+
+  @Value("${storage.short-link.purge.batch-size:500}")
+  private int purgeBatchSize;
 
-  public ShortLinkService(ShortLinkRepository shortLinkRepository) {
+  public ShortLinkService(
+      ShortLinkRepository shortLinkRepository,
+      @Value("${storage.short-link.cache.ttl:5m}") Duration ttl,
+      @Value("${storage.short-link.cache.negative-ttl:30s}") Duration negativeTtl,
+      @Value("${storage.short-link.cache.max-entries:10000}") long maxEntries,
+      MeterRegistry meterRegistry) {
     this.shortLinkRepository = shortLinkRepository;
+    this.meterRegistry = meterRegistry;
+    this.misses = resolutionCounter(Tags.of("type", "none", "source", "none"), "miss");
+    this.resolutions =
+        Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfter(new ResolutionExpiry(ttl, negativeTtl))
+            // Runs inside the entry's removal, so it cannot undo a later load of the same token.
+            .evictionListener(
+                (String token, Optional<ResolvedShortLink> resolution, RemovalCause cause) -> {
+                  if (resolution != null && resolution.isPresent()) {
+                    unindex(resolution.get().file().getId(), token);
+                  }
+                })
+            .build();
+    TimeGauge.builder(
+            "short.link.purge.lag", this, TimeUnit.MILLISECONDS, s -> s.lastPurgeLagMillis)
+        .description("How long the oldest expired short link had waited at the last purge")
+        .register(meterRegistry);
+    Gauge.builder("short.link.purge.purged", this, s -> s.lastPurged)
+        .description("Expired short links deleted by the last purge")
+        .register(meterRegistry);
   }
 
   public ShortLink create(FileItem fileItem, Duration ttl, String accessCode) {
     ShortLink link = new ShortLink();
     link.setFileItem(fileItem);
-    link.setToken(UUID.randomUUID().toString().replace("-", "").substring(0, 10));
+    link.setToken(newToken());
     if (accessCode != null && !accessCode.isBlank()) {
       link.setAccessCode(accessCode.trim());
     }
     if (ttl != null) {
       link.setExpiresAt(Instant.now().plus(ttl));
     }
-    return shortLinkRepository.save(link);
+    ShortLink saved = shortLinkRepository.save(link);
+    resolutions.invalidate(saved.getToken());
+    return saved;
+  }
+
+  /** A fresh link token: the first 10 hex digits of a random UUID. */
+  static String newToken() {
+    return UUID.randomUUID().toString().replace("-", "").substring(0, 10);
+  }
+
+  public Optional<ResolvedShortLink> resolve(String token, String providedCode) {
+    Optional<ResolvedShortLink> resolved =
+        resolutions.get(token, this::load).filter(link -> !link.isExpired(Instant.now()));
+    if (resolved.isEmpty()) {
+      misses.increment();
+      return resolved;
+    }
+    ResolvedShortLink link = resolved.get();
+    boolean allowed =
+        link.accessCode() == null
+            || link.accessCode().isBlank()
+            || link.accessCode().equals(providedCode);
+    StorageSource source = link.file().getStorageSource();
+    (allowed ? hits : denials)
+        .computeIfAbsent(
+            source.getId(),
+            id -> resolutionCounter(MeteredStorageService.tags(source), allowed ? "hit" : "denied"))
+        .increment();
+    return allowed ? resolved : Optional.empty();
+  }
+
+  private Optional<ResolvedShortLink> load(String token) {
+    Optional<ResolvedShortLink> found =
+        shortLinkRepository.findByToken(token).map(ResolvedShortLink::of);
+    found.ifPresent(
+        link ->
+            tokensByFile.compute(
+                link.file().getId(),
+                (id, tokens) -> {
+                  Set<String> indexed = tokens != null ? tokens : ConcurrentHashMap.newKeySet();
+                  indexed.add(token);
+                  return indexed;
+                }));
+    return found;
+  }
+
+  private void unindex(Long fileItemId, String token) {
+    tokensByFile.computeIfPresent(
+        fileItemId,
+        (id, tokens) -> {
+          tokens.remove(token);
+          return tokens.isEmpty() ? null : tokens;
+        });
+  }
+
+  private Counter resolutionCounter(Tags tags, String result) {
+    return Counter.builder("short.link.resolutions")
+        .description("Short link resolutions by result")
+        .tags(tags)
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+  /** Deletes the file's links and drops their cached resolutions once the deletion commits. */
+  public void deleteForFile(Long fileItemId) {
+    shortLinkRepository.deleteByFileItemId(fileItemId);
+    evictFile(fileItemId);
   }
 
-  public Optional<ShortLink> resolve(String token, String providedCode) {
-    return shortLinkRepository
-        .findByToken(token)
-        .filter(link -> link.getExpiresAt() == null || link.getExpiresAt().isAfter(Instant.now()))
-        .filter(
-            link ->
-                link.getAccessCode() == null
-                    || link.getAccessCode().isBlank()
-                    || link.getAccessCode().equals(providedCode));
+  /** Deletes the links of a directory and of everything under it, and their cached resolutions. */
+  public void deleteForSubtree(FileItem directory, String fullPath) {
+    Long sourceId = directory.getStorageSource().getId();
+    List<Long> linked =
+        shortLinkRepository.findLinkedFileIdsInSubtree(sourceId, directory.getId(), fullPath);
+    shortLinkRepository.deleteInSubtree(sourceId, directory.getId(), fullPath);
+    evict(linked);
   }
 
+  /** Drops cached resolutions pointing at the file, e.g. after it was renamed. */
+  public void evictFile(Long fileItemId) {
+    evict(List.of(fileItemId));
+  }
+
+  private void evict(Collection<Long> fileItemIds) {
+    if (fileItemIds.isEmpty()) {
+      return;
+    }
+    Runnable evict =
+        () -> {
+          for (Long id : fileItemIds) {
+            Set<String> tokens = tokensByFile.remove(id);
+            if (tokens != null) {
+              resolutions.invalidateAll(tokens);
+            }
+          }
+        };
+    evict.run();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      // A resolve racing the transaction may have re-cached the old row; evict again afterwards.
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+              evict.run();
+            }
+          });
+    }
+  }
+
+  /**
+   * Deletes expired links in bounded batches, each in its own short transaction, so a large backlog
+   * never becomes one long delete. Safe to run on every node at once.
+   */
+  @Scheduled(
+      fixedDelayString = "${storage.short-link.purge.interval:5m}",
+      initialDelayString = "${storage.short-link.purge.initial-delay:1m}")
   public void cleanupExpired() {
-    shortLinkRepository.deleteExpired(Instant.now());
+    Instant now = Instant.now();
+    Duration lag =
+        shortLinkRepository
+            .findOldestExpiry(now)
+            .map(oldest -> Duration.between(oldest, now))
+            .orElse(Duration.ZERO);
+    long purged = 0;
+    int batches = 0;
+    int deleted;
+    do {
+      deleted = shortLinkRepository.deleteExpiredBatch(now, purgeBatchSize);
+      purged += deleted;
+      batches++;
+    } while (deleted == purgeBatchSize);
+    lastPurgeLagMillis = lag.toMillis();
+    lastPurged = purged;
+    if (purged > 0) {
+      log.info(
+          "Purged {} expired short links in {} batches; oldest was {} past expiry",
+          purged,
+          batches,
+          lag);
+    }
+  }
+
+  private record ResolutionExpiry(Duration ttl, Duration negativeTtl)
+      implements Expiry<String, Optional<ResolvedShortLink>> {
+    @Override
+    public long expireAfterCreate(
+        String token, Optional<ResolvedShortLink> resolution, long currentTime) {
+      if (resolution.isEmpty()) {
+        return negativeTtl.toNanos();
+      }
+      Instant expiresAt = resolution.get().expiresAt();
+      if (expiresAt == null) {
+        return ttl.toNanos();
+      }
+      // Compared as Durations: a far-off expiry does not fit in a long of nanoseconds.
+      Duration remaining = Duration.between(Instant.now(), expiresAt);
+      if (remaining.isNegative()) {
+        return 0;
+      }
+      return remaining.compareTo(ttl) < 0 ? remaining.toNanos() : ttl.toNanos();
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        String token,
+        Optional<ResolvedShortLink> resolution,
+        long currentTime,
+        long currentDuration) {
+      return expireAfterCreate(token, resolution, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        String token,
+        Optional<ResolvedShortLink> resolution,
+        long currentTime,
+        long currentDuration) {
+      return currentDuration;
+    }
   }
 }
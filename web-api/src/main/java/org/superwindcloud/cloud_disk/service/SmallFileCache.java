@@ -0,0 +1,130 @@
+package org.superwindcloud.cloud_disk.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import org.superwindcloud.cloud_disk.FileItem;
+
+/**
+ * Memory cache for small, frequently served files. Contents live in direct {@link ByteBuffer}s, so
+ * they add nothing to the heap the collector has to trace, and the index is bounded by a global
+ * byte budget with Caffeine's TinyLFU admission keeping one-off reads from displacing hot files.
+ *
+ * <p>Entries are keyed by file id and content version, so a file whose bytes change is simply
+ * cached again under its new version while the old entry ages out. Evicted buffers are released
+ * when the collector reclaims them.
+ *
+ * <p>The index holds futures: a miss publishes its future and then reads storage on the caller's
+ * thread, outside any lock of the map, so a slow read never stalls lookups of other files.
+ */
+@Component
+public class SmallFileCache {
+  private final boolean enabled;
+  private final long maxObjectBytes;
+  private final long maxBytes;
+  private final AsyncCache<Key, ByteBuffer> cache;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public SmallFileCache(
+      @Value("${storage.memory-cache.enabled:true}") boolean enabled,
+      @Value("${storage.memory-cache.max-object-size:256KB}") DataSize maxObjectSize,
+      @Value("${storage.memory-cache.max-size:64MB}") DataSize maxSize) {
+    this.enabled = enabled;
+    this.maxBytes = maxSize.toBytes();
+    this.maxObjectBytes = Math.min(maxObjectSize.toBytes(), Integer.MAX_VALUE);
+    this.cache =
+        Caffeine.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((Key key, ByteBuffer buffer) -> Math.max(1, buffer.capacity()))
+            .buildAsync();
+  }
+
+  /**
+   * Returns the file's content, reading it through {@code loader} on a miss. Returns {@code null}
+   * for files that are not eligible for caching. Concurrent misses for one file share a single
+   * load. The returned buffer is read-only and private to the caller.
+   */
+  public ByteBuffer get(FileItem file, Supplier<InputStream> loader) {
+    if (!enabled || file.getId() == null || file.getSize() > maxObjectBytes) {
+      return null;
+    }
+    Key key = new Key(file.getId(), version(file));
+    CompletableFuture<ByteBuffer> loading = new CompletableFuture<>();
+    CompletableFuture<ByteBuffer> cached = cache.asMap().putIfAbsent(key, loading);
+    if (cached != null) {
+      hits.increment();
+      return join(cached).duplicate();
+    }
+    misses.increment();
+    try {
+      loading.complete(read(loader, file.getSize().intValue()));
+    } catch (RuntimeException e) {
+      cache.asMap().remove(key, loading);
+      loading.completeExceptionally(e);
+      throw e;
+    }
+    return loading.join().duplicate();
+  }
+
+  public Stats stats() {
+    long weight =
+        cache.synchronous().policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L);
+    return new Stats(
+        hits.sum(), misses.sum(), cache.synchronous().estimatedSize(), weight, maxBytes);
+  }
+
+  /** Waits for another caller's load, rethrowing its failure as is. */
+  private static ByteBuffer join(CompletableFuture<ByteBuffer> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private static ByteBuffer read(Supplier<InputStream> loader, int size) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    try (InputStream in = loader.get()) {
+      ReadableByteChannel channel = Channels.newChannel(in);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new EOFException("Storage returned fewer bytes than the file size");
+        }
+      }
+      if (in.read() >= 0) {
+        throw new IOException("Storage returned more bytes than the file size");
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return buffer.flip().asReadOnlyBuffer();
+  }
+
+  private static String version(FileItem file) {
+    return StringUtils.hasText(file.getContentHash())
+        ? file.getContentHash()
+        : file.getStoragePath() + ":" + file.getSize();
+  }
+
+  public record Stats(long hits, long misses, long entries, long bytes, long maxBytes) {}
+
+  private record Key(Long fileId, String version) {}
+}
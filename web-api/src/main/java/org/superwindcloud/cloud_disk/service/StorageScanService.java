@@ -0,0 +1,877 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.superwindcloud.cloud_disk.StorageScan;
+import org.superwindcloud.cloud_disk.StorageScanFinding;
+import org.superwindcloud.cloud_disk.StorageScanFindingKind;
+import org.superwindcloud.cloud_disk.StorageScanFindingRepository;
+import org.superwindcloud.cloud_disk.StorageScanMode;
+import org.superwindcloud.cloud_disk.StorageScanRepository;
+import org.superwindcloud.cloud_disk.StorageScanStatus;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
+import org.superwindcloud.cloud_disk.storage.StorageService;
+import org.superwindcloud.cloud_disk.storage.StoredObject;
+
+/**
+ * Reconciles storage sources with their files in the background: imports objects that were put in a
+ * source's directory or bucket by other means, and records where the two disagree. See {@link
+ * StorageScan} for the two phases of a scan and how it resumes.
+ *
+ * <p>Objects are matched to files by storage path, a page of {@code storage.scan.page-size} at a
+ * time. One query reads the files of a page; its imports, size fixes, matches and findings are then
+ * written in JDBC batches, in one transaction with the scan's new position. Matched files are
+ * stamped with the scan's start, so the live files left unstamped once the listing is done are the
+ * ones whose objects are missing.
+ *
+ * <p>The listing is held to {@code storage.scan.rate} objects per second, so scanning millions of
+ * objects does not starve regular traffic. Objects modified within {@code storage.scan.settle-time}
+ * may belong to an upload whose file is not recorded yet, and are neither imported nor reported.
+ */
+@Service
+public class StorageScanService {
+  private static final Logger log = LoggerFactory.getLogger(StorageScanService.class);
+  private static final int MAX_ERROR_LENGTH = 1000;
+  private static final int MAX_DETAIL_LENGTH = 500;
+  private static final int MAX_PATH_LENGTH = 255;
+  private static final List<StorageScanStatus> UNFINISHED =
+      List.of(StorageScanStatus.PENDING, StorageScanStatus.RUNNING);
+
+  private static final String FIND_FILES =
+      "select id, storage_path, size, content_hash, deleted_at, directory_path from file_items "
+          + "where storage_source_id = ? and is_directory = false and storage_path in (%s)";
+
+  private static final String FIND_PENDING_DELETIONS =
+      "select storage_path from pending_deletions "
+          + "where storage_source_id = ? and storage_path in (%s)";
+
+  private static final String FIND_NAMES =
+      "select directory_path, filename from file_items where storage_source_id = ? "
+          + "and deleted_at is null and directory_path in (%s) and filename in (%s)";
+
+  private static final String INSERT_FILE =
+      "insert into file_items (storage_source_id, filename, storage_path, size, content_type, "
+          + "directory_path, is_directory, created_at, updated_at, verified_at) "
+          + "values (?, ?, ?, ?, ?, ?, false, ?, ?, ?)";
+
+  private static final String VERIFY = "update file_items set verified_at = ? where id in (%s)";
+
+  private static final String UPDATE_SIZE =
+      "update file_items set size = ?, updated_at = ? where id = ? and size = ? "
+          + "and deleted_at is null";
+
+  private static final String INSERT_FINDING =
+      "insert into storage_scan_findings (scan_id, kind, storage_path, file_id, size, detail, "
+          + "detected_at) values (?, ?, ?, ?, ?, ?, ?)";
+
+  private static final String UNVERIFIED_FILES =
+      "select id, storage_path, size from file_items where storage_source_id = ? "
+          + "and is_directory = false and deleted_at is null and id > ? and created_at < ? "
+          + "and (verified_at is null or verified_at < ?) order by id limit ?";
+
+  private static final String ADVANCE_OBJECTS =
+      "update storage_scans set object_cursor = ?, objects_scanned = objects_scanned + ?, "
+          + "bytes_scanned = bytes_scanned + ?, files_imported = files_imported + ?, "
+          + "files_updated = files_updated + ?, untracked_objects = untracked_objects + ?, "
+          + "size_mismatches = size_mismatches + ?, lease_expires_at = ? "
+          + "where id = ? and status = 'RUNNING' and lease_owner = ?";
+
+  private static final String OBJECTS_LISTED =
+      "update storage_scans set objects_listed_at = ?, lease_expires_at = ? "
+          + "where id = ? and status = 'RUNNING' and lease_owner = ?";
+
+  private static final String ADVANCE_FILES =
+      "update storage_scans set file_cursor = ?, missing_objects = missing_objects + ?, "
+          + "lease_expires_at = ? where id = ? and status = 'RUNNING' and lease_owner = ?";
+
+  private final StorageScanRepository storageScanRepository;
+  private final StorageScanFindingRepository storageScanFindingRepository;
+  private final StorageRuntimeRegistry storageRuntimeRegistry;
+  private final DirectoryService directoryService;
+  private final JdbcTemplate jdbcTemplate;
+  private final StorageUsageService storageUsageService;
+  private final TransactionTemplate transactionTemplate;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final AtomicInteger runningScans = new AtomicInteger();
+
+  @Value("${storage.scan.max-jobs:1}")
+  private int maxJobs;
+
+  @Value("${storage.scan.page-size:1000}")
+  private int pageSize;
+
+  @Value("${storage.scan.rate:2000}")
+  private int rate;
+
+  @Value("${storage.scan.settle-time:1h}")
+  private Duration settleTime;
+
+  @Value("${storage.scan.lease:2m}")
+  private Duration lease;
+
+  public StorageScanService(
+      StorageScanRepository storageScanRepository,
+      StorageScanFindingRepository storageScanFindingRepository,
+      StorageRuntimeRegistry storageRuntimeRegistry,
+      DirectoryService directoryService,
+      JdbcTemplate jdbcTemplate,
+      StorageUsageService storageUsageService,
+      PlatformTransactionManager transactionManager) {
+    this.storageScanRepository = storageScanRepository;
+    this.storageScanFindingRepository = storageScanFindingRepository;
+    this.storageRuntimeRegistry = storageRuntimeRegistry;
+    this.directoryService = directoryService;
+    this.jdbcTemplate = jdbcTemplate;
+    this.storageUsageService = storageUsageService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /** Queues a scan of source {@code sourceId}; a source is scanned by one scan at a time. */
+  @Transactional
+  public Progress create(Long sourceId, StorageScanMode mode) {
+    StorageSource source = storageRuntimeRegistry.source(sourceId);
+    if (storageScanRepository.existsByStorageSourceIdAndStatusIn(sourceId, UNFINISHED)) {
+      throw new IllegalArgumentException("A scan of this storage source is already in progress");
+    }
+    StorageScan scan = new StorageScan();
+    scan.setStorageSource(source);
+    scan.setMode(mode);
+    scan = storageScanRepository.save(scan);
+    startAfterCommit();
+    return progress(scan);
+  }
+
+  public Progress progress(Long scanId) {
+    return progress(findScan(scanId));
+  }
+
+  /** The latest scans of a source, newest first. */
+  public List<Progress> recent(Long sourceId) {
+    return storageScanRepository.findTop20ByStorageSourceIdOrderByIdDesc(sourceId).stream()
+        .map(this::progress)
+        .toList();
+  }
+
+  /** Findings of a scan in the order they were made, starting after finding {@code afterId}. */
+  public List<StorageScanFinding> findings(
+      Long scanId, StorageScanFindingKind kind, long afterId, int limit) {
+    findScan(scanId);
+    return kind == null
+        ? storageScanFindingRepository.findPage(scanId, afterId, Limit.of(limit))
+        : storageScanFindingRepository.findPage(scanId, kind, afterId, Limit.of(limit));
+  }
+
+  /** Stops a queued or running scan; what it imported so far stays. */
+  @Transactional
+  public Progress cancel(Long scanId) {
+    StorageScan scan = findScan(scanId);
+    if (!UNFINISHED.contains(scan.getStatus())) {
+      throw new IllegalArgumentException("Only unfinished scans can be cancelled");
+    }
+    scan.setStatus(StorageScanStatus.CANCELLED);
+    scan.setFinishedAt(Instant.now());
+    scan.setLeaseOwner(null);
+    scan.setLeaseExpiresAt(null);
+    return progress(storageScanRepository.save(scan));
+  }
+
+  /** Queues a failed or cancelled scan again, from where it stopped. */
+  @Transactional
+  public Progress resume(Long scanId) {
+    StorageScan scan = findScan(scanId);
+    if (scan.getStatus() != StorageScanStatus.FAILED
+        && scan.getStatus() != StorageScanStatus.CANCELLED) {
+      throw new IllegalArgumentException("Only failed or cancelled scans can be resumed");
+    }
+    if (storageScanRepository.existsByStorageSourceIdAndStatusIn(
+        scan.getStorageSource().getId(), UNFINISHED)) {
+      throw new IllegalArgumentException("A scan of this storage source is already in progress");
+    }
+    scan.setStatus(StorageScanStatus.PENDING);
+    scan.setError(null);
+    scan.setFinishedAt(null);
+    scan = storageScanRepository.save(scan);
+    startAfterCommit();
+    return progress(scan);
+  }
+
+  /**
+   * Starts queued scans, and scans whose node stopped renewing the lease, while this node runs
+   * fewer than {@code storage.scan.max-jobs}.
+   */
+  @Scheduled(
+      fixedDelayString = "${storage.scan.poll-interval:15s}",
+      initialDelayString = "${storage.scan.poll-interval:15s}")
+  public void dispatch() {
+    while (runningScans.incrementAndGet() <= maxJobs) {
+      Claim claim;
+      try {
+        claim = transactionTemplate.execute(status -> claim());
+      } catch (RuntimeException e) {
+        runningScans.decrementAndGet();
+        throw e;
+      }
+      if (claim == null) {
+        break;
+      }
+      executor.execute(
+          () -> {
+            try {
+              new Run(claim).execute();
+            } catch (RuntimeException e) {
+              log.error(
+                  "Storage scan {} stopped; it resumes once its lease expires", claim.scanId(), e);
+            } finally {
+              runningScans.decrementAndGet();
+            }
+          });
+    }
+    runningScans.decrementAndGet();
+  }
+
+  private Claim claim() {
+    Instant now = Instant.now();
+    List<StorageScan> scans = storageScanRepository.lockClaimable(now, 1);
+    if (scans.isEmpty()) {
+      return null;
+    }
+    StorageScan scan = scans.get(0);
+    if (scan.getStatus() == StorageScanStatus.RUNNING) {
+      log.info("Resuming storage scan {} after its lease expired", scan.getId());
+    }
+    if (scan.getStartedAt() == null) {
+      // Kept to the millisecond so the stamp on matched files compares equal on every database.
+      scan.setStartedAt(now.truncatedTo(ChronoUnit.MILLIS));
+    }
+    scan.setStatus(StorageScanStatus.RUNNING);
+    scan.setLeaseOwner(UUID.randomUUID().toString());
+    scan.setLeaseExpiresAt(now.plus(lease));
+    storageScanRepository.save(scan);
+    return new Claim(scan.getId(), scan.getLeaseOwner());
+  }
+
+  private void startAfterCommit() {
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            executor.execute(StorageScanService.this::dispatch);
+          }
+        });
+  }
+
+  private StorageScan findScan(Long scanId) {
+    return storageScanRepository
+        .findById(scanId)
+        .orElseThrow(() -> new IllegalArgumentException("Scan not found"));
+  }
+
+  private Progress progress(StorageScan scan) {
+    return new Progress(
+        scan.getId(),
+        scan.getStorageSource().getId(),
+        scan.getMode(),
+        scan.getStatus(),
+        scan.getObjectsListedAt() != null,
+        scan.getObjectCursor(),
+        scan.getObjectsScanned(),
+        scan.getBytesScanned(),
+        scan.getFilesImported(),
+        scan.getFilesUpdated(),
+        scan.getUntrackedObjects(),
+        scan.getMissingObjects(),
+        scan.getSizeMismatches(),
+        scan.getError(),
+        scan.getCreatedAt(),
+        scan.getStartedAt(),
+        scan.getFinishedAt());
+  }
+
+  private static Object timestamp(Instant instant) {
+    return OffsetDateTime.ofInstant(instant, ZoneOffset.UTC);
+  }
+
+  private static String placeholders(int count) {
+    return String.join(", ", Collections.nCopies(count, "?"));
+  }
+
+  private static String truncate(String message, int length) {
+    return message.length() > length ? message.substring(0, length) : message;
+  }
+
+  /**
+   * State of a scan.
+   *
+   * @param objectsListed whether the listing is done and the scan is looking for missing objects
+   * @param objectCursor storage path of the last object listed
+   */
+  public record Progress(
+      Long id,
+      Long sourceId,
+      StorageScanMode mode,
+      StorageScanStatus status,
+      boolean objectsListed,
+      String objectCursor,
+      long objectsScanned,
+      long bytesScanned,
+      long filesImported,
+      long filesUpdated,
+      long untrackedObjects,
+      long missingObjects,
+      long sizeMismatches,
+      String error,
+      Instant createdAt,
+      Instant startedAt,
+      Instant finishedAt) {}
+
+  private record Claim(Long scanId, String owner) {}
+
+  /** A file whose storage path matched a listed object. */
+  private record FileRow(
+      long id,
+      String storagePath,
+      long size,
+      boolean hashed,
+      boolean deleted,
+      String directoryPath) {}
+
+  private record Finding(
+      StorageScanFindingKind kind, String storagePath, Long fileId, long size, String detail) {}
+
+  /** An unhashed file to give the size of its object. */
+  private record Resize(long fileId, String directoryPath, long recordedSize, long size) {}
+
+  /** An untracked object to record as a file. */
+  private record Import(StoredObject object, String directoryPath, String filename) {}
+
+  /** One claim of a scan, running until the scan is done or the claim is lost. */
+  private final class Run {
+    private final Claim claim;
+    private final StorageScan scan;
+    private final StorageSource source;
+    private final StorageService storageService;
+    private final Instant startedAt;
+
+    Run(Claim claim) {
+      this.claim = claim;
+      this.scan = findScan(claim.scanId());
+      this.source = storageRuntimeRegistry.source(scan.getStorageSource().getId());
+      this.storageService = storageRuntimeRegistry.service(source);
+      this.startedAt = scan.getStartedAt();
+    }
+
+    void execute() {
+      Instant started = Instant.now();
+      try {
+        if ((scan.getObjectsListedAt() == null && !listObjects()) || !findMissing()) {
+          log.info("Storage scan {} stopped: cancelled or claimed by another node", scan.getId());
+          return;
+        }
+        finish(started);
+      } catch (RuntimeException e) {
+        log.warn("Storage scan {} of source {} failed", scan.getId(), source.getId(), e);
+        fail(e);
+      }
+    }
+
+    /** Returns false once the claim is lost, which is how a cancel reaches a running scan. */
+    private boolean listObjects() {
+      int size = Math.max(1, pageSize);
+      try (Stream<StoredObject> objects = storageService.list(source, scan.getObjectCursor())) {
+        Iterator<StoredObject> iterator = objects.iterator();
+        List<StoredObject> page = new ArrayList<>(size);
+        long pageStarted = System.nanoTime();
+        while (iterator.hasNext()) {
+          page.add(iterator.next());
+          if (page.size() < size) {
+            continue;
+          }
+          if (!matchObjects(page)) {
+            return false;
+          }
+          pace(pageStarted, page.size());
+          page.clear();
+          pageStarted = System.nanoTime();
+        }
+        if (!page.isEmpty() && !matchObjects(page)) {
+          return false;
+        }
+      }
+      Instant now = Instant.now();
+      return jdbcTemplate.update(
+              OBJECTS_LISTED,
+              timestamp(now),
+              timestamp(now.plus(lease)),
+              scan.getId(),
+              claim.owner())
+          == 1;
+    }
+
+    /** Sleeps off whatever is left of the time {@code storage.scan.rate} allows for a page. */
+    private void pace(long pageStarted, int objects) {
+      if (rate <= 0) {
+        return;
+      }
+      long remaining = pageStarted + objects * 1_000_000_000L / rate - System.nanoTime();
+      if (remaining <= 0) {
+        return;
+      }
+      try {
+        Thread.sleep(Duration.ofNanos(remaining));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while scanning", e);
+      }
+    }
+
+    private boolean matchObjects(List<StoredObject> page) {
+      List<StoredObject> objects =
+          page.stream()
+              .filter(object -> !object.path().startsWith(ThumbnailService.DIRECTORY + "/"))
+              .toList();
+      Map<String, List<FileRow>> files = findFiles(objects);
+      Set<String> pendingDeletions = findPendingDeletions(objects);
+      Instant settled = Instant.now().minus(settleTime);
+
+      List<Long> verified = new ArrayList<>();
+      List<Resize> resized = new ArrayList<>();
+      List<Finding> findings = new ArrayList<>();
+      List<Import> candidates = new ArrayList<>();
+      long bytes = 0;
+      for (StoredObject object : objects) {
+        bytes += object.size();
+        List<FileRow> rows = files.getOrDefault(object.storagePath(), List.of());
+        List<FileRow> live = rows.stream().filter(row -> !row.deleted()).toList();
+        if (!live.isEmpty()) {
+          for (FileRow row : live) {
+            verified.add(row.id());
+            if (row.size() == object.size()) {
+              continue;
+            }
+            if (!row.hashed() && scan.getMode() == StorageScanMode.IMPORT) {
+              resized.add(new Resize(row.id(), row.directoryPath(), row.size(), object.size()));
+            } else {
+              findings.add(
+                  new Finding(
+                      StorageScanFindingKind.SIZE_MISMATCH,
+                      object.storagePath(),
+                      row.id(),
+                      object.size(),
+                      "The file records " + row.size() + " bytes"));
+            }
+          }
+        } else if (rows.isEmpty()
+            && !pendingDeletions.contains(object.storagePath())
+            && (object.lastModified() == null || object.lastModified().isBefore(settled))) {
+          // An object of tombstoned files or queued for removal is on its way out.
+          untracked(object, candidates, findings);
+        }
+      }
+      List<Import> imports = withoutTakenNames(candidates, findings);
+      long objectCount = page.size();
+      long byteCount = bytes;
+      long untracked =
+          findings.stream()
+              .filter(finding -> finding.kind() == StorageScanFindingKind.UNTRACKED_OBJECT)
+              .count();
+      long mismatches = findings.size() - untracked;
+      Boolean advanced =
+          transactionTemplate.execute(
+              status -> {
+                if (!imports.isEmpty() || !resized.isEmpty()) {
+                  storageUsageService.lock(source.getId());
+                }
+                importFiles(imports);
+                verify(verified);
+                resize(resized);
+                record(findings);
+                Instant now = Instant.now();
+                int updated =
+                    jdbcTemplate.update(
+                        ADVANCE_OBJECTS,
+                        page.getLast().storagePath(),
+                        objectCount,
+                        byteCount,
+                        imports.size(),
+                        resized.size(),
+                        untracked,
+                        mismatches,
+                        timestamp(now.plus(lease)),
+                        scan.getId(),
+                        claim.owner());
+                if (updated == 0) {
+                  status.setRollbackOnly();
+                  return false;
+                }
+                return true;
+              });
+      return Boolean.TRUE.equals(advanced);
+    }
+
+    /** Queues {@code object} for import, or reports it when it is not to be or cannot be. */
+    private void untracked(StoredObject object, List<Import> imports, List<Finding> findings) {
+      if (scan.getMode() == StorageScanMode.REPORT) {
+        findings.add(untrackedFinding(object, null));
+        return;
+      }
+      int slash = object.path().lastIndexOf('/');
+      String directoryPath = slash < 0 ? "" : object.path().substring(0, slash);
+      String filename = object.path().substring(slash + 1);
+      try {
+        if (!directoryService.normalizeDirectory(directoryPath).equals(directoryPath)
+            || !directoryService.normalizeFilename(filename).equals(filename)) {
+          throw new IllegalArgumentException("Invalid path");
+        }
+      } catch (IllegalArgumentException e) {
+        findings.add(untrackedFinding(object, e.getMessage()));
+        return;
+      }
+      if (object.storagePath().length() > MAX_PATH_LENGTH
+          || object.path().length() > MAX_PATH_LENGTH) {
+        findings.add(untrackedFinding(object, "Path too long"));
+        return;
+      }
+      imports.add(new Import(object, directoryPath, filename));
+    }
+
+    private Finding untrackedFinding(StoredObject object, String detail) {
+      return new Finding(
+          StorageScanFindingKind.UNTRACKED_OBJECT,
+          object.storagePath(),
+          null,
+          object.size(),
+          detail == null ? null : truncate(detail, MAX_DETAIL_LENGTH));
+    }
+
+    /** Drops the candidates whose folder already holds an item of the same name. */
+    private List<Import> withoutTakenNames(List<Import> candidates, List<Finding> findings) {
+      if (candidates.isEmpty()) {
+        return candidates;
+      }
+      Set<String> directories = new LinkedHashSet<>();
+      Set<String> filenames = new LinkedHashSet<>();
+      for (Import candidate : candidates) {
+        directories.add(candidate.directoryPath());
+        filenames.add(candidate.filename());
+      }
+      List<Object> args = new ArrayList<>();
+      args.add(source.getId());
+      args.addAll(directories);
+      args.addAll(filenames);
+      Set<String> taken = new HashSet<>();
+      jdbcTemplate.query(
+          FIND_NAMES.formatted(placeholders(directories.size()), placeholders(filenames.size())),
+          rs -> {
+            taken.add(rs.getString(1) + "/" + rs.getString(2));
+          },
+          args.toArray());
+      List<Import> imports = new ArrayList<>();
+      for (Import candidate : candidates) {
+        if (taken.contains(candidate.directoryPath() + "/" + candidate.filename())) {
+          findings.add(
+              untrackedFinding(
+                  candidate.object(), "A file or folder with this name already exists"));
+        } else {
+          imports.add(candidate);
+        }
+      }
+      return imports;
+    }
+
+    private Map<String, List<FileRow>> findFiles(List<StoredObject> objects) {
+      if (objects.isEmpty()) {
+        return Map.of();
+      }
+      Map<String, List<FileRow>> files = new HashMap<>();
+      jdbcTemplate.query(
+          FIND_FILES.formatted(placeholders(objects.size())),
+          rs -> {
+            FileRow row =
+                new FileRow(
+                    rs.getLong(1),
+                    rs.getString(2),
+                    rs.getLong(3),
+                    rs.getString(4) != null,
+                    rs.getObject(5) != null,
+                    rs.getString(6));
+            files.computeIfAbsent(row.storagePath(), path -> new ArrayList<>()).add(row);
+          },
+          arguments(objects));
+      return files;
+    }
+
+    private Set<String> findPendingDeletions(List<StoredObject> objects) {
+      if (objects.isEmpty()) {
+        return Set.of();
+      }
+      return new HashSet<>(
+          jdbcTemplate.queryForList(
+              FIND_PENDING_DELETIONS.formatted(placeholders(objects.size())),
+              String.class,
+              arguments(objects)));
+    }
+
+    private Object[] arguments(List<StoredObject> objects) {
+      Object[] args = new Object[objects.size() + 1];
+      args[0] = source.getId();
+      for (int i = 0; i < objects.size(); i++) {
+        args[i + 1] = objects.get(i).storagePath();
+      }
+      return args;
+    }
+
+    /**
+     * Records imported objects as files, dated by their last modification. They carry no content
+     * hash, so each one owns its object like the files stored before hashing.
+     */
+    private void importFiles(List<Import> imports) {
+      if (imports.isEmpty()) {
+        return;
+      }
+      imports.stream()
+          .map(Import::directoryPath)
+          .distinct()
+          .forEach(directory -> directoryService.ensureDirectoryChain(source, directory));
+      Object now = timestamp(Instant.now());
+      jdbcTemplate.batchUpdate(
+          INSERT_FILE,
+          new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+              Import item = imports.get(i);
+              StoredObject object = item.object();
+              statement.setLong(1, source.getId());
+              statement.setString(2, item.filename());
+              statement.setString(3, object.storagePath());
+              statement.setLong(4, object.size());
+              statement.setString(
+                  5,
+                  MediaTypeFactory.getMediaType(item.filename())
+                      .orElse(MediaType.APPLICATION_OCTET_STREAM)
+                      .toString());
+              statement.setString(6, item.directoryPath());
+              statement.setObject(
+                  7, object.lastModified() == null ? now : timestamp(object.lastModified()));
+              statement.setObject(8, now);
+              statement.setObject(9, timestamp(startedAt));
+            }
+
+            @Override
+            public int getBatchSize() {
+              return imports.size();
+            }
+          });
+      storageUsageService.addAll(
+          source.getId(),
+          imports.stream()
+              .map(
+                  item ->
+                      new StorageUsageService.Placement(
+                          item.directoryPath(), item.object().size(), 1))
+              .toList());
+    }
+
+    private void verify(Collection<Long> ids) {
+      if (ids.isEmpty()) {
+        return;
+      }
+      List<Object> args = new ArrayList<>(ids.size() + 1);
+      args.add(timestamp(startedAt));
+      args.addAll(ids);
+      jdbcTemplate.update(VERIFY.formatted(placeholders(ids.size())), args.toArray());
+    }
+
+    /** Corrects sizes of files that are still live and still record the size the page read. */
+    private void resize(List<Resize> resizes) {
+      if (resizes.isEmpty()) {
+        return;
+      }
+      Object now = timestamp(Instant.now());
+      int[][] counts =
+          jdbcTemplate.batchUpdate(
+              UPDATE_SIZE,
+              resizes,
+              resizes.size(),
+              (statement, resize) -> {
+                statement.setLong(1, resize.size());
+                statement.setObject(2, now);
+                statement.setLong(3, resize.fileId());
+                statement.setLong(4, resize.recordedSize());
+              });
+      List<StorageUsageService.Placement> deltas = new ArrayList<>();
+      for (int i = 0; i < resizes.size(); i++) {
+        // Drivers may answer SUCCESS_NO_INFO (-2) instead of a row count.
+        if (counts[0][i] != 0) {
+          Resize resize = resizes.get(i);
+          deltas.add(
+              new StorageUsageService.Placement(
+                  resize.directoryPath(), resize.size() - resize.recordedSize(), 0));
+        }
+      }
+      storageUsageService.addAll(source.getId(), deltas);
+    }
+
+    private void record(List<Finding> findings) {
+      if (findings.isEmpty()) {
+        return;
+      }
+      Object now = timestamp(Instant.now());
+      jdbcTemplate.batchUpdate(
+          INSERT_FINDING,
+          findings,
+          findings.size(),
+          (statement, finding) -> {
+            statement.setLong(1, scan.getId());
+            statement.setString(2, finding.kind().name());
+            statement.setString(3, finding.storagePath());
+            statement.setObject(4, finding.fileId());
+            statement.setLong(5, finding.size());
+            statement.setString(6, finding.detail());
+            statement.setObject(7, now);
+          });
+    }
+
+    /**
+     * Reports the live files created before the scan started that no listed object matched. Returns
+     * false once the claim is lost.
+     */
+    private boolean findMissing() {
+      int size = Math.max(1, pageSize);
+      long afterId = scan.getFileCursor();
+      while (true) {
+        List<Finding> missing =
+            jdbcTemplate.query(
+                UNVERIFIED_FILES,
+                (rs, row) ->
+                    new Finding(
+                        StorageScanFindingKind.MISSING_OBJECT,
+                        rs.getString(2),
+                        rs.getLong(1),
+                        rs.getLong(3),
+                        null),
+                source.getId(),
+                afterId,
+                timestamp(startedAt),
+                timestamp(startedAt),
+                size);
+        if (missing.isEmpty()) {
+          return true;
+        }
+        long lastId = missing.getLast().fileId();
+        Boolean advanced =
+            transactionTemplate.execute(
+                status -> {
+                  record(missing);
+                  int updated =
+                      jdbcTemplate.update(
+                          ADVANCE_FILES,
+                          lastId,
+                          missing.size(),
+                          timestamp(Instant.now().plus(lease)),
+                          scan.getId(),
+                          claim.owner());
+                  if (updated == 0) {
+                    status.setRollbackOnly();
+                    return false;
+                  }
+                  return true;
+                });
+        if (!Boolean.TRUE.equals(advanced)) {
+          return false;
+        }
+        if (missing.size() < size) {
+          return true;
+        }
+        afterId = lastId;
+      }
+    }
+
+    /** Closes the scan and drops the findings of the source's earlier scans. */
+    private void finish(Instant started) {
+      StorageScan finished =
+          transactionTemplate.execute(
+              status -> {
+                StorageScan current = findScan(scan.getId());
+                if (current.getStatus() != StorageScanStatus.RUNNING
+                    || !claim.owner().equals(current.getLeaseOwner())) {
+                  return null;
+                }
+                current.setStatus(StorageScanStatus.COMPLETED);
+                current.setFinishedAt(Instant.now());
+                current.setLeaseOwner(null);
+                current.setLeaseExpiresAt(null);
+                storageScanFindingRepository.deleteSuperseded(source.getId(), current.getId());
+                return storageScanRepository.save(current);
+              });
+      if (finished != null) {
+        log.info(
+            "Storage scan {} of source {} finished: {} objects, {} imported, {} updated, "
+                + "{} untracked, {} missing, {} size mismatches in {}",
+            finished.getId(),
+            source.getId(),
+            finished.getObjectsScanned(),
+            finished.getFilesImported(),
+            finished.getFilesUpdated(),
+            finished.getUntrackedObjects(),
+            finished.getMissingObjects(),
+            finished.getSizeMismatches(),
+            Duration.between(started, Instant.now()));
+      }
+    }
+
+    /** Marks the scan failed, unless it was cancelled or taken over meanwhile. */
+    private void fail(Exception error) {
+      String message = error.getMessage() != null ? error.getMessage() : error.toString();
+      transactionTemplate.executeWithoutResult(
+          status -> {
+            StorageScan current = findScan(scan.getId());
+            if (current.getStatus() != StorageScanStatus.RUNNING
+                || !claim.owner().equals(current.getLeaseOwner())) {
+              return;
+            }
+            current.setStatus(StorageScanStatus.FAILED);
+            current.setError(truncate(message, MAX_ERROR_LENGTH));
+            current.setFinishedAt(Instant.now());
+            current.setLeaseOwner(null);
+            current.setLeaseExpiresAt(null);
+            storageScanRepository.save(current);
+          });
+    }
+  }
+}
@@ -0,0 +1,335 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Bytes and file counts per storage source and per directory, kept on the source row and on each
+ * directory row so that neither a folder's size nor a source's usage needs a scan of its files.
+ *
+ * <p>Every change to the files of a source applies its delta in the transaction that makes the
+ * change: to the source first, then to each affected directory in path order. Updating the source
+ * row serializes the source's changes, which keeps lock order fixed and lets {@link #repair} work
+ * on a stable snapshot. Entity saves are covered by {@link FileUsageListener}; bulk statements call
+ * {@link #add} or {@link #move} themselves.
+ *
+ * <p>Sizes are logical: content shared between files counts once per file.
+ */
+@Service
+public class StorageUsageService {
+  private static final Logger log = LoggerFactory.getLogger(StorageUsageService.class);
+
+  private static final String LOCK_SOURCE =
+      "select used_bytes, file_count, quota_bytes from storage_sources where id = ? for update";
+
+  private static final String ADD_SOURCE =
+      "update storage_sources set used_bytes = used_bytes + ?, file_count = file_count + ? "
+          + "where id = ?";
+
+  private static final String ADD_DIRECTORY =
+      "update file_items set total_size = total_size + ?, file_count = file_count + ? "
+          + "where storage_source_id = ? and dir_key = ?";
+
+  private static final String DIRECTORY_TOTALS =
+      "select total_size, file_count from file_items where id = ?";
+
+  private static final String USAGE =
+      "select used_bytes, file_count, quota_bytes from storage_sources where id = ?";
+
+  private static final String FILES_PER_DIRECTORY =
+      "select directory_path, coalesce(sum(size), 0), count(*) from file_items "
+          + "where storage_source_id = ? and is_directory = false and deleted_at is null "
+          + "group by directory_path";
+
+  private static final String DIRECTORIES =
+      "select dir_key, total_size, file_count from file_items "
+          + "where storage_source_id = ? and is_directory = true and deleted_at is null";
+
+  private static final String SET_DIRECTORY =
+      "update file_items set total_size = ?, file_count = ? "
+          + "where storage_source_id = ? and dir_key = ?";
+
+  private static final String SET_SOURCE =
+      "update storage_sources set used_bytes = ?, file_count = ?, usage_repaired_at = ? "
+          + "where id = ?";
+
+  private static final String UNREPAIRED_SOURCES =
+      "select id from storage_sources where usage_repaired_at is null order by id";
+
+  private static final String ALL_SOURCES = "select id from storage_sources order by id";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+
+  @Value("${storage.usage.repair-batch-size:1000}")
+  private int batchSize;
+
+  public StorageUsageService(
+      JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Adds {@code bytes} and {@code files}, either of which may be negative, to the source and to
+   * {@code directoryPath} and every directory above it.
+   */
+  public void add(Long sourceId, String directoryPath, long bytes, long files) {
+    change(sourceId, null, new Placement(directoryPath, bytes, files));
+  }
+
+  /** Adds each of {@code placements}, for example a batch of newly recorded files. */
+  public void addAll(Long sourceId, Collection<Placement> placements) {
+    NavigableMap<String, Totals> deltas = new TreeMap<>();
+    long bytes = 0;
+    long files = 0;
+    for (Placement placement : placements) {
+      accumulate(deltas, placement.directoryPath(), placement.bytes(), placement.files());
+      bytes += placement.bytes();
+      files += placement.files();
+    }
+    deltas.values().removeIf(delta -> delta.bytes() == 0 && delta.files() == 0);
+    apply(sourceId, bytes, files, deltas);
+  }
+
+  /**
+   * Replaces what something counted where it was, {@code before}, with what it counts where it is,
+   * {@code after}. Either is null when the thing did not or does not count, for example when it was
+   * just created or has been deleted. Directories both placements share are only touched when the
+   * amounts differ.
+   */
+  public void change(Long sourceId, Placement before, Placement after) {
+    NavigableMap<String, Totals> deltas = new TreeMap<>();
+    long bytes = 0;
+    long files = 0;
+    if (before != null) {
+      accumulate(deltas, before.directoryPath(), -before.bytes(), -before.files());
+      bytes -= before.bytes();
+      files -= before.files();
+    }
+    if (after != null) {
+      accumulate(deltas, after.directoryPath(), after.bytes(), after.files());
+      bytes += after.bytes();
+      files += after.files();
+    }
+    deltas.values().removeIf(delta -> delta.bytes() == 0 && delta.files() == 0);
+    apply(sourceId, bytes, files, deltas);
+  }
+
+  /**
+   * Locks the source's counters until the transaction ends, for changes that update file rows
+   * before they know their delta. Taking the lock first keeps them in the order every other change
+   * follows.
+   */
+  public Usage lock(Long sourceId) {
+    List<Usage> usage =
+        jdbcTemplate.query(
+            LOCK_SOURCE,
+            (rs, row) -> new Usage(sourceId, rs.getLong(1), rs.getLong(2), (Long) rs.getObject(3)),
+            sourceId);
+    if (usage.isEmpty()) {
+      throw new IllegalArgumentException("Storage source not found");
+    }
+    return usage.get(0);
+  }
+
+  /**
+   * The totals of directory {@code directoryId}, read after locking the source, so they stay put
+   * until the transaction ends.
+   */
+  public Totals directoryTotals(Long sourceId, Long directoryId) {
+    lock(sourceId);
+    return jdbcTemplate.queryForObject(
+        DIRECTORY_TOTALS, (rs, row) -> new Totals(rs.getLong(1), rs.getLong(2)), directoryId);
+  }
+
+  public Usage usage(Long sourceId) {
+    List<Usage> usage =
+        jdbcTemplate.query(
+            USAGE,
+            (rs, row) -> new Usage(sourceId, rs.getLong(1), rs.getLong(2), (Long) rs.getObject(3)),
+            sourceId);
+    if (usage.isEmpty()) {
+      throw new IllegalArgumentException("Storage source not found");
+    }
+    return usage.get(0);
+  }
+
+  /**
+   * Refuses {@code bytes} more for the source if they would take it past its quota. The check reads
+   * one row and takes no lock: uploads already underway when the quota is reached still complete,
+   * so usage can end up above the quota by what they add.
+   */
+  public void checkQuota(Long sourceId, long bytes) {
+    Usage usage = usage(sourceId);
+    if (usage.quotaBytes() != null && usage.usedBytes() + Math.max(0, bytes) > usage.quotaBytes()) {
+      throw new QuotaExceededException(
+          "The storage source has "
+              + Math.max(0, usage.quotaBytes() - usage.usedBytes())
+              + " of its "
+              + usage.quotaBytes()
+              + " bytes left");
+    }
+  }
+
+  /**
+   * Recomputes the source's counters and every directory's totals from the files, holding the
+   * source's lock so that no change lands in between. Returns how far the kept totals had drifted.
+   */
+  public Repair repair(Long sourceId) {
+    long started = System.nanoTime();
+    Repair repair = transactionTemplate.execute(status -> recompute(sourceId));
+    if (repair.directoriesCorrected() > 0 || repair.sourceCorrected()) {
+      log.warn(
+          "Repaired usage of source {}: corrected {} directories and the source's counters {} "
+              + "in {} ms",
+          sourceId,
+          repair.directoriesCorrected(),
+          repair.sourceCorrected() ? "too" : "not at all",
+          Duration.ofNanos(System.nanoTime() - started).toMillis());
+    }
+    return repair;
+  }
+
+  /** Computes the usage of sources that never had it computed, such as those created since. */
+  @Scheduled(
+      fixedDelayString = "${storage.usage.check-interval:1m}",
+      initialDelayString = "${storage.usage.check-initial-delay:10s}")
+  public void repairNew() {
+    jdbcTemplate.queryForList(UNREPAIRED_SOURCES, Long.class).forEach(this::repairQuietly);
+  }
+
+  /** Recomputes every source's usage, undoing any drift left by failures between the deltas. */
+  @Scheduled(
+      fixedDelayString = "${storage.usage.repair-interval:7d}",
+      initialDelayString = "${storage.usage.repair-interval:7d}")
+  public void repairAll() {
+    jdbcTemplate.queryForList(ALL_SOURCES, Long.class).forEach(this::repairQuietly);
+  }
+
+  private void repairQuietly(Long sourceId) {
+    try {
+      repair(sourceId);
+    } catch (RuntimeException e) {
+      log.warn("Failed to repair usage of source {}", sourceId, e);
+    }
+  }
+
+  private Repair recompute(Long sourceId) {
+    Usage before = lock(sourceId);
+    Map<String, Totals> totals = new HashMap<>();
+    Totals[] root = {new Totals(0, 0)};
+    jdbcTemplate.query(
+        FILES_PER_DIRECTORY,
+        rs -> {
+          String directoryPath = rs.getString(1);
+          long bytes = rs.getLong(2);
+          long files = rs.getLong(3);
+          root[0] = root[0].plus(bytes, files);
+          for (String path = directoryPath; !path.isEmpty(); path = parent(path)) {
+            totals.merge(path, new Totals(bytes, files), Totals::plus);
+          }
+        },
+        sourceId);
+    List<Object[]> corrections = new ArrayList<>();
+    jdbcTemplate.query(
+        DIRECTORIES,
+        rs -> {
+          String dirKey = rs.getString(1);
+          if (dirKey == null) {
+            return;
+          }
+          Totals expected = totals.getOrDefault(dirKey, new Totals(0, 0));
+          if (expected.bytes() != rs.getLong(2) || expected.files() != rs.getLong(3)) {
+            corrections.add(new Object[] {expected.bytes(), expected.files(), sourceId, dirKey});
+          }
+        },
+        sourceId);
+    for (int from = 0; from < corrections.size(); from += Math.max(1, batchSize)) {
+      jdbcTemplate.batchUpdate(
+          SET_DIRECTORY,
+          corrections.subList(from, Math.min(corrections.size(), from + Math.max(1, batchSize))));
+    }
+    jdbcTemplate.update(
+        SET_SOURCE, root[0].bytes(), root[0].files(), OffsetDateTime.now(ZoneOffset.UTC), sourceId);
+    boolean sourceCorrected =
+        before.usedBytes() != root[0].bytes() || before.fileCount() != root[0].files();
+    return new Repair(
+        sourceId, root[0].bytes(), root[0].files(), corrections.size(), sourceCorrected);
+  }
+
+  private void apply(Long sourceId, long bytes, long files, NavigableMap<String, Totals> deltas) {
+    if (bytes == 0 && files == 0 && deltas.isEmpty()) {
+      return;
+    }
+    jdbcTemplate.update(ADD_SOURCE, bytes, files, sourceId);
+    if (deltas.isEmpty()) {
+      return;
+    }
+    List<Object[]> rows = new ArrayList<>(deltas.size());
+    deltas.forEach(
+        (path, delta) -> rows.add(new Object[] {delta.bytes(), delta.files(), sourceId, path}));
+    jdbcTemplate.batchUpdate(ADD_DIRECTORY, rows);
+  }
+
+  private static void accumulate(
+      Map<String, Totals> deltas, String directoryPath, long bytes, long files) {
+    for (String path = directoryPath == null ? "" : directoryPath;
+        !path.isEmpty();
+        path = parent(path)) {
+      deltas.merge(path, new Totals(bytes, files), Totals::plus);
+    }
+  }
+
+  private static String parent(String path) {
+    int slash = path.lastIndexOf('/');
+    return slash < 0 ? "" : path.substring(0, slash);
+  }
+
+  public record Totals(long bytes, long files) {
+    Totals plus(Totals other) {
+      return plus(other.bytes(), other.files());
+    }
+
+    Totals plus(long bytes, long files) {
+      return new Totals(this.bytes + bytes, this.files + files);
+    }
+  }
+
+  /** What one file or directory counts in {@code directoryPath} and the directories above it. */
+  public record Placement(String directoryPath, long bytes, long files) {}
+
+  /**
+   * @param quotaBytes null when the source has no quota
+   */
+  public record Usage(Long sourceId, long usedBytes, long fileCount, Long quotaBytes) {}
+
+  /**
+   * Outcome of {@link #repair}.
+   *
+   * @param directoriesCorrected directories whose kept totals were wrong
+   * @param sourceCorrected whether the source's counters were wrong
+   */
+  public record Repair(
+      Long sourceId,
+      long usedBytes,
+      long fileCount,
+      int directoriesCorrected,
+      boolean sourceCorrected) {}
+}
@@ -0,0 +1,515 @@
+package org.superwindcloud.cloud_disk.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.PendingDeletion;
+import org.superwindcloud.cloud_disk.PendingDeletionRepository;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.Thumbnail;
+import org.superwindcloud.cloud_disk.ThumbnailRepository;
+import org.superwindcloud.cloud_disk.storage.BlobRegistry;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
+import org.superwindcloud.cloud_disk.storage.StorageService;
+
+/**
+ * Renders fixed-size thumbnails of images with {@link ImageIO} and keeps them as sidecar objects on
+ * the image's own source. Every configured size comes out of a single decode, which reads the image
+ * subsampled down to roughly twice the largest size so that a large photo never has to fit in
+ * memory at full resolution.
+ *
+ * <p>Rendering is CPU-bound, so it runs on {@code storage.thumbnail.workers} platform threads
+ * behind a queue of {@code storage.thumbnail.queue-capacity}; when the queue is full new work is
+ * rejected rather than left to pile up. Concurrent requests for the same image share one render,
+ * and uploads queue their image in the background so the first view usually finds it done.
+ */
+@Service
+public class ThumbnailService {
+  private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+  /** Directory of each source holding the sidecars; storage scans leave it alone. */
+  static final String DIRECTORY = ".thumbnails";
+
+  private static final float JPEG_QUALITY = 0.85f;
+
+  /** Thumbnails younger than this are never swept, so an upload still committing keeps its own. */
+  private static final Duration ORPHAN_GRACE = Duration.ofHours(1);
+
+  private final StorageRuntimeRegistry storageRuntimeRegistry;
+  private final ThumbnailRepository thumbnailRepository;
+  private final PendingDeletionRepository pendingDeletionRepository;
+  private final BlobRegistry blobRegistry;
+  private final TransactionTemplate transactionTemplate;
+  private final int[] sizes;
+  private final ThreadPoolExecutor workers;
+  private final Map<Key, CompletableFuture<Map<Integer, Thumbnail>>> rendering =
+      new ConcurrentHashMap<>();
+
+  /** Thumbnail rows by image; an empty map marks an image that could not be decoded. */
+  private final Cache<Key, Map<Integer, Thumbnail>> known;
+
+  @Value("${storage.thumbnail.max-source-size:50MB}")
+  private DataSize maxSourceSize;
+
+  @Value("${storage.thumbnail.max-pixels:100000000}")
+  private long maxPixels;
+
+  @Value("${storage.thumbnail.timeout:30s}")
+  private Duration timeout;
+
+  @Value("${storage.thumbnail.sweep-batch-size:500}")
+  private int sweepBatchSize;
+
+  public ThumbnailService(
+      StorageRuntimeRegistry storageRuntimeRegistry,
+      ThumbnailRepository thumbnailRepository,
+      PendingDeletionRepository pendingDeletionRepository,
+      BlobRegistry blobRegistry,
+      PlatformTransactionManager transactionManager,
+      @Value("${storage.thumbnail.sizes:128,256,512}") int[] sizes,
+      @Value("${storage.thumbnail.workers:2}") int workers,
+      @Value("${storage.thumbnail.queue-capacity:256}") int queueCapacity,
+      @Value("${storage.thumbnail.cache-ttl:10m}") Duration cacheTtl) {
+    this.storageRuntimeRegistry = storageRuntimeRegistry;
+    this.thumbnailRepository = thumbnailRepository;
+    this.pendingDeletionRepository = pendingDeletionRepository;
+    this.blobRegistry = blobRegistry;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.sizes = Arrays.stream(sizes).filter(size -> size > 0).sorted().distinct().toArray();
+    if (this.sizes.length == 0) {
+      throw new IllegalArgumentException("storage.thumbnail.sizes must list at least one size");
+    }
+    AtomicInteger threads = new AtomicInteger();
+    this.workers =
+        new ThreadPoolExecutor(
+            Math.max(1, workers),
+            Math.max(1, workers),
+            0,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(Math.max(1, queueCapacity)),
+            task ->
+                Thread.ofPlatform()
+                    .name("thumbnail-" + threads.incrementAndGet())
+                    .daemon(true)
+                    .unstarted(task));
+    this.known = Caffeine.newBuilder().maximumSize(10_000).expireAfterWrite(cacheTtl).build();
+  }
+
+  /** Whether thumbnails can be rendered for the file at all, judged by its type and size. */
+  public boolean supports(FileItem file) {
+    if (file.isDirectory() || file.getSize() == null || file.getSize() > maxSourceSize.toBytes()) {
+      return false;
+    }
+    String type = file.getContentType();
+    if (StringUtils.hasText(type) && ImageIO.getImageReadersByMIMEType(type).hasNext()) {
+      return true;
+    }
+    String name = file.getFilename();
+    int dot = name == null ? -1 : name.lastIndexOf('.');
+    return dot >= 0
+        && ImageIO.getImageReadersBySuffix(name.substring(dot + 1).toLowerCase(Locale.ROOT))
+            .hasNext();
+  }
+
+  /**
+   * The thumbnail of {@code file} whose longer edge is {@code size} pixels, described as a
+   * transient {@link FileItem} that carries the file's id and the sidecar's storage path, hash and
+   * type, so it can be served like any other content. Renders it first if needed, waiting at most
+   * {@code storage.thumbnail.timeout}. Empty when the file is not an image that can be decoded.
+   *
+   * @throws RejectedExecutionException when the render queue is full or the render takes too long
+   */
+  public Optional<FileItem> thumbnail(FileItem file, int size) {
+    if (Arrays.binarySearch(sizes, size) < 0) {
+      throw new IllegalArgumentException(
+          "size must be one of " + Arrays.toString(sizes).replaceAll("[\\[\\] ]", ""));
+    }
+    if (!supports(file)) {
+      return Optional.empty();
+    }
+    Key key = key(file);
+    Map<Integer, Thumbnail> thumbnails = known.getIfPresent(key);
+    if (thumbnails == null) {
+      thumbnails = await(render(file, key));
+    }
+    Thumbnail thumbnail = thumbnails.get(size);
+    return thumbnail == null ? Optional.empty() : Optional.of(describe(file, thumbnail));
+  }
+
+  /**
+   * Queues a freshly stored file for rendering once the surrounding transaction commits. Best
+   * effort: when the queue is full the thumbnails are rendered on first request instead.
+   */
+  public void prepare(FileItem file) {
+    if (!supports(file)) {
+      return;
+    }
+    Runnable submit =
+        () -> {
+          try {
+            render(file, key(file));
+          } catch (RejectedExecutionException e) {
+            log.debug("Thumbnail queue full; file {} will be rendered on demand", file.getId());
+          }
+        };
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              submit.run();
+            }
+          });
+    } else {
+      submit.run();
+    }
+  }
+
+  /**
+   * Removes thumbnails whose image no file of the source holds any more. Their sidecar objects are
+   * released and queued for deletion like any other unreferenced object.
+   */
+  @Scheduled(
+      fixedDelayString = "${storage.thumbnail.sweep-interval:1h}",
+      initialDelayString = "${storage.thumbnail.sweep-interval:1h}")
+  public int sweep() {
+    int total = 0;
+    int swept;
+    do {
+      swept = transactionTemplate.execute(status -> sweepBatch());
+      total += swept;
+    } while (swept == sweepBatchSize);
+    if (total > 0) {
+      log.info("Removed {} thumbnails of deleted images", total);
+    }
+    return total;
+  }
+
+  private int sweepBatch() {
+    List<Thumbnail> batch =
+        thumbnailRepository.lockOrphans(Instant.now().minus(ORPHAN_GRACE), sweepBatchSize);
+    Map<Long, List<Thumbnail>> bySource = new LinkedHashMap<>();
+    for (Thumbnail thumbnail : batch) {
+      bySource
+          .computeIfAbsent(thumbnail.getStorageSource().getId(), id -> new ArrayList<>())
+          .add(thumbnail);
+      known.invalidate(new Key(thumbnail.getStorageSource().getId(), thumbnail.getContentKey()));
+    }
+    List<PendingDeletion> pending = new ArrayList<>();
+    for (List<Thumbnail> thumbnails : bySource.values()) {
+      StorageSource source = thumbnails.get(0).getStorageSource();
+      List<FileItem> sidecars = thumbnails.stream().map(t -> describe(null, t)).toList();
+      for (String storagePath : blobRegistry.releaseAll(source, sidecars)) {
+        PendingDeletion deletion = new PendingDeletion();
+        deletion.setStorageSource(source);
+        deletion.setStoragePath(storagePath);
+        pending.add(deletion);
+      }
+    }
+    pendingDeletionRepository.saveAll(pending);
+    thumbnailRepository.deleteAllInBatch(batch);
+    return batch.size();
+  }
+
+  /** Starts rendering the image unless a render of it is already running, and returns that. */
+  private CompletableFuture<Map<Integer, Thumbnail>> render(FileItem file, Key key) {
+    CompletableFuture<Map<Integer, Thumbnail>> created = new CompletableFuture<>();
+    CompletableFuture<Map<Integer, Thumbnail>> running = rendering.putIfAbsent(key, created);
+    if (running != null) {
+      return running;
+    }
+    try {
+      workers.execute(
+          () -> {
+            try {
+              created.complete(renderNow(file, key));
+            } catch (Throwable e) {
+              created.completeExceptionally(e);
+            } finally {
+              rendering.remove(key, created);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      rendering.remove(key, created);
+      created.completeExceptionally(e);
+      throw e;
+    }
+    return created;
+  }
+
+  private Map<Integer, Thumbnail> renderNow(FileItem file, Key key) throws IOException {
+    Map<Integer, Thumbnail> thumbnails = existing(key);
+    if (thumbnails.size() < sizes.length) {
+      BufferedImage image = decode(file);
+      if (image != null) {
+        thumbnails = store(file, key, image, thumbnails);
+      }
+    }
+    known.put(key, thumbnails);
+    return thumbnails;
+  }
+
+  private Map<Integer, Thumbnail> existing(Key key) {
+    Map<Integer, Thumbnail> thumbnails = new TreeMap<>();
+    for (Thumbnail thumbnail :
+        thumbnailRepository.findByStorageSourceIdAndContentKey(key.sourceId(), key.contentKey())) {
+      thumbnails.put(thumbnail.getDimension(), thumbnail);
+    }
+    return thumbnails;
+  }
+
+  /** Writes the sizes not stored yet, largest first, each scaled down from the one before. */
+  private Map<Integer, Thumbnail> store(
+      FileItem file, Key key, BufferedImage image, Map<Integer, Thumbnail> existing)
+      throws IOException {
+    StorageSource source = file.getStorageSource();
+    StorageService storageService = storageRuntimeRegistry.service(source);
+    String directory =
+        DIRECTORY
+            + "/"
+            + DigestUtils.md5DigestAsHex(key.contentKey().getBytes(StandardCharsets.UTF_8))
+                .substring(0, 2);
+    boolean alpha = image.getColorModel().hasAlpha();
+    List<Thumbnail> created = new ArrayList<>();
+    List<FileItem> written = new ArrayList<>();
+    try {
+      BufferedImage scaled = image;
+      for (int i = sizes.length - 1; i >= 0; i--) {
+        int dimension = sizes[i];
+        scaled = scale(scaled, dimension, alpha);
+        if (existing.containsKey(dimension)) {
+          continue;
+        }
+        byte[] bytes = encode(scaled, alpha);
+        String contentType = alpha ? "image/png" : "image/jpeg";
+        FileItem sidecar =
+            storageService.write(
+                source,
+                directory,
+                dimension + (alpha ? ".png" : ".jpg"),
+                contentType,
+                bytes.length,
+                new ByteArrayInputStream(bytes));
+        written.add(sidecar);
+        Thumbnail thumbnail = new Thumbnail();
+        thumbnail.setStorageSource(source);
+        thumbnail.setContentKey(key.contentKey());
+        thumbnail.setDimension(dimension);
+        thumbnail.setStoragePath(sidecar.getStoragePath());
+        thumbnail.setThumbnailHash(sidecar.getContentHash());
+        thumbnail.setSize(sidecar.getSize());
+        thumbnail.setContentType(contentType);
+        created.add(thumbnail);
+      }
+      Map<Integer, Thumbnail> thumbnails = new TreeMap<>(existing);
+      for (Thumbnail thumbnail : thumbnailRepository.saveAll(created)) {
+        thumbnails.put(thumbnail.getDimension(), thumbnail);
+      }
+      return thumbnails;
+    } catch (DataIntegrityViolationException e) {
+      // Another node stored the same thumbnails first; keep theirs.
+      discard(source, storageService, written);
+      return existing(key);
+    } catch (IOException | RuntimeException e) {
+      discard(source, storageService, written);
+      throw e;
+    }
+  }
+
+  private void discard(StorageSource source, StorageService storageService, List<FileItem> items) {
+    if (items.isEmpty()) {
+      return;
+    }
+    try {
+      List<String> failed =
+          storageService.deleteObjects(source, blobRegistry.releaseAll(source, items));
+      if (!failed.isEmpty()) {
+        log.warn("Failed to remove {} unused thumbnail objects: {}", failed.size(), failed);
+      }
+    } catch (RuntimeException e) {
+      log.warn("Failed to release unused thumbnails of source {}", source.getId(), e);
+    }
+  }
+
+  /** Decodes the image subsampled towards the largest size; null when it cannot be decoded. */
+  private BufferedImage decode(FileItem file) throws IOException {
+    StorageSource source = file.getStorageSource();
+    try (InputStream in = storageRuntimeRegistry.service(source).load(source, file);
+        ImageInputStream input = new MemoryCacheImageInputStream(in)) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        if ((long) width * height > maxPixels) {
+          log.debug(
+              "Not rendering thumbnails of file {}: {}x{} pixels", file.getId(), width, height);
+          return null;
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        int subsampling = Math.max(1, Math.max(width, height) / (2 * sizes[sizes.length - 1]));
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      log.debug("Cannot decode file {} as an image", file.getId(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Scales the image so its longer edge is at most {@code dimension}, halving at a time with
+   * bilinear filtering, which stays sharp without the cost of a bicubic pass over the full image.
+   * Always returns a fresh RGB or ARGB image, which both encoders accept.
+   */
+  private static BufferedImage scale(BufferedImage image, int dimension, boolean alpha) {
+    double ratio = Math.min(1, (double) dimension / Math.max(image.getWidth(), image.getHeight()));
+    int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+    int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+    BufferedImage current = image;
+    do {
+      int width = Math.max(targetWidth, current.getWidth() / 2);
+      int height = Math.max(targetHeight, current.getHeight() / 2);
+      BufferedImage next =
+          new BufferedImage(
+              width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = next.createGraphics();
+      try {
+        graphics.setRenderingHint(
+            RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(current, 0, 0, width, height, null);
+      } finally {
+        graphics.dispose();
+      }
+      current = next;
+    } while (current.getWidth() != targetWidth || current.getHeight() != targetHeight);
+    return current;
+  }
+
+  private static byte[] encode(BufferedImage image, boolean alpha) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+      if (alpha) {
+        ImageIO.write(image, "png", output);
+      } else {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+          ImageWriteParam param = writer.getDefaultWriteParam();
+          param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+          param.setCompressionQuality(JPEG_QUALITY);
+          writer.setOutput(output);
+          writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+          writer.dispose();
+        }
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private Map<Integer, Thumbnail> await(CompletableFuture<Map<Integer, Thumbnail>> render) {
+    try {
+      return render.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while rendering thumbnail", e);
+    } catch (TimeoutException e) {
+      throw new RejectedExecutionException("Thumbnail is still being rendered", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      throw new RuntimeException("Failed to render thumbnail", e.getCause());
+    }
+  }
+
+  /** The sidecar as a transient item; {@code file} supplies its id and name when given. */
+  private static FileItem describe(FileItem file, Thumbnail thumbnail) {
+    FileItem item = new FileItem();
+    item.setStorageSource(thumbnail.getStorageSource());
+    item.setDirectoryPath(DIRECTORY);
+    item.setStoragePath(thumbnail.getStoragePath());
+    item.setContentHash(thumbnail.getThumbnailHash());
+    item.setSize(thumbnail.getSize());
+    item.setContentType(thumbnail.getContentType());
+    item.setCreatedAt(thumbnail.getCreatedAt());
+    String extension = "image/png".equals(thumbnail.getContentType()) ? ".png" : ".jpg";
+    if (file == null) {
+      item.setFilename(thumbnail.getDimension() + extension);
+      return item;
+    }
+    item.setId(file.getId());
+    String name = file.getFilename();
+    int dot = name.lastIndexOf('.');
+    item.setFilename(
+        (dot > 0 ? name.substring(0, dot) : name) + "-" + thumbnail.getDimension() + extension);
+    return item;
+  }
+
+  private static Key key(FileItem file) {
+    String contentKey =
+        StringUtils.hasText(file.getContentHash())
+            ? file.getContentHash()
+            : "path:" + file.getStoragePath();
+    return new Key(file.getStorageSource().getId(), contentKey);
+  }
+
+  private record Key(Long sourceId, String contentKey) {}
+}
@@ -0,0 +1,776 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.StorageBlob;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.TransferItem;
+import org.superwindcloud.cloud_disk.TransferItemRepository;
+import org.superwindcloud.cloud_disk.TransferJob;
+import org.superwindcloud.cloud_disk.TransferJobRepository;
+import org.superwindcloud.cloud_disk.TransferMode;
+import org.superwindcloud.cloud_disk.TransferStatus;
+import org.superwindcloud.cloud_disk.storage.BlobRegistry;
+import org.superwindcloud.cloud_disk.storage.ReadAheadInputStream;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
+import org.superwindcloud.cloud_disk.storage.StorageService;
+
+/**
+ * Copies and moves files and folders between directories and storage sources in the background.
+ * Each file takes the cheapest route available:
+ *
+ * <ul>
+ *   <li>a move within one source only rewrites paths, like a rename;
+ *   <li>content the target source already holds is shared through the blob registry;
+ *   <li>sources of one backend copy inside it, see {@link StorageService#copyWithin};
+ *   <li>anything else is streamed from one backend to the other, read ahead by up to {@code
+ *       storage.transfer.read-ahead} so both sides keep busy.
+ * </ul>
+ *
+ * <p>Up to {@code storage.transfer.parallelism} files of a job are in flight at once. A job's
+ * progress lives in its items, each claimed before it is transferred and finished in the same
+ * transaction that records its copy. A heartbeat renews the job's lease and the claims of the items
+ * in flight, however long the items take, so a job whose node dies is resumed by another node once
+ * the lease runs out and only redoes the files that were in flight; items another run still holds
+ * are waited for, never transferred twice.
+ */
+@Service
+public class TransferService {
+  private static final Logger log = LoggerFactory.getLogger(TransferService.class);
+  private static final int PAGE_SIZE = 200;
+  private static final int MAX_ERROR_LENGTH = 1000;
+
+  private static final String INSERT_ITEM =
+      "insert into transfer_items (transfer_job_id, file_id, is_directory, directory_path, "
+          + "filename, size, status) values (?, ?, ?, ?, ?, ?, 'PENDING')";
+
+  private final FileItemRepository fileItemRepository;
+  private final TransferJobRepository transferJobRepository;
+  private final TransferItemRepository transferItemRepository;
+  private final StorageRuntimeRegistry storageRuntimeRegistry;
+  private final DirectoryService directoryService;
+  private final FileDeletionService fileDeletionService;
+  private final ShortLinkService shortLinkService;
+  private final BlobRegistry blobRegistry;
+  private final StorageUsageService storageUsageService;
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final AtomicInteger runningJobs = new AtomicInteger();
+
+  @Value("${storage.transfer.max-jobs:2}")
+  private int maxJobs;
+
+  @Value("${storage.transfer.parallelism:4}")
+  private int parallelism;
+
+  @Value("${storage.transfer.read-ahead:8MB}")
+  private DataSize readAhead;
+
+  @Value("${storage.transfer.lease:2m}")
+  private Duration lease;
+
+  public TransferService(
+      FileItemRepository fileItemRepository,
+      TransferJobRepository transferJobRepository,
+      TransferItemRepository transferItemRepository,
+      StorageRuntimeRegistry storageRuntimeRegistry,
+      DirectoryService directoryService,
+      FileDeletionService fileDeletionService,
+      ShortLinkService shortLinkService,
+      BlobRegistry blobRegistry,
+      StorageUsageService storageUsageService,
+      JdbcTemplate jdbcTemplate,
+      PlatformTransactionManager transactionManager) {
+    this.fileItemRepository = fileItemRepository;
+    this.transferJobRepository = transferJobRepository;
+    this.transferItemRepository = transferItemRepository;
+    this.storageRuntimeRegistry = storageRuntimeRegistry;
+    this.directoryService = directoryService;
+    this.fileDeletionService = fileDeletionService;
+    this.shortLinkService = shortLinkService;
+    this.blobRegistry = blobRegistry;
+    this.storageUsageService = storageUsageService;
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Plans the transfer of {@code ids}, with everything under the folders among them, into {@code
+   * targetPath} of source {@code targetSourceId}, and queues it.
+   */
+  @Transactional
+  public Progress create(
+      List<Long> ids, Long targetSourceId, String targetPath, TransferMode mode) {
+    String directoryPath = directoryService.normalizeDirectory(targetPath);
+    List<FileItem> roots = fileItemRepository.findAllById(ids);
+    if (roots.isEmpty() || roots.size() != ids.size()) {
+      throw new IllegalArgumentException("File not found");
+    }
+    StorageSource source = roots.get(0).getStorageSource();
+    if (roots.stream().anyMatch(root -> !root.getStorageSource().getId().equals(source.getId()))) {
+      throw new IllegalArgumentException("Transferred items must come from one storage source");
+    }
+    StorageSource target = storageRuntimeRegistry.source(targetSourceId);
+    boolean sameSource = source.getId().equals(target.getId());
+    List<FileItem> planned = new ArrayList<>();
+    Set<String> names = new HashSet<>();
+    for (FileItem root : roots) {
+      if (!names.add(root.getFilename())) {
+        throw new IllegalArgumentException("Transferred items must have distinct names");
+      }
+      String rootPath = directoryService.fullPath(root);
+      if (sameSource
+          && root.isDirectory()
+          && (directoryPath.equals(rootPath) || directoryPath.startsWith(rootPath + "/"))) {
+        throw new IllegalArgumentException("Cannot transfer a folder into itself");
+      }
+      if (sameSource
+          && mode == TransferMode.MOVE
+          && root.getDirectoryPath().equals(directoryPath)) {
+        continue;
+      }
+      if (fileItemRepository.existsByStorageSourceIdAndDirectoryPathAndFilename(
+          target.getId(), directoryPath, root.getFilename())) {
+        throw new IllegalArgumentException(
+            "A file or folder named " + root.getFilename() + " already exists here");
+      }
+      planned.add(root);
+    }
+    if (!(sameSource && mode == TransferMode.MOVE)) {
+      storageUsageService.checkQuota(
+          target.getId(),
+          planned.stream()
+              .mapToLong(root -> root.isDirectory() ? root.getTotalSize() : root.getSize())
+              .sum());
+    }
+
+    TransferJob job = new TransferJob();
+    job.setMode(mode);
+    job.setSource(source);
+    job.setTarget(target);
+    job.setTargetPath(directoryPath);
+    job = transferJobRepository.save(job);
+    List<Object[]> rows = new ArrayList<>();
+    for (FileItem root : planned) {
+      rows.add(row(job, root, directoryPath));
+      if (!root.isDirectory() || (sameSource && mode == TransferMode.MOVE)) {
+        // A move within the source takes each root's subtree along in one path rewrite.
+        continue;
+      }
+      String rootPath = directoryService.fullPath(root);
+      String base =
+          directoryPath.isEmpty() ? root.getFilename() : directoryPath + "/" + root.getFilename();
+      List<FileItem> subtree =
+          new ArrayList<>(fileItemRepository.findDescendants(source.getId(), rootPath));
+      subtree.sort(Comparator.comparing(directoryService::fullPath));
+      for (FileItem item : subtree) {
+        rows.add(row(job, item, base + item.getDirectoryPath().substring(rootPath.length())));
+      }
+    }
+    jdbcTemplate.batchUpdate(INSERT_ITEM, rows);
+    startAfterCommit();
+    return progress(job);
+  }
+
+  public Progress progress(Long jobId) {
+    return progress(findJob(jobId));
+  }
+
+  /** Stops a queued or running job; files already transferred stay where they are. */
+  @Transactional
+  public Progress cancel(Long jobId) {
+    TransferJob job = findJob(jobId);
+    if (job.getStatus() != TransferStatus.PENDING && job.getStatus() != TransferStatus.RUNNING) {
+      throw new IllegalArgumentException("Only unfinished transfers can be cancelled");
+    }
+    job.setStatus(TransferStatus.CANCELLED);
+    job.setFinishedAt(Instant.now());
+    job.setLeaseOwner(null);
+    job.setLeaseExpiresAt(null);
+    return progress(transferJobRepository.save(job));
+  }
+
+  /** Queues a failed or cancelled job again, retrying the files that failed. */
+  @Transactional
+  public Progress resume(Long jobId) {
+    TransferJob job = findJob(jobId);
+    if (job.getStatus() != TransferStatus.FAILED && job.getStatus() != TransferStatus.CANCELLED) {
+      throw new IllegalArgumentException("Only failed or cancelled transfers can be resumed");
+    }
+    transferItemRepository.retryFailed(jobId, TransferStatus.PENDING, TransferStatus.FAILED);
+    job.setStatus(TransferStatus.PENDING);
+    job.setError(null);
+    job.setFinishedAt(null);
+    job = transferJobRepository.save(job);
+    startAfterCommit();
+    return progress(job);
+  }
+
+  /**
+   * Starts queued jobs, and jobs whose node stopped renewing the lease, while this node runs fewer
+   * than {@code storage.transfer.max-jobs}.
+   */
+  @Scheduled(
+      fixedDelayString = "${storage.transfer.poll-interval:15s}",
+      initialDelayString = "${storage.transfer.poll-interval:15s}")
+  public void dispatch() {
+    while (runningJobs.incrementAndGet() <= maxJobs) {
+      Claim claim;
+      try {
+        claim = transactionTemplate.execute(status -> claim());
+      } catch (RuntimeException e) {
+        runningJobs.decrementAndGet();
+        throw e;
+      }
+      if (claim == null) {
+        break;
+      }
+      executor.execute(
+          () -> {
+            try {
+              new Run(claim).execute();
+            } catch (RuntimeException e) {
+              log.error(
+                  "Transfer job {} stopped; it resumes once its lease expires", claim.jobId(), e);
+            } finally {
+              runningJobs.decrementAndGet();
+            }
+          });
+    }
+    runningJobs.decrementAndGet();
+  }
+
+  private Claim claim() {
+    Instant now = Instant.now();
+    List<TransferJob> jobs = transferJobRepository.lockClaimable(now, 1);
+    if (jobs.isEmpty()) {
+      return null;
+    }
+    TransferJob job = jobs.get(0);
+    if (job.getStatus() == TransferStatus.RUNNING) {
+      log.info("Resuming transfer job {} after its lease expired", job.getId());
+    }
+    job.setStatus(TransferStatus.RUNNING);
+    job.setLeaseOwner(UUID.randomUUID().toString());
+    job.setLeaseExpiresAt(now.plus(lease));
+    transferJobRepository.save(job);
+    return new Claim(job.getId(), job.getLeaseOwner());
+  }
+
+  private void startAfterCommit() {
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            executor.execute(TransferService.this::dispatch);
+          }
+        });
+  }
+
+  private TransferJob findJob(Long jobId) {
+    return transferJobRepository
+        .findById(jobId)
+        .orElseThrow(() -> new IllegalArgumentException("Transfer not found"));
+  }
+
+  private Progress progress(TransferJob job) {
+    long totalItems = 0;
+    long completedItems = 0;
+    long failedItems = 0;
+    long totalBytes = 0;
+    long completedBytes = 0;
+    for (Object[] row : transferItemRepository.summarize(job.getId())) {
+      TransferStatus status = (TransferStatus) row[0];
+      long count = ((Number) row[2]).longValue();
+      long bytes = ((Number) row[3]).longValue();
+      totalItems += count;
+      totalBytes += bytes;
+      if (status == TransferStatus.COMPLETED) {
+        completedItems += count;
+        completedBytes += bytes;
+      } else if (status == TransferStatus.FAILED) {
+        failedItems += count;
+      }
+    }
+    List<Failure> failures =
+        failedItems == 0
+            ? List.of()
+            : transferItemRepository
+                .findTop20ByJobIdAndStatusOrderByIdAsc(job.getId(), TransferStatus.FAILED)
+                .stream()
+                .map(
+                    item ->
+                        new Failure(
+                            item.getFileId(),
+                            join(item.getDirectoryPath(), item.getFilename()),
+                            item.getError()))
+                .toList();
+    return new Progress(
+        job.getId(),
+        job.getMode(),
+        job.getStatus(),
+        job.getSource().getId(),
+        job.getTarget().getId(),
+        job.getTargetPath(),
+        totalItems,
+        completedItems,
+        failedItems,
+        totalBytes,
+        completedBytes,
+        job.getError(),
+        failures,
+        job.getCreatedAt(),
+        job.getFinishedAt());
+  }
+
+  private static Object[] row(TransferJob job, FileItem item, String directoryPath) {
+    return new Object[] {
+      job.getId(),
+      item.getId(),
+      item.isDirectory(),
+      directoryPath,
+      item.getFilename(),
+      item.isDirectory() ? 0L : item.getSize()
+    };
+  }
+
+  private static String join(String directoryPath, String filename) {
+    return directoryPath.isEmpty() ? filename : directoryPath + "/" + filename;
+  }
+
+  /**
+   * State of a transfer. Items count folders as well as files; bytes count files only.
+   *
+   * @param failures the first few items that failed
+   */
+  public record Progress(
+      Long id,
+      TransferMode mode,
+      TransferStatus status,
+      Long sourceId,
+      Long targetId,
+      String targetPath,
+      long totalItems,
+      long completedItems,
+      long failedItems,
+      long totalBytes,
+      long completedBytes,
+      String error,
+      List<Failure> failures,
+      Instant createdAt,
+      Instant finishedAt) {}
+
+  /**
+   * @param path where the item was going in the target source
+   */
+  public record Failure(Long fileId, String path, String error) {}
+
+  private record Claim(Long jobId, String owner) {}
+
+  /** One claim of a job, running until the job is done or the claim is lost. */
+  private final class Run {
+    private final Claim claim;
+    private final TransferJob job;
+    private final StorageSource source;
+    private final StorageSource target;
+    private final StorageService sourceService;
+    private final StorageService targetService;
+
+    /** A move within one source, which relocates each root instead of copying. */
+    private final boolean relocate;
+
+    /** Set by the heartbeat once the job was cancelled or taken over; no item is started after. */
+    private volatile boolean lost;
+
+    private volatile boolean ended;
+
+    Run(Claim claim) {
+      this.claim = claim;
+      this.job = findJob(claim.jobId());
+      this.source = storageRuntimeRegistry.source(job.getSource().getId());
+      this.target = storageRuntimeRegistry.source(job.getTarget().getId());
+      this.sourceService = storageRuntimeRegistry.service(source);
+      this.targetService = storageRuntimeRegistry.service(target);
+      this.relocate = job.getMode() == TransferMode.MOVE && source.getId().equals(target.getId());
+    }
+
+    void execute() {
+      Instant started = Instant.now();
+      Future<?> heartbeat = executor.submit(this::heartbeat);
+      try {
+        targetService.ensureDirectory(target, job.getTargetPath());
+        directoryService.ensureDirectoryChain(target, job.getTargetPath());
+        // Folders go first and in planning order, so parents exist before their content arrives.
+        if (!transferAll(true) || !transferAll(false)) {
+          log.info("Transfer job {} stopped: cancelled or claimed by another node", job.getId());
+          return;
+        }
+        finish(started);
+      } finally {
+        ended = true;
+        heartbeat.cancel(true);
+      }
+    }
+
+    /**
+     * Renews the job's lease and the claims of this run's items every quarter lease until the run
+     * ends. Item claims are renewed even after the lease is lost, until the items in flight finish.
+     */
+    private void heartbeat() {
+      while (!ended) {
+        try {
+          Thread.sleep(lease.dividedBy(4));
+        } catch (InterruptedException e) {
+          return;
+        }
+        try {
+          Instant until = Instant.now().plus(lease);
+          if (!lost
+              && transferJobRepository.renewLease(
+                      job.getId(), TransferStatus.RUNNING, claim.owner(), until)
+                  == 0) {
+            lost = true;
+          }
+          transferItemRepository.renewClaims(
+              job.getId(), TransferStatus.RUNNING, claim.owner(), until);
+        } catch (RuntimeException e) {
+          log.warn("Failed to renew the lease of transfer job {}", job.getId(), e);
+        }
+      }
+    }
+
+    /**
+     * Transfers every item of one kind, then waits for those another run of the job still holds
+     * until they finish or their claim runs out. Returns false once the lease is lost, which is how
+     * a cancel reaches a running job.
+     */
+    private boolean transferAll(boolean directories) {
+      while (true) {
+        long afterId = 0;
+        while (true) {
+          if (lost) {
+            return false;
+          }
+          List<TransferItem> page =
+              transferItemRepository.findClaimable(
+                  job.getId(),
+                  directories,
+                  afterId,
+                  TransferStatus.PENDING,
+                  TransferStatus.RUNNING,
+                  Instant.now(),
+                  Limit.of(PAGE_SIZE));
+          if (page.isEmpty()) {
+            break;
+          }
+          if (directories) {
+            page.forEach(this::transferDirectory);
+          } else {
+            transferFiles(page);
+          }
+          afterId = page.getLast().getId();
+        }
+        if (transferItemRepository.countByJobIdAndStatusAndDirectory(
+                job.getId(), TransferStatus.RUNNING, directories)
+            == 0) {
+          return !lost;
+        }
+        try {
+          Thread.sleep(lease.dividedBy(4));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting for transferred items", e);
+        }
+      }
+    }
+
+    /** Claims an item for this run; false if the lease is lost or another run holds the item. */
+    private boolean claimItem(TransferItem item) {
+      Instant now = Instant.now();
+      return !lost
+          && transferItemRepository.claim(
+                  item.getId(),
+                  TransferStatus.PENDING,
+                  TransferStatus.RUNNING,
+                  claim.owner(),
+                  now,
+                  now.plus(lease))
+              > 0;
+    }
+
+    /** Records an item's outcome inside a transaction, rolling it back if the claim was lost. */
+    private void complete(TransferItem item, Long targetFileId) {
+      if (transferItemRepository.finish(
+              item.getId(), claim.owner(), TransferStatus.COMPLETED, targetFileId, null)
+          == 0) {
+        throw new IllegalStateException("The item was claimed by another run of the transfer");
+      }
+    }
+
+    private void transferFiles(List<TransferItem> page) {
+      Semaphore permits = new Semaphore(Math.max(1, parallelism));
+      List<Future<?>> inFlight = new ArrayList<>();
+      try {
+        for (TransferItem item : page) {
+          permits.acquire();
+          if (!claimItem(item)) {
+            permits.release();
+            continue;
+          }
+          inFlight.add(
+              executor.submit(
+                  () -> {
+                    try {
+                      transferFile(item);
+                    } finally {
+                      permits.release();
+                    }
+                  }));
+        }
+        for (Future<?> future : inFlight) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while transferring files", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Failed to transfer files", e.getCause());
+      }
+    }
+
+    private void transferDirectory(TransferItem item) {
+      if (!claimItem(item)) {
+        return;
+      }
+      try {
+        if (relocate) {
+          relocate(item);
+          return;
+        }
+        String path = join(item.getDirectoryPath(), item.getFilename());
+        targetService.ensureDirectory(target, path);
+        FileItem directory = directoryService.createDirectory(target, path);
+        complete(item, directory.getId());
+      } catch (RuntimeException e) {
+        fail(item, e);
+      }
+    }
+
+    private void transferFile(TransferItem item) {
+      try {
+        if (relocate) {
+          relocate(item);
+          return;
+        }
+        Optional<FileItem> original = fileItemRepository.findById(item.getFileId());
+        if (original.isEmpty()) {
+          fail(item, new IllegalStateException("The source file no longer exists"));
+          return;
+        }
+        FileItem file = original.get();
+        FileItem copy = copy(file, item);
+        try {
+          transactionTemplate.executeWithoutResult(
+              status -> {
+                FileItem saved = fileItemRepository.save(copy);
+                if (job.getMode() == TransferMode.MOVE) {
+                  fileDeletionService.delete(file);
+                }
+                complete(item, saved.getId());
+              });
+        } catch (RuntimeException e) {
+          discard(copy);
+          throw e;
+        }
+      } catch (RuntimeException e) {
+        fail(item, e);
+      }
+    }
+
+    /** Places the content of {@code file} in the target source, returning the unsaved copy. */
+    private FileItem copy(FileItem file, TransferItem item) {
+      String hash = file.getContentHash();
+      if (hash != null) {
+        Optional<StorageBlob> blob = blobRegistry.acquireExisting(target, hash, file.getSize());
+        if (blob.isPresent()) {
+          FileItem copy = new FileItem();
+          copy.setFilename(item.getFilename());
+          copy.setStorageSource(target);
+          copy.setStoragePath(blob.get().getStoragePath());
+          copy.setDirectoryPath(item.getDirectoryPath());
+          copy.setSize(file.getSize());
+          copy.setContentType(file.getContentType());
+          copy.setContentHash(hash);
+          return copy;
+        }
+      }
+      if (source.getType() == target.getType()) {
+        Optional<FileItem> copied =
+            targetService.copyWithin(
+                source, file, target, item.getDirectoryPath(), item.getFilename());
+        if (copied.isPresent()) {
+          return copied.get();
+        }
+      }
+      FileItem copy;
+      try (ReadAheadInputStream data =
+          new ReadAheadInputStream(
+              sourceService.load(source, file), readAhead.toBytes(), executor)) {
+        copy =
+            targetService.write(
+                target,
+                item.getDirectoryPath(),
+                item.getFilename(),
+                file.getContentType(),
+                file.getSize(),
+                data);
+      }
+      if (hash != null && !hash.equals(copy.getContentHash())) {
+        discard(copy);
+        throw new IllegalStateException("The copied content does not match the original");
+      }
+      return copy;
+    }
+
+    private void relocate(TransferItem item) {
+      Optional<FileItem> original = fileItemRepository.findById(item.getFileId());
+      if (original.isEmpty()) {
+        fail(item, new IllegalStateException("The source file no longer exists"));
+        return;
+      }
+      FileItem moved =
+          transactionTemplate.execute(
+              status -> {
+                FileItem saved =
+                    directoryService.relocate(
+                        original.get(), item.getDirectoryPath(), item.getFilename());
+                complete(item, saved.getId());
+                return saved;
+              });
+      shortLinkService.evictFile(moved.getId());
+    }
+
+    /** Gives back the blob reference of a copy that was never recorded and removes its object. */
+    private void discard(FileItem copy) {
+      try {
+        List<String> unused = blobRegistry.releaseAll(target, List.of(copy));
+        if (!unused.isEmpty()) {
+          targetService.deleteObjects(target, unused);
+        }
+      } catch (RuntimeException e) {
+        log.warn(
+            "Failed to remove unrecorded copy {} in source {}",
+            copy.getStoragePath(),
+            target.getId(),
+            e);
+      }
+    }
+
+    private void fail(TransferItem item, Exception error) {
+      log.debug("Transfer job {} failed on item {}", job.getId(), item.getFileId(), error);
+      String message = error.getMessage() != null ? error.getMessage() : error.toString();
+      if (message.length() > MAX_ERROR_LENGTH) {
+        message = message.substring(0, MAX_ERROR_LENGTH);
+      }
+      transferItemRepository.finish(
+          item.getId(), claim.owner(), TransferStatus.FAILED, null, message);
+    }
+
+    /**
+     * Closes the job. A move across sources also drops the source folders, unless a file failed or
+     * a file was added to one meanwhile.
+     */
+    private void finish(Instant started) {
+      Progress progress = progress(job);
+      if (job.getMode() == TransferMode.MOVE && !relocate && progress.failedItems() == 0) {
+        removeSourceDirectories();
+      }
+      Boolean finished =
+          transactionTemplate.execute(
+              status -> {
+                TransferJob current = findJob(job.getId());
+                if (current.getStatus() != TransferStatus.RUNNING
+                    || !claim.owner().equals(current.getLeaseOwner())) {
+                  return false;
+                }
+                current.setStatus(
+                    progress.failedItems() == 0 ? TransferStatus.COMPLETED : TransferStatus.FAILED);
+                current.setError(
+                    progress.failedItems() == 0
+                        ? null
+                        : progress.failedItems()
+                            + " of "
+                            + progress.totalItems()
+                            + " items could not be transferred");
+                current.setFinishedAt(Instant.now());
+                current.setLeaseOwner(null);
+                current.setLeaseExpiresAt(null);
+                transferJobRepository.save(current);
+                return true;
+              });
+      if (Boolean.TRUE.equals(finished)) {
+        log.info(
+            "Transfer job {} finished: {} items, {} bytes, {} failed in {}",
+            job.getId(),
+            progress.completedItems(),
+            progress.completedBytes(),
+            progress.failedItems(),
+            Duration.between(started, Instant.now()));
+      }
+    }
+
+    private void removeSourceDirectories() {
+      long afterId = 0;
+      List<TransferItem> page;
+      do {
+        page =
+            transferItemRepository.findPage(
+                job.getId(), TransferStatus.COMPLETED, true, afterId, Limit.of(PAGE_SIZE));
+        for (TransferItem item : page) {
+          fileItemRepository
+              .findById(item.getFileId())
+              .filter(
+                  directory ->
+                      fileItemRepository
+                          .findDescendants(source.getId(), directoryService.fullPath(directory))
+                          .stream()
+                          .allMatch(FileItem::isDirectory))
+              .ifPresent(
+                  directory ->
+                      transactionTemplate.executeWithoutResult(
+                          status -> fileDeletionService.delete(directory)));
+        }
+        afterId = page.isEmpty() ? afterId : page.getLast().getId();
+      } while (page.size() == PAGE_SIZE);
+    }
+  }
+}
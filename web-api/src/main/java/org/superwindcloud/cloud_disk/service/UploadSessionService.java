@@ -0,0 +1,292 @@
+package org.superwindcloud.cloud_disk.service;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.UploadChunk;
+import org.superwindcloud.cloud_disk.UploadChunkRepository;
+import org.superwindcloud.cloud_disk.UploadSession;
+import org.superwindcloud.cloud_disk.UploadSessionRepository;
+import org.superwindcloud.cloud_disk.storage.ChunkedUploadStorageService;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
+import org.superwindcloud.cloud_disk.storage.StorageService;
+
+/**
+ * Resumable uploads: a session fixes the file's size and chunk layout up front, chunks are then
+ * stored independently in any order, and completion assembles them into a {@link FileItem}. No
+ * database transaction is held while chunk bytes stream into storage.
+ *
+ * <p>Chunk writes and completion exclude each other through the session row: a write registers
+ * itself only while no completion has started, and completion starts only once no write is
+ * registered. A write still registered after {@code storage.upload.session.write-timeout} is taken
+ * to belong to a node that died.
+ */
+@Service
+public class UploadSessionService {
+  private static final Logger log = LoggerFactory.getLogger(UploadSessionService.class);
+
+  /** Matches the S3 limit on parts per multipart upload. */
+  private static final int MAX_CHUNKS = 10_000;
+
+  private final StorageRuntimeRegistry storageRuntimeRegistry;
+  private final UploadSessionRepository uploadSessionRepository;
+  private final UploadChunkRepository uploadChunkRepository;
+  private final DirectoryService directoryService;
+  private final ThumbnailService thumbnailService;
+  private final StorageUsageService storageUsageService;
+
+  @Value("${storage.upload.max-file-size:1GB}")
+  private DataSize maxUploadSize;
+
+  @Value("${storage.upload.session.default-chunk-size:8MB}")
+  private DataSize defaultChunkSize;
+
+  @Value("${storage.upload.session.max-chunk-size:64MB}")
+  private DataSize maxChunkSize;
+
+  @Value("${storage.upload.session.ttl:24h}")
+  private Duration sessionTtl;
+
+  @Value("${storage.upload.session.write-timeout:1h}")
+  private Duration writeTimeout;
+
+  public UploadSessionService(
+      StorageRuntimeRegistry storageRuntimeRegistry,
+      UploadSessionRepository uploadSessionRepository,
+      UploadChunkRepository uploadChunkRepository,
+      DirectoryService directoryService,
+      ThumbnailService thumbnailService,
+      StorageUsageService storageUsageService) {
+    this.storageRuntimeRegistry = storageRuntimeRegistry;
+    this.uploadSessionRepository = uploadSessionRepository;
+    this.uploadChunkRepository = uploadChunkRepository;
+    this.directoryService = directoryService;
+    this.thumbnailService = thumbnailService;
+    this.storageUsageService = storageUsageService;
+  }
+
+  public UploadSession create(
+      Long sourceId,
+      String path,
+      String rawFilename,
+      String contentType,
+      long size,
+      Long requestedChunkSize) {
+    String directoryPath = directoryService.normalizeDirectory(path);
+    String filename = directoryService.normalizeFilename(rawFilename);
+    if (size < 0) {
+      throw new IllegalArgumentException("Upload size cannot be negative");
+    }
+    if (size > maxUploadSize.toBytes()) {
+      throw new MaxUploadSizeExceededException(maxUploadSize.toBytes());
+    }
+    StorageSource source = storageRuntimeRegistry.source(sourceId);
+    storageUsageService.checkQuota(sourceId, size);
+    ChunkedUploadStorageService storage = resolveStorage(source);
+
+    long chunkSize = requestedChunkSize != null ? requestedChunkSize : defaultChunkSize.toBytes();
+    if (chunkSize <= 0 || chunkSize > maxChunkSize.toBytes()) {
+      throw new IllegalArgumentException(
+          "Chunk size must be between 1 and " + maxChunkSize.toBytes() + " bytes");
+    }
+    long chunkCount = Math.max(1, (size + chunkSize - 1) / chunkSize);
+    if (chunkCount > 1 && chunkSize < storage.minimumChunkSize()) {
+      throw new IllegalArgumentException(
+          "Chunk size must be at least " + storage.minimumChunkSize() + " bytes for this source");
+    }
+    if (chunkCount > MAX_CHUNKS) {
+      throw new IllegalArgumentException("Too many chunks; use a larger chunk size");
+    }
+
+    storage.ensureDirectory(source, directoryPath);
+    directoryService.ensureDirectoryChain(source, directoryPath);
+
+    UploadSession session = new UploadSession();
+    session.setToken(UUID.randomUUID().toString().replace("-", ""));
+    session.setStorageSource(source);
+    session.setDirectoryPath(directoryPath);
+    session.setFilename(filename);
+    session.setContentType(contentType);
+    session.setTotalSize(size);
+    session.setChunkSize(chunkSize);
+    session.setChunkCount((int) chunkCount);
+    session.setExpiresAt(Instant.now().plus(sessionTtl));
+    storage.beginChunkedUpload(source, session);
+    try {
+      return uploadSessionRepository.save(session);
+    } catch (RuntimeException e) {
+      storage.abortChunkedUpload(source, session);
+      throw e;
+    }
+  }
+
+  public UploadSession find(String token) {
+    UploadSession session =
+        uploadSessionRepository
+            .findByToken(token)
+            .orElseThrow(() -> new IllegalArgumentException("Upload session not found"));
+    if (session.getExpiresAt().isBefore(Instant.now())) {
+      throw new IllegalArgumentException("Upload session has expired");
+    }
+    return session;
+  }
+
+  public List<Integer> receivedChunks(UploadSession session) {
+    return uploadChunkRepository.findChunkIndexes(session.getId());
+  }
+
+  /**
+   * Stores one chunk. Every chunk but the last must be exactly the session's chunk size, so a
+   * request whose declared length disagrees is rejected before any bytes are read.
+   */
+  public UploadSession writeChunk(String token, int index, long contentLength, InputStream data) {
+    UploadSession session = find(token);
+    if (index < 0 || index >= session.getChunkCount()) {
+      throw new IllegalArgumentException("Chunk index out of range");
+    }
+    long expected = chunkLength(session, index);
+    if (contentLength >= 0 && contentLength != expected) {
+      throw new IllegalArgumentException(
+          "Chunk " + index + " must be exactly " + expected + " bytes");
+    }
+    if (uploadSessionRepository.startWrite(session.getId(), Instant.now()) == 0) {
+      throw new IllegalArgumentException("Upload is being completed");
+    }
+    try {
+      StorageSource source = session.getStorageSource();
+      String etag = resolveStorage(source).writeChunk(source, session, index, expected, data);
+      recordChunk(session, index, expected, etag);
+    } finally {
+      uploadSessionRepository.endWrite(session.getId());
+    }
+
+    Instant expiresAt = Instant.now().plus(sessionTtl);
+    uploadSessionRepository.extendExpiry(session.getId(), expiresAt);
+    session.setExpiresAt(expiresAt);
+    return session;
+  }
+
+  /**
+   * Assembles the chunks into the file. The chunk list is read once the session is claimed, when no
+   * write can change it any more.
+   */
+  public FileItem complete(String token) {
+    UploadSession session = find(token);
+    Instant now = Instant.now();
+    if (uploadSessionRepository.markCompleting(session.getId(), now, now.minus(writeTimeout))
+        == 0) {
+      throw new IllegalArgumentException(
+          "Upload is already being completed or is still receiving chunks");
+    }
+    List<UploadChunk> chunks =
+        uploadChunkRepository.findBySessionIdOrderByChunkIndexAsc(session.getId());
+    if (chunks.size() != session.getChunkCount()) {
+      uploadSessionRepository.clearCompleting(session.getId());
+      List<Integer> missing = new ArrayList<>();
+      int next = 0;
+      for (UploadChunk chunk : chunks) {
+        while (next < chunk.getChunkIndex()) {
+          missing.add(next++);
+        }
+        next = chunk.getChunkIndex() + 1;
+      }
+      while (next < session.getChunkCount()) {
+        missing.add(next++);
+      }
+      throw new IllegalArgumentException("Upload is missing chunks " + missing);
+    }
+    StorageSource source = session.getStorageSource();
+    FileItem item;
+    try {
+      item = resolveStorage(source).completeChunkedUpload(source, session, chunks);
+    } catch (RuntimeException e) {
+      uploadSessionRepository.clearCompleting(session.getId());
+      throw e;
+    }
+    discard(session);
+    thumbnailService.prepare(item);
+    return item;
+  }
+
+  public void abort(String token) {
+    UploadSession session =
+        uploadSessionRepository
+            .findByToken(token)
+            .orElseThrow(() -> new IllegalArgumentException("Upload session not found"));
+    StorageSource source = session.getStorageSource();
+    resolveStorage(source).abortChunkedUpload(source, session);
+    discard(session);
+  }
+
+  /** Aborts sessions that saw no chunk for longer than the session TTL. */
+  @Scheduled(
+      fixedDelayString = "${storage.upload.session.cleanup-interval:15m}",
+      initialDelayString = "${storage.upload.session.cleanup-interval:15m}")
+  public void cleanupExpired() {
+    List<UploadSession> expired;
+    do {
+      expired =
+          uploadSessionRepository.findTop100ByExpiresAtBeforeOrderByExpiresAtAsc(Instant.now());
+      for (UploadSession session : expired) {
+        try {
+          StorageSource source = session.getStorageSource();
+          resolveStorage(source).abortChunkedUpload(source, session);
+        } catch (RuntimeException e) {
+          log.warn("Failed to release storage for expired upload {}", session.getToken(), e);
+        }
+        discard(session);
+      }
+    } while (expired.size() == 100);
+  }
+
+  /**
+   * Upserts the chunk's row. A retried or duplicated chunk may race another request for the same
+   * index; the loser of the insert updates the winner's row instead.
+   */
+  private void recordChunk(UploadSession session, int index, long size, String etag) {
+    if (uploadChunkRepository.updateChunk(session.getId(), index, size, etag) > 0) {
+      return;
+    }
+    UploadChunk chunk = new UploadChunk();
+    chunk.setSession(session);
+    chunk.setChunkIndex(index);
+    chunk.setSize(size);
+    chunk.setEtag(etag);
+    try {
+      uploadChunkRepository.save(chunk);
+    } catch (DataIntegrityViolationException e) {
+      uploadChunkRepository.updateChunk(session.getId(), index, size, etag);
+    }
+  }
+
+  private void discard(UploadSession session) {
+    uploadChunkRepository.deleteBySessionId(session.getId());
+    uploadSessionRepository.deleteSession(session.getId());
+  }
+
+  private long chunkLength(UploadSession session, int index) {
+    long start = index * session.getChunkSize();
+    return Math.min(session.getChunkSize(), session.getTotalSize() - start);
+  }
+
+  private ChunkedUploadStorageService resolveStorage(StorageSource source) {
+    StorageService storageService = storageRuntimeRegistry.service(source);
+    if (storageService instanceof ChunkedUploadStorageService chunked) {
+      return chunked;
+    }
+    throw new IllegalArgumentException("This storage source does not support resumable uploads");
+  }
+}
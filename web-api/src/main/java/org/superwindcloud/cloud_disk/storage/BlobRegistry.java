@@ -0,0 +1,139 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageBlob;
+import org.superwindcloud.cloud_disk.StorageBlobRepository;
+import org.superwindcloud.cloud_disk.StorageSource;
+
+/**
+ * Reference-counted index of stored objects by content hash, so identical uploads to a source share
+ * one physical object. Blobs are scoped to a source: knowing a hash only ever unlocks content that
+ * already lives in the same source.
+ */
+@Component
+public class BlobRegistry {
+  private final StorageBlobRepository storageBlobRepository;
+
+  public BlobRegistry(StorageBlobRepository storageBlobRepository) {
+    this.storageBlobRepository = storageBlobRepository;
+  }
+
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  public static String hex(MessageDigest digest) {
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /** Takes a reference on an existing blob with this hash and size, if there is one. */
+  public Optional<StorageBlob> acquireExisting(StorageSource source, String hash, long size) {
+    Optional<StorageBlob> blob =
+        storageBlobRepository.findByStorageSourceIdAndContentHash(source.getId(), hash);
+    if (blob.isEmpty() || blob.get().getSize() != size) {
+      return Optional.empty();
+    }
+    if (storageBlobRepository.incrementReferences(source.getId(), hash) == 0) {
+      return Optional.empty();
+    }
+    return blob;
+  }
+
+  /**
+   * Takes a reference on the blob with this hash, registering the freshly written object at {@code
+   * storagePath} if the source has none yet. When the returned blob points elsewhere the content
+   * was a duplicate and the caller should delete its own copy.
+   */
+  public StorageBlob acquire(StorageSource source, String hash, long size, String storagePath) {
+    for (int attempt = 0; ; attempt++) {
+      Optional<StorageBlob> existing = acquireExisting(source, hash, size);
+      if (existing.isPresent()) {
+        return existing.get();
+      }
+      StorageBlob blob = new StorageBlob();
+      blob.setStorageSource(source);
+      blob.setContentHash(hash);
+      blob.setSize(size);
+      blob.setStoragePath(storagePath);
+      blob.setRefCount(1L);
+      try {
+        return storageBlobRepository.save(blob);
+      } catch (DataIntegrityViolationException e) {
+        // A concurrent upload of the same content registered the blob first; share theirs.
+        if (attempt > 0) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops the file's reference on its blob. Returns whether the physical object is no longer used
+   * and should be deleted; files stored before hashing always own their object.
+   */
+  @Transactional
+  public boolean release(StorageSource source, FileItem file) {
+    return !releaseAll(source, List.of(file)).isEmpty();
+  }
+
+  /**
+   * Drops the references of many files of one source, one update per distinct hash. Returns the
+   * storage paths whose objects are no longer used by any file.
+   */
+  @Transactional
+  public List<String> releaseAll(StorageSource source, Collection<FileItem> files) {
+    List<String> unreferenced = new ArrayList<>();
+    Map<String, List<FileItem>> byHash = new LinkedHashMap<>();
+    for (FileItem file : files) {
+      if (StringUtils.hasText(file.getContentHash())) {
+        byHash.computeIfAbsent(file.getContentHash(), h -> new ArrayList<>()).add(file);
+      } else {
+        unreferenced.add(file.getStoragePath());
+      }
+    }
+    if (byHash.isEmpty()) {
+      return unreferenced;
+    }
+    Map<String, StorageBlob> blobs = new LinkedHashMap<>();
+    for (StorageBlob blob :
+        storageBlobRepository.findByStorageSourceIdAndContentHashIn(
+            source.getId(), byHash.keySet())) {
+      blobs.put(blob.getContentHash(), blob);
+    }
+    for (Map.Entry<String, List<FileItem>> entry : byHash.entrySet()) {
+      StorageBlob blob = blobs.get(entry.getKey());
+      long shared = 0;
+      for (FileItem file : entry.getValue()) {
+        if (blob != null && blob.getStoragePath().equals(file.getStoragePath())) {
+          shared++;
+        } else {
+          unreferenced.add(file.getStoragePath());
+        }
+      }
+      if (shared > 0) {
+        storageBlobRepository.decrementReferences(blob.getId(), shared);
+        if (storageBlobRepository.deleteIfUnreferenced(blob.getId()) > 0) {
+          unreferenced.add(blob.getStoragePath());
+        }
+      }
+    }
+    return unreferenced;
+  }
+}
@@ -0,0 +1,209 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.UploadChunk;
+import org.superwindcloud.cloud_disk.UploadSession;
+
+/**
+ * Read-through {@link DiskCache} in front of another {@link StorageService}. Full reads fill the
+ * cache as they stream. Cached objects are read through a file opened up front rather than exposed
+ * as paths: an entry may be evicted and its file deleted at any time, and an open file survives
+ * that where a path handed to sendfile would not. {@link #openLocal} hands that open file to
+ * callers that can copy it with {@link FileChannel#transferTo}. Entries are keyed by the object's
+ * storage path, which never changes for a stored object (renames only touch metadata), and are
+ * dropped when the file is deleted.
+ */
+public class CachingStorageService
+    implements LocalFileStorageService, LinkableStorageService, ChunkedUploadStorageService {
+  private final StorageService delegate;
+  private final DiskCache cache;
+
+  public CachingStorageService(StorageService delegate, DiskCache cache) {
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  @Override
+  public boolean supports(StorageSource source) {
+    return delegate.supports(source);
+  }
+
+  @Override
+  public void evict(Long sourceId) {
+    delegate.evict(sourceId);
+  }
+
+  @Override
+  public void ensureDirectory(StorageSource source, String directoryPath) {
+    delegate.ensureDirectory(source, directoryPath);
+  }
+
+  @Override
+  public FileItem store(
+      StorageSource source,
+      String directoryPath,
+      String filename,
+      String contentType,
+      long size,
+      InputStream data) {
+    return delegate.store(source, directoryPath, filename, contentType, size, data);
+  }
+
+  @Override
+  public FileItem write(
+      StorageSource source,
+      String directoryPath,
+      String filename,
+      String contentType,
+      long size,
+      InputStream data) {
+    return delegate.write(source, directoryPath, filename, contentType, size, data);
+  }
+
+  @Override
+  public Optional<FileItem> copyWithin(
+      StorageSource source,
+      FileItem file,
+      StorageSource target,
+      String directoryPath,
+      String filename) {
+    return delegate.copyWithin(source, file, target, directoryPath, filename);
+  }
+
+  @Override
+  public InputStream load(StorageSource source, FileItem file) {
+    Optional<FileChannel> cached = openLocal(source, file);
+    if (cached.isPresent()) {
+      return Channels.newInputStream(cached.get());
+    }
+    return cache.fill(key(source, file), file.getSize(), delegate.load(source, file));
+  }
+
+  @Override
+  public InputStream load(StorageSource source, FileItem file, long offset, long length) {
+    Optional<FileChannel> cached = openLocal(source, file);
+    if (cached.isPresent()) {
+      try {
+        return new BoundedInputStream(
+            Channels.newInputStream(cached.get().position(offset)), length);
+      } catch (IOException e) {
+        closeQuietly(cached.get());
+      }
+    }
+    return delegate.load(source, file, offset, length);
+  }
+
+  /** Cache entries can be deleted at any moment, so they are never handed out by path. */
+  @Override
+  public Optional<Path> localPath(StorageSource source, FileItem file) {
+    return Optional.empty();
+  }
+
+  /** The cached copy of the object, opened; empty on a miss, which does not fill the cache. */
+  @Override
+  public Optional<FileChannel> openLocal(StorageSource source, FileItem file) {
+    String key = key(source, file);
+    Optional<Path> cached = cache.lookup(key);
+    if (cached.isEmpty()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(FileChannel.open(cached.get()));
+    } catch (IOException e) {
+      cache.invalidate(key);
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public void delete(StorageSource source, FileItem file) {
+    try {
+      delegate.delete(source, file);
+    } finally {
+      cache.invalidate(key(source, file));
+    }
+  }
+
+  @Override
+  public List<String> deleteObjects(StorageSource source, List<String> storagePaths) {
+    try {
+      return delegate.deleteObjects(source, storagePaths);
+    } finally {
+      storagePaths.forEach(path -> cache.invalidate(key(source, path)));
+    }
+  }
+
+  @Override
+  public Stream<StoredObject> list(StorageSource source, String afterPath) {
+    return delegate.list(source, afterPath);
+  }
+
+  @Override
+  public Optional<String> generateDirectDownloadUrl(
+      StorageSource source, FileItem file, Duration ttl) throws Exception {
+    if (delegate instanceof LinkableStorageService linkable) {
+      return linkable.generateDirectDownloadUrl(source, file, ttl);
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public long minimumChunkSize() {
+    return chunked().minimumChunkSize();
+  }
+
+  @Override
+  public void beginChunkedUpload(StorageSource source, UploadSession session) {
+    chunked().beginChunkedUpload(source, session);
+  }
+
+  @Override
+  public String writeChunk(
+      StorageSource source, UploadSession session, int index, long length, InputStream data) {
+    return chunked().writeChunk(source, session, index, length, data);
+  }
+
+  @Override
+  public FileItem completeChunkedUpload(
+      StorageSource source, UploadSession session, List<UploadChunk> chunks) {
+    return chunked().completeChunkedUpload(source, session, chunks);
+  }
+
+  @Override
+  public void abortChunkedUpload(StorageSource source, UploadSession session) {
+    chunked().abortChunkedUpload(source, session);
+  }
+
+  private ChunkedUploadStorageService chunked() {
+    if (delegate instanceof ChunkedUploadStorageService chunked) {
+      return chunked;
+    }
+    throw new IllegalArgumentException("This storage source does not support resumable uploads");
+  }
+
+  private static void closeQuietly(FileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException ignored) {
+      // nothing was read from it
+    }
+  }
+
+  private String key(StorageSource source, FileItem file) {
+    return key(source, file.getStoragePath());
+  }
+
+  private String key(StorageSource source, String storagePath) {
+    return source.getId() + ":" + storagePath;
+  }
+}
@@ -0,0 +1,37 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import java.io.InputStream;
+import java.util.List;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.UploadChunk;
+import org.superwindcloud.cloud_disk.UploadSession;
+
+/**
+ * A {@link StorageService} that can assemble an object from chunks uploaded independently, in any
+ * order and in parallel, so an interrupted upload resumes instead of starting over. Chunk {@code i}
+ * covers bytes {@code [i * chunkSize, min((i + 1) * chunkSize, totalSize))} of the final object.
+ */
+public interface ChunkedUploadStorageService extends StorageService {
+  /** Smallest chunk size the backend accepts for every chunk except the last one. */
+  default long minimumChunkSize() {
+    return 1;
+  }
+
+  /** Prepares backend state and records the session's storage path and upload handle on it. */
+  void beginChunkedUpload(StorageSource source, UploadSession session);
+
+  /**
+   * Stores exactly {@code length} bytes as chunk {@code index}; re-sending a chunk replaces it.
+   * Returns the backend's tag for the chunk, or {@code null} if it has none.
+   */
+  String writeChunk(
+      StorageSource source, UploadSession session, int index, long length, InputStream data);
+
+  /** Assembles the received chunks, ordered by index, into the final file. */
+  FileItem completeChunkedUpload(
+      StorageSource source, UploadSession session, List<UploadChunk> chunks);
+
+  /** Releases everything held for the session. Must tolerate sessions that were never begun. */
+  void abortChunkedUpload(StorageSource source, UploadSession session);
+}
@@ -0,0 +1,62 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+/** Counts the bytes read through it and optionally rejects streams longer than a limit. */
+public class CountingInputStream extends FilterInputStream {
+  private final long limit;
+  private long count;
+
+  public CountingInputStream(InputStream in) {
+    this(in, -1);
+  }
+
+  public CountingInputStream(InputStream in, long limit) {
+    super(in);
+    this.limit = limit;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b >= 0) {
+      advance(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = super.read(b, off, len);
+    if (n > 0) {
+      advance(n);
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = super.skip(n);
+    advance(skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void advance(long n) {
+    count += n;
+    if (limit >= 0 && count > limit) {
+      throw new MaxUploadSizeExceededException(limit);
+    }
+  }
+}
@@ -0,0 +1,293 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Bounded on-disk cache of remote objects. A Caffeine index (W-TinyLFU admission, size-weighted,
+ * per-entry TTL) tracks which files are present; each entry owns a uniquely named file that is
+ * deleted when the entry is evicted, expires or is replaced. Entries are filled while the first
+ * reader streams the object, so a miss costs no extra round trip.
+ *
+ * <p>The cache keeps its files in {@code entries} and {@code tmp} under {@code
+ * storage.cache.directory}, named by random UUIDs. At startup it deletes only such files, so a
+ * directory shared with anything else keeps that content.
+ */
+@Component
+public class DiskCache {
+  private static final long WEIGHT_UNIT = 1024;
+
+  private final boolean enabled;
+  private final Path directory;
+  private final Path entriesDirectory;
+  private final Path tmpDirectory;
+  private final long maxBytes;
+  private final long maxEntryBytes;
+  private final Cache<String, Entry> index;
+  private final Set<String> filling = ConcurrentHashMap.newKeySet();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public DiskCache(
+      @Value("${storage.cache.enabled:true}") boolean enabled,
+      @Value("${storage.cache.directory:./data/cache}") String directory,
+      @Value("${storage.cache.max-size:2GB}") DataSize maxSize,
+      @Value("${storage.cache.max-entry-size:256MB}") DataSize maxEntrySize,
+      @Value("${storage.cache.ttl:1h}") Duration ttl) {
+    this.enabled = enabled;
+    this.directory = Path.of(directory).toAbsolutePath().normalize();
+    this.entriesDirectory = this.directory.resolve("entries");
+    this.tmpDirectory = this.directory.resolve("tmp");
+    this.maxBytes = maxSize.toBytes();
+    this.maxEntryBytes = Math.min(maxEntrySize.toBytes(), maxBytes);
+    this.index =
+        Caffeine.newBuilder()
+            .maximumWeight(Math.max(1, maxBytes / WEIGHT_UNIT))
+            .weigher((String key, Entry entry) -> entry.weight())
+            .expireAfterWrite(ttl)
+            .scheduler(Scheduler.systemScheduler())
+            .removalListener(
+                (String key, Entry entry, RemovalCause cause) -> {
+                  if (cause.wasEvicted()) {
+                    evictions.increment();
+                  }
+                  if (entry != null) {
+                    deleteQuietly(entry.path());
+                  }
+                })
+            .build();
+    if (enabled) {
+      reset();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Returns the cached file for {@code key}, counting a hit when present. */
+  public Optional<Path> lookup(String key) {
+    Entry entry = index.policy().getIfPresentQuietly(key);
+    if (entry == null || !Files.exists(entry.path())) {
+      return Optional.empty();
+    }
+    hits.increment();
+    return Optional.of(entry.path());
+  }
+
+  /**
+   * Wraps a stream of the object behind {@code key} so that reading it to the end stores a copy.
+   * Objects that are too large, or already being filled by another reader, pass through as is.
+   */
+  public InputStream fill(String key, long size, InputStream source) {
+    misses.increment();
+    if (!enabled || size < 0 || size > maxEntryBytes || !filling.add(key)) {
+      return source;
+    }
+    Path tmp = tmpDirectory.resolve(UUID.randomUUID().toString());
+    OutputStream out;
+    try {
+      out = Files.newOutputStream(tmp);
+    } catch (IOException e) {
+      filling.remove(key);
+      return source;
+    }
+    return new FillingInputStream(source, key, size, tmp, out);
+  }
+
+  public void invalidate(String key) {
+    index.invalidate(key);
+  }
+
+  public Stats stats() {
+    long weight = index.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L);
+    return new Stats(
+        hits.sum(),
+        misses.sum(),
+        evictions.sum(),
+        index.estimatedSize(),
+        weight * WEIGHT_UNIT,
+        maxBytes);
+  }
+
+  /** Clears files left behind by a previous run, since the index starts out empty. */
+  private void reset() {
+    try {
+      for (Path owned : List.of(entriesDirectory, tmpDirectory)) {
+        Files.createDirectories(owned);
+        try (Stream<Path> files = Files.list(owned)) {
+          files
+              .filter(path -> isCacheFile(path) && Files.isRegularFile(path))
+              .forEach(DiskCache::deleteQuietly);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to prepare cache directory " + directory, e);
+    }
+  }
+
+  /** Whether the file is named the way the cache names its own files. */
+  private static boolean isCacheFile(Path path) {
+    String name = path.getFileName().toString();
+    try {
+      return UUID.fromString(name).toString().equals(name);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private void commit(String key, Path tmp, long size) {
+    Path target = entriesDirectory.resolve(UUID.randomUUID().toString());
+    try {
+      Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      deleteQuietly(tmp);
+      return;
+    }
+    index.put(key, new Entry(target, size));
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException ignored) {
+      // best effort; leftovers are cleared on the next start
+    }
+  }
+
+  public record Stats(
+      long hits, long misses, long evictions, long entries, long bytes, long maxBytes) {}
+
+  private record Entry(Path path, long size) {
+    int weight() {
+      return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (size + WEIGHT_UNIT - 1) / WEIGHT_UNIT));
+    }
+  }
+
+  /** Copies everything read into a temporary file and publishes it once the object is complete. */
+  private final class FillingInputStream extends FilterInputStream {
+    private final String key;
+    private final long size;
+    private final Path tmp;
+    private OutputStream out;
+    private long written;
+
+    FillingInputStream(InputStream in, String key, long size, Path tmp, OutputStream out) {
+      super(in);
+      this.key = key;
+      this.size = size;
+      this.tmp = tmp;
+      this.out = out;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        copy(new byte[] {(byte) b}, 0, 1);
+      } else {
+        finish();
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        copy(b, off, n);
+      } else if (n < 0) {
+        finish();
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes never reach the copy, so this entry can no longer be completed.
+      abandon();
+      return super.skip(n);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (out != null && written == size && in.read() < 0) {
+          finish();
+        }
+      } finally {
+        abandon();
+        super.close();
+      }
+    }
+
+    private void copy(byte[] b, int off, int len) {
+      if (out == null) {
+        return;
+      }
+      try {
+        out.write(b, off, len);
+        written += len;
+      } catch (IOException e) {
+        // A full or failing cache disk must not break the response being streamed.
+        abandon();
+      }
+    }
+
+    private void finish() {
+      if (out == null) {
+        return;
+      }
+      try {
+        out.close();
+        out = null;
+        if (written == size) {
+          commit(key, tmp, size);
+        }
+      } catch (IOException e) {
+        // fall through to abandon
+      } finally {
+        abandon();
+      }
+    }
+
+    private void abandon() {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException ignored) {
+          // the temporary file is deleted below
+        }
+        out = null;
+      }
+      deleteQuietly(tmp);
+      filling.remove(key);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+
+/**
+ * A {@link StorageService} whose objects may be available as plain files on local disk, so they can
+ * be served with zero-copy transfers instead of a stream copy loop.
+ */
+public interface LocalFileStorageService extends StorageService {
+  /** The object's file, when it stays at that path for as long as a response may need it. */
+  Optional<Path> localPath(StorageSource source, FileItem file);
+
+  /**
+   * Opens the object's local file, if there is one. An open file stays readable even if the object
+   * is removed meanwhile, so this also covers files, such as cache entries, that are no safe to
+   * hand out by path. The caller closes the channel.
+   */
+  default Optional<FileChannel> openLocal(StorageSource source, FileItem file) throws IOException {
+    Optional<Path> path = localPath(source, file);
+    return path.isPresent() ? Optional.of(FileChannel.open(path.get())) : Optional.empty();
+  }
+}
@@ -1,23 +1,70 @@
 package org.superwindcloud.cloud_disk.storage;
 
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.superwindcloud.cloud_disk.FileItem;
 import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.StorageBlob;
 import org.superwindcloud.cloud_disk.StorageSource;
 import org.superwindcloud.cloud_disk.StorageType;
+import org.superwindcloud.cloud_disk.UploadChunk;
+import org.superwindcloud.cloud_disk.UploadSession;
 
 @Service
-public class LocalStorageService implements StorageService {
+public class LocalStorageService implements LocalFileStorageService, ChunkedUploadStorageService {
+  /** Chunked uploads are assembled here, relative to the source root, until they complete. */
+  private static final String STAGING_DIR = ".uploads";
+
   private final FileItemRepository fileItemRepository;
+  private final BlobRegistry blobRegistry;
+
+  @Value("${storage.local.delete-parallelism:8}")
+  private int deleteParallelism;
+
+  @Value("${storage.local.scan-parallelism:8}")
+  private int scanParallelism;
 
-  public LocalStorageService(FileItemRepository fileItemRepository) {
+  public LocalStorageService(FileItemRepository fileItemRepository, BlobRegistry blobRegistry) {
     this.fileItemRepository = fileItemRepository;
+    this.blobRegistry = blobRegistry;
   }
 
   @Override
@@ -47,6 +94,17 @@ public class LocalStorageService implements StorageService {
       String contentType,
       long size,
       InputStream data) {
+    return save(source, write(source, directoryPath, filename, contentType, size, data));
+  }
+
+  @Override
+  public FileItem write(
+      StorageSource source,
+      String directoryPath,
+      String filename,
+      String contentType,
+      long size,
+      InputStream data) {
     Path root = Path.of(source.getConfig()).toAbsolutePath().normalize();
     Path targetDir =
         (directoryPath == null || directoryPath.isBlank())
@@ -57,30 +115,168 @@ public class LocalStorageService implements StorageService {
     }
     Path targetFile =
         targetDir.resolve(UUID.randomUUID() + "-" + filename); // avoid collisions on same filename
+    MessageDigest digest = BlobRegistry.newDigest();
+    long written;
     try {
       Files.createDirectories(targetDir);
-      Files.copy(data, targetFile, StandardCopyOption.REPLACE_EXISTING);
+      written =
+          Files.copy(
+              new DigestInputStream(data, digest), targetFile, StandardCopyOption.REPLACE_EXISTING);
     } catch (IOException e) {
+      deletePartial(targetFile);
       throw new RuntimeException("Failed to store file", e);
+    } catch (RuntimeException e) {
+      deletePartial(targetFile);
+      throw e;
     }
 
     FileItem item = new FileItem();
     item.setFilename(filename);
     item.setStorageSource(source);
-    item.setStoragePath(root.relativize(targetFile).toString());
     item.setDirectoryPath(directoryPath == null ? "" : directoryPath);
-    item.setSize(size);
+    item.setSize(written);
     item.setContentType(contentType);
-    return fileItemRepository.save(item);
+    return share(source, root, targetFile, BlobRegistry.hex(digest), item);
   }
 
+  /**
+   * Hard-links the object into the target root when both roots share a file system. That costs as
+   * little as a rename, yet leaves the source's object in place for any other file sharing it; a
+   * move drops the old name once the source file is collected.
+   */
   @Override
-  public InputStream load(StorageSource source, FileItem file) {
+  public Optional<FileItem> copyWithin(
+      StorageSource source,
+      FileItem file,
+      StorageSource target,
+      String directoryPath,
+      String filename) {
+    if (!supports(source) || !supports(target)) {
+      return Optional.empty();
+    }
+    Path from = resolveFile(source, file);
+    Path root = Path.of(target.getConfig()).toAbsolutePath().normalize();
+    Path targetDir = directoryPath.isBlank() ? root : root.resolve(directoryPath).normalize();
+    if (!targetDir.startsWith(root)) {
+      throw new IllegalArgumentException("Invalid directory path");
+    }
+    Path targetFile = targetDir.resolve(UUID.randomUUID() + "-" + filename);
+    try {
+      Files.createDirectories(targetDir);
+      Files.createLink(targetFile, from);
+    } catch (NoSuchFileException e) {
+      throw new RuntimeException("Failed to copy file", e);
+    } catch (FileSystemException | UnsupportedOperationException e) {
+      // Different file systems, or links not supported: the caller streams the copy.
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to copy file", e);
+    }
+
+    FileItem item = new FileItem();
+    item.setFilename(filename);
+    item.setStorageSource(target);
+    item.setDirectoryPath(directoryPath);
+    item.setSize(file.getSize());
+    item.setContentType(file.getContentType());
+    if (file.getContentHash() == null) {
+      item.setStoragePath(root.relativize(targetFile).toString());
+      return Optional.of(item);
+    }
+    return Optional.of(share(target, root, targetFile, file.getContentHash(), item));
+  }
+
+  /** Preallocates a staging file of the final size so chunks can be written at their offsets. */
+  @Override
+  public void beginChunkedUpload(StorageSource source, UploadSession session) {
     Path root = Path.of(source.getConfig()).toAbsolutePath().normalize();
-    Path path = root.resolve(file.getStoragePath()).normalize();
-    if (!path.startsWith(root)) {
-      throw new IllegalArgumentException("Invalid file path");
+    Path staging = root.resolve(STAGING_DIR).resolve(session.getToken() + ".part");
+    try {
+      Files.createDirectories(staging.getParent());
+      try (RandomAccessFile file = new RandomAccessFile(staging.toFile(), "rw")) {
+        file.setLength(session.getTotalSize());
+      }
+    } catch (IOException e) {
+      deletePartial(staging);
+      throw new RuntimeException("Failed to prepare upload", e);
+    }
+    session.setStoragePath(root.relativize(staging).toString());
+  }
+
+  @Override
+  public String writeChunk(
+      StorageSource source, UploadSession session, int index, long length, InputStream data) {
+    Path staging = resolvePath(source, session.getStoragePath());
+    long offset = index * session.getChunkSize();
+    ReadableByteChannel in = Channels.newChannel(data);
+    try (FileChannel channel = FileChannel.open(staging, StandardOpenOption.WRITE)) {
+      long written = 0;
+      while (written < length) {
+        long n = channel.transferFrom(in, offset + written, length - written);
+        if (n <= 0) {
+          throw new IllegalArgumentException("Chunk " + index + " is shorter than expected");
+        }
+        written += n;
+      }
+      if (data.read() >= 0) {
+        throw new IllegalArgumentException("Chunk " + index + " is longer than expected");
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to write chunk", e);
+    }
+    return null;
+  }
+
+  @Override
+  public FileItem completeChunkedUpload(
+      StorageSource source, UploadSession session, List<UploadChunk> chunks) {
+    Path root = Path.of(source.getConfig()).toAbsolutePath().normalize();
+    Path staging = resolvePath(source, session.getStoragePath());
+    String directoryPath = session.getDirectoryPath();
+    Path targetDir = directoryPath.isBlank() ? root : root.resolve(directoryPath).normalize();
+    if (!targetDir.startsWith(root)) {
+      throw new IllegalArgumentException("Invalid directory path");
     }
+    Path targetFile = targetDir.resolve(UUID.randomUUID() + "-" + session.getFilename());
+    try {
+      Files.createDirectories(targetDir);
+      try {
+        Files.move(staging, targetFile, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(staging, targetFile);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to complete upload", e);
+    }
+
+    // Chunks arrive out of order, so the hash needs one sequential read of the assembled file.
+    MessageDigest digest = BlobRegistry.newDigest();
+    try (InputStream in = new DigestInputStream(Files.newInputStream(targetFile), digest)) {
+      in.transferTo(OutputStream.nullOutputStream());
+    } catch (IOException e) {
+      deletePartial(targetFile);
+      throw new RuntimeException("Failed to hash uploaded file", e);
+    }
+
+    FileItem item = new FileItem();
+    item.setFilename(session.getFilename());
+    item.setStorageSource(source);
+    item.setDirectoryPath(directoryPath);
+    item.setSize(session.getTotalSize());
+    item.setContentType(session.getContentType());
+    return save(source, share(source, root, targetFile, BlobRegistry.hex(digest), item));
+  }
+
+  @Override
+  public void abortChunkedUpload(StorageSource source, UploadSession session) {
+    if (session.getStoragePath() != null) {
+      deletePartial(resolvePath(source, session.getStoragePath()));
+    }
+  }
+
+  @Override
+  public InputStream load(StorageSource source, FileItem file) {
+    Path path = resolveFile(source, file);
     try {
       return Files.newInputStream(path);
     } catch (IOException e) {
@@ -88,17 +284,247 @@ public class LocalStorageService implements StorageService {
     }
   }
 
+  @Override
+  public InputStream load(StorageSource source, FileItem file, long offset, long length) {
+    Path path = resolveFile(source, file);
+    try {
+      InputStream stream = Channels.newInputStream(FileChannel.open(path).position(offset));
+      return new BoundedInputStream(stream, length);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read file", e);
+    }
+  }
+
+  @Override
+  public Optional<Path> localPath(StorageSource source, FileItem file) {
+    return Optional.of(resolveFile(source, file));
+  }
+
+  /** Deletes the file's object once no other file shares its content. */
   @Override
   public void delete(StorageSource source, FileItem file) {
-    Path root = Path.of(source.getConfig()).toAbsolutePath().normalize();
-    Path path = root.resolve(file.getStoragePath()).normalize();
-    if (!path.startsWith(root)) {
-      throw new IllegalArgumentException("Invalid file path");
+    if (!blobRegistry.release(source, file)) {
+      return;
     }
+    Path path = resolveFile(source, file);
     try {
       Files.deleteIfExists(path);
     } catch (IOException e) {
       throw new RuntimeException("Failed to delete file", e);
     }
   }
+
+  /** Unlinks files in parallel; a single unlink is dominated by file system latency. */
+  @Override
+  public List<String> deleteObjects(StorageSource source, List<String> storagePaths) {
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, deleteParallelism));
+    try {
+      return pool.submit(
+              () -> storagePaths.parallelStream().filter(path -> !unlink(source, path)).toList())
+          .get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while deleting files", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Failed to delete files", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private boolean unlink(StorageSource source, String storagePath) {
+    try {
+      Files.deleteIfExists(resolvePath(source, storagePath));
+      return true;
+    } catch (IOException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Walks the root depth first. Each directory is read whole and sorted, the attributes of its
+   * entries read in parallel; a directory sorts with a trailing separator, so the walk yields paths
+   * in string order. Subtrees that lie wholly before {@code afterPath} are skipped unread.
+   */
+  @Override
+  public Stream<StoredObject> list(StorageSource source, String afterPath) {
+    Path root = Path.of(source.getConfig()).toAbsolutePath().normalize();
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, scanParallelism));
+    try {
+      Walk walk = new Walk(root, afterPath, pool);
+      return StreamSupport.stream(
+              Spliterators.spliteratorUnknownSize(
+                  walk, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT),
+              false)
+          .onClose(pool::shutdown);
+    } catch (RuntimeException e) {
+      pool.shutdown();
+      throw e;
+    }
+  }
+
+  private static final class Walk implements Iterator<StoredObject> {
+    private final Path root;
+    private final String separator;
+    private final String afterPath;
+    private final ForkJoinPool pool;
+    private final Deque<Iterator<Entry>> stack = new ArrayDeque<>();
+    private StoredObject next;
+
+    Walk(Path root, String afterPath, ForkJoinPool pool) {
+      this.root = root;
+      this.separator = root.getFileSystem().getSeparator();
+      this.afterPath = afterPath;
+      this.pool = pool;
+      if (Files.isDirectory(root)) {
+        stack.push(entries(root));
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && !stack.isEmpty()) {
+        Iterator<Entry> entries = stack.peek();
+        if (!entries.hasNext()) {
+          stack.pop();
+          continue;
+        }
+        Entry entry = entries.next();
+        if (entry.directory()) {
+          if (entry.key().equals(STAGING_DIR + separator)) {
+            continue;
+          }
+          if (afterPath == null
+              || entry.key().compareTo(afterPath) > 0
+              || afterPath.startsWith(entry.key())) {
+            stack.push(entries(entry.file()));
+          }
+        } else if (afterPath == null || entry.key().compareTo(afterPath) > 0) {
+          next =
+              new StoredObject(
+                  entry.key(),
+                  entry.key().replace(separator, "/"),
+                  entry.size(),
+                  entry.lastModified());
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public StoredObject next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      StoredObject current = next;
+      next = null;
+      return current;
+    }
+
+    private Iterator<Entry> entries(Path directory) {
+      List<Path> children;
+      try (Stream<Path> listing = Files.list(directory)) {
+        children = listing.toList();
+      } catch (NoSuchFileException e) {
+        // Removed since its parent was read.
+        return Collections.emptyIterator();
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to list directory", e);
+      }
+      List<Entry> entries;
+      try {
+        entries =
+            new ArrayList<>(
+                pool.submit(
+                        () ->
+                            children.parallelStream()
+                                .map(this::entry)
+                                .filter(Objects::nonNull)
+                                .toList())
+                    .get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while listing files", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Failed to list directory", e.getCause());
+      }
+      entries.sort(Comparator.comparing(Entry::key));
+      return entries.iterator();
+    }
+
+    /** Null for entries that vanished or are neither regular files nor directories. */
+    private Entry entry(Path file) {
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(file, BasicFileAttributes.class, NOFOLLOW_LINKS);
+      } catch (NoSuchFileException e) {
+        return null;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      String key = root.relativize(file).toString();
+      if (attributes.isDirectory()) {
+        return new Entry(file, key + separator, true, 0, null);
+      }
+      if (!attributes.isRegularFile()) {
+        return null;
+      }
+      return new Entry(
+          file, key, false, attributes.size(), attributes.lastModifiedTime().toInstant());
+    }
+  }
+
+  /**
+   * @param key path relative to the root, with a trailing separator for directories
+   */
+  private record Entry(Path file, String key, boolean directory, long size, Instant lastModified) {}
+
+  /**
+   * Points {@code item} at the blob for its content. If the source already holds the same content,
+   * the item shares that object and the copy just written is removed.
+   */
+  private FileItem share(
+      StorageSource source, Path root, Path written, String hash, FileItem item) {
+    String storagePath = root.relativize(written).toString();
+    StorageBlob blob = blobRegistry.acquire(source, hash, item.getSize(), storagePath);
+    if (!blob.getStoragePath().equals(storagePath)) {
+      deletePartial(written);
+    }
+    item.setStoragePath(blob.getStoragePath());
+    item.setContentHash(hash);
+    return item;
+  }
+
+  /** Saves a shared item, giving its blob reference back if the row cannot be written. */
+  private FileItem save(StorageSource source, FileItem item) {
+    try {
+      return fileItemRepository.save(item);
+    } catch (RuntimeException e) {
+      if (blobRegistry.release(source, item)) {
+        deletePartial(resolveFile(source, item));
+      }
+      throw e;
+    }
+  }
+
+  private void deletePartial(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException ignored) {
+      // the upload already failed; a leftover partial file is harmless
+    }
+  }
+
+  private Path resolveFile(StorageSource source, FileItem file) {
+    return resolvePath(source, file.getStoragePath());
+  }
+
+  private Path resolvePath(StorageSource source, String storagePath) {
+    Path root = Path.of(source.getConfig()).toAbsolutePath().normalize();
+    Path path = root.resolve(storagePath).normalize();
+    if (!path.startsWith(root)) {
+      throw new IllegalArgumentException("Invalid file path");
+    }
+    return path;
+  }
 }
@@ -0,0 +1,350 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.UploadChunk;
+import org.superwindcloud.cloud_disk.UploadSession;
+
+/**
+ * Meters another {@link StorageService} on behalf of one source, tagging everything with the
+ * source's type and id:
+ *
+ * <ul>
+ *   <li>{@code storage.operations}, a timer per operation and outcome; a load is timed until its
+ *       stream is open, not until it is read;
+ *   <li>{@code storage.bytes}, the bytes written to and read from the backend;
+ *   <li>{@code storage.transfers}, the writes in progress and read streams still open.
+ * </ul>
+ *
+ * Read streams count bytes in a plain field and publish the total once, when they are closed, so
+ * the copy loop pays for no meter updates.
+ */
+public class MeteredStorageService
+    implements LocalFileStorageService, LinkableStorageService, ChunkedUploadStorageService {
+  private final StorageService delegate;
+  private final MeterRegistry registry;
+  private final Tags tags;
+  private final Map<String, Timer> succeeded = new ConcurrentHashMap<>();
+  private final Map<String, Timer> failed = new ConcurrentHashMap<>();
+  private final Counter bytesRead;
+  private final Counter bytesWritten;
+  private final LongTaskTimer reads;
+  private final LongTaskTimer writes;
+
+  public MeteredStorageService(
+      StorageService delegate, StorageSource source, MeterRegistry registry) {
+    this.delegate = delegate;
+    this.registry = registry;
+    this.tags = tags(source);
+    this.bytesRead = bytes("read");
+    this.bytesWritten = bytes("write");
+    this.reads = transfers("read");
+    this.writes = transfers("write");
+  }
+
+  /** The {@code type} and {@code source} tags every storage and transfer meter carries. */
+  public static Tags tags(StorageSource source) {
+    return Tags.of("type", source.getType().name(), "source", String.valueOf(source.getId()));
+  }
+
+  @Override
+  public boolean supports(StorageSource source) {
+    return delegate.supports(source);
+  }
+
+  @Override
+  public void evict(Long sourceId) {
+    delegate.evict(sourceId);
+  }
+
+  @Override
+  public void ensureDirectory(StorageSource source, String directoryPath) {
+    time(
+        "ensureDirectory",
+        () -> {
+          delegate.ensureDirectory(source, directoryPath);
+          return null;
+        });
+  }
+
+  @Override
+  public FileItem store(
+      StorageSource source,
+      String directoryPath,
+      String filename,
+      String contentType,
+      long size,
+      InputStream data) {
+    return written(
+        "store", () -> delegate.store(source, directoryPath, filename, contentType, size, data));
+  }
+
+  @Override
+  public FileItem write(
+      StorageSource source,
+      String directoryPath,
+      String filename,
+      String contentType,
+      long size,
+      InputStream data) {
+    return written(
+        "write", () -> delegate.write(source, directoryPath, filename, contentType, size, data));
+  }
+
+  @Override
+  public Optional<FileItem> copyWithin(
+      StorageSource source,
+      FileItem file,
+      StorageSource target,
+      String directoryPath,
+      String filename) {
+    return time("copy", () -> delegate.copyWithin(source, file, target, directoryPath, filename));
+  }
+
+  @Override
+  public InputStream load(StorageSource source, FileItem file) {
+    return opened(time("load", () -> delegate.load(source, file)));
+  }
+
+  @Override
+  public InputStream load(StorageSource source, FileItem file, long offset, long length) {
+    return opened(time("load", () -> delegate.load(source, file, offset, length)));
+  }
+
+  @Override
+  public Optional<Path> localPath(StorageSource source, FileItem file) {
+    if (delegate instanceof LocalFileStorageService local) {
+      return local.localPath(source, file);
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public Optional<FileChannel> openLocal(StorageSource source, FileItem file) throws IOException {
+    if (delegate instanceof LocalFileStorageService local) {
+      return local.openLocal(source, file);
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public void delete(StorageSource source, FileItem file) {
+    time(
+        "delete",
+        () -> {
+          delegate.delete(source, file);
+          return null;
+        });
+  }
+
+  @Override
+  public List<String> deleteObjects(StorageSource source, List<String> storagePaths) {
+    return time("deleteObjects", () -> delegate.deleteObjects(source, storagePaths));
+  }
+
+  @Override
+  public Stream<StoredObject> list(StorageSource source, String afterPath) {
+    return delegate.list(source, afterPath);
+  }
+
+  @Override
+  public Optional<String> generateDirectDownloadUrl(
+      StorageSource source, FileItem file, Duration ttl) throws Exception {
+    if (!(delegate instanceof LinkableStorageService linkable)) {
+      return Optional.empty();
+    }
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      Optional<String> url = linkable.generateDirectDownloadUrl(source, file, ttl);
+      success = true;
+      return url;
+    } finally {
+      record("presign", success, start);
+    }
+  }
+
+  @Override
+  public long minimumChunkSize() {
+    return chunked().minimumChunkSize();
+  }
+
+  @Override
+  public void beginChunkedUpload(StorageSource source, UploadSession session) {
+    time(
+        "beginChunkedUpload",
+        () -> {
+          chunked().beginChunkedUpload(source, session);
+          return null;
+        });
+  }
+
+  @Override
+  public String writeChunk(
+      StorageSource source, UploadSession session, int index, long length, InputStream data) {
+    LongTaskTimer.Sample transfer = writes.start();
+    try {
+      String tag =
+          time("writeChunk", () -> chunked().writeChunk(source, session, index, length, data));
+      bytesWritten.increment(length);
+      return tag;
+    } finally {
+      transfer.stop();
+    }
+  }
+
+  @Override
+  public FileItem completeChunkedUpload(
+      StorageSource source, UploadSession session, List<UploadChunk> chunks) {
+    return time(
+        "completeChunkedUpload", () -> chunked().completeChunkedUpload(source, session, chunks));
+  }
+
+  @Override
+  public void abortChunkedUpload(StorageSource source, UploadSession session) {
+    time(
+        "abortChunkedUpload",
+        () -> {
+          chunked().abortChunkedUpload(source, session);
+          return null;
+        });
+  }
+
+  private ChunkedUploadStorageService chunked() {
+    if (delegate instanceof ChunkedUploadStorageService chunked) {
+      return chunked;
+    }
+    throw new IllegalArgumentException("This storage source does not support resumable uploads");
+  }
+
+  private FileItem written(String operation, Supplier<FileItem> call) {
+    LongTaskTimer.Sample transfer = writes.start();
+    try {
+      FileItem item = time(operation, call);
+      bytesWritten.increment(item.getSize());
+      return item;
+    } finally {
+      transfer.stop();
+    }
+  }
+
+  private InputStream opened(InputStream stream) {
+    return new MeteredInputStream(stream, bytesRead, reads.start());
+  }
+
+  private <T> T time(String operation, Supplier<T> call) {
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      T result = call.get();
+      success = true;
+      return result;
+    } finally {
+      record(operation, success, start);
+    }
+  }
+
+  private void record(String operation, boolean success, long start) {
+    Timer timer =
+        (success ? succeeded : failed)
+            .computeIfAbsent(
+                operation,
+                op ->
+                    Timer.builder("storage.operations")
+                        .description("Calls to the storage backend")
+                        .tags(tags)
+                        .tag("operation", op)
+                        .tag("outcome", success ? "success" : "error")
+                        .register(registry));
+    timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  private Counter bytes(String direction) {
+    return Counter.builder("storage.bytes")
+        .description("Bytes moved to or from the storage backend")
+        .baseUnit("bytes")
+        .tags(tags)
+        .tag("direction", direction)
+        .register(registry);
+  }
+
+  private LongTaskTimer transfers(String direction) {
+    return LongTaskTimer.builder("storage.transfers")
+        .description("Writes in progress and read streams open on the storage backend")
+        .tags(tags)
+        .tag("direction", direction)
+        .register(registry);
+  }
+
+  /** Counts what is read through it and publishes the count, and the end of the read, on close. */
+  private static class MeteredInputStream extends FilterInputStream {
+    private final Counter bytes;
+    private final LongTaskTimer.Sample transfer;
+    private long count;
+    private boolean closed;
+
+    MeteredInputStream(InputStream in, Counter bytes, LongTaskTimer.Sample transfer) {
+      super(in);
+      this.bytes = bytes;
+      this.transfer = transfer;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    /** Hands the copy to the wrapped stream, which may do it without a buffer loop. */
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+      long n = in.transferTo(out);
+      count += n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!closed) {
+          closed = true;
+          bytes.increment(count);
+          transfer.stop();
+        }
+      }
+    }
+  }
+}
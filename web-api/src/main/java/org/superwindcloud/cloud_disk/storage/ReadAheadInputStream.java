@@ -0,0 +1,94 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads its source on another thread, up to {@code capacity} bytes ahead of the consumer, so that a
+ * slow source and a slow sink overlap instead of taking turns. Closing the stream stops the reader
+ * and closes the source.
+ */
+public class ReadAheadInputStream extends InputStream {
+  private static final int BLOCK_SIZE = 64 * 1024;
+  private static final byte[] END = new byte[0];
+
+  private final BlockingQueue<byte[]> blocks;
+  private final Future<?> reader;
+  private volatile Exception failure;
+  private byte[] current;
+  private int pos;
+
+  public ReadAheadInputStream(InputStream in, long capacity, ExecutorService executor) {
+    this.blocks = new ArrayBlockingQueue<>((int) Math.max(1, capacity / BLOCK_SIZE));
+    this.reader = executor.submit(() -> fill(in));
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] one = new byte[1];
+    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (current == null || (pos == current.length && current != END)) {
+      current = take();
+      pos = 0;
+    }
+    if (current == END) {
+      if (failure != null) {
+        throw failure instanceof IOException io ? io : new IOException(failure);
+      }
+      return -1;
+    }
+    int n = Math.min(len, current.length - pos);
+    System.arraycopy(current, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public void close() {
+    reader.cancel(true);
+    blocks.clear();
+  }
+
+  private byte[] take() throws InterruptedIOException {
+    try {
+      return blocks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading ahead");
+    }
+  }
+
+  private void fill(InputStream in) {
+    try (in) {
+      byte[] block;
+      do {
+        block = in.readNBytes(BLOCK_SIZE);
+        if (block.length > 0) {
+          blocks.put(block);
+        }
+      } while (block.length == BLOCK_SIZE);
+    } catch (InterruptedException e) {
+      // Closed by the consumer.
+      return;
+    } catch (Exception e) {
+      failure = e;
+    }
+    try {
+      blocks.put(END);
+    } catch (InterruptedException e) {
+      // Closed by the consumer.
+    }
+  }
+}
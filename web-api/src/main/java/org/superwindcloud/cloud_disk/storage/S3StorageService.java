@@ -1,35 +1,79 @@
 package org.superwindcloud.cloud_disk.storage;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.AbortMultipartUploadResponse;
+import io.minio.CopyObjectArgs;
+import io.minio.CopySource;
+import io.minio.CreateMultipartUploadResponse;
 import io.minio.GetObjectArgs;
 import io.minio.GetPresignedObjectUrlArgs;
+import io.minio.ListObjectsArgs;
 import io.minio.MakeBucketArgs;
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
+import io.minio.ObjectWriteResponse;
 import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.UploadPartResponse;
 import io.minio.errors.ErrorResponseException;
 import io.minio.http.Method;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import io.minio.messages.Part;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.springframework.stereotype.Service;
 import org.superwindcloud.cloud_disk.FileItem;
 import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.StorageBlob;
 import org.superwindcloud.cloud_disk.StorageSource;
 import org.superwindcloud.cloud_disk.StorageType;
+import org.superwindcloud.cloud_disk.UploadChunk;
+import org.superwindcloud.cloud_disk.UploadSession;
 
 @Service
-public class S3StorageService implements LinkableStorageService {
+public class S3StorageService implements LinkableStorageService, ChunkedUploadStorageService {
+  /** Part size for uploads of unknown length, which MinIO sends as a multipart upload. */
+  private static final long UNKNOWN_SIZE_PART_SIZE = 10L * 1024 * 1024;
+
+  /** S3 rejects multipart parts smaller than this, except for the last one. */
+  private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+  /** S3 accepts at most this many keys per DeleteObjects request. */
+  private static final int MAX_KEYS_PER_DELETE = 1000;
+
+  /** S3 returns at most this many keys per ListObjects request. */
+  private static final int LIST_PAGE_SIZE = 1000;
+
   private final FileItemRepository fileItemRepository;
+  private final BlobRegistry blobRegistry;
   private final ObjectMapper objectMapper;
-  private final Map<Long, MinioClient> clients = new ConcurrentHashMap<>();
+  private final Map<Long, S3Runtime> runtimes = new ConcurrentHashMap<>();
 
-  public S3StorageService(FileItemRepository fileItemRepository, ObjectMapper objectMapper) {
+  public S3StorageService(
+      FileItemRepository fileItemRepository, BlobRegistry blobRegistry, ObjectMapper objectMapper) {
     this.fileItemRepository = fileItemRepository;
+    this.blobRegistry = blobRegistry;
     this.objectMapper = objectMapper.copy();
   }
 
@@ -40,17 +84,18 @@ public class S3StorageService implements LinkableStorageService {
 
   @Override
   public void ensureDirectory(StorageSource source, String directoryPath) {
-    S3Config config = parseConfig(source);
+    S3Runtime runtime = runtime(source);
     if (directoryPath == null || directoryPath.isBlank()) {
-      ensureBucket(config, source.getId());
+      ensureBucket(runtime);
       return;
     }
-    String key = buildKey(config, normalizePath(directoryPath) + "/");
+    String key = buildKey(runtime.config(), normalizePath(directoryPath) + "/");
     try {
-      ensureBucket(config, source.getId());
-      getClient(config, source.getId())
+      ensureBucket(runtime);
+      runtime
+          .client()
           .putObject(
-              PutObjectArgs.builder().bucket(config.bucket()).object(key).stream(
+              PutObjectArgs.builder().bucket(runtime.bucket()).object(key).stream(
                       new ByteArrayInputStream(new byte[0]), 0, -1)
                   .contentType("application/x-directory")
                   .build());
@@ -59,6 +104,10 @@ public class S3StorageService implements LinkableStorageService {
     }
   }
 
+  /**
+   * Objects get a unique key so that an upload never overwrites content another file shares. The
+   * hash is computed while streaming; a duplicate's freshly written object is removed afterwards.
+   */
   @Override
   public FileItem store(
       StorageSource source,
@@ -67,41 +116,134 @@ public class S3StorageService implements LinkableStorageService {
       String contentType,
       long size,
       InputStream data) {
-    S3Config config = parseConfig(source);
+    FileItem item = write(source, directoryPath, filename, contentType, size, data);
+    try {
+      return fileItemRepository.save(item);
+    } catch (RuntimeException e) {
+      if (blobRegistry.release(source, item)) {
+        removeObject(runtime(source), item.getStoragePath());
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public FileItem write(
+      StorageSource source,
+      String directoryPath,
+      String filename,
+      String contentType,
+      long size,
+      InputStream data) {
+    S3Runtime runtime = runtime(source);
     String normalizedDir = normalizePath(directoryPath);
-    String key = buildKey(config, normalizedDir, filename);
+    String key = buildKey(runtime.config(), normalizedDir, UUID.randomUUID() + "-" + filename);
+    MessageDigest digest = BlobRegistry.newDigest();
+    CountingInputStream counted = new CountingInputStream(new DigestInputStream(data, digest));
     try {
-      ensureBucket(config, source.getId());
-      getClient(config, source.getId())
+      ensureBucket(runtime);
+      runtime
+          .client()
           .putObject(
               PutObjectArgs.builder()
-                  .bucket(config.bucket())
+                  .bucket(runtime.bucket())
                   .object(key)
                   .contentType(contentType)
-                  .stream(data, size, -1)
+                  .stream(counted, size, size < 0 ? UNKNOWN_SIZE_PART_SIZE : -1)
                   .build());
     } catch (Exception e) {
+      if (e instanceof ErrorResponseException error
+          && "NoSuchBucket".equals(error.errorResponse().code())) {
+        // Removed behind our back; check again on the next write.
+        runtime.bucketReady = false;
+      }
       throw new RuntimeException("Failed to upload object to S3", e);
     }
 
+    String hash = BlobRegistry.hex(digest);
+    StorageBlob blob = blobRegistry.acquire(source, hash, counted.getCount(), key);
+    if (!blob.getStoragePath().equals(key)) {
+      removeObject(runtime, key);
+    }
+
     FileItem item = new FileItem();
     item.setFilename(filename);
     item.setStorageSource(source);
-    item.setStoragePath(key);
+    item.setStoragePath(blob.getStoragePath());
     item.setDirectoryPath(normalizedDir);
-    item.setSize(size);
+    item.setSize(counted.getCount());
     item.setContentType(contentType);
-    return fileItemRepository.save(item);
+    item.setContentHash(hash);
+    return item;
+  }
+
+  /**
+   * Copies server-side with {@code CopyObject} when both sources live on the same endpoint under
+   * the same credentials, which covers copies within a bucket and between buckets of one account.
+   * MinIO switches to a multipart copy for objects too large for a single request.
+   */
+  @Override
+  public Optional<FileItem> copyWithin(
+      StorageSource source,
+      FileItem file,
+      StorageSource target,
+      String directoryPath,
+      String filename) {
+    if (!supports(source) || !supports(target)) {
+      return Optional.empty();
+    }
+    S3Runtime from = runtime(source);
+    S3Runtime to = runtime(target);
+    if (!from.config().endpoint().equals(to.config().endpoint())
+        || !from.config().accessKey().equals(to.config().accessKey())) {
+      return Optional.empty();
+    }
+    String normalizedDir = normalizePath(directoryPath);
+    String key = buildKey(to.config(), normalizedDir, UUID.randomUUID() + "-" + filename);
+    try {
+      ensureBucket(to);
+      to.client()
+          .copyObject(
+              CopyObjectArgs.builder()
+                  .bucket(to.bucket())
+                  .object(key)
+                  .source(
+                      CopySource.builder()
+                          .bucket(from.bucket())
+                          .object(file.getStoragePath())
+                          .build())
+                  .build());
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to copy object in S3", e);
+    }
+
+    FileItem item = new FileItem();
+    item.setFilename(filename);
+    item.setStorageSource(target);
+    item.setDirectoryPath(normalizedDir);
+    item.setSize(file.getSize());
+    item.setContentType(file.getContentType());
+    item.setContentHash(file.getContentHash());
+    item.setStoragePath(key);
+    if (file.getContentHash() != null) {
+      StorageBlob blob = blobRegistry.acquire(target, file.getContentHash(), file.getSize(), key);
+      if (!blob.getStoragePath().equals(key)) {
+        removeObject(to, key);
+        item.setStoragePath(blob.getStoragePath());
+      }
+    }
+    return Optional.of(item);
   }
 
   @Override
   public InputStream load(StorageSource source, FileItem file) {
-    S3Config config = parseConfig(source);
+    S3Runtime runtime = runtime(source);
     try {
-      return getClient(config, source.getId())
+      return runtime
+          .client()
           .getObject(
               GetObjectArgs.builder()
-                  .bucket(config.bucket())
+                  .bucket(runtime.bucket())
                   .object(file.getStoragePath())
                   .build());
     } catch (Exception e) {
@@ -109,52 +251,244 @@ public class S3StorageService implements LinkableStorageService {
     }
   }
 
+  @Override
+  public InputStream load(StorageSource source, FileItem file, long offset, long length) {
+    S3Runtime runtime = runtime(source);
+    try {
+      return runtime
+          .client()
+          .getObject(
+              GetObjectArgs.builder()
+                  .bucket(runtime.bucket())
+                  .object(file.getStoragePath())
+                  .offset(offset)
+                  .length(length)
+                  .build());
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to fetch object range from S3", e);
+    }
+  }
+
+  @Override
+  public long minimumChunkSize() {
+    return MIN_PART_SIZE;
+  }
+
+  /**
+   * Chunks map one-to-one onto the parts of an S3 multipart upload; chunk {@code i} is part i+1.
+   * The object gets a unique key, as in {@link #write}, so completing never replaces another file.
+   */
+  @Override
+  public void beginChunkedUpload(StorageSource source, UploadSession session) {
+    S3Runtime runtime = runtime(source);
+    String key =
+        buildKey(
+            runtime.config(),
+            normalizePath(session.getDirectoryPath()),
+            UUID.randomUUID() + "-" + session.getFilename());
+    Multimap<String, String> headers = HashMultimap.create();
+    if (session.getContentType() != null) {
+      headers.put("Content-Type", session.getContentType());
+    }
+    try {
+      ensureBucket(runtime);
+      String uploadId =
+          runtime.multipart().create(runtime.bucket(), runtime.region(), key, headers);
+      session.setStoragePath(key);
+      session.setBackendUploadId(uploadId);
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to start multipart upload in S3", e);
+    }
+  }
+
+  /**
+   * Sends one part. MinIO signs part payloads from a byte array, so a chunk is held in memory while
+   * it is uploaded; the session's chunk size bounds that buffer.
+   */
+  @Override
+  public String writeChunk(
+      StorageSource source, UploadSession session, int index, long length, InputStream data) {
+    S3Runtime runtime = runtime(source);
+    byte[] part;
+    try {
+      part = data.readNBytes(Math.toIntExact(length));
+      if (part.length < length) {
+        throw new IllegalArgumentException("Chunk " + index + " is shorter than expected");
+      }
+      if (data.read() >= 0) {
+        throw new IllegalArgumentException("Chunk " + index + " is longer than expected");
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read chunk", e);
+    }
+    try {
+      return runtime
+          .multipart()
+          .upload(
+              runtime.bucket(),
+              runtime.region(),
+              session.getStoragePath(),
+              part,
+              session.getBackendUploadId(),
+              index + 1);
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to upload part to S3", e);
+    }
+  }
+
+  /**
+   * Assembles the parts, then reads the object back once to hash it: parts arrive in any order, and
+   * SHA-256 cannot be combined from per-part digests. A duplicate's assembled object is removed and
+   * the file shares the existing blob, as in {@link #write}.
+   */
+  @Override
+  public FileItem completeChunkedUpload(
+      StorageSource source, UploadSession session, List<UploadChunk> chunks) {
+    S3Runtime runtime = runtime(source);
+    Part[] parts =
+        chunks.stream()
+            .map(chunk -> new Part(chunk.getChunkIndex() + 1, chunk.getEtag()))
+            .toArray(Part[]::new);
+    try {
+      runtime
+          .multipart()
+          .complete(
+              runtime.bucket(),
+              runtime.region(),
+              session.getStoragePath(),
+              session.getBackendUploadId(),
+              parts);
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to complete multipart upload in S3", e);
+    }
+
+    String key = session.getStoragePath();
+    MessageDigest digest = BlobRegistry.newDigest();
+    long size;
+    try (InputStream in =
+        new DigestInputStream(
+            runtime
+                .client()
+                .getObject(GetObjectArgs.builder().bucket(runtime.bucket()).object(key).build()),
+            digest)) {
+      size = in.transferTo(OutputStream.nullOutputStream());
+    } catch (Exception e) {
+      removeObject(runtime, key);
+      throw new RuntimeException("Failed to hash uploaded object in S3", e);
+    }
+    if (size != session.getTotalSize()) {
+      removeObject(runtime, key);
+      throw new IllegalStateException(
+          "Assembled object has " + size + " bytes instead of " + session.getTotalSize());
+    }
+
+    String hash = BlobRegistry.hex(digest);
+    StorageBlob blob = blobRegistry.acquire(source, hash, size, key);
+    if (!blob.getStoragePath().equals(key)) {
+      removeObject(runtime, key);
+    }
+
+    FileItem item = new FileItem();
+    item.setFilename(session.getFilename());
+    item.setStorageSource(source);
+    item.setStoragePath(blob.getStoragePath());
+    item.setDirectoryPath(normalizePath(session.getDirectoryPath()));
+    item.setSize(size);
+    item.setContentType(session.getContentType());
+    item.setContentHash(hash);
+    try {
+      return fileItemRepository.save(item);
+    } catch (RuntimeException e) {
+      if (blobRegistry.release(source, item)) {
+        removeObject(runtime, item.getStoragePath());
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public void abortChunkedUpload(StorageSource source, UploadSession session) {
+    if (session.getBackendUploadId() == null) {
+      return;
+    }
+    S3Runtime runtime = runtime(source);
+    try {
+      runtime
+          .multipart()
+          .abort(
+              runtime.bucket(),
+              runtime.region(),
+              session.getStoragePath(),
+              session.getBackendUploadId());
+    } catch (ErrorResponseException e) {
+      if (!"NoSuchUpload".equals(e.errorResponse().code())) {
+        throw new RuntimeException("Failed to abort multipart upload in S3", e);
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to abort multipart upload in S3", e);
+    }
+  }
+
   @Override
   public Optional<String> generateDirectDownloadUrl(
       StorageSource source, FileItem file, Duration ttl) throws Exception {
-    S3Config config = parseConfig(source);
+    S3Runtime runtime = runtime(source);
     int expirySeconds = (int) (ttl != null ? ttl.getSeconds() : Duration.ofHours(1).getSeconds());
     expirySeconds = Math.min(Math.max(expirySeconds, 60), 7 * 24 * 3600); // S3 presign bounds
     String url =
-        getClient(config, source.getId())
+        runtime
+            .client()
             .getPresignedObjectUrl(
                 GetPresignedObjectUrlArgs.builder()
                     .method(Method.GET)
-                    .bucket(config.bucket())
+                    .bucket(runtime.bucket())
                     .object(file.getStoragePath())
                     .expiry(expirySeconds)
                     .build());
     return Optional.ofNullable(url);
   }
 
-  private MinioClient getClient(S3Config config, Long sourceId) {
-    return clients.computeIfAbsent(
-        sourceId,
-        id -> {
-          MinioClient.Builder builder =
-              MinioClient.builder()
-                  .endpoint(config.endpoint())
-                  .credentials(config.accessKey(), config.secretKey());
-          if (config.region() != null && !config.region().isBlank()) {
-            builder.region(config.region());
-          }
-          return builder.build();
-        });
+  /**
+   * Parsed config, clients and bucket state of a source, built once per config and kept until the
+   * registry reports that the source changed. The entry is checked against the caller's config, so
+   * a caller holding an outdated copy of the source never leaves its credentials behind for others.
+   */
+  private S3Runtime runtime(StorageSource source) {
+    S3Runtime runtime = runtimes.get(source.getId());
+    if (runtime != null && runtime.rawConfig().equals(source.getConfig())) {
+      return runtime;
+    }
+    return runtimes.compute(
+        source.getId(),
+        (id, current) ->
+            current != null && current.rawConfig().equals(source.getConfig())
+                ? current
+                : new S3Runtime(source.getConfig(), parseConfig(source)));
+  }
+
+  @Override
+  public void evict(Long sourceId) {
+    runtimes.remove(sourceId);
   }
 
-  private void ensureBucket(S3Config config, Long sourceId) {
+  /** Checks the bucket once per runtime rather than before every write. */
+  private void ensureBucket(S3Runtime runtime) {
+    if (runtime.bucketReady) {
+      return;
+    }
     try {
-      MinioClient client = getClient(config, sourceId);
+      MinioClient client = runtime.client();
       boolean exists =
-          client.bucketExists(io.minio.BucketExistsArgs.builder().bucket(config.bucket()).build());
+          client.bucketExists(io.minio.BucketExistsArgs.builder().bucket(runtime.bucket()).build());
       if (!exists) {
-        client.makeBucket(MakeBucketArgs.builder().bucket(config.bucket()).build());
+        client.makeBucket(MakeBucketArgs.builder().bucket(runtime.bucket()).build());
       }
     } catch (ErrorResponseException e) {
       // If access is denied or bucket is owned by you, skip creation attempt
     } catch (Exception e) {
       throw new RuntimeException("Failed to ensure bucket exists", e);
     }
+    runtime.bucketReady = true;
   }
 
   private S3Config parseConfig(StorageSource source) {
@@ -173,7 +507,16 @@ public class S3StorageService implements LinkableStorageService {
   }
 
   private String buildKey(S3Config config, String normalizedDir, String filename) {
-    String base = config.basePath() == null ? "" : normalizePath(config.basePath());
+    return objectKey(config.basePath(), normalizedDir, filename);
+  }
+
+  private String buildKey(S3Config config, String key) {
+    return objectKey(config.basePath(), key);
+  }
+
+  /** Key of {@code filename} in {@code normalizedDir} under the source's {@code basePath}. */
+  static String objectKey(String basePath, String normalizedDir, String filename) {
+    String base = basePath == null ? "" : normalizePath(basePath);
     String combined = joinPaths(base, normalizedDir);
     String key = joinPaths(combined, filename);
     if (key.startsWith("/")) {
@@ -182,8 +525,8 @@ public class S3StorageService implements LinkableStorageService {
     return key;
   }
 
-  private String buildKey(S3Config config, String key) {
-    String base = config.basePath() == null ? "" : normalizePath(config.basePath());
+  static String objectKey(String basePath, String key) {
+    String base = basePath == null ? "" : normalizePath(basePath);
     String combined = joinPaths(base, key);
     if (combined.startsWith("/")) {
       combined = combined.substring(1);
@@ -191,7 +534,7 @@ public class S3StorageService implements LinkableStorageService {
     return combined;
   }
 
-  private String joinPaths(String left, String right) {
+  private static String joinPaths(String left, String right) {
     if (left == null || left.isBlank()) {
       return normalizePath(right);
     }
@@ -201,7 +544,7 @@ public class S3StorageService implements LinkableStorageService {
     return normalizePath(left) + "/" + normalizePath(right);
   }
 
-  private String normalizePath(String path) {
+  static String normalizePath(String path) {
     if (path == null) {
       return "";
     }
@@ -218,16 +561,87 @@ public class S3StorageService implements LinkableStorageService {
     return cleaned;
   }
 
+  /** Deletes the file's object once no other file shares its content. */
   @Override
   public void delete(StorageSource source, FileItem file) {
-    S3Config config = parseConfig(source);
+    if (!blobRegistry.release(source, file)) {
+      return;
+    }
+    removeObject(runtime(source), file.getStoragePath());
+  }
+
+  /** Removes objects with one DeleteObjects request per {@value #MAX_KEYS_PER_DELETE} keys. */
+  @Override
+  public List<String> deleteObjects(StorageSource source, List<String> storagePaths) {
+    S3Runtime runtime = runtime(source);
+    MinioClient client = runtime.client();
+    List<String> failed = new ArrayList<>();
+    for (int from = 0; from < storagePaths.size(); from += MAX_KEYS_PER_DELETE) {
+      List<DeleteObject> objects =
+          storagePaths
+              .subList(from, Math.min(from + MAX_KEYS_PER_DELETE, storagePaths.size()))
+              .stream()
+              .map(DeleteObject::new)
+              .toList();
+      // The request is sent lazily, while the per-key results are iterated.
+      Iterable<Result<DeleteError>> results =
+          client.removeObjects(
+              RemoveObjectsArgs.builder().bucket(runtime.bucket()).objects(objects).build());
+      try {
+        for (Result<DeleteError> result : results) {
+          failed.add(result.get().objectName());
+        }
+      } catch (Exception e) {
+        throw new RuntimeException("Failed to delete objects from S3", e);
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Lists the keys below the base path, {@value #LIST_PAGE_SIZE} per request. S3 returns keys in
+   * binary order and resumes after any key, present or not, so {@code afterPath} is passed as is.
+   */
+  @Override
+  public Stream<StoredObject> list(StorageSource source, String afterPath) {
+    S3Runtime runtime = runtime(source);
+    String base = buildKey(runtime.config(), "");
+    String prefix = base.isEmpty() ? "" : base + "/";
+    ListObjectsArgs.Builder args =
+        ListObjectsArgs.builder()
+            .bucket(runtime.bucket())
+            .prefix(prefix)
+            .recursive(true)
+            .maxKeys(LIST_PAGE_SIZE);
+    if (afterPath != null) {
+      args.startAfter(afterPath);
+    }
+    // Each page is requested once the previous one has been consumed.
+    Iterable<Result<Item>> results = runtime.client().listObjects(args.build());
+    return StreamSupport.stream(results.spliterator(), false)
+        .map(
+            result -> {
+              try {
+                return result.get();
+              } catch (Exception e) {
+                throw new RuntimeException("Failed to list objects in S3", e);
+              }
+            })
+        .filter(item -> !item.isDir() && !item.objectName().endsWith("/"))
+        .map(
+            item ->
+                new StoredObject(
+                    item.objectName(),
+                    item.objectName().substring(prefix.length()),
+                    item.size(),
+                    item.lastModified() == null ? null : item.lastModified().toInstant()));
+  }
+
+  private void removeObject(S3Runtime runtime, String key) {
     try {
-      getClient(config, source.getId())
-          .removeObject(
-              RemoveObjectArgs.builder()
-                  .bucket(config.bucket())
-                  .object(file.getStoragePath())
-                  .build());
+      runtime
+          .client()
+          .removeObject(RemoveObjectArgs.builder().bucket(runtime.bucket()).object(key).build());
     } catch (Exception e) {
       throw new RuntimeException("Failed to delete object from S3", e);
     }
@@ -240,4 +654,124 @@ public class S3StorageService implements LinkableStorageService {
       String secretKey,
       String region,
       String basePath) {}
+
+  private static final class S3Runtime {
+    private final String rawConfig;
+    private final S3Config config;
+    private final MinioClient client;
+    private final MultipartClient multipart;
+    private volatile boolean bucketReady;
+
+    S3Runtime(String rawConfig, S3Config config) {
+      this.rawConfig = rawConfig;
+      this.config = config;
+      MinioClient.Builder builder =
+          MinioClient.builder()
+              .endpoint(config.endpoint())
+              .credentials(config.accessKey(), config.secretKey());
+      MinioAsyncClient.Builder asyncBuilder =
+          MinioAsyncClient.builder()
+              .endpoint(config.endpoint())
+              .credentials(config.accessKey(), config.secretKey());
+      if (region() != null) {
+        builder.region(config.region());
+        asyncBuilder.region(config.region());
+      }
+      this.client = builder.build();
+      this.multipart = new MultipartClient(asyncBuilder.build());
+    }
+
+    /** The source's config as stored, which this runtime was built from. */
+    String rawConfig() {
+      return rawConfig;
+    }
+
+    S3Config config() {
+      return config;
+    }
+
+    MinioClient client() {
+      return client;
+    }
+
+    MultipartClient multipart() {
+      return multipart;
+    }
+
+    String bucket() {
+      return config.bucket();
+    }
+
+    String region() {
+      return config.region() == null || config.region().isBlank() ? null : config.region();
+    }
+  }
+
+  /**
+   * Exposes the low-level multipart calls that MinIO keeps protected. Only their asynchronous forms
+   * are supported API; each call here waits for its result on the calling thread.
+   */
+  private static final class MultipartClient extends MinioAsyncClient {
+    MultipartClient(MinioAsyncClient client) {
+      super(client);
+    }
+
+    String create(String bucket, String region, String object, Multimap<String, String> headers)
+        throws Exception {
+      CreateMultipartUploadResponse response =
+          await(createMultipartUploadAsync(bucket, region, object, headers, HashMultimap.create()));
+      return response.result().uploadId();
+    }
+
+    String upload(
+        String bucket, String region, String object, byte[] data, String uploadId, int partNumber)
+        throws Exception {
+      UploadPartResponse response =
+          await(
+              uploadPartAsync(
+                  bucket,
+                  region,
+                  object,
+                  data,
+                  data.length,
+                  uploadId,
+                  partNumber,
+                  HashMultimap.create(),
+                  HashMultimap.create()));
+      return response.etag();
+    }
+
+    ObjectWriteResponse complete(
+        String bucket, String region, String object, String uploadId, Part[] parts)
+        throws Exception {
+      return await(
+          completeMultipartUploadAsync(
+              bucket,
+              region,
+              object,
+              uploadId,
+              parts,
+              HashMultimap.create(),
+              HashMultimap.create()));
+    }
+
+    AbortMultipartUploadResponse abort(String bucket, String region, String object, String uploadId)
+        throws Exception {
+      return await(
+          abortMultipartUploadAsync(
+              bucket, region, object, uploadId, HashMultimap.create(), HashMultimap.create()));
+    }
+
+    /** The call's result, failing with what the call failed with rather than a wrapper. */
+    private static <T> T await(CompletableFuture<T> call) throws Exception {
+      try {
+        return call.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception cause) {
+          throw cause;
+        }
+        throw e;
+      }
+    }
+  }
 }
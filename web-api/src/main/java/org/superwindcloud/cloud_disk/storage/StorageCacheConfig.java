@@ -0,0 +1,27 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/** Puts the {@link DiskCache} in front of the S3 backend wherever storage services are injected. */
+@Configuration
+public class StorageCacheConfig {
+
+  @Bean
+  static BeanPostProcessor s3DiskCachePostProcessor(ObjectProvider<DiskCache> diskCache) {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof S3StorageService s3) {
+          DiskCache cache = diskCache.getObject();
+          if (cache.isEnabled()) {
+            return new CachingStorageService(s3, cache);
+          }
+        }
+        return bean;
+      }
+    };
+  }
+}
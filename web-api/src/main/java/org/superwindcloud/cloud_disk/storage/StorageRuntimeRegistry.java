@@ -0,0 +1,93 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.StorageSourceChangedEvent;
+import org.superwindcloud.cloud_disk.StorageSourceRepository;
+
+/**
+ * Storage sources and the backend serving each, keyed by source id, so a request resolves both with
+ * a map lookup instead of a query and a scan over every {@link StorageService}. Entries are
+ * dropped, along with the backend's own per-source state, whenever a source is updated or removed.
+ * Each source's backend is wrapped in a {@link MeteredStorageService} tagged with that source.
+ */
+@Component
+public class StorageRuntimeRegistry {
+  private final StorageSourceRepository storageSourceRepository;
+  private final List<StorageService> storageServices;
+  private final MeterRegistry meterRegistry;
+  private final Map<Long, StorageRuntime> runtimes = new ConcurrentHashMap<>();
+
+  public StorageRuntimeRegistry(
+      StorageSourceRepository storageSourceRepository,
+      List<StorageService> storageServices,
+      MeterRegistry meterRegistry) {
+    this.storageSourceRepository = storageSourceRepository;
+    this.storageServices = List.copyOf(storageServices);
+    this.meterRegistry = meterRegistry;
+  }
+
+  public StorageRuntime runtime(Long sourceId) {
+    StorageRuntime runtime = runtimes.get(sourceId);
+    if (runtime != null) {
+      return runtime;
+    }
+    StorageSource source =
+        storageSourceRepository
+            .findById(sourceId)
+            .orElseThrow(() -> new IllegalArgumentException("Storage source not found"));
+    return runtimes.computeIfAbsent(sourceId, id -> new StorageRuntime(source, resolve(source)));
+  }
+
+  public StorageSource source(Long sourceId) {
+    return runtime(sourceId).source();
+  }
+
+  public StorageService service(StorageSource source) {
+    return runtime(source.getId()).service();
+  }
+
+  /**
+   * Drops the source now and again once the surrounding transaction ends, since a concurrent
+   * request may reload the old row before the change commits.
+   */
+  @EventListener
+  public void onSourceChanged(StorageSourceChangedEvent event) {
+    invalidate(event.sourceId());
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+              invalidate(event.sourceId());
+            }
+          });
+    }
+  }
+
+  public void invalidate(Long sourceId) {
+    StorageRuntime removed = runtimes.remove(sourceId);
+    if (removed != null) {
+      removed.service().evict(sourceId);
+    }
+  }
+
+  private StorageService resolve(StorageSource source) {
+    StorageService service =
+        storageServices.stream()
+            .filter(s -> s.supports(source))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("No storage service found"));
+    return new MeteredStorageService(service, source, meterRegistry);
+  }
+
+  /** A source as last loaded and the backend that serves it. */
+  public record StorageRuntime(StorageSource source, StorageService service) {}
+}
@@ -1,6 +1,10 @@
 package org.superwindcloud.cloud_disk.storage;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 import org.superwindcloud.cloud_disk.FileItem;
 import org.superwindcloud.cloud_disk.StorageSource;
 
@@ -17,7 +21,69 @@ public interface StorageService {
       long size,
       InputStream data);
 
+  /**
+   * Writes a new object and takes a blob reference for it exactly as {@link #store} does, but
+   * returns the item unsaved. Callers that never save it must release the reference through {@link
+   * BlobRegistry#releaseAll} and remove the objects that returns.
+   */
+  FileItem write(
+      StorageSource source,
+      String directoryPath,
+      String filename,
+      String contentType,
+      long size,
+      InputStream data);
+
+  /**
+   * Copies {@code file} of {@code source} into {@code target} without its bytes passing through
+   * this process, returning the unsaved item as {@link #write} does. Empty when the backend cannot
+   * reach one source's objects from the other; the caller then streams the content instead.
+   */
+  default Optional<FileItem> copyWithin(
+      StorageSource source,
+      FileItem file,
+      StorageSource target,
+      String directoryPath,
+      String filename) {
+    return Optional.empty();
+  }
+
   InputStream load(StorageSource source, FileItem file);
 
+  /**
+   * Opens {@code length} bytes of the object starting at {@code offset}. Backends that can seek
+   * natively should override this; the default discards the leading bytes of a full stream.
+   */
+  default InputStream load(StorageSource source, FileItem file, long offset, long length) {
+    InputStream stream = load(source, file);
+    try {
+      stream.skipNBytes(offset);
+    } catch (IOException e) {
+      try {
+        stream.close();
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw new RuntimeException("Failed to read file", e);
+    }
+    return new BoundedInputStream(stream, length);
+  }
+
   void delete(StorageSource source, FileItem file);
+
+  /**
+   * Removes objects by storage path without consulting the blob registry; the caller has already
+   * established that no file references them. Returns the paths that could not be removed.
+   */
+  List<String> deleteObjects(StorageSource source, List<String> storagePaths);
+
+  /**
+   * Lists the objects of the source in ascending storage path order, starting after {@code
+   * afterPath}, or from the first one when it is null. Folders and the backend's own staging files
+   * are left out. The stream fetches lazily and must be closed.
+   */
+  Stream<StoredObject> list(StorageSource source, String afterPath);
+
+  /** Drops whatever clients or parsed config the backend holds for the source. */
+  default void evict(Long sourceId) {}
 }
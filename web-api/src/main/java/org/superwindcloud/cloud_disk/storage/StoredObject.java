@@ -0,0 +1,11 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import java.time.Instant;
+
+/**
+ * An object as listed by {@link StorageService#list}.
+ *
+ * @param storagePath how files of the source refer to the object
+ * @param path where the object lies below the root of the source, with {@code /} separators
+ */
+public record StoredObject(String storagePath, String path, long size, Instant lastModified) {}
@@ -0,0 +1,30 @@
+package org.superwindcloud.cloud_disk;
+
+import java.util.UUID;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.superwindcloud.cloud_disk.service.FileDeletionService;
+import org.superwindcloud.cloud_disk.service.StorageUsageService;
+import org.superwindcloud.cloud_disk.storage.BlobRegistry;
+
+/**
+ * Entities, repositories and the blob and deletion bookkeeping on an in-memory H2 database in
+ * PostgreSQL mode, for tests that need the real queries. Services these depend on beyond that are
+ * left to each test to mock.
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@Import({BlobRegistry.class, StorageUsageService.class, FileDeletionService.class})
+public class RepositoryTestContext {
+
+  /** Saves a local storage source of its own, so tests sharing a database do not meet. */
+  public static StorageSource source(ApplicationContext context) {
+    StorageSource source = new StorageSource();
+    source.setName("test-" + UUID.randomUUID());
+    source.setType(StorageType.LOCAL);
+    source.setConfig("/nonexistent");
+    return context.getBean(StorageSourceRepository.class).save(source);
+  }
+}
@@ -0,0 +1,272 @@
+package org.superwindcloud.cloud_disk.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.storage.LocalFileStorageService;
+import org.superwindcloud.cloud_disk.storage.StorageService;
+
+class FileContentServiceTest {
+  private static final int LENGTH = 100;
+  private static final Instant CREATED = Instant.parse("2024-05-01T10:15:30Z");
+
+  private final byte[] content = new byte[LENGTH];
+  private final StorageService storage = mock(StorageService.class);
+  private final FileItem file = new FileItem();
+
+  @BeforeEach
+  void setUp() {
+    new Random(LENGTH).nextBytes(content);
+    StorageSource source = new StorageSource();
+    source.setId(1L);
+    file.setId(7L);
+    file.setStorageSource(source);
+    file.setFilename("data.bin");
+    file.setStoragePath("objects/data.bin");
+    file.setSize((long) LENGTH);
+    file.setContentType("application/octet-stream");
+    file.setCreatedAt(CREATED);
+    when(storage.load(any(), any())).thenAnswer(call -> new ByteArrayInputStream(content));
+    when(storage.load(any(), any(), anyLong(), anyLong()))
+        .thenAnswer(
+            call ->
+                new ByteArrayInputStream(
+                    content,
+                    call.getArgument(2, Long.class).intValue(),
+                    call.getArgument(3, Long.class).intValue()));
+  }
+
+  @Test
+  void servesTheWholeFileWithoutARange() throws IOException {
+    MockHttpServletResponse response = serve(request(null), false);
+
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+    assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+    assertThat(response.getContentLengthLong()).isEqualTo(LENGTH);
+    assertThat(response.getContentAsByteArray()).isEqualTo(content);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "bytes=0-0, 0, 0",
+    "bytes=0-9, 0, 9",
+    "bytes=10-, 10, 99",
+    "bytes=-5, 95, 99",
+    "bytes=-500, 0, 99",
+    "bytes=90-200, 90, 99",
+    "bytes=99-99, 99, 99",
+    "BYTES=20-29, 20, 29",
+    "bytes= 40-49, 40, 49"
+  })
+  void servesOneRange(String range, int first, int last) throws IOException {
+    for (boolean cached : new boolean[] {false, true}) {
+      MockHttpServletResponse response = serve(request(range), cached);
+
+      assertThat(response.getStatus()).as("cached %s", cached).isEqualTo(206);
+      assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE))
+          .isEqualTo("bytes " + first + "-" + last + "/" + LENGTH);
+      assertThat(response.getContentLengthLong()).isEqualTo(last - first + 1);
+      assertThat(response.getContentAsByteArray())
+          .isEqualTo(Arrays.copyOfRange(content, first, last + 1));
+    }
+  }
+
+  @Test
+  void asksStorageForTheRangeOnly() throws IOException {
+    serve(request("bytes=30-39"), false);
+
+    verify(storage).load(any(), eq(file), eq(30L), eq(10L));
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "bytes=100-",
+        "bytes=100-200",
+        "bytes=-0",
+        "bytes=5-2",
+        "bytes=abc",
+        "bytes=0-99,0-99",
+        "bytes=0-59,40-99"
+      })
+  void rejectsRangesItCannotSatisfy(String range) throws IOException {
+    MockHttpServletResponse response = serve(request(range), false);
+
+    assertThat(response.getStatus()).isEqualTo(416);
+    assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */" + LENGTH);
+    verifyNoInteractions(storage);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"items=0-9", "0-9", "bytes", "bytes="})
+  void ignoresRangesInOtherUnits(String range) throws IOException {
+    MockHttpServletResponse response = serve(request(range), false);
+
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getContentAsByteArray()).isEqualTo(content);
+  }
+
+  @Test
+  void servesSeveralRangesAsMultipart() throws IOException {
+    MockHttpServletResponse response = serve(request("bytes=0-1,-3,50-59"), false);
+
+    assertThat(response.getStatus()).isEqualTo(206);
+    String contentType = response.getContentType();
+    assertThat(contentType).startsWith("multipart/byteranges; boundary=");
+    String boundary = contentType.substring(contentType.indexOf('=') + 1);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int[] range : new int[][] {{0, 1}, {97, 99}, {50, 59}}) {
+      expected.writeBytes(
+          ("\r\n--"
+                  + boundary
+                  + "\r\nContent-Type: application/octet-stream\r\nContent-Range: bytes "
+                  + range[0]
+                  + "-"
+                  + range[1]
+                  + "/"
+                  + LENGTH
+                  + "\r\n\r\n")
+              .getBytes(StandardCharsets.US_ASCII));
+      expected.writeBytes(Arrays.copyOfRange(content, range[0], range[1] + 1));
+    }
+    expected.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+
+    assertThat(response.getContentAsByteArray()).isEqualTo(expected.toByteArray());
+    assertThat(response.getContentLengthLong()).isEqualTo(expected.size());
+  }
+
+  @Test
+  void acceptsSeveralRangesThatFitInTheFile() throws IOException {
+    MockHttpServletResponse response = serve(request("bytes=0-49,50-99"), false);
+
+    assertThat(response.getStatus()).isEqualTo(206);
+    assertThat(response.getContentType()).startsWith("multipart/byteranges");
+  }
+
+  @Test
+  void honorsIfRangeWithTheCurrentValidator() throws IOException {
+    String etag = service(false).etag(file);
+
+    MockHttpServletRequest current = request("bytes=0-9");
+    current.addHeader(HttpHeaders.IF_RANGE, etag);
+    assertThat(serve(current, false).getStatus()).isEqualTo(206);
+
+    MockHttpServletRequest sameDate = request("bytes=0-9");
+    sameDate.addHeader(HttpHeaders.IF_RANGE, CREATED.plusMillis(400).toEpochMilli());
+    assertThat(serve(sameDate, false).getStatus()).isEqualTo(206);
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "\"stale\"",
+        "W/\"stale\"",
+        "Wed, 01 May 2024 10:15:31 GMT",
+        "not a date or an entity tag"
+      })
+  void ignoresTheRangeWhenIfRangeIsStale(String ifRange) throws IOException {
+    MockHttpServletRequest request = request("bytes=0-9");
+    request.addHeader(HttpHeaders.IF_RANGE, ifRange);
+    MockHttpServletResponse response = serve(request, false);
+
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getContentAsByteArray()).isEqualTo(content);
+  }
+
+  @Test
+  void copiesAnOpenLocalFileWithoutLoadingTheObject(@TempDir Path directory) throws IOException {
+    Path cached = Files.write(directory.resolve("cached.bin"), content);
+    LocalFileStorageService local = mock(LocalFileStorageService.class);
+    when(local.localPath(any(), any())).thenReturn(Optional.empty());
+    when(local.openLocal(any(), any())).thenAnswer(call -> Optional.of(FileChannel.open(cached)));
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    service(false)
+        .serve(
+            request("bytes=20-59"),
+            response,
+            local,
+            file,
+            ContentDisposition.attachment().filename(file.getFilename()).build(),
+            CacheControl.noCache());
+
+    assertThat(response.getStatus()).isEqualTo(206);
+    assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 20, 60));
+    verify(local, never()).load(any(), any(), anyLong(), anyLong());
+  }
+
+  @Test
+  void answersHeadRequestsWithoutReadingContent() throws IOException {
+    MockHttpServletRequest request = request("bytes=10-19");
+    request.setMethod("HEAD");
+    MockHttpServletResponse response = serve(request, true);
+
+    assertThat(response.getStatus()).isEqualTo(206);
+    assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 10-19/100");
+    assertThat(response.getContentLengthLong()).isEqualTo(10);
+    assertThat(response.getContentAsByteArray()).isEmpty();
+    verifyNoInteractions(storage);
+  }
+
+  private MockHttpServletResponse serve(MockHttpServletRequest request, boolean cached)
+      throws IOException {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    service(cached)
+        .serve(
+            request,
+            response,
+            storage,
+            file,
+            ContentDisposition.attachment().filename(file.getFilename()).build(),
+            CacheControl.noCache());
+    return response;
+  }
+
+  private static FileContentService service(boolean cached) {
+    return new FileContentService(
+        new SmallFileCache(cached, DataSize.ofKilobytes(256), DataSize.ofMegabytes(1)),
+        new SimpleMeterRegistry());
+  }
+
+  private static MockHttpServletRequest request(String range) {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/7/download");
+    if (range != null) {
+      request.addHeader(HttpHeaders.RANGE, range);
+    }
+    return request;
+  }
+}
@@ -0,0 +1,130 @@
+package org.superwindcloud.cloud_disk.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.FileItemRepository;
+import org.superwindcloud.cloud_disk.PendingDeletion;
+import org.superwindcloud.cloud_disk.PendingDeletionRepository;
+import org.superwindcloud.cloud_disk.RepositoryTestContext;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.storage.BlobRegistry;
+import org.superwindcloud.cloud_disk.storage.StorageRuntimeRegistry;
+import org.superwindcloud.cloud_disk.storage.StorageService;
+
+@SpringBootTest(classes = RepositoryTestContext.class)
+class FileDeletionServiceTest {
+  private static final String HASH = "b".repeat(64);
+
+  @MockitoBean private StorageRuntimeRegistry storageRuntimeRegistry;
+  @MockitoBean private ShortLinkService shortLinkService;
+  @MockitoBean private DirectoryService directoryService;
+  @MockitoBean private DirectoryIndex directoryIndex;
+  @MockitoBean private SearchIndex searchIndex;
+
+  @Autowired private ApplicationContext context;
+  @Autowired private FileDeletionService fileDeletionService;
+  @Autowired private FileItemRepository fileItemRepository;
+  @Autowired private PendingDeletionRepository pendingDeletionRepository;
+  @Autowired private BlobRegistry blobRegistry;
+
+  private final StorageService storage = mock(StorageService.class);
+  private final List<String> removed = new ArrayList<>();
+  private StorageSource source;
+
+  @BeforeEach
+  void setUp() {
+    source = RepositoryTestContext.source(context);
+    when(storageRuntimeRegistry.service(any())).thenReturn(storage);
+    when(storage.deleteObjects(any(), anyList()))
+        .thenAnswer(
+            call -> {
+              removed.addAll(call.getArgument(1));
+              return List.of();
+            });
+    fileDeletionService.collect();
+    removed.clear();
+  }
+
+  @Test
+  void queuesASharedObjectOnceItsLastReferenceGoes() {
+    FileItem first = file("first.bin", HASH, "objects/shared");
+    FileItem second = file("second.bin", HASH, "objects/shared");
+
+    fileDeletionService.delete(first);
+    assertThat(fileDeletionService.collect().itemsPurged()).isEqualTo(1);
+    assertThat(removed).isEmpty();
+    assertThat(fileItemRepository.findById(first.getId())).isEmpty();
+
+    fileDeletionService.delete(second);
+    fileDeletionService.collect();
+    assertThat(removed).containsExactly("objects/shared");
+
+    fileDeletionService.collect();
+    assertThat(removed).containsExactly("objects/shared");
+    assertThat(pending()).isEmpty();
+  }
+
+  @Test
+  void queuesEachObjectOnceWhenAllReferencesGoTogether() {
+    FileItem first = file("first.bin", HASH, "objects/shared");
+    FileItem second = file("second.bin", HASH, "objects/shared");
+    FileItem legacy = file("legacy.bin", null, "objects/legacy");
+
+    fileDeletionService.delete(first);
+    fileDeletionService.delete(second);
+    fileDeletionService.delete(legacy);
+    fileDeletionService.collect();
+
+    assertThat(removed).containsExactlyInAnyOrder("objects/shared", "objects/legacy");
+  }
+
+  @Test
+  void retriesObjectsTheBackendCouldNotRemove() {
+    FileItem file = file("only.bin", null, "objects/stuck");
+    when(storage.deleteObjects(any(), anyList())).thenReturn(List.of("objects/stuck"));
+
+    fileDeletionService.delete(file);
+    FileDeletionService.CollectionReport report = fileDeletionService.collect();
+
+    assertThat(report.objectsFailed()).isEqualTo(1);
+    assertThat(pending())
+        .singleElement()
+        .satisfies(deletion -> assertThat(deletion.getAttempts()).isEqualTo(1));
+    verify(storage, times(1)).deleteObjects(any(), anyList());
+  }
+
+  /** Queued removals of this test's source; other tests' leftovers share the database. */
+  private List<PendingDeletion> pending() {
+    return pendingDeletionRepository.findAll().stream()
+        .filter(deletion -> deletion.getStorageSource().getId().equals(source.getId()))
+        .toList();
+  }
+
+  private FileItem file(String filename, String hash, String storagePath) {
+    if (hash != null) {
+      blobRegistry.acquire(source, hash, 3, storagePath);
+    }
+    FileItem file = new FileItem();
+    file.setStorageSource(source);
+    file.setFilename(filename);
+    file.setStoragePath(storagePath);
+    file.setSize(3L);
+    file.setContentHash(hash);
+    return fileItemRepository.save(file);
+  }
+}
@@ -0,0 +1,262 @@
+package org.superwindcloud.cloud_disk.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class FilenameIndexTest {
+  private final FilenameIndex index = new FilenameIndex();
+
+  @Test
+  void findsNamesContainingTheQuery() {
+    index.put(1, "Quarterly-Report.pdf", "docs");
+    index.put(2, "notes.txt", "docs");
+    index.put(3, "unreported.csv", "");
+
+    assertThat(index.search("report", "", 0, 10)).containsExactly(1L, 3L);
+    assertThat(index.search("REPORT", "", 0, 10)).containsExactly(1L, 3L);
+    assertThat(index.search("missing", "", 0, 10)).isEmpty();
+    assertThat(index.search("   ", "", 0, 10)).isEmpty();
+  }
+
+  @Test
+  void requiresEveryTerm() {
+    index.put(1, "tax report 2024.pdf", "");
+    index.put(2, "tax summary 2024.pdf", "");
+    index.put(3, "report 2023.pdf", "");
+
+    assertThat(index.search("2024 report", "", 0, 10)).containsExactly(1L);
+    assertThat(index.search("tax 2024", "", 0, 10)).containsExactlyInAnyOrder(1L, 2L);
+  }
+
+  @Test
+  void shortTermsMustStartAWord() {
+    index.put(1, "readme.md", "");
+    index.put(2, "my-receipt.pdf", "");
+    index.put(3, "score.txt", "");
+
+    assertThat(index.search("re", "", 0, 10)).containsExactlyInAnyOrder(1L, 2L);
+    assertThat(index.search("r", "", 0, 10)).containsExactlyInAnyOrder(1L, 2L);
+    assertThat(index.search("my re", "", 0, 10)).containsExactly(2L);
+  }
+
+  @Test
+  void ranksExactThenPrefixThenWordStartsThenAnyMatch() {
+    index.put(1, "old budget plan.xlsx", "");
+    index.put(2, "budgeting.xlsx", "");
+    index.put(3, "budget", "");
+    index.put(4, "overbudget.txt", "");
+    index.put(5, "budget.xlsx", "");
+
+    // Within a rank, shorter names come first.
+    assertThat(index.search("budget", "", 0, 10)).containsExactly(3L, 5L, 2L, 1L, 4L);
+  }
+
+  @Test
+  void matchesTermsInTheDirectoryPath() {
+    index.put(1, "invoice.pdf", "finance/2024");
+    index.put(2, "invoice.pdf", "finance/2023");
+    index.put(3, "2024 invoice.pdf", "");
+    index.put(4, "summary.txt", "finance/2024/q1");
+    index.put(5, "invoice.pdf", "reinvoiced");
+
+    assertThat(index.search("2024 invoice", "", 0, 10)).containsExactly(3L, 1L);
+    assertThat(index.search("finance", "", 0, 10)).containsExactly(4L, 2L, 1L);
+    assertThat(index.search("q1 summary", "", 0, 10)).containsExactly(4L);
+    assertThat(index.search("in", "", 0, 10)).containsExactly(5L, 2L, 1L, 3L);
+    assertThat(index.search("fi 2024", "", 0, 10)).containsExactlyInAnyOrder(1L, 4L);
+  }
+
+  @Test
+  void breaksTiesByNewestId() {
+    index.put(30, "photo.jpg", "");
+    index.put(10, "photo.jpg", "a");
+    index.put(20, "photo.jpg", "b");
+
+    assertThat(index.search("photo", "", 0, 10)).containsExactly(30L, 20L, 10L);
+  }
+
+  @Test
+  void pagesThroughRankedMatches() {
+    for (long id = 1; id <= 25; id++) {
+      index.put(id, "file-" + id + ".txt", "");
+    }
+    List<Long> all = index.search("file", "", 0, 25);
+    assertThat(all).hasSize(25);
+
+    assertThat(index.search("file", "", 0, 10)).isEqualTo(all.subList(0, 10));
+    assertThat(index.search("file", "", 10, 10)).isEqualTo(all.subList(10, 20));
+    assertThat(index.search("file", "", 20, 10)).isEqualTo(all.subList(20, 25));
+    assertThat(index.search("file", "", 30, 10)).isEmpty();
+  }
+
+  @Test
+  void limitsResultsToTheScopeAtAnyDepth() {
+    index.put(1, "plan.txt", "docs");
+    index.put(2, "plan.txt", "docs/2024/q1");
+    index.put(3, "plan.txt", "docs2");
+    index.put(4, "plan.txt", "");
+
+    assertThat(index.search("plan", "docs", 0, 10)).containsExactlyInAnyOrder(1L, 2L);
+    assertThat(index.search("plan", "docs/2024", 0, 10)).containsExactly(2L);
+    assertThat(index.search("plan", "nowhere", 0, 10)).isEmpty();
+    assertThat(index.search("plan", " ", 0, 10)).containsExactlyInAnyOrder(1L, 2L, 3L, 4L);
+  }
+
+  @Test
+  void replacesRenamedAndMovedItems() {
+    assertThat(index.put(1, "draft.txt", "inbox")).isTrue();
+    assertThat(index.put(1, "draft.txt", "inbox")).isFalse();
+
+    assertThat(index.put(1, "final.txt", "inbox")).isTrue();
+    assertThat(index.search("draft", "", 0, 10)).isEmpty();
+    assertThat(index.search("final", "", 0, 10)).containsExactly(1L);
+
+    assertThat(index.put(1, "final.txt", "archive")).isTrue();
+    assertThat(index.search("final", "inbox", 0, 10)).isEmpty();
+    assertThat(index.search("final", "archive", 0, 10)).containsExactly(1L);
+    assertThat(index.size()).isEqualTo(1);
+  }
+
+  @Test
+  void forgetsRemovedItems() {
+    index.put(1, "keep.txt", "");
+    index.put(2, "drop.txt", "");
+
+    assertThat(index.remove(2)).isTrue();
+    assertThat(index.remove(2)).isFalse();
+    assertThat(index.search("drop", "", 0, 10)).isEmpty();
+    assertThat(index.size()).isEqualTo(1);
+  }
+
+  @Test
+  void matchesNonAsciiNames() {
+    index.put(1, "年度报告.docx", "");
+    index.put(2, "Café Menu.pdf", "");
+
+    assertThat(index.search("报告", "", 0, 10)).isEmpty();
+    assertThat(index.search("年度", "", 0, 10)).containsExactly(1L);
+    assertThat(index.search("度报告", "", 0, 10)).containsExactly(1L);
+    assertThat(index.search("CAFÉ", "", 0, 10)).containsExactly(2L);
+  }
+
+  @Test
+  void compactsOnceMostOrdinalsAreRetired() {
+    for (long id = 0; id < 5000; id++) {
+      index.put(id, "item-" + id + ".bin", "dir" + id % 7);
+    }
+    for (long id = 0; id < 4990; id++) {
+      index.remove(id);
+    }
+    assertThat(index.needsCompaction()).isTrue();
+
+    FilenameIndex compacted = index.compact();
+    assertThat(compacted.size()).isEqualTo(10);
+    assertThat(compacted.needsCompaction()).isFalse();
+    assertThat(compacted.search("item", "", 0, 100))
+        .isEqualTo(index.search("item", "", 0, 100))
+        .hasSize(10);
+    assertThat(compacted.search("item", "dir3", 0, 100))
+        .isEqualTo(index.search("item", "dir3", 0, 100));
+  }
+
+  @Test
+  void survivesASnapshotRoundTrip() throws IOException {
+    index.put(1, "Report.pdf", "docs/finance");
+    index.put(2, "report-draft.pdf", "");
+    index.put(3, "gone.pdf", "");
+    index.remove(3);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    index.write(new DataOutputStream(bytes));
+    FilenameIndex restored =
+        FilenameIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertThat(restored.size()).isEqualTo(2);
+    assertThat(restored.search("report", "", 0, 10)).isEqualTo(index.search("report", "", 0, 10));
+    assertThat(restored.search("report", "docs", 0, 10)).containsExactly(1L);
+    assertThat(restored.search("gone", "", 0, 10)).isEmpty();
+  }
+
+  @Test
+  void rejectsForeignSnapshots() {
+    byte[] garbage = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    assertThatThrownBy(
+            () -> FilenameIndex.read(new DataInputStream(new ByteArrayInputStream(garbage))))
+        .isInstanceOf(IOException.class);
+  }
+
+  /** Random names, moves and removals give the same matches as a scan of every name and path. */
+  @Test
+  void agreesWithAFullScan() {
+    Random random = new Random(7);
+    String[] words = {"report", "plan", "photo", "re", "a", "budget", "x1", "notes", "rep"};
+    String[] directories = {"", "reports", "photos/2024", "a/plan", "Budget/x1_notes"};
+    Map<Long, String> names = new HashMap<>();
+    for (int step = 0; step < 20_000; step++) {
+      long id = random.nextInt(3000);
+      if (random.nextInt(10) == 0) {
+        index.remove(id);
+        names.remove(id);
+        continue;
+      }
+      StringBuilder name = new StringBuilder();
+      for (int w = 0, count = 1 + random.nextInt(3); w < count; w++) {
+        name.append(w == 0 ? "" : random.nextBoolean() ? " " : "_");
+        name.append(words[random.nextInt(words.length)]);
+        if (random.nextBoolean()) {
+          name.append(random.nextInt(100));
+        }
+      }
+      String directory = directories[random.nextInt(directories.length)];
+      index.put(id, name.toString(), directory);
+      names.put(id, (name + "\n" + directory).toLowerCase(Locale.ROOT));
+    }
+
+    assertThat(index.size()).isEqualTo(names.size());
+    for (String query :
+        List.of("report", "rep", "re", "a", "plan 1", "x1 photo", "o", "ge", "2024 plan", "no")) {
+      assertThat(index.search(query, "", 0, names.size()))
+          .as(query)
+          .containsExactlyInAnyOrderElementsOf(scan(names, query));
+    }
+  }
+
+  private static List<Long> scan(Map<Long, String> names, String query) {
+    List<String> terms = Arrays.asList(query.split(" "));
+    List<Long> matches = new ArrayList<>();
+    names.forEach(
+        (id, name) -> {
+          if (terms.stream().allMatch(term -> matches(name, term))) {
+            matches.add(id);
+          }
+        });
+    return matches;
+  }
+
+  private static boolean matches(String name, String term) {
+    if (term.length() >= 3) {
+      return name.contains(term);
+    }
+    for (int at = name.indexOf(term); at >= 0; at = name.indexOf(term, at + 1)) {
+      if (at == 0 || !Character.isLetterOrDigit(name.charAt(at - 1))) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,305 @@
+package org.superwindcloud.cloud_disk.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class MultipartStreamReaderTest {
+  private static final String BOUNDARY = "----boundary42";
+
+  @Test
+  void readsFieldsAndFilesInOrder() throws IOException {
+    byte[] body =
+        body(
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"path\"\r\n\r\n",
+            "docs/reports\r\n",
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n",
+            "Content-Type: text/plain\r\n\r\n",
+            "hello\r\n",
+            "--" + BOUNDARY + "--\r\n");
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body), BOUNDARY);
+
+    MultipartStreamReader.Part field = reader.next();
+    assertThat(field.name()).isEqualTo("path");
+    assertThat(field.isFile()).isFalse();
+    assertThat(field.readString(100)).isEqualTo("docs/reports");
+
+    MultipartStreamReader.Part file = reader.next();
+    assertThat(file.name()).isEqualTo("file");
+    assertThat(file.filename()).isEqualTo("a.txt");
+    assertThat(file.contentType()).isEqualTo("text/plain");
+    assertThat(text(file.body())).isEqualTo("hello");
+
+    assertThat(reader.next()).isNull();
+    assertThat(reader.next()).isNull();
+  }
+
+  @Test
+  void skipsPreambleEpilogueAndUnreadContent() throws IOException {
+    byte[] body =
+        body(
+            "This preamble is ignored.\r\n",
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"first\"\r\n\r\n",
+            "never read\r\n",
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"second\"\r\n\r\n",
+            "second value\r\n",
+            "--" + BOUNDARY + "--\r\n",
+            "This epilogue is ignored too.");
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body), BOUNDARY);
+
+    assertThat(reader.next().name()).isEqualTo("first");
+    MultipartStreamReader.Part second = reader.next();
+    assertThat(second.name()).isEqualTo("second");
+    assertThat(second.readString(100)).isEqualTo("second value");
+    assertThat(reader.next()).isNull();
+  }
+
+  @Test
+  void readsEmptyParts() throws IOException {
+    byte[] body =
+        body(
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"file\"; filename=\"empty.bin\"\r\n\r\n",
+            "\r\n",
+            "--" + BOUNDARY + "--\r\n");
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body), BOUNDARY);
+
+    MultipartStreamReader.Part part = reader.next();
+    assertThat(part.body().read()).isEqualTo(-1);
+    assertThat(part.body().readAllBytes()).isEmpty();
+    assertThat(reader.next()).isNull();
+  }
+
+  /** Content that looks like the start of a delimiter, or ends in line breaks, stays content. */
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "\r",
+        "\r\n",
+        "\r\n\r\n",
+        "line\r\n",
+        "\r\n-",
+        "\r\n--",
+        "\r\n--" + "----boundary4",
+        "\r\n--" + "----boundary43",
+        "--" + BOUNDARY,
+        "\n--" + BOUNDARY,
+        "\r--" + BOUNDARY,
+        "\r\r\n--" + "----boundary"
+      })
+  void keepsDelimiterLookalikesInContent(String content) throws IOException {
+    for (int chunk : new int[] {1, 2, 3, 5, BOUNDARY.length() + 3, 8192}) {
+      assertThat(singleFile(content.getBytes(StandardCharsets.ISO_8859_1), chunk))
+          .as("chunk %d", chunk)
+          .isEqualTo(content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  /** However the body is split into reads, the parts come out the same. */
+  @ParameterizedTest
+  @ValueSource(ints = {1, 2, 3, 7, 13, 17, 18, 19, 64, 1000, 65536, 200_000})
+  void readsBodiesSplitAtAnyPoint(int chunk) throws IOException {
+    byte[] content = new byte[150_000];
+    new Random(chunk).nextBytes(content);
+    assertThat(singleFile(content, chunk)).isEqualTo(content);
+  }
+
+  @Test
+  void singleByteReadsMatchBulkReads() throws IOException {
+    byte[] content = "a\rb\r\nc\r\n-d\r\n--e\r\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+    MultipartStreamReader reader =
+        new MultipartStreamReader(stream(fileBody(content), 7), BOUNDARY);
+    InputStream part = reader.next().body();
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    for (int b; (b = part.read()) >= 0; ) {
+      read.write(b);
+    }
+
+    assertThat(read.toByteArray()).isEqualTo(content);
+    assertThat(reader.next()).isNull();
+  }
+
+  @Test
+  void acceptsBareLineFeedsInHeaders() throws IOException {
+    byte[] body =
+        body(
+            "--" + BOUNDARY + "\n",
+            "Content-Disposition: form-data; name=\"field\"\n",
+            "X-Ignored\n",
+            "\n",
+            "value\r\n",
+            "--" + BOUNDARY + "--");
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body), BOUNDARY);
+
+    MultipartStreamReader.Part part = reader.next();
+    assertThat(part.name()).isEqualTo("field");
+    assertThat(part.readString(100)).isEqualTo("value");
+    assertThat(reader.next()).isNull();
+  }
+
+  @Test
+  void failsOnBodyTruncatedInContent() throws IOException {
+    byte[] body =
+        body(
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n\r\n",
+            "partial content without a closing boundary");
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body, 5), BOUNDARY);
+    InputStream part = reader.next().body();
+
+    assertThatThrownBy(part::readAllBytes).isInstanceOf(EOFException.class);
+  }
+
+  @Test
+  void failsOnBodyTruncatedInDelimiter() throws IOException {
+    byte[] body =
+        body(
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n\r\n",
+            "content\r\n--" + BOUNDARY.substring(0, 5));
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body), BOUNDARY);
+    InputStream part = reader.next().body();
+
+    assertThatThrownBy(part::readAllBytes).isInstanceOf(EOFException.class);
+  }
+
+  @Test
+  void failsOnBodyTruncatedInHeaders() {
+    byte[] body = body("--" + BOUNDARY + "\r\n", "Content-Disposition: form-da");
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body), BOUNDARY);
+
+    assertThatThrownBy(reader::next).isInstanceOf(EOFException.class);
+  }
+
+  @Test
+  void failsOnBodyTruncatedAfterDelimiter() throws IOException {
+    byte[] body =
+        body(
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"field\"\r\n\r\n",
+            "value\r\n",
+            "--" + BOUNDARY);
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body), BOUNDARY);
+    assertThat(reader.next().readString(100)).isEqualTo("value");
+
+    assertThatThrownBy(reader::next).isInstanceOf(EOFException.class);
+  }
+
+  @Test
+  void failsOnBodyWithoutAnyBoundary() {
+    MultipartStreamReader reader =
+        new MultipartStreamReader(stream(body("no multipart content here")), BOUNDARY);
+
+    assertThatThrownBy(reader::next).isInstanceOf(EOFException.class);
+  }
+
+  @Test
+  void rejectsOversizedHeaders() {
+    byte[] body =
+        body(
+            "--" + BOUNDARY + "\r\n",
+            "X-Padding: " + "x".repeat(20 * 1024) + "\r\n\r\n",
+            "value\r\n",
+            "--" + BOUNDARY + "--\r\n");
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body), BOUNDARY);
+
+    assertThatThrownBy(reader::next)
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("too large");
+  }
+
+  @Test
+  void rejectsOversizedFieldValues() throws IOException {
+    byte[] body =
+        body(
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"path\"\r\n\r\n",
+            "0123456789\r\n",
+            "--" + BOUNDARY + "--\r\n");
+    MultipartStreamReader reader = new MultipartStreamReader(stream(body), BOUNDARY);
+
+    MultipartStreamReader.Part part = reader.next();
+    assertThatThrownBy(() -> part.readString(9)).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void takesTheBoundaryFromTheContentType() throws IOException {
+    byte[] body = fileBody("content".getBytes(StandardCharsets.UTF_8));
+    MultipartStreamReader reader =
+        MultipartStreamReader.forContentType(
+            stream(body), "multipart/form-data; boundary=\"" + BOUNDARY + "\"");
+
+    assertThat(text(reader.next().body())).isEqualTo("content");
+  }
+
+  @Test
+  void rejectsRequestsThatAreNotMultipart() {
+    assertThatThrownBy(() -> MultipartStreamReader.forContentType(stream(new byte[0]), null))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(
+            () -> MultipartStreamReader.forContentType(stream(new byte[0]), "application/json"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(
+            () -> MultipartStreamReader.forContentType(stream(new byte[0]), "multipart/form-data"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  /** Reads the content of a body holding one file part, delivered {@code chunk} bytes per read. */
+  private static byte[] singleFile(byte[] content, int chunk) throws IOException {
+    MultipartStreamReader reader =
+        new MultipartStreamReader(stream(fileBody(content), chunk), BOUNDARY);
+    MultipartStreamReader.Part part = reader.next();
+    assertThat(part.filename()).isEqualTo("data.bin");
+    byte[] read = part.body().readAllBytes();
+    assertThat(reader.next()).isNull();
+    return read;
+  }
+
+  private static byte[] fileBody(byte[] content) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    body.writeBytes(
+        body(
+            "--" + BOUNDARY + "\r\n",
+            "Content-Disposition: form-data; name=\"file\"; filename=\"data.bin\"\r\n",
+            "Content-Type: application/octet-stream\r\n\r\n"));
+    body.writeBytes(content);
+    body.writeBytes(body("\r\n--" + BOUNDARY + "--\r\n"));
+    return body.toByteArray();
+  }
+
+  private static byte[] body(String... pieces) {
+    return String.join("", pieces).getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  private static String text(InputStream in) throws IOException {
+    return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+  }
+
+  private static InputStream stream(byte[] body) {
+    return new ByteArrayInputStream(body);
+  }
+
+  /** A stream that hands out at most {@code chunk} bytes per read, as a slow socket would. */
+  private static InputStream stream(byte[] body, int chunk) {
+    return new ByteArrayInputStream(body) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, chunk));
+      }
+    };
+  }
+}
@@ -0,0 +1,111 @@
+package org.superwindcloud.cloud_disk.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.superwindcloud.cloud_disk.FileItem;
+import org.superwindcloud.cloud_disk.RepositoryTestContext;
+import org.superwindcloud.cloud_disk.StorageBlob;
+import org.superwindcloud.cloud_disk.StorageBlobRepository;
+import org.superwindcloud.cloud_disk.StorageSource;
+import org.superwindcloud.cloud_disk.service.DirectoryIndex;
+import org.superwindcloud.cloud_disk.service.DirectoryService;
+import org.superwindcloud.cloud_disk.service.SearchIndex;
+import org.superwindcloud.cloud_disk.service.ShortLinkService;
+
+@SpringBootTest(classes = RepositoryTestContext.class)
+class BlobRegistryTest {
+  private static final String HASH = "a".repeat(64);
+
+  @MockitoBean private StorageRuntimeRegistry storageRuntimeRegistry;
+  @MockitoBean private ShortLinkService shortLinkService;
+  @MockitoBean private DirectoryService directoryService;
+  @MockitoBean private DirectoryIndex directoryIndex;
+  @MockitoBean private SearchIndex searchIndex;
+
+  @Autowired private ApplicationContext context;
+  @Autowired private BlobRegistry blobRegistry;
+  @Autowired private StorageBlobRepository storageBlobRepository;
+
+  private StorageSource source;
+
+  @BeforeEach
+  void setUp() {
+    source = RepositoryTestContext.source(context);
+  }
+
+  @Test
+  void sharesTheFirstObjectStoredWithAHash() {
+    StorageBlob first = blobRegistry.acquire(source, HASH, 10, "objects/first");
+    StorageBlob second = blobRegistry.acquire(source, HASH, 10, "objects/second");
+
+    assertThat(second.getId()).isEqualTo(first.getId());
+    assertThat(second.getStoragePath()).isEqualTo("objects/first");
+    assertThat(refCount(first)).isEqualTo(2);
+  }
+
+  @Test
+  void doesNotShareAcrossSourcesOrSizes() {
+    StorageBlob blob = blobRegistry.acquire(source, HASH, 10, "objects/first");
+    StorageSource other = RepositoryTestContext.source(context);
+
+    assertThat(blobRegistry.acquire(other, HASH, 10, "objects/other").getStoragePath())
+        .isEqualTo("objects/other");
+    assertThat(blobRegistry.acquireExisting(source, HASH, 11)).isEmpty();
+    assertThat(refCount(blob)).isEqualTo(1);
+  }
+
+  @Test
+  void keepsASharedObjectUntilItsLastReferenceGoes() {
+    StorageBlob blob = blobRegistry.acquire(source, HASH, 10, "objects/first");
+    blobRegistry.acquire(source, HASH, 10, "objects/second");
+    FileItem first = file(HASH, "objects/first");
+    FileItem second = file(HASH, "objects/first");
+
+    assertThat(blobRegistry.releaseAll(source, List.of(first))).isEmpty();
+    assertThat(refCount(blob)).isEqualTo(1);
+    assertThat(blobRegistry.releaseAll(source, List.of(second))).containsExactly("objects/first");
+    assertThat(storageBlobRepository.findById(blob.getId())).isEmpty();
+  }
+
+  @Test
+  void releasesEveryReferenceInOneCallOnce() {
+    blobRegistry.acquire(source, HASH, 10, "objects/first");
+    blobRegistry.acquire(source, HASH, 10, "objects/second");
+
+    assertThat(
+            blobRegistry.releaseAll(
+                source, List.of(file(HASH, "objects/first"), file(HASH, "objects/first"))))
+        .containsExactly("objects/first");
+  }
+
+  @Test
+  void unhashedFilesOwnTheirObject() {
+    StorageBlob blob = blobRegistry.acquire(source, HASH, 10, "objects/first");
+
+    assertThat(blobRegistry.releaseAll(source, List.of(file(null, "objects/legacy"))))
+        .containsExactly("objects/legacy");
+    // A copy stored before its blob existed is not counted on the blob either.
+    assertThat(blobRegistry.releaseAll(source, List.of(file(HASH, "objects/copy"))))
+        .containsExactly("objects/copy");
+    assertThat(refCount(blob)).isEqualTo(1);
+  }
+
+  private long refCount(StorageBlob blob) {
+    return storageBlobRepository.findById(blob.getId()).orElseThrow().getRefCount();
+  }
+
+  private FileItem file(String hash, String storagePath) {
+    FileItem file = new FileItem();
+    file.setStorageSource(source);
+    file.setContentHash(hash);
+    file.setStoragePath(storagePath);
+    return file;
+  }
+}